@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.android.dex;
+
+import java.nio.ByteBuffer;
+
+/**
+ * *** This file is NOT a part of AOSP. ***
+ *
+ * Reusable view of one class_def_item, see {@link MethodIdCursor}. Not thread safe.
+ */
+public final class ClassDefCursor {
+    private ByteBuffer data;
+    private int tableOffset;
+    private int tableSize;
+    private int index = -1;
+    private int position;
+
+    public ClassDefCursor(Dex dex) {
+        reset(dex);
+    }
+
+    public ClassDefCursor reset(Dex dex) {
+        this.data = dex.getData();
+        this.tableOffset = dex.getTableOfContents().classDefs.off;
+        this.tableSize = dex.getTableOfContents().classDefs.size;
+        this.index = -1;
+        return this;
+    }
+
+    public ClassDefCursor moveTo(int index) {
+        Dex.checkBounds(index, tableSize);
+        this.index = index;
+        this.position = tableOffset + SizeOf.CLASS_DEF_ITEM * index;
+        return this;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getTypeIndex() {
+        return data.getInt(position);
+    }
+
+    public int getAccessFlags() {
+        return data.getInt(position + SizeOf.UINT);
+    }
+
+    public int getSupertypeIndex() {
+        return data.getInt(position + SizeOf.UINT * 2);
+    }
+
+    public int getInterfacesOffset() {
+        return data.getInt(position + SizeOf.UINT * 3);
+    }
+
+    public int getSourceFileIndex() {
+        return data.getInt(position + SizeOf.UINT * 4);
+    }
+
+    public int getAnnotationsOffset() {
+        return data.getInt(position + SizeOf.UINT * 5);
+    }
+
+    public int getClassDataOffset() {
+        return data.getInt(position + SizeOf.UINT * 6);
+    }
+
+    public int getStaticValuesOffset() {
+        return data.getInt(position + SizeOf.UINT * 7);
+    }
+
+    public ClassDef toClassDef() {
+        return new ClassDef(position, getTypeIndex(), getAccessFlags(), getSupertypeIndex(),
+                getInterfacesOffset(), getSourceFileIndex(), getAnnotationsOffset(),
+                getClassDataOffset(), getStaticValuesOffset());
+    }
+}
@@ -28,16 +28,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.Adler32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -52,6 +58,9 @@ public final class Dex {
     static final short[] EMPTY_SHORT_ARRAY = new short[0];
     private static final int CHECKSUM_OFFSET = 8;
     private static final int SIGNATURE_OFFSET = CHECKSUM_OFFSET + SizeOf.CHECKSUM;
+    private static final int ID_HASH_TABLE_FIELD_IDS = 0;
+    private static final int ID_HASH_TABLE_METHOD_IDS = 1;
+    private static final int ID_HASH_TABLE_PROTO_IDS = 2;
     private final TableOfContents tableOfContents = new TableOfContents();
     private final StringTable strings = new StringTable();
     private final TypeIndexToDescriptorIndexTable typeIds = new TypeIndexToDescriptorIndexTable();
@@ -63,6 +72,18 @@ public final class Dex {
     private ByteBuffer data;
     private int nextSectionStart = 0;
     private byte[] signature = null;
+    private volatile boolean stringCacheEnabled = false;
+    private volatile SoftReference<String[]> stringCacheRef = null;
+    private volatile boolean lookupIndexEnabled = false;
+    private volatile int[] classDefIndexByTypeIndex = null;
+    private volatile int[] fieldIdHashTable = null;
+    private volatile int[] methodIdHashTable = null;
+    private volatile int[] protoIdHashTable = null;
+    // One spare cursor per id table for the find*Index methods. A lookup takes it and puts it
+    // back, concurrent lookups from other section threads allocate their own.
+    private final AtomicReference<FieldIdCursor> spareFieldIdCursor = new AtomicReference<>();
+    private final AtomicReference<MethodIdCursor> spareMethodIdCursor = new AtomicReference<>();
+    private final AtomicReference<ProtoIdCursor> spareProtoIdCursor = new AtomicReference<>();
 
     /**
      * Creates a new dex that reads from {@code data}. It is an error to modify
@@ -72,7 +93,11 @@ public final class Dex {
         this(ByteBuffer.wrap(data));
     }
 
-    private Dex(ByteBuffer data) throws IOException {
+    /**
+     * Creates a new dex that reads from {@code data}, which may be a heap, direct or
+     * read-only mapped buffer. Only bytes between index 0 and the capacity are used.
+     */
+    public Dex(ByteBuffer data) throws IOException {
         this.data = data;
         this.data.order(ByteOrder.LITTLE_ENDIAN);
         this.tableOfContents.readFrom(this);
@@ -82,11 +107,26 @@ public final class Dex {
      * Creates a new empty dex of the specified size.
      */
     public Dex(int byteCount) {
-        this.data = ByteBuffer.wrap(new byte[byteCount]);
+        this(ByteBuffer.wrap(new byte[byteCount]), byteCount);
+    }
+
+    private Dex(ByteBuffer data, int byteCount) {
+        this.data = data;
         this.data.order(ByteOrder.LITTLE_ENDIAN);
         this.tableOfContents.fileSize = byteCount;
     }
 
+    /**
+     * Creates a new empty dex which is written into {@code data}, e.g. a writable mapped
+     * file, instead of a heap array. Its size is the capacity of {@code data}.
+     */
+    public static Dex createEmpty(ByteBuffer data) {
+        if (data == null) {
+            throw new IllegalArgumentException("data is null.");
+        }
+        return new Dex(data, data.capacity());
+    }
+
     /**
      * Creates a new dex buffer of the dex in {@code in}, and closes {@code in}.
      */
@@ -154,7 +194,23 @@ public final class Dex {
         }
     }
 
-    private static void checkBounds(int index, int length) {
+    /**
+     * Maps the raw dex file behind {@code channel} read-only instead of copying it
+     * into the heap. The channel may be closed once this method returns, but the
+     * returned dex can not be modified, so calling {@code writeHashes} on it fails.
+     */
+    public static Dex open(FileChannel channel) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel is null.");
+        }
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new DexException("dex file is too large: " + size);
+        }
+        return new Dex(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+
+    static void checkBounds(int index, int length) {
         if (index < 0 || index >= length) {
             throw new IndexOutOfBoundsException("index:" + index + ", length=" + length);
         }
@@ -172,11 +228,26 @@ public final class Dex {
     }
 
     public void writeTo(OutputStream out) throws IOException {
-        byte[] rawData = data.array();
-        out.write(rawData);
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset(), data.capacity());
+        } else {
+            writeTo(Channels.newChannel(out));
+        }
         out.flush();
     }
 
+    /**
+     * Writes all bytes of this dex to {@code channel}, the buffer does not need
+     * to be backed by an array.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer data = this.data.duplicate(); // positioned ByteBuffers aren't thread safe
+        data.clear();
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
     public void writeTo(File dexOut) throws IOException {
         OutputStream out = null;
         try {
@@ -242,9 +313,18 @@ public final class Dex {
         sectionData.limit(limit);
         Section result = new Section(name, sectionData);
         nextSectionStart = limit;
+        // Whatever was cached describes the old content.
+        invalidateCaches();
         return result;
     }
 
+    /**
+     * Backing buffer for the id cursors, only absolute reads are allowed on it.
+     */
+    ByteBuffer getData() {
+        return data;
+    }
+
     public int getLength() {
         return data.capacity();
     }
@@ -368,11 +448,70 @@ public final class Dex {
 
     /**
      * Generates the signature and checksum of the dex file {@code out} and
-     * writes them to the file.
+     * writes them to the file, reading the dex only once for both.
      */
     public void writeHashes() throws IOException {
-        openSection(SIGNATURE_OFFSET).write(computeSignature(true));
-        openSection(CHECKSUM_OFFSET).writeInt(computeChecksum());
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError();
+        }
+        // The checksum covers the signature, which covers everything after it. Hash the
+        // part after the signature once for both, then fold the signature into the checksum.
+        Adler32 bodyAdler32 = new Adler32();
+        ByteBuffer data = this.data.duplicate(); // positioned ByteBuffers aren't thread safe
+        data.limit(data.capacity());
+        data.position(SIGNATURE_OFFSET + SizeOf.SIGNATURE);
+        int bodyLength = data.remaining();
+        if (data.hasArray()) {
+            byte[] array = data.array();
+            int offset = data.arrayOffset() + data.position();
+            digest.update(array, offset, bodyLength);
+            bodyAdler32.update(array, offset, bodyLength);
+        } else {
+            byte[] buffer = new byte[8192];
+            while (data.hasRemaining()) {
+                int count = Math.min(buffer.length, data.remaining());
+                data.get(buffer, 0, count);
+                digest.update(buffer, 0, count);
+                bodyAdler32.update(buffer, 0, count);
+            }
+        }
+        this.signature = digest.digest();
+
+        Adler32 signatureAdler32 = new Adler32();
+        signatureAdler32.update(this.signature, 0, this.signature.length);
+        int checksum = (int) combineAdler32(signatureAdler32.getValue(), bodyAdler32.getValue(), bodyLength);
+
+        openSection(SIGNATURE_OFFSET).write(this.signature);
+        openSection(CHECKSUM_OFFSET).writeInt(checksum);
+    }
+
+    /**
+     * Adler32 of two concatenated blocks from the Adler32 of each block and the length of
+     * the second one, same as zlib's adler32_combine.
+     */
+    private static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + base - rem;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= (base << 1)) {
+            sum2 -= (base << 1);
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
     }
 
     /**
@@ -388,19 +527,340 @@ public final class Dex {
     }
 
     public int findStringIndex(String s) {
-        return Collections.binarySearch(strings, s);
+        return binarySearchString(s, false);
     }
 
     public int findTypeIndex(String descriptor) {
-        return Collections.binarySearch(typeNames, descriptor);
+        return binarySearchString(descriptor, true);
+    }
+
+    /**
+     * Enables or disables the decoded string cache of this dex. The cache is filled lazily
+     * by {@code strings()} and {@code typeNames()} and is softly referenced, so it can be
+     * dropped under memory pressure. Only enable it on dexes whose string data won't change.
+     */
+    public void setStringCacheEnabled(boolean enabled) {
+        this.stringCacheEnabled = enabled;
+        if (!enabled) {
+            this.stringCacheRef = null;
+        }
+    }
+
+    public boolean isStringCacheEnabled() {
+        return stringCacheEnabled;
+    }
+
+    private String[] getStringCache(boolean create) {
+        if (!stringCacheEnabled) {
+            return null;
+        }
+        SoftReference<String[]> ref = stringCacheRef;
+        String[] cache = (ref != null ? ref.get() : null);
+        if (cache == null && create) {
+            cache = new String[tableOfContents.stringIds.size];
+            stringCacheRef = new SoftReference<>(cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Same as {@code Collections.binarySearch} over {@code strings()} or {@code typeNames()},
+     * but probes compare against the raw MUTF-8 bytes instead of decoding new strings.
+     */
+    private int binarySearchString(String s, boolean byTypeIndex) {
+        int low = 0;
+        int high = (byTypeIndex ? tableOfContents.typeIds.size : tableOfContents.stringIds.size) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int stringIndex = (byTypeIndex ? descriptorIndexFromTypeIndex(mid) : mid);
+            int cmp = compareStringTo(stringIndex, s);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Compares string {@code stringIndex} of this dex with {@code s} the way
+     * {@code String.compareTo} does, decoding the string data in place.
+     */
+    private int compareStringTo(int stringIndex, String s) {
+        checkBounds(stringIndex, tableOfContents.stringIds.size);
+        String[] cache = getStringCache(false);
+        if (cache != null && cache[stringIndex] != null) {
+            return cache[stringIndex].compareTo(s);
+        }
+        int pos = data.getInt(tableOfContents.stringIds.off + (stringIndex * SizeOf.STRING_ID_ITEM));
+        // skip the uleb128 utf16_size.
+        while ((data.get(pos++) & 0x80) != 0) {
+            // nothing.
+        }
+        int length = s.length();
+        int i = 0;
+        while (true) {
+            int a = data.get(pos++) & 0xff;
+            if (a == 0) {
+                return i - length;
+            }
+            char ch;
+            if (a < 0x80) {
+                ch = (char) a;
+            } else if ((a & 0xe0) == 0xc0) {
+                int b = data.get(pos++) & 0xff;
+                ch = (char) (((a & 0x1F) << 6) | (b & 0x3F));
+            } else if ((a & 0xf0) == 0xe0) {
+                int b = data.get(pos++) & 0xff;
+                int c = data.get(pos++) & 0xff;
+                ch = (char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F));
+            } else {
+                throw new DexException("bad byte in string data, index: " + stringIndex);
+            }
+            if (i == length) {
+                return 1;
+            }
+            int diff = ch - s.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+            ++i;
+        }
     }
 
     public int findFieldIndex(FieldId fieldId) {
-        return Collections.binarySearch(fieldIds, fieldId);
+        FieldIdCursor cursor = spareFieldIdCursor.getAndSet(null);
+        // reset, the table of contents may have been rewritten since the last lookup
+        cursor = cursor == null ? new FieldIdCursor(this) : cursor.reset(this);
+        try {
+            int[] table = getIdHashTable(ID_HASH_TABLE_FIELD_IDS);
+            if (table != null) {
+                int mask = table.length - 1;
+                int hash = hashIdItem(fieldId.declaringClassIndex, fieldId.typeIndex, fieldId.nameIndex);
+                for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                    if (cursor.moveTo(table[slot] - 1).compareTo(fieldId) == 0) {
+                        return table[slot] - 1;
+                    }
+                }
+                // Missed, binary search below still works out the insertion point.
+            }
+            int low = 0;
+            int high = tableOfContents.fieldIds.size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = cursor.moveTo(mid).compareTo(fieldId);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        } finally {
+            spareFieldIdCursor.set(cursor);
+        }
     }
 
     public int findMethodIndex(MethodId methodId) {
-        return Collections.binarySearch(methodIds, methodId);
+        MethodIdCursor cursor = spareMethodIdCursor.getAndSet(null);
+        // reset, the table of contents may have been rewritten since the last lookup
+        cursor = cursor == null ? new MethodIdCursor(this) : cursor.reset(this);
+        try {
+            int[] table = getIdHashTable(ID_HASH_TABLE_METHOD_IDS);
+            if (table != null) {
+                int mask = table.length - 1;
+                int hash = hashIdItem(methodId.declaringClassIndex, methodId.protoIndex, methodId.nameIndex);
+                for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                    if (cursor.moveTo(table[slot] - 1).compareTo(methodId) == 0) {
+                        return table[slot] - 1;
+                    }
+                }
+                // Missed, binary search below still works out the insertion point.
+            }
+            int low = 0;
+            int high = tableOfContents.methodIds.size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = cursor.moveTo(mid).compareTo(methodId);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        } finally {
+            spareMethodIdCursor.set(cursor);
+        }
+    }
+
+    /**
+     * Returns the index of {@code protoId}, or -1 if there is no such proto id. Proto ids
+     * are not ordered the way {@code ProtoId.compareTo} does, so this scans the table
+     * unless the lookup index is enabled.
+     */
+    public int findProtoIndex(ProtoId protoId) {
+        ProtoIdCursor cursor = spareProtoIdCursor.getAndSet(null);
+        // reset, the table of contents may have been rewritten since the last lookup
+        cursor = cursor == null ? new ProtoIdCursor(this) : cursor.reset(this);
+        try {
+            int[] table = getIdHashTable(ID_HASH_TABLE_PROTO_IDS);
+            if (table != null) {
+                int mask = table.length - 1;
+                int hash = hashIdItem(protoId.shortyIndex, protoId.returnTypeIndex, protoId.parametersOffset);
+                for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                    if (cursor.moveTo(table[slot] - 1).compareTo(protoId) == 0) {
+                        return table[slot] - 1;
+                    }
+                }
+                return -1;
+            }
+            for (int i = 0; i < tableOfContents.protoIds.size; ++i) {
+                if (cursor.moveTo(i).compareTo(protoId) == 0) {
+                    return i;
+                }
+            }
+            return -1;
+        } finally {
+            spareProtoIdCursor.set(cursor);
+        }
+    }
+
+    /**
+     * Enables or disables the lookup index of this dex. Once enabled, a typeIndex to
+     * classDefIndex table and hash tables of field, method and proto ids are built on the
+     * first lookup that needs them, and dropped again whenever a section is appended or
+     * written, through {@code openSection} as well.
+     */
+    public void setLookupIndexEnabled(boolean enabled) {
+        this.lookupIndexEnabled = enabled;
+        if (!enabled) {
+            invalidateLookupIndex();
+        }
+    }
+
+    public boolean isLookupIndexEnabled() {
+        return lookupIndexEnabled;
+    }
+
+    private void invalidateLookupIndex() {
+        classDefIndexByTypeIndex = null;
+        fieldIdHashTable = null;
+        methodIdHashTable = null;
+        protoIdHashTable = null;
+    }
+
+    /**
+     * Drops the string cache and the lookup index. Called on every write to a section, so it
+     * only reads the fields unless something is cached.
+     */
+    private void invalidateCaches() {
+        if (stringCacheRef != null) {
+            stringCacheRef = null;
+        }
+        if (classDefIndexByTypeIndex != null || fieldIdHashTable != null
+                || methodIdHashTable != null || protoIdHashTable != null) {
+            invalidateLookupIndex();
+        }
+    }
+
+    private int[] getClassDefIndexByTypeIndex() {
+        if (!lookupIndexEnabled) {
+            return null;
+        }
+        int[] result = classDefIndexByTypeIndex;
+        if (result == null) {
+            result = new int[tableOfContents.typeIds.size];
+            Arrays.fill(result, -1);
+            // Keep the first one like the linear scan does.
+            for (int i = tableOfContents.classDefs.size - 1; i >= 0; --i) {
+                int typeIndex = typeIndexFromClassDefIndex(i);
+                if (typeIndex >= 0 && typeIndex < result.length) {
+                    result[typeIndex] = i;
+                }
+            }
+            classDefIndexByTypeIndex = result;
+        }
+        return result;
+    }
+
+    private int[] getIdHashTable(int which) {
+        if (!lookupIndexEnabled) {
+            return null;
+        }
+        int[] result;
+        switch (which) {
+            case ID_HASH_TABLE_FIELD_IDS: {
+                result = fieldIdHashTable;
+                if (result == null) {
+                    result = fieldIdHashTable = buildIdHashTable(which, tableOfContents.fieldIds);
+                }
+                break;
+            }
+            case ID_HASH_TABLE_METHOD_IDS: {
+                result = methodIdHashTable;
+                if (result == null) {
+                    result = methodIdHashTable = buildIdHashTable(which, tableOfContents.methodIds);
+                }
+                break;
+            }
+            case ID_HASH_TABLE_PROTO_IDS: {
+                result = protoIdHashTable;
+                if (result == null) {
+                    result = protoIdHashTable = buildIdHashTable(which, tableOfContents.protoIds);
+                }
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException("unknown id hash table: " + which);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Open addressing table of item index + 1, 0 marks an empty slot.
+     */
+    private int[] buildIdHashTable(int which, TableOfContents.Section tocSec) {
+        int count = tocSec.size;
+        int capacity = 2;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        int mask = capacity - 1;
+        int[] table = new int[capacity];
+        for (int i = 0; i < count; ++i) {
+            int hash;
+            if (which == ID_HASH_TABLE_PROTO_IDS) {
+                int position = tocSec.off + SizeOf.PROTO_ID_ITEM * i;
+                hash = hashIdItem(data.getInt(position), data.getInt(position + SizeOf.UINT),
+                        data.getInt(position + SizeOf.UINT * 2));
+            } else {
+                int position = tocSec.off + SizeOf.MEMBER_ID_ITEM * i;
+                hash = hashIdItem(data.getShort(position) & 0xFFFF,
+                        data.getShort(position + SizeOf.USHORT) & 0xFFFF,
+                        data.getInt(position + SizeOf.USHORT * 2));
+            }
+            int slot = hash & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        return table;
+    }
+
+    private static int hashIdItem(int a, int b, int c) {
+        int h = (a * 31 + b) * 31 + c;
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 
     public int findClassDefIndexFromTypeIndex(int typeIndex) {
@@ -408,6 +868,10 @@ public final class Dex {
         if (!tableOfContents.classDefs.exists()) {
             return -1;
         }
+        int[] classDefIndexByTypeIndex = getClassDefIndexByTypeIndex();
+        if (classDefIndexByTypeIndex != null) {
+            return classDefIndexByTypeIndex[typeIndex];
+        }
         for (int i = 0; i < tableOfContents.classDefs.size; i++) {
             if (typeIndexFromClassDefIndex(i) == typeIndex) {
                 return i;
@@ -615,6 +1079,14 @@ public final class Dex {
             this.name = name;
         }
 
+        /**
+         * Sections share the data of the dex, a write may change what was cached.
+         */
+        @Override
+        protected void onWrite() {
+            invalidateCaches();
+        }
+
         /**
          * @inheritDoc
          */
@@ -633,6 +1105,24 @@ public final class Dex {
             return super.readTypeList();
         }
 
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public int skipStringData() {
+            ensureFourBytesAligned(tableOfContents.stringDatas, false);
+            return super.skipStringData();
+        }
+
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public int skipTypeList() {
+            ensureFourBytesAligned(tableOfContents.typeLists, false);
+            return super.skipTypeList();
+        }
+
         /**
          * @inheritDoc
          */
@@ -687,6 +1177,15 @@ public final class Dex {
             return super.readDebugInfoItem();
         }
 
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public int skipDebugInfoItem() {
+            ensureFourBytesAligned(tableOfContents.debugInfos, false);
+            return super.skipDebugInfoItem();
+        }
+
         /**
          * @inheritDoc
          */
@@ -751,6 +1250,18 @@ public final class Dex {
             }
         }
 
+        /**
+         * Write {@code count} raw bytes of an item in {@code tocSec} from {@code src} into current section.
+         *
+         * @return real offset of item we've just written in this section.
+         */
+        public int writeRawItem(TableOfContents.Section tocSec, DexDataBuffer src, int count) {
+            ensureFourBytesAligned(tocSec, true);
+            int off = position();
+            write(src, count);
+            return off;
+        }
+
         /**
          * @inheritDoc
          */
@@ -881,6 +1392,18 @@ public final class Dex {
     private final class StringTable extends AbstractList<String> implements RandomAccess {
         @Override public String get(int index) {
             checkBounds(index, tableOfContents.stringIds.size);
+            String[] cache = getStringCache(true);
+            if (cache != null) {
+                String result = cache[index];
+                if (result == null) {
+                    result = readString(index);
+                    cache[index] = result;
+                }
+                return result;
+            }
+            return readString(index);
+        }
+        private String readString(int index) {
             int stringOff = openSection(tableOfContents.stringIds.off + (index * SizeOf.STRING_ID_ITEM)).readInt();
             return openSection(stringOff).readStringData().value;
         }
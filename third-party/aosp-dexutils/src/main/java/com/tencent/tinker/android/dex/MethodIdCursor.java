@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.android.dex;
+
+import com.tencent.tinker.android.dex.util.CompareUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * *** This file is NOT a part of AOSP. ***
+ *
+ * Reusable view of one method_id_item, fields are read straight from the dex buffer
+ * so walking the table with {@code moveTo} allocates nothing. Not thread safe.
+ */
+public final class MethodIdCursor {
+    private ByteBuffer data;
+    private int tableOffset;
+    private int tableSize;
+    private int index = -1;
+    private int position;
+
+    public MethodIdCursor(Dex dex) {
+        reset(dex);
+    }
+
+    /**
+     * Binds this cursor to {@code dex}, the cursor must be moved before reading again.
+     */
+    public MethodIdCursor reset(Dex dex) {
+        this.data = dex.getData();
+        this.tableOffset = dex.getTableOfContents().methodIds.off;
+        this.tableSize = dex.getTableOfContents().methodIds.size;
+        this.index = -1;
+        return this;
+    }
+
+    public MethodIdCursor moveTo(int index) {
+        Dex.checkBounds(index, tableSize);
+        this.index = index;
+        this.position = tableOffset + SizeOf.MEMBER_ID_ITEM * index;
+        return this;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getDeclaringClassIndex() {
+        return data.getShort(position) & 0xFFFF;
+    }
+
+    public int getProtoIndex() {
+        return data.getShort(position + SizeOf.USHORT) & 0xFFFF;
+    }
+
+    public int getNameIndex() {
+        return data.getInt(position + SizeOf.USHORT + SizeOf.USHORT);
+    }
+
+    /**
+     * Same order as {@code MethodId.compareTo}.
+     */
+    public int compareTo(MethodId other) {
+        int declaringClassIndex = getDeclaringClassIndex();
+        if (declaringClassIndex != other.declaringClassIndex) {
+            return CompareUtils.uCompare(declaringClassIndex, other.declaringClassIndex);
+        }
+        int nameIndex = getNameIndex();
+        if (nameIndex != other.nameIndex) {
+            return CompareUtils.uCompare(nameIndex, other.nameIndex);
+        }
+        return CompareUtils.uCompare(getProtoIndex(), other.protoIndex);
+    }
+
+    public MethodId toMethodId() {
+        return new MethodId(position, getDeclaringClassIndex(), getProtoIndex(), getNameIndex());
+    }
+}
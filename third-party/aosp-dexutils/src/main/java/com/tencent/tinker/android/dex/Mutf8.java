@@ -18,6 +18,7 @@ package com.tencent.tinker.android.dex;
 
 import com.tencent.tinker.android.dex.util.ByteInput;
 import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
 
 /**
  * Modified UTF-8 as described in the dex file format spec.
@@ -60,6 +61,67 @@ public final class Mutf8 {
         }
     }
 
+    /**
+     * Decodes a string of {@code utf16Length} chars from {@code in}, starting at its position
+     * and consuming the delimiter 0x00. Leading ASCII bytes are copied in a tight loop, from the
+     * backing array when there is one, and only the rest goes through the per byte decoder.
+     */
+    public static String decode(ByteBuffer in, int utf16Length) throws UTFDataFormatException {
+        char[] out = new char[utf16Length];
+        int pos = in.position();
+        int end = Math.min(in.limit(), pos + utf16Length);
+        int s = 0;
+        if (in.hasArray()) {
+            byte[] array = in.array();
+            int base = in.arrayOffset();
+            while (pos < end) {
+                byte b = array[base + pos];
+                if (b <= 0) {
+                    break;
+                }
+                out[s++] = (char) b;
+                ++pos;
+            }
+        } else {
+            while (pos < end) {
+                byte b = in.get(pos);
+                if (b <= 0) {
+                    break;
+                }
+                out[s++] = (char) b;
+                ++pos;
+            }
+        }
+        in.position(pos);
+        while (true) {
+            char a = (char) (in.get() & 0xff);
+            if (a == 0) {
+                return (s == utf16Length ? new String(out) : new String(out, 0, s));
+            }
+            if (s == utf16Length) {
+                throw new UTFDataFormatException("string data is longer than " + utf16Length + " chars");
+            }
+            if (a < '\u0080') {
+                out[s++] = a;
+            } else if ((a & 0xe0) == 0xc0) {
+                int b = in.get() & 0xff;
+                if ((b & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("bad second byte");
+                }
+                out[s++] = (char) (((a & 0x1F) << 6) | (b & 0x3F));
+            } else if ((a & 0xf0) == 0xe0) {
+                int b = in.get() & 0xff;
+                int c = in.get() & 0xff;
+                if (((b & 0xC0) != 0x80) || ((c & 0xC0) != 0x80)) {
+                    throw new UTFDataFormatException("bad second or third byte");
+                }
+                out[s++] = (char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F));
+            } else {
+                throw new UTFDataFormatException("bad byte");
+            }
+        }
+    }
+
     /**
      * Returns the number of bytes the modified UTF8 representation of 's' would take.
      */
@@ -103,6 +165,44 @@ public final class Mutf8 {
         }
     }
 
+    /**
+     * Encodes the modified UTF-8 bytes of {@code s} into {@code dst} at its position, without
+     * the delimiter. Leading ASCII chars are stored straight into the backing array when there
+     * is one. Throws {@code BufferOverflowException} if {@code dst} runs out of room.
+     */
+    public static void encode(ByteBuffer dst, String s) {
+        final int length = s.length();
+        int i = 0;
+        if (dst.hasArray()) {
+            byte[] array = dst.array();
+            int base = dst.arrayOffset();
+            int pos = dst.position();
+            int end = Math.min(length, dst.limit() - pos);
+            while (i < end) {
+                char ch = s.charAt(i);
+                if (ch == 0 || ch > 127) {
+                    break;
+                }
+                array[base + pos++] = (byte) ch;
+                ++i;
+            }
+            dst.position(pos);
+        }
+        for (; i < length; i++) {
+            char ch = s.charAt(i);
+            if (ch != 0 && ch <= 127) { // U+0000 uses two bytes.
+                dst.put((byte) ch);
+            } else if (ch <= 2047) {
+                dst.put((byte) (0xc0 | (0x1f & (ch >> 6))));
+                dst.put((byte) (0x80 | (0x3f & ch)));
+            } else {
+                dst.put((byte) (0xe0 | (0x0f & (ch >> 12))));
+                dst.put((byte) (0x80 | (0x3f & (ch >> 6))));
+                dst.put((byte) (0x80 | (0x3f & ch)));
+            }
+        }
+    }
+
     /**
      * Returns an array containing the <i>modified UTF-8</i> form of {@code s}.
      */
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.android.dex;
+
+import com.tencent.tinker.android.dex.util.CompareUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * *** This file is NOT a part of AOSP. ***
+ *
+ * Reusable view of one proto_id_item and its parameter type list, see {@link MethodIdCursor}.
+ * Not thread safe.
+ */
+public final class ProtoIdCursor {
+    private ByteBuffer data;
+    private int tableOffset;
+    private int tableSize;
+    private int index = -1;
+    private int position;
+
+    public ProtoIdCursor(Dex dex) {
+        reset(dex);
+    }
+
+    public ProtoIdCursor reset(Dex dex) {
+        this.data = dex.getData();
+        this.tableOffset = dex.getTableOfContents().protoIds.off;
+        this.tableSize = dex.getTableOfContents().protoIds.size;
+        this.index = -1;
+        return this;
+    }
+
+    public ProtoIdCursor moveTo(int index) {
+        Dex.checkBounds(index, tableSize);
+        this.index = index;
+        this.position = tableOffset + SizeOf.PROTO_ID_ITEM * index;
+        return this;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getShortyIndex() {
+        return data.getInt(position);
+    }
+
+    public int getReturnTypeIndex() {
+        return data.getInt(position + SizeOf.UINT);
+    }
+
+    public int getParametersOffset() {
+        return data.getInt(position + SizeOf.UINT + SizeOf.UINT);
+    }
+
+    public int getParameterCount() {
+        int parametersOffset = getParametersOffset();
+        return (parametersOffset != 0 ? data.getInt(parametersOffset) : 0);
+    }
+
+    /**
+     * Returns the type index of parameter {@code i} without reading the whole type list.
+     */
+    public int getParameterTypeIndex(int i) {
+        Dex.checkBounds(i, getParameterCount());
+        return data.getShort(getParametersOffset() + SizeOf.UINT + SizeOf.USHORT * i) & 0xFFFF;
+    }
+
+    /**
+     * Same order as {@code ProtoId.compareTo}.
+     */
+    public int compareTo(ProtoId other) {
+        int res = CompareUtils.uCompare(getShortyIndex(), other.shortyIndex);
+        if (res != 0) {
+            return res;
+        }
+        res = CompareUtils.uCompare(getReturnTypeIndex(), other.returnTypeIndex);
+        if (res != 0) {
+            return res;
+        }
+        return CompareUtils.sCompare(getParametersOffset(), other.parametersOffset);
+    }
+
+    public ProtoId toProtoId() {
+        return new ProtoId(position, getShortyIndex(), getReturnTypeIndex(), getParametersOffset());
+    }
+}
@@ -80,6 +80,16 @@ public class DexDataBuffer implements ByteInput, ByteOutput {
         this.isResizeAllowed = isResizeAllowed;
     }
 
+    /**
+     * Replaces the buffer behind, for subclasses which feed data on demand.
+     * Position and limit of {@code data} are kept.
+     */
+    protected void resetData(ByteBuffer data) {
+        this.data = data;
+        this.data.order(ByteOrder.LITTLE_ENDIAN);
+        this.dataBound = data.limit();
+    }
+
     public int position() {
         return data.position();
     }
@@ -92,14 +102,25 @@ public class DexDataBuffer implements ByteInput, ByteOutput {
         return dataBound - data.position();
     }
 
+    /**
+     * Called before every write, for subclasses whose data is also cached somewhere else.
+     */
+    protected void onWrite() {
+        // nothing by default
+    }
+
     private void ensureBufferSize(int bytes) {
+        onWrite();
         if (this.data.position() + bytes > this.data.limit()) {
             if (this.isResizeAllowed) {
-                byte[] array = this.data.array();
-                byte[] newArray = new byte[array.length + bytes + (array.length >> 1)];
-                System.arraycopy(array, 0, newArray, 0, this.data.position());
+                int capacity = this.data.capacity();
                 int lastPos = this.data.position();
-                this.data = ByteBuffer.wrap(newArray);
+                ByteBuffer newData = ByteBuffer.allocate(capacity + bytes + (capacity >> 1));
+                ByteBuffer oldData = this.data.duplicate();
+                oldData.position(0);
+                oldData.limit(lastPos);
+                newData.put(oldData);
+                this.data = newData;
                 this.data.order(ByteOrder.LITTLE_ENDIAN);
                 this.data.position(lastPos);
                 this.data.limit(this.data.capacity());
@@ -109,8 +130,10 @@ public class DexDataBuffer implements ByteInput, ByteOutput {
 
     public byte[] array() {
         byte[] result = new byte[this.dataBound];
-        byte[] dataArray = this.data.array();
-        System.arraycopy(dataArray, 0, result, 0, this.dataBound);
+        ByteBuffer data = this.data.duplicate();
+        data.position(0);
+        data.limit(this.dataBound);
+        data.get(result);
         return result;
     }
 
@@ -168,7 +191,7 @@ public class DexDataBuffer implements ByteInput, ByteOutput {
         int off = data.position();
         try {
             int expectedLength = readUleb128();
-            String result = Mutf8.decode(this, new char[expectedLength]);
+            String result = Mutf8.decode(data, expectedLength);
             if (result.length() != expectedLength) {
                 throw new DexException("Declared length " + expectedLength
                         + " doesn't match decoded length of " + result.length());
@@ -523,6 +546,81 @@ public class DexDataBuffer implements ByteInput, ByteOutput {
         skip(count);
     }
 
+    /**
+     * Skips a string data item without decoding it.
+     *
+     * @return offset of the item we've just skipped.
+     */
+    public int skipStringData() {
+        int off = data.position();
+        readUleb128();
+        while (data.get() != 0) {
+            // MUTF-8 never encodes U+0000 as a single zero byte, so the first one is the delimiter.
+        }
+        return off;
+    }
+
+    /**
+     * Skips a type list item without decoding it.
+     *
+     * @return offset of the item we've just skipped.
+     */
+    public int skipTypeList() {
+        int off = data.position();
+        int size = readInt();
+        skip(size * SizeOf.USHORT);
+        return off;
+    }
+
+    /**
+     * Skips a debug info item without decoding it.
+     *
+     * @return offset of the item we've just skipped.
+     */
+    public int skipDebugInfoItem() {
+        int off = data.position();
+        readUleb128();
+        int parametersSize = readUleb128();
+        for (int i = 0; i < parametersSize; ++i) {
+            readUleb128p1();
+        }
+        while (true) {
+            int opcode = readByte();
+            switch (opcode) {
+                case DebugInfoItem.DBG_END_SEQUENCE: {
+                    return off;
+                }
+                case DebugInfoItem.DBG_ADVANCE_PC:
+                case DebugInfoItem.DBG_END_LOCAL:
+                case DebugInfoItem.DBG_RESTART_LOCAL:
+                case DebugInfoItem.DBG_SET_FILE: {
+                    readUleb128();
+                    break;
+                }
+                case DebugInfoItem.DBG_ADVANCE_LINE: {
+                    readSleb128();
+                    break;
+                }
+                case DebugInfoItem.DBG_START_LOCAL: {
+                    readUleb128();
+                    readUleb128();
+                    readUleb128();
+                    break;
+                }
+                case DebugInfoItem.DBG_START_LOCAL_EXTENDED: {
+                    readUleb128();
+                    readUleb128();
+                    readUleb128();
+                    readUleb128();
+                    break;
+                }
+                default: {
+                    break;
+                }
+            }
+        }
+    }
+
     /**
      * Skips bytes until the position is aligned to a multiple of 4.
      */
@@ -595,6 +693,21 @@ public class DexDataBuffer implements ByteInput, ByteOutput {
         }
     }
 
+    /**
+     * Copies {@code count} bytes at current position of {@code src} into this buffer,
+     * positions of both buffers are advanced.
+     */
+    public void write(DexDataBuffer src, int count) {
+        ensureBufferSize(count * SizeOf.UBYTE);
+        ByteBuffer srcData = src.data.duplicate();
+        srcData.limit(srcData.position() + count);
+        this.data.put(srcData);
+        src.data.position(src.data.position() + count);
+        if (this.data.position() > this.dataBound) {
+            this.dataBound = this.data.position();
+        }
+    }
+
     public void writeUleb128(int i) {
         Leb128.writeUnsignedLeb128(this, i);
     }
@@ -614,15 +727,17 @@ public class DexDataBuffer implements ByteInput, ByteOutput {
      */
     public int writeStringData(StringData stringData) {
         int off = data.position();
-        try {
-            int length = stringData.value.length();
-            writeUleb128(length);
-            write(Mutf8.encode(stringData.value));
-            writeByte(0);
-            return off;
-        } catch (UTFDataFormatException e) {
-            throw new AssertionError(e);
+        String value = stringData.value;
+        int length = value.length();
+        writeUleb128(length);
+        // Each char takes at most 3 bytes, plus the delimiter.
+        ensureBufferSize(length * 3 + SizeOf.UBYTE);
+        Mutf8.encode(data, value);
+        if (this.data.position() > this.dataBound) {
+            this.dataBound = this.data.position();
         }
+        writeByte(0);
+        return off;
     }
 
     /**
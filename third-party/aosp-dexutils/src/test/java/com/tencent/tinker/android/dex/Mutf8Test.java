@@ -0,0 +1,237 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.android.dex;
+
+import com.tencent.tinker.android.dex.util.ByteInput;
+
+import org.junit.Test;
+
+import java.io.UTFDataFormatException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Mutf8Test {
+
+    @Test
+    public void testKnownEncodings() throws UTFDataFormatException {
+        assertEncoding("", new byte[0]);
+        assertEncoding("Lcom/tencent/Foo;", "Lcom/tencent/Foo;".getBytes());
+        // U+0000 takes two bytes, so the encoded string never contains the delimiter
+        assertEncoding("\u0000", bytes(0xc0, 0x80));
+        assertEncoding("a\u0000b", bytes('a', 0xc0, 0x80, 'b'));
+        assertEncoding("\u00e9", bytes(0xc3, 0xa9));
+        assertEncoding("\u07ff", bytes(0xdf, 0xbf));
+        assertEncoding("\u0800", bytes(0xe0, 0xa0, 0x80));
+        assertEncoding("\u4e2d", bytes(0xe4, 0xb8, 0xad));
+        assertEncoding("\uffff", bytes(0xef, 0xbf, 0xbf));
+        // a surrogate pair is encoded as two 3 byte chars, not as one 4 byte char
+        assertEncoding("\ud83d\ude00", bytes(0xed, 0xa0, 0xbd, 0xed, 0xb8, 0x80));
+        assertEncoding("abc\u00e9\u4e2d", bytes('a', 'b', 'c', 0xc3, 0xa9, 0xe4, 0xb8, 0xad));
+    }
+
+    @Test
+    public void testRoundTrip() throws UTFDataFormatException {
+        Random random = new Random(1);
+        String[] prefixes = {"", "a", "Landroid/support/v4/app/FragmentActivity;", repeat('x', 300)};
+        for (String prefix : prefixes) {
+            for (int i = 0; i < 200; i++) {
+                checkRoundTrip(prefix + randomString(random, random.nextInt(40)));
+            }
+            checkRoundTrip(prefix + "\u0000" + prefix);
+            checkRoundTrip(prefix + "\ud83d\ude00" + prefix);
+        }
+    }
+
+    @Test
+    public void testMalformedInput() {
+        assertMalformed(bytes(0xc3, 'A', 0), 2);
+        assertMalformed(bytes(0xe4, 0xb8, 'A', 0), 2);
+        assertMalformed(bytes(0xe4, 'A', 0xad, 0), 2);
+        // a lone continuation byte and a 4 byte lead byte
+        assertMalformed(bytes(0x80, 0), 1);
+        assertMalformed(bytes(0xf0, 0x9f, 0x98, 0x80, 0), 2);
+        // after an ascii prefix, which is decoded in a separate loop
+        assertMalformed(bytes('a', 'b', 'c', 0xc3, 'A', 0), 5);
+        assertMalformed(bytes('a', 'b', 'c', 0xff, 0), 5);
+    }
+
+    @Test
+    public void testDecodeRejectsLongerString() {
+        try {
+            Mutf8.decode(ByteBuffer.wrap(bytes('a', 'b', 'c', 0)), 2);
+            fail("string longer than its declared length is decoded");
+        } catch (UTFDataFormatException e) {
+            // expected
+        }
+        try {
+            Mutf8.decode(ByteBuffer.wrap(bytes('a', 0xc3, 0xa9, 0)), 1);
+            fail("string longer than its declared length is decoded");
+        } catch (UTFDataFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testEncodeOverflow() {
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(3), ByteBuffer.allocateDirect(3)}) {
+            try {
+                Mutf8.encode(buffer, "abcd");
+                fail("buffer overflow is not detected");
+            } catch (BufferOverflowException e) {
+                // expected
+            }
+            buffer.clear();
+            try {
+                Mutf8.encode(buffer, "ab\u00e9");
+                fail("buffer overflow is not detected");
+            } catch (BufferOverflowException e) {
+                // expected
+            }
+        }
+    }
+
+    private static void assertEncoding(String s, byte[] expected) throws UTFDataFormatException {
+        assertArrayEquals(expected, Mutf8.encode(s));
+        checkRoundTrip(s);
+    }
+
+    /**
+     * Encodes and decodes s through the ByteBuffer versions on array backed buffers with an array
+     * offset, direct and read only buffers, and cross checks them with the array versions.
+     */
+    private static void checkRoundTrip(String s) throws UTFDataFormatException {
+        byte[] expected = new byte[(int) Mutf8.countBytes(s, false)];
+        Mutf8.encode(expected, 0, s);
+        for (ByteBuffer buffer : newBuffers(expected.length + 10)) {
+            int start = buffer.position();
+            Mutf8.encode(buffer, s);
+            assertEquals(start + expected.length, buffer.position());
+            byte[] encoded = new byte[expected.length];
+            ByteBuffer copy = buffer.duplicate();
+            copy.position(start);
+            copy.get(encoded);
+            assertArrayEquals(s, expected, encoded);
+        }
+
+        byte[] data = Arrays.copyOf(expected, expected.length + 1);
+        assertEquals(s, decode(data, 0));
+        for (ByteBuffer buffer : newBuffers(data.length + 10)) {
+            int start = buffer.position();
+            buffer.put(data);
+            buffer.position(start);
+            // a read only view has no accessible array, so the other ascii loop is taken
+            ByteBuffer readOnly = buffer.asReadOnlyBuffer();
+            assertEquals(s, Mutf8.decode(buffer, s.length()));
+            assertEquals(start + data.length, buffer.position());
+            assertEquals(s, Mutf8.decode(readOnly, s.length()));
+            assertEquals(start + data.length, readOnly.position());
+        }
+        ByteBuffer heap = ByteBuffer.wrap(data);
+        assertEquals(s, Mutf8.decode(heap, s.length()));
+        assertEquals(data.length, heap.position());
+    }
+
+    private static ByteBuffer[] newBuffers(int size) {
+        ByteBuffer sliced = ByteBuffer.allocate(size + 7);
+        sliced.position(7);
+        sliced = sliced.slice();
+        sliced.position(3);
+        ByteBuffer direct = ByteBuffer.allocateDirect(size);
+        direct.position(5);
+        return new ByteBuffer[]{ByteBuffer.allocate(size), sliced, direct};
+    }
+
+    private static void assertMalformed(byte[] data, int utf16Length) {
+        try {
+            decode(data, 0);
+            fail("malformed input is decoded: " + Arrays.toString(data));
+        } catch (UTFDataFormatException e) {
+            // expected
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.flip();
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.wrap(data), direct}) {
+            try {
+                Mutf8.decode(buffer, utf16Length);
+                fail("malformed input is decoded: " + Arrays.toString(data));
+            } catch (UTFDataFormatException e) {
+                // expected
+            }
+        }
+    }
+
+    private static String decode(final byte[] data, final int offset) throws UTFDataFormatException {
+        ByteInput in = new ByteInput() {
+            private int position = offset;
+
+            @Override
+            public byte readByte() {
+                return data[position++];
+            }
+        };
+        return Mutf8.decode(in, new char[data.length]);
+    }
+
+    private static String randomString(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    chars[i] = (char) random.nextInt(0x80);
+                    break;
+                case 1:
+                    chars[i] = (char) (0x80 + random.nextInt(0x800 - 0x80));
+                    break;
+                case 2:
+                    chars[i] = (char) (0x800 + random.nextInt(0x10000 - 0x800));
+                    break;
+                case 3:
+                    chars[i] = (char) ('a' + random.nextInt(26));
+                    break;
+                default:
+                    chars[i] = i + 1 < length ? '\ud83d' : 'z';
+                    if (i + 1 < length) {
+                        chars[++i] = (char) (0xdc00 + random.nextInt(0x400));
+                    }
+                    break;
+            }
+        }
+        return new String(chars);
+    }
+
+    private static String repeat(char ch, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, ch);
+        return new String(chars);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+}
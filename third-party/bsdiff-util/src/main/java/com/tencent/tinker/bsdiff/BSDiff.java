@@ -37,7 +37,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Java Binary Diff utility. Based on bsdiff (v4.2) by Colin Percival (see http://www.daemonology.net/bsdiff/ ) and distributed under BSD license.
@@ -47,9 +57,98 @@ public class BSDiff {
 
     //private static final String VERSION = "jbdiff-0.1.0.1";
 
-    // This is
-    private static final byte[] MAGIC_BYTES = new byte[]{0x4D, 0x69, 0x63,
-        0x72, 0x6F, 0x4D, 0x73, 0x67};
+    /**
+     * Larsson and Sadakane's qsufsort, O(n log n)
+     */
+    public static final int SUFFIX_SORT_QSUFSORT = 0;
+
+    /**
+     * Nong, Zhang and Chan's SA-IS, O(n), produces the same suffix array as qsufsort
+     */
+    public static final int SUFFIX_SORT_SAIS = 1;
+
+    private static volatile int suffixSortEngine = SUFFIX_SORT_QSUFSORT;
+
+    /**
+     * Select the suffix sort engine used by the bsdiff methods without an engine argument.
+     * Both engines produce byte-identical patches.
+     */
+    public static void setSuffixSortEngine(int engine) {
+        checkSuffixSortEngine(engine);
+        suffixSortEngine = engine;
+    }
+
+    public static int getSuffixSortEngine() {
+        return suffixSortEngine;
+    }
+
+    /**
+     * Regions smaller than this are not worth a thread of their own.
+     */
+    private static final int MIN_SEARCH_REGION_SIZE = 1024 * 1024;
+
+    private static volatile int searchThreadCount = 1;
+
+    private static volatile ExecutorService searchExecutor;
+
+    private static ExecutorService sharedSearchExecutor;
+
+    /**
+     * Search matches of the new file with several threads. Each thread handles a contiguous region
+     * of the new file, the result is still a valid BSDIFF40 compatible patch but may be slightly
+     * larger than the single threaded one since matches can not cross region boundaries.
+     */
+    public static void setSearchThreadCount(int threadCount) {
+        checkSearchThreadCount(threadCount);
+        searchThreadCount = threadCount;
+    }
+
+    public static int getSearchThreadCount() {
+        return searchThreadCount;
+    }
+
+    /**
+     * Run the parallel match search on the given executor, it is never shut down by BSDiff.
+     * Null goes back to the shared pool of daemon threads, which keeps no thread once it is idle.
+     */
+    public static void setSearchExecutor(ExecutorService executor) {
+        searchExecutor = executor;
+    }
+
+    private static ExecutorService getSearchExecutor() {
+        ExecutorService executor = searchExecutor;
+        if (executor != null) {
+            return executor;
+        }
+        synchronized (BSDiff.class) {
+            if (sharedSearchExecutor == null) {
+                sharedSearchExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "tinker-bsdiff-search-" + threadIndex.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            }
+            return sharedSearchExecutor;
+        }
+    }
+
+    private static void checkSearchThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("search thread count must be positive: " + threadCount);
+        }
+    }
+
+    private static void checkSuffixSortEngine(int engine) {
+        if (engine != SUFFIX_SORT_QSUFSORT && engine != SUFFIX_SORT_SAIS) {
+            throw new IllegalArgumentException("unknown suffix sort engine: " + engine);
+        }
+    }
 
     private static void split(int[] arrayI, int[] arrayV, int start, int len, int h) {
 
@@ -226,6 +325,19 @@ public class BSDiff {
         }
     }
 
+    /**
+     * Build the suffix array of oldBuf[0...oldsize] with the given engine.
+     */
+    static int[] suffixsort(byte[] oldBuf, int oldsize, int engine) {
+        int[] arrayI = new int[oldsize + 1];
+        if (engine == SUFFIX_SORT_SAIS) {
+            SAIS.suffixsort(oldBuf, oldsize, arrayI);
+        } else {
+            qsufsort(arrayI, new int[oldsize + 1], oldBuf, oldsize);
+        }
+        return arrayI;
+    }
+
 
     /**
      * 分别将 oldBufd[start..oldSize] 和 oldBufd[end..oldSize] 与  newBuf[newBufOffset...newSize] 进行匹配，
@@ -294,11 +406,22 @@ public class BSDiff {
 
 
     public static void bsdiff(File oldFile, File newFile, File diffFile) throws IOException {
+        bsdiff(oldFile, newFile, diffFile, BlockCodecs.GZIP);
+    }
+
+    public static void bsdiff(File oldFile, File newFile, File diffFile, BlockCodec codec) throws IOException {
+        bsdiff(oldFile, newFile, diffFile, codec, null);
+    }
+
+    /**
+     * @param cache suffix arrays of old files, null to always sort the old file
+     */
+    public static void bsdiff(File oldFile, File newFile, File diffFile, BlockCodec codec, SuffixArrayCache cache) throws IOException {
         InputStream oldInputStream = new BufferedInputStream(new FileInputStream(oldFile));
         InputStream newInputStream = new BufferedInputStream(new FileInputStream(newFile));
         OutputStream diffOutputStream = new FileOutputStream(diffFile);
         try {
-            byte[] diffBytes = bsdiff(oldInputStream, (int) oldFile.length(), newInputStream, (int) newFile.length());
+            byte[] diffBytes = bsdiff(oldInputStream, (int) oldFile.length(), newInputStream, (int) newFile.length(), codec, cache);
             diffOutputStream.write(diffBytes);
         } finally {
             diffOutputStream.close();
@@ -306,7 +429,70 @@ public class BSDiff {
     }
 
 
+    /**
+     * @param fastDiffThreshold use {@link #fastdiff} instead if the old or new file is at least this many bytes,
+     *                          0 to always use bsdiff
+     */
+    public static void bsdiff(File oldFile, File newFile, File diffFile, BlockCodec codec, SuffixArrayCache cache,
+                              long fastDiffThreshold) throws IOException {
+        if (preferFastDiff(oldFile.length(), newFile.length(), fastDiffThreshold)) {
+            fastdiff(oldFile, newFile, diffFile, codec);
+        } else {
+            bsdiff(oldFile, newFile, diffFile, codec, cache);
+        }
+    }
+
+    /**
+     * @return true if files of these sizes should be diffed with {@link #fastdiff}
+     */
+    public static boolean preferFastDiff(long oldsize, long newsize, long fastDiffThreshold) {
+        return fastDiffThreshold > 0 && Math.max(oldsize, newsize) >= fastDiffThreshold;
+    }
+
+    public static void fastdiff(File oldFile, File newFile, File diffFile, BlockCodec codec) throws IOException {
+        InputStream oldInputStream = new BufferedInputStream(new FileInputStream(oldFile));
+        InputStream newInputStream = new BufferedInputStream(new FileInputStream(newFile));
+        OutputStream diffOutputStream = new FileOutputStream(diffFile);
+        try {
+            int oldsize = (int) oldFile.length();
+            byte[] oldBuf = new byte[oldsize];
+            BSUtil.readFromStream(oldInputStream, oldBuf, 0, oldsize);
+            int newsize = (int) newFile.length();
+            byte[] newBuf = new byte[newsize];
+            BSUtil.readFromStream(newInputStream, newBuf, 0, newsize);
+            diffOutputStream.write(fastdiff(oldBuf, oldsize, newBuf, newsize, codec));
+        } finally {
+            oldInputStream.close();
+            newInputStream.close();
+            diffOutputStream.close();
+        }
+    }
+
+    /**
+     * Approximate diff for very large files. Matches are found with a rolling hash over blocks of the old file
+     * in linear time and without a suffix array, so the patch is usually larger than the bsdiff one. The patch
+     * format is the same, BSPatch applies it as usual.
+     *
+     * @param codec compresses the ctrl, diff and extra blocks, {@link BlockCodecs#GZIP} keeps the classic format
+     */
+    public static byte[] fastdiff(byte[] oldBuf, int oldsize, byte[] newBuf, int newsize, BlockCodec codec) throws IOException {
+        if (codec == null) {
+            throw new IllegalArgumentException("block codec is null");
+        }
+        DiffRegion region = RollingHashDiff.search(oldBuf, oldsize, newBuf, newsize, RollingHashDiff.DEFAULT_BLOCK_SIZE);
+        return writePatch(new DiffRegion[]{region}, newsize, codec);
+    }
+
     public static byte[] bsdiff(InputStream oldInputStream, int oldsize, InputStream newInputStream, int newsize) throws IOException {
+        return bsdiff(oldInputStream, oldsize, newInputStream, newsize, BlockCodecs.GZIP);
+    }
+
+    public static byte[] bsdiff(InputStream oldInputStream, int oldsize, InputStream newInputStream, int newsize, BlockCodec codec) throws IOException {
+        return bsdiff(oldInputStream, oldsize, newInputStream, newsize, codec, null);
+    }
+
+    public static byte[] bsdiff(InputStream oldInputStream, int oldsize, InputStream newInputStream, int newsize, BlockCodec codec,
+                                SuffixArrayCache cache) throws IOException {
 
         byte[] oldBuf = new byte[oldsize];
 
@@ -317,38 +503,90 @@ public class BSDiff {
         BSUtil.readFromStream(newInputStream, newBuf, 0, newsize);
         newInputStream.close();
 
-        return bsdiff(oldBuf, oldsize, newBuf, newsize);
+        return bsdiff(oldBuf, oldsize, newBuf, newsize, suffixSortEngine, searchThreadCount, codec, cache);
     }
 
 
     public static byte[] bsdiff(byte[] oldBuf, int oldsize, byte[] newBuf, int newsize) throws IOException {
+        return bsdiff(oldBuf, oldsize, newBuf, newsize, suffixSortEngine, searchThreadCount);
+    }
 
-        int[] arrayI = new int[oldsize + 1];
-        qsufsort(arrayI, new int[oldsize + 1], oldBuf, oldsize);
+    /**
+     * @param engine {@link #SUFFIX_SORT_QSUFSORT} or {@link #SUFFIX_SORT_SAIS}
+     */
+    public static byte[] bsdiff(byte[] oldBuf, int oldsize, byte[] newBuf, int newsize, int engine) throws IOException {
+        return bsdiff(oldBuf, oldsize, newBuf, newsize, engine, searchThreadCount);
+    }
 
-        // diff block
-        int diffBLockLen = 0;
-        byte[] diffBlock = new byte[newsize];
+    /**
+     * @param engine      {@link #SUFFIX_SORT_QSUFSORT} or {@link #SUFFIX_SORT_SAIS}
+     * @param threadCount number of threads searching matches, 1 keeps the classic single threaded output
+     */
+    public static byte[] bsdiff(byte[] oldBuf, int oldsize, byte[] newBuf, int newsize, int engine, int threadCount) throws IOException {
+        return bsdiff(oldBuf, oldsize, newBuf, newsize, engine, threadCount, BlockCodecs.GZIP);
+    }
 
-        // extra block
-        int extraBlockLen = 0;
-        byte[] extraBlock = new byte[newsize];
+    /**
+     * @param codec compresses the ctrl, diff and extra blocks, {@link BlockCodecs#GZIP} keeps the classic format
+     */
+    public static byte[] bsdiff(byte[] oldBuf, int oldsize, byte[] newBuf, int newsize, BlockCodec codec) throws IOException {
+        return bsdiff(oldBuf, oldsize, newBuf, newsize, suffixSortEngine, searchThreadCount, codec);
+    }
 
+    /**
+     * @param engine      {@link #SUFFIX_SORT_QSUFSORT} or {@link #SUFFIX_SORT_SAIS}
+     * @param threadCount number of threads searching matches, 1 keeps the classic single threaded output
+     * @param codec       compresses the ctrl, diff and extra blocks, {@link BlockCodecs#GZIP} keeps the classic format
+     */
+    public static byte[] bsdiff(byte[] oldBuf, int oldsize, byte[] newBuf, int newsize, int engine, int threadCount,
+                                BlockCodec codec) throws IOException {
+        return bsdiff(oldBuf, oldsize, newBuf, newsize, engine, threadCount, codec, null);
+    }
+
+    /**
+     * @param engine      {@link #SUFFIX_SORT_QSUFSORT} or {@link #SUFFIX_SORT_SAIS}
+     * @param threadCount number of threads searching matches, 1 keeps the classic single threaded output
+     * @param codec       compresses the ctrl, diff and extra blocks, {@link BlockCodecs#GZIP} keeps the classic format
+     * @param cache       suffix arrays of old files, null to always sort oldBuf. The patch is the same either way
+     */
+    public static byte[] bsdiff(byte[] oldBuf, int oldsize, byte[] newBuf, int newsize, int engine, int threadCount,
+                                BlockCodec codec, SuffixArrayCache cache) throws IOException {
+        checkSuffixSortEngine(engine);
+        checkSearchThreadCount(threadCount);
+        if (codec == null) {
+            throw new IllegalArgumentException("block codec is null");
+        }
+
+        int[] arrayI = null;
+        String cacheKey = null;
+        if (cache != null) {
+            cacheKey = cache.keyOf(oldBuf, oldsize);
+            arrayI = cache.load(cacheKey, oldsize);
+        }
+        if (arrayI == null) {
+            arrayI = suffixsort(oldBuf, oldsize, engine);
+            if (cache != null) {
+                cache.store(cacheKey, arrayI, oldsize);
+            }
+        }
+
+        DiffRegion[] regions = searchRegions(arrayI, oldBuf, oldsize, newBuf, newsize, threadCount);
+        return writePatch(regions, newsize, codec);
+    }
+
+    /**
+     * Stitch the control, diff and extra blocks of consecutive regions into one patch.
+     */
+    static byte[] writePatch(DiffRegion[] regions, int newsize, BlockCodec codec) throws IOException {
         /*
          * Diff file is composed as follows:
          *
-         * Header (32 bytes) Data (from offset 32 to end of file)
-         *
-         * Header:
-         * Offset 0, length 8 bytes: file magic "MicroMsg"
-         * Offset 8, length 8 bytes: length of compressed ctrl block
-         * Offset 16, length 8 bytes: length of compressed diff block
-         * Offset 24, length 8 bytes: length of new file
+         * Header (32 or 40 bytes, see PatchHeader) Data (from the end of header to end of file)
          *
          * Data:
-         * 32 (length ctrlBlockLen): ctrlBlock (bzip2)
-         * 32 + ctrlBlockLen (length diffBlockLen): diffBlock (bzip2)
-         * 32 + ctrlBlockLen + diffBlockLen (to end of file): extraBlock (bzip2)
+         * headerSize (length ctrlBlockLen): ctrlBlock (compressed by codec)
+         * headerSize + ctrlBlockLen (length diffBlockLen): diffBlock (compressed by codec)
+         * headerSize + ctrlBlockLen + diffBlockLen (to end of file): extraBlock (compressed by codec)
          *
          * ctrlBlock comprises a set of records, each record 12 bytes.
          * A record comprises 3 x 32 bit integers. The ctrlBlock is not compressed.
@@ -358,24 +596,132 @@ public class BSDiff {
         DataOutputStream diffOut = new DataOutputStream(byteOut);
 
         // Write as much of header as we have now. Size of ctrlBlock and diffBlock must be filled in later.
-        diffOut.write(MAGIC_BYTES);
-        diffOut.writeLong(-1); // place holder for ctrlBlockLen
-        diffOut.writeLong(-1); // place holder for diffBlockLen
-        diffOut.writeLong(newsize);
-        diffOut.flush();
+        int headerSize = PatchHeader.sizeOf(codec);
+        new PatchHeader(codec, -1, -1, newsize).write(diffOut);
+
+        OutputStream blockOut = codec.newOutputStream(diffOut);
+        DataOutputStream dataOut = new DataOutputStream(blockOut);
+
+        // Write control block entries (3 x int), the seek of each region's last entry
+        // has to move oldpos to where the next region starts reading the old file.
+        for (int r = 0; r < regions.length; r++) {
+            DiffRegion region = regions[r];
+            if (r < regions.length - 1) {
+                region.ctrlBlock[region.ctrlBlockLen - 1] += regions[r + 1].startpos - region.lastpos;
+            }
+            for (int i = 0; i < region.ctrlBlockLen; i++) {
+                dataOut.writeInt(region.ctrlBlock[i]);
+            }
+        }
 
-        GZIPOutputStream bzip2Out = new GZIPOutputStream(diffOut);
-        DataOutputStream dataOut = new DataOutputStream(bzip2Out);
+        dataOut.flush();
+        blockOut.close();
+
+        // now compressed ctrlBlockLen
+        int ctrlBlockLen = diffOut.size() - headerSize;
+
+        /*
+         * Write diff block
+         */
+        blockOut = codec.newOutputStream(diffOut);
+        for (DiffRegion region : regions) {
+            blockOut.write(region.diffBlock, 0, region.diffBlockLen);
+        }
+        blockOut.close();
+        int diffBlockLen = diffOut.size() - ctrlBlockLen - headerSize;
+        // System.err.println( "Diff: diffBlockLen=" + diffBlockLen );
+
+        /*
+         * Write extra block
+         */
+        blockOut = codec.newOutputStream(diffOut);
+        for (DiffRegion region : regions) {
+            blockOut.write(region.extraBlock, 0, region.extraBlockLen);
+        }
+        blockOut.close();
+
+        diffOut.close();
+
+        /*
+         * Write missing header info.
+         */
+        ByteArrayOutputStream byteHeaderOut = new ByteArrayOutputStream(headerSize);
+        new PatchHeader(codec, ctrlBlockLen, diffBlockLen, newsize).write(byteHeaderOut);
+
+        // Copy header information into the diff
+        byte[] diffBytes = byteOut.toByteArray();
+        byte[] headerBytes = byteHeaderOut.toByteArray();
+
+        System.arraycopy(headerBytes, 0, diffBytes, 0, headerBytes.length);
+
+        return diffBytes;
+    }
+
+    /**
+     * Split newBuf[0...newsize] into regions and search each of them against the shared, read-only arrayI.
+     * A single region gives exactly the classic bsdiff result.
+     */
+    private static DiffRegion[] searchRegions(final int[] arrayI, final byte[] oldBuf, final int oldsize,
+                                              final byte[] newBuf, int newsize, int threadCount) throws IOException {
+        int regionCount = Math.max(1, Math.min(threadCount, newsize / MIN_SEARCH_REGION_SIZE));
+        final DiffRegion[] regions = new DiffRegion[regionCount];
+        int regionSize = newsize / regionCount;
+        for (int r = 0; r < regionCount; r++) {
+            int scanStart = r * regionSize;
+            int scanEnd = (r == regionCount - 1) ? newsize : scanStart + regionSize;
+            regions[r] = new DiffRegion(scanStart, scanEnd, Math.min(scanStart, oldsize));
+        }
+
+        if (regionCount == 1) {
+            searchRegion(arrayI, oldBuf, oldsize, newBuf, regions[0]);
+            return regions;
+        }
+
+        ExecutorService executor = getSearchExecutor();
+        List<Future<Void>> futures = new ArrayList<>(regionCount);
+        boolean finished = false;
+        try {
+            for (final DiffRegion region : regions) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        searchRegion(arrayI, oldBuf, oldsize, newBuf, region);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("bsdiff search is interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("bsdiff search failed", e.getCause());
+        } finally {
+            if (!finished) {
+                // the executor may be shared, only stop the regions of this diff
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * The classic bsdiff scan loop restricted to newBuf[scanStart...scanEnd]. Matches never cross scanEnd,
+     * and the region assumes the old file position is startpos when it starts.
+     */
+    private static void searchRegion(int[] arrayI, byte[] oldBuf, int oldsize, byte[] newBuf, DiffRegion region) {
+        final int newsize = region.scanEnd;
 
         int oldscore, scsc;
 
-        int overlap, ss, lens;
-        int i;
-        int scan = 0;
+        int scan = region.scanStart;
         int matchLen = 0;
-        int lastscan = 0;
-        int lastpos = 0;
-        int lastoffset = 0;
+        int lastoffset = region.startpos - region.scanStart;
 
         IntByRef pos = new IntByRef();
         // int ctrlBlockLen = 0;
@@ -403,127 +749,96 @@ public class BSDiff {
             }
 
             if ((matchLen != oldscore) || (scan == newsize)) {
-
-                int equalNum = 0;
-                int sf = 0;
-                int lenFromOld = 0;
-                for (i = 0; (lastscan + i < scan) && (lastpos + i < oldsize);) {
-                    if (oldBuf[lastpos + i] == newBuf[lastscan + i]) {
-                        equalNum++;
-                    }
-                    i++;
-                    if (equalNum * 2 - i > sf * 2 - lenFromOld) {
-                        sf = equalNum;
-                        lenFromOld = i;
-                    }
-                }
-
-                int lenb = 0;
-                if (scan < newsize) {
-                    equalNum = 0;
-                    int sb = 0;
-                    for (i = 1; (scan >= lastscan + i) && (pos.value >= i); i++) {
-                        if (oldBuf[pos.value - i] == newBuf[scan - i]) {
-                            equalNum++;
-                        }
-                        if (equalNum * 2 - i > sb * 2 - lenb) {
-                            sb = equalNum;
-                            lenb = i;
-                        }
-                    }
-                }
-
-                if (lastscan + lenFromOld > scan - lenb) {
-                    overlap = (lastscan + lenFromOld) - (scan - lenb);
-                    equalNum = 0;
-                    ss = 0;
-                    lens = 0;
-                    for (i = 0; i < overlap; i++) {
-                        if (newBuf[lastscan + lenFromOld - overlap + i] == oldBuf[lastpos + lenFromOld - overlap + i]) {
-                            equalNum++;
-                        }
-                        if (newBuf[scan - lenb + i] == oldBuf[pos.value - lenb + i]) {
-                            equalNum--;
-                        }
-                        if (equalNum > ss) {
-                            ss = equalNum;
-                            lens = i + 1;
-                        }
-                    }
-
-                    lenFromOld += lens - overlap;
-                    lenb -= lens;
-                }
-
-                // ? byte casting introduced here -- might affect things
-                for (i = 0; i < lenFromOld; i++) {
-                    diffBlock[diffBLockLen + i] = (byte) (newBuf[lastscan + i] - oldBuf[lastpos + i]);
-                }
-
-                for (i = 0; i < (scan - lenb) - (lastscan + lenFromOld); i++) {
-                    extraBlock[extraBlockLen + i] = newBuf[lastscan + lenFromOld + i];
-                }
-
-                diffBLockLen += lenFromOld;
-                extraBlockLen += (scan - lenb) - (lastscan + lenFromOld);
-
-                // Write control block entry (3 x int)
-                dataOut.writeInt(lenFromOld);  // oldBuf
-                dataOut.writeInt((scan - lenb) - (lastscan + lenFromOld));  // diffBufextraBlock
-                dataOut.writeInt((pos.value - lenb) - (lastpos + lenFromOld));  // oldBuf
-
-                lastscan = scan - lenb;
-                lastpos = pos.value - lenb;
+                addMatch(oldBuf, oldsize, newBuf, region, scan, pos.value);
                 lastoffset = pos.value - scan;
             } // end if
         } // end while loop
+    }
 
-        dataOut.flush();
-        bzip2Out.finish();
+    /**
+     * Record the control entry that ends where the next match starts, at newBuf[scan] and oldBuf[pos].
+     * The previous match is extended forward and the next one backward as long as they mostly agree,
+     * what is left in between becomes extra data. pos is ignored when scan is the end of the region.
+     */
+    static void addMatch(byte[] oldBuf, int oldsize, byte[] newBuf, DiffRegion region, int scan, int pos) {
+        final int newsize = region.scanEnd;
+        final int lastscan = region.lastscan;
+        final int lastpos = region.lastpos;
+        byte[] diffBlock = region.diffBlock;
+        byte[] extraBlock = region.extraBlock;
+        int overlap, ss, lens;
+        int i;
 
-        // now compressed ctrlBlockLen
-        int ctrlBlockLen = diffOut.size() - BSUtil.HEADER_SIZE;
+        int equalNum = 0;
+        int sf = 0;
+        int lenFromOld = 0;
+        for (i = 0; (lastscan + i < scan) && (lastpos + i < oldsize);) {
+            if (oldBuf[lastpos + i] == newBuf[lastscan + i]) {
+                equalNum++;
+            }
+            i++;
+            if (equalNum * 2 - i > sf * 2 - lenFromOld) {
+                sf = equalNum;
+                lenFromOld = i;
+            }
+        }
 
-        // GZIPOutputStream gzOut;
+        int lenb = 0;
+        if (scan < newsize) {
+            equalNum = 0;
+            int sb = 0;
+            for (i = 1; (scan >= lastscan + i) && (pos >= i); i++) {
+                if (oldBuf[pos - i] == newBuf[scan - i]) {
+                    equalNum++;
+                }
+                if (equalNum * 2 - i > sb * 2 - lenb) {
+                    sb = equalNum;
+                    lenb = i;
+                }
+            }
+        }
 
-        /*
-         * Write diff block
-         */
-        bzip2Out = new GZIPOutputStream(diffOut);
-        bzip2Out.write(diffBlock, 0, diffBLockLen);
-        bzip2Out.finish();
-        bzip2Out.flush();
-        int diffBlockLen = diffOut.size() - ctrlBlockLen - BSUtil.HEADER_SIZE;
-        // System.err.println( "Diff: diffBlockLen=" + diffBlockLen );
+        if (lastscan + lenFromOld > scan - lenb) {
+            overlap = (lastscan + lenFromOld) - (scan - lenb);
+            equalNum = 0;
+            ss = 0;
+            lens = 0;
+            for (i = 0; i < overlap; i++) {
+                if (newBuf[lastscan + lenFromOld - overlap + i] == oldBuf[lastpos + lenFromOld - overlap + i]) {
+                    equalNum++;
+                }
+                if (newBuf[scan - lenb + i] == oldBuf[pos - lenb + i]) {
+                    equalNum--;
+                }
+                if (equalNum > ss) {
+                    ss = equalNum;
+                    lens = i + 1;
+                }
+            }
 
-        /*
-         * Write extra block
-         */
-        bzip2Out = new GZIPOutputStream(diffOut);
-        bzip2Out.write(extraBlock, 0, extraBlockLen);
-        bzip2Out.finish();
-        bzip2Out.flush();
+            lenFromOld += lens - overlap;
+            lenb -= lens;
+        }
 
-        diffOut.close();
+        // ? byte casting introduced here -- might affect things
+        for (i = 0; i < lenFromOld; i++) {
+            diffBlock[region.diffBlockLen + i] = (byte) (newBuf[lastscan + i] - oldBuf[lastpos + i]);
+        }
 
-        /*
-         * Write missing header info.
-         */
-        ByteArrayOutputStream byteHeaderOut = new ByteArrayOutputStream(BSUtil.HEADER_SIZE);
-        DataOutputStream headerOut = new DataOutputStream(byteHeaderOut);
-        headerOut.write(MAGIC_BYTES);
-        headerOut.writeLong(ctrlBlockLen); // place holder for ctrlBlockLen
-        headerOut.writeLong(diffBlockLen); // place holder for diffBlockLen
-        headerOut.writeLong(newsize);
-        headerOut.close();
+        for (i = 0; i < (scan - lenb) - (lastscan + lenFromOld); i++) {
+            extraBlock[region.extraBlockLen + i] = newBuf[lastscan + lenFromOld + i];
+        }
 
-        // Copy header information into the diff
-        byte[] diffBytes = byteOut.toByteArray();
-        byte[] headerBytes = byteHeaderOut.toByteArray();
+        region.diffBlockLen += lenFromOld;
+        region.extraBlockLen += (scan - lenb) - (lastscan + lenFromOld);
 
-        System.arraycopy(headerBytes, 0, diffBytes, 0, headerBytes.length);
+        // Record control block entry (3 x int)
+        region.addCtrl(lenFromOld,  // oldBuf
+            (scan - lenb) - (lastscan + lenFromOld),  // diffBufextraBlock
+            (pos - lenb) - (lastpos + lenFromOld));  // oldBuf
 
-        return diffBytes;
+        region.lastscan = scan - lenb;
+        region.lastpos = pos - lenb;
     }
 
 //    /**
@@ -547,4 +862,50 @@ public class BSDiff {
     private static class IntByRef {
         private int value;
     }
+
+    /**
+     * Search result of newBuf[scanStart...scanEnd].
+     */
+    static class DiffRegion {
+        private final int scanStart;
+        private final int scanEnd;
+        // old file position when the region starts
+        private final int startpos;
+
+        // diff block
+        private final byte[] diffBlock;
+        private int diffBlockLen;
+
+        // extra block
+        private final byte[] extraBlock;
+        private int extraBlockLen;
+
+        private int[] ctrlBlock = new int[3 * 64];
+        private int ctrlBlockLen;
+
+        // new and old file position after the last control entry
+        private int lastscan;
+        private int lastpos;
+
+        DiffRegion(int scanStart, int scanEnd, int startpos) {
+            this.scanStart = scanStart;
+            this.scanEnd = scanEnd;
+            this.startpos = startpos;
+            this.lastscan = scanStart;
+            this.lastpos = startpos;
+            this.diffBlock = new byte[scanEnd - scanStart];
+            this.extraBlock = new byte[scanEnd - scanStart];
+        }
+
+        void addCtrl(int diffLen, int extraLen, int seek) {
+            if (ctrlBlockLen + 3 > ctrlBlock.length) {
+                int[] newCtrlBlock = new int[ctrlBlock.length << 1];
+                System.arraycopy(ctrlBlock, 0, newCtrlBlock, 0, ctrlBlockLen);
+                ctrlBlock = newCtrlBlock;
+            }
+            ctrlBlock[ctrlBlockLen++] = diffLen;
+            ctrlBlock[ctrlBlockLen++] = extraLen;
+            ctrlBlock[ctrlBlockLen++] = seek;
+        }
+    }
 }
@@ -39,7 +39,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
-import java.util.zip.GZIPInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 
 /**
@@ -115,26 +118,14 @@ public class BSPatch {
 //            return RETURN_OLD_FILE_ERR;
 //        }
 
-        DataInputStream diffIn = new DataInputStream(new ByteArrayInputStream(diffBuf, 0, diffSize));
+        // classic header or codec header, see PatchHeader
+        PatchHeader header = PatchHeader.read(new ByteArrayInputStream(diffBuf, 0, diffSize));
+        int newsize = header.newsize;
+        BlockCodec codec = header.codec;
 
-        diffIn.skip(8); // skip headerMagic at header offset 0 (length 8 bytes)
-        long ctrlBlockLen = diffIn.readLong(); // ctrlBlockLen after bzip2 compression at heater offset 8 (length 8 bytes)
-        long diffBlockLen = diffIn.readLong(); // diffBlockLen after bzip2 compression at header offset 16 (length 8 bytes)
-        int newsize = (int) diffIn.readLong(); // size of new file at header offset 24 (length 8 bytes)
-
-        diffIn.close();
-
-        InputStream in = new ByteArrayInputStream(diffBuf, 0, diffSize);
-        in.skip(BSUtil.HEADER_SIZE);
-        DataInputStream ctrlBlockIn = new DataInputStream(new GZIPInputStream(in));
-
-        in = new ByteArrayInputStream(diffBuf, 0, diffSize);
-        in.skip(ctrlBlockLen + BSUtil.HEADER_SIZE);
-        InputStream diffBlockIn = new GZIPInputStream(in);
-
-        in = new ByteArrayInputStream(diffBuf, 0, diffSize);
-        in.skip(diffBlockLen + ctrlBlockLen + BSUtil.HEADER_SIZE);
-        InputStream extraBlockIn = new GZIPInputStream(in);
+        DataInputStream ctrlBlockIn = new DataInputStream(openBlock(codec, diffBuf, header.ctrlBlockStart(), header.diffBlockStart(), diffSize));
+        InputStream diffBlockIn = openBlock(codec, diffBuf, header.diffBlockStart(), header.extraBlockStart(), diffSize);
+        InputStream extraBlockIn = openBlock(codec, diffBuf, header.extraBlockStart(), diffSize, diffSize);
 
         OutputStream outStream = new FileOutputStream(newFile);
         try {
@@ -200,16 +191,216 @@ public class BSPatch {
                 oldpos += ctrl[2];
                 oldFile.seek(oldpos);
             }
-            ctrlBlockIn.close();
-            diffBlockIn.close();
-            extraBlockIn.close();
+            checkEndOfBlocks(ctrlBlockIn, diffBlockIn, extraBlockIn);
         } finally {
+            BSUtil.closeQuietly(ctrlBlockIn);
+            BSUtil.closeQuietly(diffBlockIn);
+            BSUtil.closeQuietly(extraBlockIn);
             oldFile.close();
             outStream.close();
         }
         return RETURN_SUCCESS;
     }
 
+    /**
+     * BSPatch using constant memory size.
+     * The old file and the diff file are memory-mapped, the new file is written through a FileChannel.
+     * Memory size = 2 * BUFFER_SIZE, whatever the file size
+     */
+    public static int patchMapped(File oldFile, File newFile, File diffFile, int extLen) throws IOException {
+        if (oldFile == null || oldFile.length() <= 0) {
+            return RETURN_OLD_FILE_ERR;
+        }
+        if (newFile == null) {
+            return RETURN_NEW_FILE_ERR;
+        }
+        if (diffFile == null || diffFile.length() <= BSUtil.HEADER_SIZE) {
+            return RETURN_DIFF_FILE_ERR;
+        }
+
+        FileOutputStream newOutputStream = new FileOutputStream(newFile);
+        try {
+            return patchMapped(oldFile, diffFile, newOutputStream.getChannel());
+        } finally {
+            BSUtil.closeQuietly(newOutputStream);
+        }
+    }
+
+    /**
+     * Same as {@link #patchMapped(File, File, File, int)}, but writes the new file to a channel,
+     * so callers can digest it on the way. newChannel is not closed. Like the stream versions, an
+     * empty old file is accepted.
+     */
+    public static int patchMapped(File oldFile, File diffFile, WritableByteChannel newChannel) throws IOException {
+        if (oldFile == null || !oldFile.isFile()) {
+            return RETURN_OLD_FILE_ERR;
+        }
+        if (newChannel == null) {
+            return RETURN_NEW_FILE_ERR;
+        }
+        if (diffFile == null || diffFile.length() <= BSUtil.HEADER_SIZE) {
+            return RETURN_DIFF_FILE_ERR;
+        }
+
+        RandomAccessFile oldRaf = null;
+        RandomAccessFile diffRaf = null;
+        try {
+            oldRaf = new RandomAccessFile(oldFile, "r");
+            diffRaf = new RandomAccessFile(diffFile, "r");
+            MappedByteBuffer oldBuf = oldRaf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, oldRaf.length());
+            MappedByteBuffer diffBuf = diffRaf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, diffRaf.length());
+            return patchMapped(oldBuf, diffBuf, newChannel);
+        } finally {
+            BSUtil.closeQuietly(oldRaf);
+            BSUtil.closeQuietly(diffRaf);
+        }
+    }
+
+    /**
+     * @return the size of the new file recorded in the header of the patch from diffBuf's position,
+     * whose position is not changed
+     */
+    public static int getNewSize(ByteBuffer diffBuf) throws IOException {
+        if (diffBuf.remaining() < BSUtil.HEADER_SIZE) {
+            throw new IOException("Corrupt patch, too short: " + diffBuf.remaining());
+        }
+        int newsize = PatchHeader.read(new ByteBufferInputStream(diffBuf.duplicate(), diffBuf.position(), diffBuf.limit())).newsize;
+        if (newsize < 0) {
+            throw new IOException("Corrupt patch, new size: " + newsize);
+        }
+        return newsize;
+    }
+
+    /**
+     * BSPatch using constant memory size, see {@link #patchMapped(File, File, File, int)}.
+     * oldBuf and diffBuf are read from their position to their limit, their positions are not changed.
+     */
+    public static int patchMapped(ByteBuffer oldBuf, ByteBuffer diffBuf, WritableByteChannel newChannel) throws IOException {
+        oldBuf = oldBuf.duplicate();
+        diffBuf = diffBuf.duplicate();
+        int oldOffset = oldBuf.position();
+        int oldsize = oldBuf.remaining();
+        int diffOffset = diffBuf.position();
+        int diffSize = diffBuf.remaining();
+        if (diffSize < BSUtil.HEADER_SIZE) {
+            return RETURN_DIFF_FILE_ERR;
+        }
+
+        // classic header or codec header, see PatchHeader
+        PatchHeader header = PatchHeader.read(new ByteBufferInputStream(diffBuf, diffOffset, diffOffset + diffSize));
+        int newsize = header.newsize;
+        BlockCodec codec = header.codec;
+
+        if (header.ctrlBlockLen < 0 || header.diffBlockLen < 0 || header.extraBlockStart() > diffSize) {
+            return RETURN_DIFF_FILE_ERR;
+        }
+        int ctrlBlockStart = diffOffset + (int) header.ctrlBlockStart();
+        int diffBlockStart = diffOffset + (int) header.diffBlockStart();
+        int extraBlockStart = diffOffset + (int) header.extraBlockStart();
+
+        DataInputStream ctrlBlockIn = new DataInputStream(codec.newInputStream(new ByteBufferInputStream(diffBuf, ctrlBlockStart, diffBlockStart)));
+        InputStream diffBlockIn = codec.newInputStream(new ByteBufferInputStream(diffBuf, diffBlockStart, extraBlockStart));
+        InputStream extraBlockIn = codec.newInputStream(new ByteBufferInputStream(diffBuf, extraBlockStart, diffOffset + diffSize));
+
+        // the only two buffers used whatever the file size
+        byte[] buffer = new byte[BSUtil.BUFFER_SIZE];
+        byte[] oldBuffer = new byte[BSUtil.BUFFER_SIZE];
+        ByteBuffer outBuffer = ByteBuffer.wrap(buffer);
+
+        try {
+            int oldpos = 0;
+            int newpos = 0;
+            int[] ctrl = new int[3];
+
+            while (newpos < newsize) {
+
+                for (int i = 0; i <= 2; i++) {
+                    ctrl[i] = ctrlBlockIn.readInt();
+                }
+
+                if (ctrl[0] < 0 || ctrl[1] < 0 || newpos + ctrl[0] > newsize) {
+                    return RETURN_DIFF_FILE_ERR;
+                }
+
+                // Add ctrl[0] bytes from diffBlock stream to the old file, chunk by chunk
+                int remain = ctrl[0];
+                while (remain > 0) {
+                    int len = Math.min(remain, buffer.length);
+                    if (!BSUtil.readFromStream(diffBlockIn, buffer, 0, len)) {
+                        return RETURN_DIFF_FILE_ERR;
+                    }
+                    // only oldBuf[0...oldsize] takes part in, just like the other patch methods
+                    int from = Math.max(0, -oldpos);
+                    int to = Math.min(len, oldsize - oldpos);
+                    if (from < to) {
+                        oldBuf.position(oldOffset + oldpos + from);
+                        oldBuf.get(oldBuffer, from, to - from);
+                        for (int i = from; i < to; i++) {
+                            buffer[i] += oldBuffer[i];
+                        }
+                    }
+                    outBuffer.clear().limit(len);
+                    writeFully(newChannel, outBuffer);
+
+                    newpos += len;
+                    oldpos += len;
+                    remain -= len;
+                }
+
+                if (newpos + ctrl[1] > newsize) {
+                    return RETURN_DIFF_FILE_ERR;
+                }
+
+                // Copy ctrl[1] bytes from extraBlock stream, chunk by chunk
+                remain = ctrl[1];
+                while (remain > 0) {
+                    int len = Math.min(remain, buffer.length);
+                    if (!BSUtil.readFromStream(extraBlockIn, buffer, 0, len)) {
+                        return RETURN_DIFF_FILE_ERR;
+                    }
+                    outBuffer.clear().limit(len);
+                    writeFully(newChannel, outBuffer);
+
+                    newpos += len;
+                    remain -= len;
+                }
+
+                oldpos += ctrl[2];
+            }
+            checkEndOfBlocks(ctrlBlockIn, diffBlockIn, extraBlockIn);
+        } finally {
+            BSUtil.closeQuietly(ctrlBlockIn);
+            BSUtil.closeQuietly(diffBlockIn);
+            BSUtil.closeQuietly(extraBlockIn);
+        }
+        return RETURN_SUCCESS;
+    }
+
+    private static InputStream openBlock(BlockCodec codec, byte[] diffBuf, long start, long end, int diffSize) throws IOException {
+        if (start < 0 || start > end || end > diffSize) {
+            throw new IOException("Corrupt by wrong patch file, invalid block range " + start + "-" + end);
+        }
+        return codec.newInputStream(new ByteArrayInputStream(diffBuf, (int) start, (int) (end - start)));
+    }
+
+    /**
+     * The new file is complete, so every block must be used up. It catches patches with trailing data
+     * in a block, which a codec that is not self-delimiting can not tell by itself.
+     */
+    private static void checkEndOfBlocks(InputStream... blocks) throws IOException {
+        for (InputStream block : blocks) {
+            if (block.read() != -1) {
+                throw new IOException("Corrupt by wrong patch file, unused data at the end of a block.");
+            }
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
     /**
      * This patch method is fast ,but using more memory.
      * Memory size = oldBuf + diffBuf + newBuf
@@ -262,17 +453,35 @@ public class BSPatch {
             return RETURN_DIFF_FILE_ERR;
         }
 
-        byte[] oldBytes = BSUtil.inputStreamToByte(oldInputStream);
-        byte[] diffBytes = BSUtil.inputStreamToByte(diffInputStream);
-
-        byte[] newBytes = patchFast(oldBytes, oldBytes.length, diffBytes, diffBytes.length, 0);
-
         OutputStream newOutputStream = new FileOutputStream(newFile);
         try {
-            newOutputStream.write(newBytes);
+            return patchFast(oldInputStream, diffInputStream, newOutputStream);
         } finally {
             newOutputStream.close();
         }
+    }
+
+    /**
+     * Same as {@link #patchFast(InputStream, InputStream, File)}, but writes the new file to a stream,
+     * so callers can digest or compress it on the way. newOutputStream is not closed.
+     */
+    public static int patchFast(InputStream oldInputStream, InputStream diffInputStream, OutputStream newOutputStream) throws IOException {
+        if (oldInputStream == null) {
+            return RETURN_OLD_FILE_ERR;
+        }
+        if (newOutputStream == null) {
+            return RETURN_NEW_FILE_ERR;
+        }
+        if (diffInputStream == null) {
+            return RETURN_DIFF_FILE_ERR;
+        }
+
+        byte[] oldBytes = BSUtil.inputStreamToByte(oldInputStream);
+        byte[] diffBytes = BSUtil.inputStreamToByte(diffInputStream);
+
+        byte[] newBytes = patchFast(oldBytes, oldBytes.length, diffBytes, diffBytes.length, 0);
+
+        newOutputStream.write(newBytes);
         return RETURN_SUCCESS;
     }
 
@@ -310,73 +519,65 @@ public class BSPatch {
      * Memory size = oldBuf + diffBuf + newBuf
      */
     public static byte[] patchFast(byte[] oldBuf, int oldsize, byte[] diffBuf, int diffSize, int extLen) throws IOException {
-        DataInputStream diffIn = new DataInputStream(new ByteArrayInputStream(diffBuf, 0, diffSize));
-
-        diffIn.skip(8); // skip headerMagic at header offset 0 (length 8 bytes)
-        long ctrlBlockLen = diffIn.readLong(); // ctrlBlockLen after bzip2 compression at heater offset 8 (length 8 bytes)
-        long diffBlockLen = diffIn.readLong(); // diffBlockLen after bzip2 compression at header offset 16 (length 8 bytes)
-        int newsize = (int) diffIn.readLong(); // size of new file at header offset 24 (length 8 bytes)
+        // classic header or codec header, see PatchHeader
+        PatchHeader header = PatchHeader.read(new ByteArrayInputStream(diffBuf, 0, diffSize));
+        int newsize = header.newsize;
+        BlockCodec codec = header.codec;
 
-        diffIn.close();
-
-        InputStream in = new ByteArrayInputStream(diffBuf, 0, diffSize);
-        in.skip(BSUtil.HEADER_SIZE);
-        DataInputStream ctrlBlockIn = new DataInputStream(new GZIPInputStream(in));
-
-        in = new ByteArrayInputStream(diffBuf, 0, diffSize);
-        in.skip(ctrlBlockLen + BSUtil.HEADER_SIZE);
-        InputStream diffBlockIn = new GZIPInputStream(in);
-
-        in = new ByteArrayInputStream(diffBuf, 0, diffSize);
-        in.skip(diffBlockLen + ctrlBlockLen + BSUtil.HEADER_SIZE);
-        InputStream extraBlockIn = new GZIPInputStream(in);
+        DataInputStream ctrlBlockIn = new DataInputStream(openBlock(codec, diffBuf, header.ctrlBlockStart(), header.diffBlockStart(), diffSize));
+        InputStream diffBlockIn = openBlock(codec, diffBuf, header.diffBlockStart(), header.extraBlockStart(), diffSize);
+        InputStream extraBlockIn = openBlock(codec, diffBuf, header.extraBlockStart(), diffSize, diffSize);
 
         // byte[] newBuf = new byte[newsize + 1];
         byte[] newBuf = new byte[newsize];
 
-        int oldpos = 0;
-        int newpos = 0;
-        int[] ctrl = new int[3];
+        try {
+            int oldpos = 0;
+            int newpos = 0;
+            int[] ctrl = new int[3];
 
-        // int nbytes;
-        while (newpos < newsize) {
+            // int nbytes;
+            while (newpos < newsize) {
 
-            for (int i = 0; i <= 2; i++) {
-                ctrl[i] = ctrlBlockIn.readInt();
-            }
+                for (int i = 0; i <= 2; i++) {
+                    ctrl[i] = ctrlBlockIn.readInt();
+                }
 
-            if (newpos + ctrl[0] > newsize) {
-                throw new IOException("Corrupt by wrong patch file.");
-            }
+                if (newpos + ctrl[0] > newsize) {
+                    throw new IOException("Corrupt by wrong patch file.");
+                }
 
-            // Read ctrl[0] bytes from diffBlock stream
-            if (!BSUtil.readFromStream(diffBlockIn, newBuf, newpos, ctrl[0])) {
-                throw new IOException("Corrupt by wrong patch file.");
-            }
+                // Read ctrl[0] bytes from diffBlock stream
+                if (!BSUtil.readFromStream(diffBlockIn, newBuf, newpos, ctrl[0])) {
+                    throw new IOException("Corrupt by wrong patch file.");
+                }
 
-            for (int i = 0; i < ctrl[0]; i++) {
-                if ((oldpos + i >= 0) && (oldpos + i < oldsize)) {
-                    newBuf[newpos + i] += oldBuf[oldpos + i];
+                for (int i = 0; i < ctrl[0]; i++) {
+                    if ((oldpos + i >= 0) && (oldpos + i < oldsize)) {
+                        newBuf[newpos + i] += oldBuf[oldpos + i];
+                    }
                 }
-            }
 
-            newpos += ctrl[0];
-            oldpos += ctrl[0];
+                newpos += ctrl[0];
+                oldpos += ctrl[0];
 
-            if (newpos + ctrl[1] > newsize) {
-                throw new IOException("Corrupt by wrong patch file.");
-            }
+                if (newpos + ctrl[1] > newsize) {
+                    throw new IOException("Corrupt by wrong patch file.");
+                }
 
-            if (!BSUtil.readFromStream(extraBlockIn, newBuf, newpos, ctrl[1])) {
-                throw new IOException("Corrupt by wrong patch file.");
-            }
+                if (!BSUtil.readFromStream(extraBlockIn, newBuf, newpos, ctrl[1])) {
+                    throw new IOException("Corrupt by wrong patch file.");
+                }
 
-            newpos += ctrl[1];
-            oldpos += ctrl[2];
+                newpos += ctrl[1];
+                oldpos += ctrl[2];
+            }
+            checkEndOfBlocks(ctrlBlockIn, diffBlockIn, extraBlockIn);
+        } finally {
+            BSUtil.closeQuietly(ctrlBlockIn);
+            BSUtil.closeQuietly(diffBlockIn);
+            BSUtil.closeQuietly(extraBlockIn);
         }
-        ctrlBlockIn.close();
-        diffBlockIn.close();
-        extraBlockIn.close();
 
         return newBuf;
     }
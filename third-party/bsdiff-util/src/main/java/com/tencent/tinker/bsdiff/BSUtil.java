@@ -29,6 +29,7 @@
 package com.tencent.tinker.bsdiff;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -80,4 +81,15 @@ public class BSUtil {
         data = null;
         return outStream.toByteArray();
     }
-}
\ No newline at end of file
+
+    public static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Throwable ignored) {
+            // ignored.
+        }
+    }
+}
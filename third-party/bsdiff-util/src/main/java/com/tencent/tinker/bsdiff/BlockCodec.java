@@ -0,0 +1,43 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.bsdiff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compression of the ctrl, diff and extra blocks of a bsdiff patch.
+ * The codec id is stored in the patch header, so the patcher can find the matching codec
+ * through {@link BlockCodecs#get(int)}.
+ */
+public interface BlockCodec {
+
+    /**
+     * Id stored in the patch header, ids below 256 are reserved for {@link BlockCodecs}.
+     */
+    int getId();
+
+    String getName();
+
+    /**
+     * Closing the returned stream must finish the block without closing out.
+     */
+    OutputStream newOutputStream(OutputStream out) throws IOException;
+
+    InputStream newInputStream(InputStream in) throws IOException;
+}
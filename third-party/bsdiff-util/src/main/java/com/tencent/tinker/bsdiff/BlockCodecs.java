@@ -0,0 +1,254 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.bsdiff;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Built-in block codecs and the registry used to resolve the codec id of a patch header.
+ */
+public final class BlockCodecs {
+
+    public static final int ID_GZIP    = 0;
+    public static final int ID_STORED  = 1;
+    public static final int ID_DEFLATE = 2;
+    public static final int ID_LZ4     = 3;
+
+    /**
+     * The classic bsdiff codec, patches using it keep the old header format.
+     */
+    public static final BlockCodec GZIP   = new GzipCodec();
+    public static final BlockCodec STORED = new StoredCodec();
+    public static final BlockCodec LZ4    = new LZ4BlockCodec();
+
+    private static final Map<Integer, BlockCodec> CODECS = new HashMap<>();
+
+    static {
+        register(GZIP);
+        register(STORED);
+        register(deflate(Deflater.DEFAULT_COMPRESSION));
+        register(LZ4);
+    }
+
+    private BlockCodecs() {
+    }
+
+    /**
+     * Deflate with the given level, the level only matters for compression.
+     */
+    public static BlockCodec deflate(int level) {
+        return new DeflateCodec(level);
+    }
+
+    public static synchronized void register(BlockCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("codec is null");
+        }
+        BlockCodec exist = CODECS.get(codec.getId());
+        if (exist != null && !exist.getName().equals(codec.getName())) {
+            throw new IllegalArgumentException("codec id " + codec.getId() + " is already used by " + exist.getName());
+        }
+        if (exist == null) {
+            CODECS.put(codec.getId(), codec);
+        }
+    }
+
+    /**
+     * @return the codec registered with id, or null if there is none
+     */
+    public static synchronized BlockCodec get(int id) {
+        return CODECS.get(id);
+    }
+
+    /**
+     * Resolve a codec by its name, such as "gzip", "stored", "lz4", "deflate" or "deflate:9".
+     */
+    public static synchronized BlockCodec forName(String name) {
+        if (name == null || name.length() == 0) {
+            throw new IllegalArgumentException("codec name is empty");
+        }
+        String codecName = name.trim();
+        int level = Deflater.DEFAULT_COMPRESSION;
+        int separator = codecName.indexOf(':');
+        if (separator >= 0) {
+            try {
+                level = Integer.parseInt(codecName.substring(separator + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid codec level: " + name);
+            }
+            codecName = codecName.substring(0, separator).trim();
+            if (!codecName.equals(DeflateCodec.NAME)) {
+                throw new IllegalArgumentException("codec " + codecName + " does not support level: " + name);
+            }
+        }
+        if (codecName.equals(DeflateCodec.NAME)) {
+            if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+                throw new IllegalArgumentException("invalid deflate level: " + name);
+            }
+            return deflate(level);
+        }
+        for (BlockCodec codec : CODECS.values()) {
+            if (codec.getName().equals(codecName)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("unknown codec: " + name);
+    }
+
+    /**
+     * Finishing a block must leave the patch stream open for the next block.
+     */
+    static final class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static final class GzipCodec implements BlockCodec {
+
+        @Override
+        public int getId() {
+            return ID_GZIP;
+        }
+
+        @Override
+        public String getName() {
+            return "gzip";
+        }
+
+        @Override
+        public OutputStream newOutputStream(OutputStream out) throws IOException {
+            return new GZIPOutputStream(new NonClosingOutputStream(out));
+        }
+
+        @Override
+        public InputStream newInputStream(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    }
+
+    private static final class StoredCodec implements BlockCodec {
+
+        @Override
+        public int getId() {
+            return ID_STORED;
+        }
+
+        @Override
+        public String getName() {
+            return "stored";
+        }
+
+        @Override
+        public OutputStream newOutputStream(OutputStream out) {
+            return new NonClosingOutputStream(out);
+        }
+
+        @Override
+        public InputStream newInputStream(InputStream in) {
+            return in;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    }
+
+    private static final class DeflateCodec implements BlockCodec {
+        private static final String NAME = "deflate";
+
+        private final int level;
+
+        DeflateCodec(int level) {
+            this.level = level;
+        }
+
+        @Override
+        public int getId() {
+            return ID_DEFLATE;
+        }
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        @Override
+        public OutputStream newOutputStream(OutputStream out) {
+            final Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(new NonClosingOutputStream(out), deflater, BSUtil.BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream newInputStream(InputStream in) {
+            // own the inflater so its native memory is freed on close, not on finalization
+            final Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, BSUtil.BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return NAME + ":" + level;
+        }
+    }
+}
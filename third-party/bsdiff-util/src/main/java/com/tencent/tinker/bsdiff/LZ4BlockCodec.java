@@ -0,0 +1,412 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.bsdiff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A pure java codec using the LZ4 block format, it trades some ratio for a much faster inflate.
+ *
+ * The stream is a sequence of chunks, each one holds up to CHUNK_SIZE raw bytes:
+ * 1 byte chunk type (stored or lz4), 4 bytes raw length, 4 bytes chunk data length, chunk data.
+ * An end chunk with both lengths 0 closes the stream, nothing may follow it.
+ */
+final class LZ4BlockCodec implements BlockCodec {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int CHUNK_STORED = 0;
+    private static final int CHUNK_LZ4    = 1;
+    private static final int CHUNK_END    = 2;
+
+    private static final int MIN_MATCH     = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT      = 12;
+    private static final int MAX_DISTANCE  = 65535;
+    private static final int HASH_LOG      = 12;
+    private static final int ML_BITS       = 4;
+    private static final int ML_MASK       = (1 << ML_BITS) - 1;
+    private static final int RUN_MASK      = (1 << (8 - ML_BITS)) - 1;
+
+    @Override
+    public int getId() {
+        return BlockCodecs.ID_LZ4;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public OutputStream newOutputStream(OutputStream out) {
+        return new LZ4BlockOutputStream(out);
+    }
+
+    @Override
+    public InputStream newInputStream(InputStream in) {
+        return new LZ4BlockInputStream(in);
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    private static int readIntLE(byte[] buf, int i) {
+        return (buf[i] & 0xff) | ((buf[i + 1] & 0xff) << 8) | ((buf[i + 2] & 0xff) << 16) | ((buf[i + 3] & 0xff) << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    /**
+     * Compress src[srcOff...srcOff + srcLen] into dst, dst must hold maxCompressedLength(srcLen) bytes.
+     *
+     * @return the compressed length
+     */
+    static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int[] hashTable) {
+        final int srcEnd = srcOff + srcLen;
+        final int mfLimit = srcEnd - MF_LIMIT;
+        final int matchLimit = srcEnd - LAST_LITERALS;
+
+        int ip = srcOff;
+        int anchor = srcOff;
+        int op = dstOff;
+
+        if (srcLen > MF_LIMIT) {
+            Arrays.fill(hashTable, -1);
+            while (ip < mfLimit) {
+                int sequence = readIntLE(src, ip);
+                int h = hash(sequence);
+                int ref = hashTable[h];
+                hashTable[h] = ip;
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readIntLE(src, ref) != sequence) {
+                    ip++;
+                    continue;
+                }
+
+                // catch up the literals which also match
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+                ip += matchLen;
+                anchor = ip;
+
+                if (ip < mfLimit) {
+                    hashTable[hash(readIntLE(src, ip - 2))] = ip - 2;
+                }
+            }
+        }
+
+        // the last literals
+        op = writeLiterals(src, anchor, srcEnd - anchor, 0, dst, op);
+        return op - dstOff;
+    }
+
+    private static int writeSequence(byte[] src, int literalOff, int literalLen, int offset, int matchLen, byte[] dst, int op) {
+        int matchCode = matchLen - MIN_MATCH;
+        op = writeLiterals(src, literalOff, literalLen, matchCode < ML_MASK ? matchCode : ML_MASK, dst, op);
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        if (matchCode >= ML_MASK) {
+            op = writeLength(matchCode - ML_MASK, dst, op);
+        }
+        return op;
+    }
+
+    private static int writeLiterals(byte[] src, int literalOff, int literalLen, int matchToken, byte[] dst, int op) {
+        int tokenPos = op++;
+        if (literalLen >= RUN_MASK) {
+            dst[tokenPos] = (byte) ((RUN_MASK << ML_BITS) | matchToken);
+            op = writeLength(literalLen - RUN_MASK, dst, op);
+        } else {
+            dst[tokenPos] = (byte) ((literalLen << ML_BITS) | matchToken);
+        }
+        System.arraycopy(src, literalOff, dst, op, literalLen);
+        return op + literalLen;
+    }
+
+    private static int writeLength(int length, byte[] dst, int op) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    /**
+     * Decompress src[srcOff...srcOff + srcLen] into exactly dstLen bytes of dst.
+     */
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) throws IOException {
+        final int srcEnd = srcOff + srcLen;
+        final int dstEnd = dstOff + dstLen;
+        int ip = srcOff;
+        int op = dstOff;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xff;
+
+                int literalLen = token >>> ML_BITS;
+                if (literalLen == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        literalLen += b;
+                    } while (b == 255);
+                }
+                if (ip + literalLen > srcEnd || op + literalLen > dstEnd) {
+                    throw new IOException("Corrupt lz4 block, literals out of range.");
+                }
+                System.arraycopy(src, ip, dst, op, literalLen);
+                ip += literalLen;
+                op += literalLen;
+
+                // the last sequence only has literals
+                if (ip == srcEnd) {
+                    break;
+                }
+
+                int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+                ip += 2;
+                int matchLen = token & ML_MASK;
+                if (matchLen == ML_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff || op + matchLen > dstEnd) {
+                    throw new IOException("Corrupt lz4 block, match out of range.");
+                }
+                if (offset >= matchLen) {
+                    System.arraycopy(dst, ref, dst, op, matchLen);
+                    op += matchLen;
+                } else {
+                    // overlapped match, it repeats the bytes it is producing
+                    for (int i = 0; i < matchLen; i++) {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt lz4 block, unexpected end of data.");
+        }
+        if (op != dstEnd) {
+            throw new IOException("Corrupt lz4 block, expect " + dstLen + " bytes, got " + (op - dstOff));
+        }
+    }
+
+    private static final class LZ4BlockOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[]       buffer           = new byte[CHUNK_SIZE];
+        private final byte[]       compressedBuffer = new byte[maxCompressedLength(CHUNK_SIZE)];
+        private final byte[]       chunkHeader      = new byte[9];
+        private final int[]        hashTable        = new int[1 << HASH_LOG];
+        private int                count;
+        private boolean            closed;
+
+        LZ4BlockOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeChunk();
+            out.flush();
+        }
+
+        /**
+         * Finish the block, the underlying stream is left open.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writeChunk();
+            chunkHeader[0] = (byte) CHUNK_END;
+            writeIntBE(chunkHeader, 1, 0);
+            writeIntBE(chunkHeader, 5, 0);
+            out.write(chunkHeader, 0, chunkHeader.length);
+            out.flush();
+        }
+
+        private void writeChunk() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            int compressedLen = compress(buffer, 0, count, compressedBuffer, 0, hashTable);
+            boolean stored = compressedLen >= count;
+            int dataLen = stored ? count : compressedLen;
+            chunkHeader[0] = (byte) (stored ? CHUNK_STORED : CHUNK_LZ4);
+            writeIntBE(chunkHeader, 1, count);
+            writeIntBE(chunkHeader, 5, dataLen);
+            out.write(chunkHeader, 0, chunkHeader.length);
+            out.write(stored ? buffer : compressedBuffer, 0, dataLen);
+            count = 0;
+        }
+
+        private static void writeIntBE(byte[] buf, int off, int value) {
+            buf[off] = (byte) (value >>> 24);
+            buf[off + 1] = (byte) (value >>> 16);
+            buf[off + 2] = (byte) (value >>> 8);
+            buf[off + 3] = (byte) value;
+        }
+    }
+
+    private static final class LZ4BlockInputStream extends InputStream {
+        private final InputStream in;
+        private final byte[]      buffer           = new byte[CHUNK_SIZE];
+        private final byte[]      compressedBuffer = new byte[maxCompressedLength(CHUNK_SIZE)];
+        private final byte[]      chunkHeader      = new byte[9];
+        private int               position;
+        private int               limit;
+        private boolean           ended;
+
+        LZ4BlockInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !readChunk()) {
+                return -1;
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !readChunk()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * The underlying stream must end right after the end chunk.
+         */
+        private boolean readChunk() throws IOException {
+            if (ended) {
+                return false;
+            }
+            int first = in.read();
+            if (first < 0) {
+                throw new IOException("Corrupt lz4 stream, missing end chunk.");
+            }
+            chunkHeader[0] = (byte) first;
+            if (!BSUtil.readFromStream(in, chunkHeader, 1, chunkHeader.length - 1)) {
+                throw new IOException("Corrupt lz4 stream, truncated chunk header.");
+            }
+            int rawLen = readIntBE(chunkHeader, 1);
+            int dataLen = readIntBE(chunkHeader, 5);
+            if (first == CHUNK_END) {
+                if (rawLen != 0 || dataLen != 0) {
+                    throw new IOException("Corrupt lz4 stream, invalid end chunk.");
+                }
+                if (in.read() >= 0) {
+                    throw new IOException("Corrupt lz4 stream, unexpected data after the end chunk.");
+                }
+                ended = true;
+                return false;
+            }
+            if (rawLen <= 0 || rawLen > CHUNK_SIZE || dataLen <= 0 || dataLen > compressedBuffer.length) {
+                throw new IOException("Corrupt lz4 stream, invalid chunk length.");
+            }
+            if (first == CHUNK_STORED) {
+                if (dataLen != rawLen || !BSUtil.readFromStream(in, buffer, 0, rawLen)) {
+                    throw new IOException("Corrupt lz4 stream, truncated stored chunk.");
+                }
+            } else if (first == CHUNK_LZ4) {
+                if (!BSUtil.readFromStream(in, compressedBuffer, 0, dataLen)) {
+                    throw new IOException("Corrupt lz4 stream, truncated chunk.");
+                }
+                decompress(compressedBuffer, 0, dataLen, buffer, 0, rawLen);
+            } else {
+                throw new IOException("Corrupt lz4 stream, unknown chunk type " + first);
+            }
+            position = 0;
+            limit = rawLen;
+            return true;
+        }
+
+        private static int readIntBE(byte[] buf, int off) {
+            return ((buf[off] & 0xff) << 24) | ((buf[off + 1] & 0xff) << 16) | ((buf[off + 2] & 0xff) << 8) | (buf[off + 3] & 0xff);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.bsdiff;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Header of a bsdiff patch.
+ *
+ * Classic header, 32 bytes, its blocks are always gzip:
+ * Offset 0, length 8 bytes: file magic "MicroMsg"
+ * Offset 8, length 8 bytes: length of compressed ctrl block
+ * Offset 16, length 8 bytes: length of compressed diff block
+ * Offset 24, length 8 bytes: length of new file
+ *
+ * Codec header, 40 bytes:
+ * Offset 0, length 8 bytes: file magic "MicroMsC"
+ * Offset 8, length 8 bytes: id of the block codec
+ * Offset 16, length 8 bytes: length of compressed ctrl block
+ * Offset 24, length 8 bytes: length of compressed diff block
+ * Offset 32, length 8 bytes: length of new file
+ */
+final class PatchHeader {
+
+    static final byte[] MAGIC_BYTES = new byte[]{0x4D, 0x69, 0x63,
+        0x72, 0x6F, 0x4D, 0x73, 0x67};
+
+    static final byte[] CODEC_MAGIC_BYTES = new byte[]{0x4D, 0x69, 0x63,
+        0x72, 0x6F, 0x4D, 0x73, 0x43};
+
+    static final int CODEC_HEADER_SIZE = 40;
+
+    final BlockCodec codec;
+    final int        headerSize;
+    final long       ctrlBlockLen;
+    final long       diffBlockLen;
+    final int        newsize;
+
+    PatchHeader(BlockCodec codec, long ctrlBlockLen, long diffBlockLen, int newsize) {
+        this.codec = codec;
+        this.headerSize = sizeOf(codec);
+        this.ctrlBlockLen = ctrlBlockLen;
+        this.diffBlockLen = diffBlockLen;
+        this.newsize = newsize;
+    }
+
+    static int sizeOf(BlockCodec codec) {
+        return codec.getId() == BlockCodecs.ID_GZIP ? BSUtil.HEADER_SIZE : CODEC_HEADER_SIZE;
+    }
+
+    long ctrlBlockStart() {
+        return headerSize;
+    }
+
+    long diffBlockStart() {
+        return headerSize + ctrlBlockLen;
+    }
+
+    long extraBlockStart() {
+        return headerSize + ctrlBlockLen + diffBlockLen;
+    }
+
+    /**
+     * Patches without the codec magic are classic gzip ones, the magic of those was never checked.
+     */
+    static PatchHeader read(InputStream in) throws IOException {
+        DataInputStream diffIn = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC_BYTES.length];
+        diffIn.readFully(magic);
+
+        BlockCodec codec = BlockCodecs.GZIP;
+        if (Arrays.equals(magic, CODEC_MAGIC_BYTES)) {
+            long codecId = diffIn.readLong();
+            codec = BlockCodecs.get((int) codecId);
+            if (codec == null || codecId != (int) codecId) {
+                throw new IOException("Corrupt by unknown block codec " + codecId + ".");
+            }
+        }
+        long ctrlBlockLen = diffIn.readLong(); // ctrlBlockLen after compression
+        long diffBlockLen = diffIn.readLong(); // diffBlockLen after compression
+        int newsize = (int) diffIn.readLong(); // size of new file
+        return new PatchHeader(codec, ctrlBlockLen, diffBlockLen, newsize);
+    }
+
+    void write(OutputStream out) throws IOException {
+        DataOutputStream headerOut = new DataOutputStream(out);
+        if (headerSize == BSUtil.HEADER_SIZE) {
+            headerOut.write(MAGIC_BYTES);
+        } else {
+            headerOut.write(CODEC_MAGIC_BYTES);
+            headerOut.writeLong(codec.getId());
+        }
+        headerOut.writeLong(ctrlBlockLen);
+        headerOut.writeLong(diffBlockLen);
+        headerOut.writeLong(newsize);
+        headerOut.flush();
+    }
+}
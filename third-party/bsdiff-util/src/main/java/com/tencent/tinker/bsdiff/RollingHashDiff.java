@@ -0,0 +1,168 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.bsdiff;
+
+/**
+ * Approximate diff for very large files, in the spirit of HDiffPatch's covers. The old file is
+ * indexed by the hashes of its aligned blocks, the new file is scanned with a rolling hash of the
+ * same width and every hit is extended into an exact match (a cover) in both directions.
+ *
+ * It runs in O(n) time and needs at most oldsize / 2 bytes for the index instead of a suffix array,
+ * at the price of missing matches shorter than about two blocks. The covers are turned into
+ * control entries by {@link BSDiff#addMatch}, so the patch is an ordinary bsdiff patch.
+ */
+final class RollingHashDiff {
+    static final int DEFAULT_BLOCK_SIZE = 32;
+
+    private static final int HASH_MULTIPLIER = 0x01000193;
+
+    private RollingHashDiff() {
+    }
+
+    static BSDiff.DiffRegion search(byte[] oldBuf, int oldsize, byte[] newBuf, int newsize, int blockSize) {
+        if (blockSize < 4) {
+            throw new IllegalArgumentException("block size is too small: " + blockSize);
+        }
+        BSDiff.DiffRegion region = new BSDiff.DiffRegion(0, newsize, 0);
+        if (newsize == 0) {
+            return region;
+        }
+        if (oldsize >= blockSize && newsize >= blockSize) {
+            BlockIndex index = new BlockIndex(oldBuf, oldsize, blockSize);
+            int highPower = 1;
+            for (int i = 1; i < blockSize; i++) {
+                highPower *= HASH_MULTIPLIER;
+            }
+
+            int scan = 0;
+            // end of the last cover in newBuf, covers never overlap in the new file.
+            int coveredEnd = 0;
+            int lastoffset = 0;
+            int hash = hash(newBuf, 0, blockSize);
+            while (scan + blockSize <= newsize) {
+                int pos = index.find(hash, newBuf, scan);
+                if (pos >= 0) {
+                    int start = scan;
+                    int oldStart = pos;
+                    while (start > coveredEnd && oldStart > 0 && oldBuf[oldStart - 1] == newBuf[start - 1]) {
+                        start--;
+                        oldStart--;
+                    }
+                    int end = scan + blockSize;
+                    int oldEnd = pos + blockSize;
+                    while (end < newsize && oldEnd < oldsize && oldBuf[oldEnd] == newBuf[end]) {
+                        end++;
+                        oldEnd++;
+                    }
+                    // a cover continuing the last one is left to the approximate extension of addMatch,
+                    // just like bsdiff keeps a match with a few changed bytes in one diff block.
+                    if (oldStart - start != lastoffset) {
+                        BSDiff.addMatch(oldBuf, oldsize, newBuf, region, start, oldStart);
+                        lastoffset = oldStart - start;
+                    }
+                    scan = end;
+                    coveredEnd = end;
+                    if (scan + blockSize <= newsize) {
+                        hash = hash(newBuf, scan, blockSize);
+                    }
+                    continue;
+                }
+                if (scan + blockSize < newsize) {
+                    hash = (hash - (newBuf[scan] & 0xff) * highPower) * HASH_MULTIPLIER + (newBuf[scan + blockSize] & 0xff);
+                }
+                scan++;
+            }
+        }
+        BSDiff.addMatch(oldBuf, oldsize, newBuf, region, newsize, 0);
+        return region;
+    }
+
+    private static int hash(byte[] buf, int offset, int len) {
+        int hash = 0;
+        for (int i = 0; i < len; i++) {
+            hash = hash * HASH_MULTIPLIER + (buf[offset + i] & 0xff);
+        }
+        return hash;
+    }
+
+    private static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset, int len) {
+        for (int i = 0; i < len; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Open addressing table from block hash to the first old block with that content.
+     */
+    private static final class BlockIndex {
+        private final byte[] oldBuf;
+        private final int    blockSize;
+        private final int[]  hashes;
+        // block offset + 1, 0 marks an empty slot
+        private final int[]  positions;
+        private final int    mask;
+
+        BlockIndex(byte[] oldBuf, int oldsize, int blockSize) {
+            this.oldBuf = oldBuf;
+            this.blockSize = blockSize;
+            int blockCount = oldsize / blockSize;
+            int capacity = Integer.highestOneBit(Math.max(blockCount, 1)) << 1;
+            hashes = new int[capacity];
+            positions = new int[capacity];
+            mask = capacity - 1;
+            for (int b = 0; b < blockCount; b++) {
+                insert(hash(oldBuf, b * blockSize, blockSize), b * blockSize);
+            }
+        }
+
+        private void insert(int hash, int pos) {
+            int slot = slotOf(hash);
+            while (positions[slot] != 0) {
+                // repeated content, e.g. padding, only the first copy is kept
+                if (hashes[slot] == hash && regionEquals(oldBuf, positions[slot] - 1, oldBuf, pos, blockSize)) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            positions[slot] = pos + 1;
+        }
+
+        /**
+         * @return offset of an old block equal to buf[offset...offset + blockSize], -1 if there is none
+         */
+        int find(int hash, byte[] buf, int offset) {
+            int slot = slotOf(hash);
+            while (positions[slot] != 0) {
+                if (hashes[slot] == hash && regionEquals(oldBuf, positions[slot] - 1, buf, offset, blockSize)) {
+                    return positions[slot] - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private int slotOf(int hash) {
+            int h = hash * 0x9e3779b9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.bsdiff;
+
+/**
+ * Linear time suffix array construction. Nong, Zhang and Chan's SA-IS algorithm, see
+ * "Two Efficient Algorithms for Linear Time Suffix Array Construction".
+ *
+ * The result has the same layout qsufsort produces for bsdiff: sa[0] is the empty suffix
+ * (index size), followed by the suffixes of buf[0...size] in unsigned byte order. Since a
+ * suffix array is unique, patches built on top of it are byte-identical to the qsufsort ones.
+ */
+final class SAIS {
+
+    private SAIS() {
+    }
+
+    /**
+     * @param buf  text to be sorted, only buf[0...size] is used
+     * @param size length of the text
+     * @param sa   output array, its length must be at least size + 1
+     */
+    static void suffixsort(byte[] buf, int size, int[] sa) {
+        if (sa.length < size + 1) {
+            throw new IllegalArgumentException("suffix array is too small, need " + (size + 1) + ", got " + sa.length);
+        }
+        sais(buf, null, sa, size, 256);
+    }
+
+    /**
+     * Sort text[0...n] with a virtual sentinel at text[n] which is smaller than any other symbol.
+     * Exactly one of bt and it is non-null, symbols of it must be in [0, k).
+     */
+    private static void sais(byte[] bt, int[] it, int[] sa, int n, int k) {
+        sa[0] = n;
+        if (n == 0) {
+            return;
+        }
+
+        // true means S-type, the sentinel is always S-type and text[n - 1] is always L-type.
+        boolean[] types = new boolean[n + 1];
+        types[n] = true;
+        for (int i = n - 2; i >= 0; i--) {
+            int c0 = chr(bt, it, i);
+            int c1 = chr(bt, it, i + 1);
+            types[i] = c0 < c1 || (c0 == c1 && types[i + 1]);
+        }
+
+        int[] buckets = new int[k];
+        int[] bucketCounts = new int[k];
+        for (int i = 0; i < n; i++) {
+            bucketCounts[chr(bt, it, i)]++;
+        }
+
+        // stage 1: sort all the LMS substrings.
+        for (int i = 1; i <= n; i++) {
+            sa[i] = -1;
+        }
+        getBucketEnds(bucketCounts, buckets, k);
+        for (int i = n - 1; i >= 1; i--) {
+            if (isLMS(types, i)) {
+                sa[--buckets[chr(bt, it, i)]] = i;
+            }
+        }
+        induceL(bt, it, sa, types, bucketCounts, buckets, n, k);
+        induceS(bt, it, sa, types, bucketCounts, buckets, n, k);
+
+        // compact the sorted LMS substrings into the first n1 slots, the sentinel is always the first one.
+        int n1 = 0;
+        for (int i = 0; i <= n; i++) {
+            if (isLMS(types, sa[i])) {
+                sa[n1++] = sa[i];
+            }
+        }
+
+        // name the LMS substrings, two adjacent LMS positions are at least 2 apart, so pos / 2 is unique.
+        for (int i = n1; i <= n; i++) {
+            sa[i] = -1;
+        }
+        int name = 0;
+        int prev = -1;
+        for (int i = 0; i < n1; i++) {
+            int pos = sa[i];
+            if (prev < 0 || !lmsSubstringEquals(bt, it, types, n, prev, pos)) {
+                name++;
+                prev = pos;
+            }
+            sa[n1 + (pos >> 1)] = name - 1;
+        }
+        // the sentinel owns name 0 and sits at the end of the reduced text, drop it there and keep it virtual.
+        int[] reduced = new int[n1 - 1];
+        for (int i = n1 + (n >> 1) - 1, j = n1 - 2; i >= n1; i--) {
+            if (sa[i] >= 0) {
+                reduced[j--] = sa[i];
+            }
+        }
+
+        // stage 2: sort the reduced problem, recurse only if the names are not unique yet.
+        if (name < n1) {
+            sais(null, reduced, sa, n1 - 1, name);
+        } else {
+            sa[0] = n1 - 1;
+            for (int i = 0; i < n1 - 1; i++) {
+                sa[reduced[i]] = i;
+            }
+        }
+
+        // stage 3: induce the final order from the sorted LMS suffixes.
+        for (int i = 1, j = 0; i <= n; i++) {
+            if (isLMS(types, i) && i < n) {
+                reduced[j++] = i;
+            }
+        }
+        for (int i = 1; i < n1; i++) {
+            sa[i] = reduced[sa[i]];
+        }
+        sa[0] = n;
+        for (int i = n1; i <= n; i++) {
+            sa[i] = -1;
+        }
+        getBucketEnds(bucketCounts, buckets, k);
+        for (int i = n1 - 1; i >= 1; i--) {
+            int j = sa[i];
+            sa[i] = -1;
+            sa[--buckets[chr(bt, it, j)]] = j;
+        }
+        induceL(bt, it, sa, types, bucketCounts, buckets, n, k);
+        induceS(bt, it, sa, types, bucketCounts, buckets, n, k);
+    }
+
+    private static int chr(byte[] bt, int[] it, int i) {
+        return bt != null ? bt[i] & 0xff : it[i];
+    }
+
+    private static boolean isLMS(boolean[] types, int i) {
+        return i > 0 && types[i] && !types[i - 1];
+    }
+
+    /**
+     * Bucket ends, sa[0] is reserved for the sentinel so every bucket is shifted by one.
+     */
+    private static void getBucketEnds(int[] bucketCounts, int[] buckets, int k) {
+        int sum = 1;
+        for (int i = 0; i < k; i++) {
+            sum += bucketCounts[i];
+            buckets[i] = sum;
+        }
+    }
+
+    private static void getBucketStarts(int[] bucketCounts, int[] buckets, int k) {
+        int sum = 1;
+        for (int i = 0; i < k; i++) {
+            buckets[i] = sum;
+            sum += bucketCounts[i];
+        }
+    }
+
+    private static void induceL(byte[] bt, int[] it, int[] sa, boolean[] types, int[] bucketCounts, int[] buckets, int n, int k) {
+        getBucketStarts(bucketCounts, buckets, k);
+        for (int i = 0; i <= n; i++) {
+            int j = sa[i] - 1;
+            if (j >= 0 && !types[j]) {
+                sa[buckets[chr(bt, it, j)]++] = j;
+            }
+        }
+    }
+
+    private static void induceS(byte[] bt, int[] it, int[] sa, boolean[] types, int[] bucketCounts, int[] buckets, int n, int k) {
+        getBucketEnds(bucketCounts, buckets, k);
+        for (int i = n; i >= 0; i--) {
+            int j = sa[i] - 1;
+            if (j >= 0 && types[j]) {
+                sa[--buckets[chr(bt, it, j)]] = j;
+            }
+        }
+    }
+
+    private static boolean lmsSubstringEquals(byte[] bt, int[] it, boolean[] types, int n, int a, int b) {
+        for (int d = 0; ; d++) {
+            // the sentinel is unique, so reaching it on either side means the substrings differ.
+            if (a + d == n || b + d == n) {
+                return false;
+            }
+            if (chr(bt, it, a + d) != chr(bt, it, b + d) || types[a + d] != types[b + d]) {
+                return false;
+            }
+            if (d > 0) {
+                boolean endA = isLMS(types, a + d);
+                boolean endB = isLMS(types, b + d);
+                if (endA || endB) {
+                    return endA && endB;
+                }
+            }
+        }
+    }
+}
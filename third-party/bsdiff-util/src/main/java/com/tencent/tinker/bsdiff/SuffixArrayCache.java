@@ -0,0 +1,299 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.bsdiff;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk cache of suffix arrays keyed by the SHA-1 digest of the old file, so diffing many new
+ * files against the same base only sorts the old file once.
+ *
+ * Cache file layout, all integers are big endian:
+ * Offset 0, length 8 bytes: file magic "TinkerSA"
+ * Offset 8, length 4 bytes: version
+ * Offset 12, length 4 bytes: length of the old file (size)
+ * Offset 16, length 4 bytes: bytes per entry, the smallest width that can hold size
+ * Offset 20, (size + 1) entries: the suffix array
+ *
+ * Entries have a fixed width, so a file is checked by its length and read with a small buffer.
+ * Files are read through their channel and never mapped, a mapping would hold the file until GC
+ * and keep it from being deleted on Windows. Files are evicted in least recently used order once
+ * the directory grows above maxSize.
+ */
+public class SuffixArrayCache {
+
+    private static final byte[] MAGIC_BYTES = new byte[]{0x54, 0x69, 0x6E,
+        0x6B, 0x65, 0x72, 0x53, 0x41};
+
+    private static final int VERSION     = 1;
+    private static final int HEADER_SIZE = 20;
+
+    private static final String CACHE_SUFFIX = ".sa";
+    private static final String TEMP_SUFFIX  = ".tmp";
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * @param directory where the cache files live, created if necessary
+     * @param maxSize   upper bound of the total cache file size in bytes
+     */
+    public SuffixArrayCache(File directory, long maxSize) {
+        if (directory == null) {
+            throw new IllegalArgumentException("cache directory is null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("cache max size must be positive: " + maxSize);
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Digest of buf[0...size], the key of its suffix array.
+     */
+    String keyOf(byte[] buf, int size) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(buf, 0, size);
+        byte[] sha1 = digest.digest();
+        StringBuilder sb = new StringBuilder(sha1.length * 2 + 12);
+        for (byte b : sha1) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.append('_').append(size).toString();
+    }
+
+    /**
+     * @return the cached suffix array of a text with the given key and size, or null on miss.
+     * A damaged cache file is treated as a miss and deleted.
+     */
+    synchronized int[] load(String key, int size) {
+        File file = new File(directory, key + CACHE_SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        int[] sa = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            sa = readSuffixArray(raf.getChannel(), size);
+        } catch (IOException e) {
+            sa = null;
+        } finally {
+            BSUtil.closeQuietly(raf);
+        }
+        if (sa == null) {
+            file.delete();
+            return null;
+        }
+        // lastModified is the access time of the LRU order.
+        file.setLastModified(System.currentTimeMillis());
+        return sa;
+    }
+
+    /**
+     * Save the suffix array of a text with the given key, then trim the cache to maxSize.
+     * Failures only cost the next diff a sort, so they are not reported.
+     */
+    synchronized void store(String key, int[] sa, int size) {
+        int width = entryWidth(size);
+        long length = HEADER_SIZE + (long) (size + 1) * width;
+        if (length > maxSize) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File file = new File(directory, key + CACHE_SUFFIX);
+        File tempFile = null;
+        FileOutputStream out = null;
+        boolean success = false;
+        try {
+            // a unique name, builds in other processes may store the same key at the same time
+            tempFile = File.createTempFile(key, TEMP_SUFFIX, directory);
+            out = new FileOutputStream(tempFile);
+            writeSuffixArray(out.getChannel(), sa, size, width);
+            out.close();
+            out = null;
+            if (file.exists()) {
+                file.delete();
+            }
+            success = tempFile.renameTo(file);
+        } catch (IOException e) {
+            success = false;
+        } finally {
+            BSUtil.closeQuietly(out);
+            if (!success && tempFile != null) {
+                tempFile.delete();
+            }
+        }
+        if (success) {
+            trim();
+        }
+    }
+
+    /**
+     * Evict the least recently used cache files until the total size is not above maxSize.
+     */
+    public synchronized void trim() {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(CACHE_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            total += files[i].length();
+        }
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            order[i] = i;
+            lastModified[i] = files[i].lastModified();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long l = lastModified[lhs];
+                long r = lastModified[rhs];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < order.length && total > maxSize; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private static int entryWidth(int size) {
+        if (size <= 0xff) {
+            return 1;
+        } else if (size <= 0xffff) {
+            return 2;
+        } else if (size <= 0xffffff) {
+            return 3;
+        }
+        return 4;
+    }
+
+    private static int[] readSuffixArray(FileChannel channel, int size) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header);
+        byte[] magic = new byte[MAGIC_BYTES.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC_BYTES) || header.getInt() != VERSION || header.getInt() != size) {
+            return null;
+        }
+        int width = header.getInt();
+        if (width != entryWidth(size) || channel.size() != HEADER_SIZE + (long) (size + 1) * width) {
+            return null;
+        }
+        int[] sa = new int[size + 1];
+        ByteBuffer chunk = ByteBuffer.allocate(BSUtil.BUFFER_SIZE * width);
+        int i = 0;
+        while (i <= size) {
+            int count = Math.min(BSUtil.BUFFER_SIZE, size + 1 - i);
+            chunk.clear().limit(count * width);
+            readFully(channel, chunk);
+            for (int j = 0; j < count; j++) {
+                int value = 0;
+                for (int w = 0; w < width; w++) {
+                    value = (value << 8) | (chunk.get() & 0xff);
+                }
+                // a stale or corrupted entry must never index outside the text.
+                if (value < 0 || value > size) {
+                    return null;
+                }
+                sa[i++] = value;
+            }
+        }
+        return sa;
+    }
+
+    /**
+     * Fill buf up to its limit from the current position of channel, then flip it for reading.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new IOException("unexpected end of cache file");
+            }
+        }
+        buf.flip();
+    }
+
+    private static void writeSuffixArray(FileChannel channel, int[] sa, int size, int width) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(Math.max(HEADER_SIZE, BSUtil.BUFFER_SIZE * width));
+        buf.put(MAGIC_BYTES);
+        buf.putInt(VERSION);
+        buf.putInt(size);
+        buf.putInt(width);
+        for (int i = 0; i <= size; i++) {
+            if (buf.remaining() < width) {
+                writeFully(channel, buf);
+            }
+            int value = sa[i];
+            for (int w = width - 1; w >= 0; w--) {
+                buf.put((byte) (value >>> (w * 8)));
+            }
+        }
+        writeFully(channel, buf);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+}
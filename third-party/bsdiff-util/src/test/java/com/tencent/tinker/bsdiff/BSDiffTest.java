@@ -0,0 +1,202 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.bsdiff;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BSDiffTest {
+    private static final BlockCodec[] CODECS = {BlockCodecs.GZIP, BlockCodecs.LZ4, BlockCodecs.STORED};
+
+    private static byte[] oldBuf;
+    private static byte[] newBuf;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() {
+        Random random = new Random(4);
+        // large enough to be split into 8 search regions of at least 1MB
+        oldBuf = SAISTest.randomBytes(random, 8 * 1024 * 1024, 256);
+        newBuf = SAISTest.mutate(random, oldBuf);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        BSDiff.setSearchExecutor(null);
+    }
+
+    @Test
+    public void singleThreadRoundTrip() throws Exception {
+        checkRoundTrip(1);
+    }
+
+    @Test
+    public void twoThreadsRoundTrip() throws Exception {
+        checkRoundTrip(2);
+    }
+
+    @Test
+    public void fourThreadsRoundTrip() throws Exception {
+        checkRoundTrip(4);
+    }
+
+    @Test
+    public void eightThreadsRoundTrip() throws Exception {
+        checkRoundTrip(8);
+    }
+
+    @Test
+    public void callerExecutorIsReusedAndNotShutDown() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            BSDiff.setSearchExecutor(executor);
+            byte[] first = BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, BSDiff.SUFFIX_SORT_SAIS, 4);
+            byte[] second = BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, BSDiff.SUFFIX_SORT_SAIS, 4);
+            assertFalse(executor.isShutdown());
+            assertArrayEquals(first, second);
+            assertArrayEquals(newBuf, BSPatch.patchFast(oldBuf, oldBuf.length, first, first.length, 0));
+        } finally {
+            BSDiff.setSearchExecutor(null);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void fastDiffRoundTrip() throws Exception {
+        Random random = new Random(5);
+        byte[] small = SAISTest.randomBytes(random, 100 * 1024, 256);
+        checkFastDiffRoundTrip(small, SAISTest.mutate(random, small));
+        checkFastDiffRoundTrip(oldBuf, newBuf);
+    }
+
+    @Test
+    public void fastDiffEdgeCases() throws Exception {
+        Random random = new Random(6);
+        byte[] empty = new byte[0];
+        byte[] block = SAISTest.randomBytes(random, 4096, 256);
+        checkFastDiffRoundTrip(empty, empty);
+        checkFastDiffRoundTrip(empty, block);
+        checkFastDiffRoundTrip(block, empty);
+
+        // shorter than one rolling hash block
+        byte[] tiny = Arrays.copyOf(block, RollingHashDiff.DEFAULT_BLOCK_SIZE - 1);
+        byte[] tinyChanged = tiny.clone();
+        tinyChanged[3] ^= 1;
+        checkFastDiffRoundTrip(tiny, tinyChanged);
+        checkFastDiffRoundTrip(tiny, block);
+        checkFastDiffRoundTrip(block, tiny);
+        checkFastDiffRoundTrip(Arrays.copyOf(block, RollingHashDiff.DEFAULT_BLOCK_SIZE),
+            Arrays.copyOf(block, RollingHashDiff.DEFAULT_BLOCK_SIZE + 1));
+
+        // highly repetitive, every block of the old file hashes alike
+        byte[] zeros = new byte[256 * 1024];
+        byte[] zerosChanged = Arrays.copyOf(zeros, zeros.length + 1000);
+        zerosChanged[12345] = 1;
+        checkFastDiffRoundTrip(zeros, zerosChanged);
+        byte[] pattern = SAISTest.randomBytes(random, 200 * 1024, 2);
+        checkFastDiffRoundTrip(pattern, SAISTest.mutate(random, pattern));
+        byte[] period = new byte[100 * 1024];
+        for (int i = 0; i < period.length; i++) {
+            period[i] = (byte) (i % 7);
+        }
+        byte[] periodChanged = new byte[period.length - 3];
+        System.arraycopy(period, 3, periodChanged, 0, periodChanged.length);
+        checkFastDiffRoundTrip(period, periodChanged);
+    }
+
+    /**
+     * Diffs through the file api with a fast diff threshold of 1 byte, which always picks
+     * BSDiff.fastdiff, and applies the patch with patchFast and both patchMapped.
+     */
+    private void checkFastDiffRoundTrip(byte[] oldBytes, byte[] newBytes) throws IOException {
+        File oldFile = writeFile(oldBytes);
+        File newFile = writeFile(newBytes);
+        for (BlockCodec codec : CODECS) {
+            byte[] diff = BSDiff.fastdiff(oldBytes, oldBytes.length, newBytes, newBytes.length, codec);
+            if (BSDiff.preferFastDiff(oldBytes.length, newBytes.length, 1)) {
+                File diffFile = tempFolder.newFile();
+                BSDiff.bsdiff(oldFile, newFile, diffFile, codec, null, 1);
+                assertArrayEquals(diff, readFile(diffFile));
+            }
+            assertArrayEquals(newBytes, BSPatch.patchFast(oldBytes, oldBytes.length, diff, diff.length, 0));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(newBytes.length);
+            int result = BSPatch.patchMapped(ByteBuffer.wrap(oldBytes), ByteBuffer.wrap(diff), Channels.newChannel(out));
+            assertEquals(BSPatch.RETURN_SUCCESS, result);
+            assertArrayEquals(newBytes, out.toByteArray());
+
+            out.reset();
+            result = BSPatch.patchMapped(oldFile, writeFile(diff), Channels.newChannel(out));
+            assertEquals(BSPatch.RETURN_SUCCESS, result);
+            assertArrayEquals(newBytes, out.toByteArray());
+        }
+    }
+
+    private File writeFile(byte[] data) throws IOException {
+        File file = tempFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void checkRoundTrip(int threadCount) throws Exception {
+        byte[] diff = BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, BSDiff.SUFFIX_SORT_SAIS, threadCount);
+        assertArrayEquals(newBuf, BSPatch.patchFast(oldBuf, oldBuf.length, diff, diff.length, 0));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(newBuf.length);
+        int result = BSPatch.patchMapped(ByteBuffer.wrap(oldBuf), ByteBuffer.wrap(diff), Channels.newChannel(out));
+        assertEquals(BSPatch.RETURN_SUCCESS, result);
+        assertArrayEquals(newBuf, out.toByteArray());
+    }
+}
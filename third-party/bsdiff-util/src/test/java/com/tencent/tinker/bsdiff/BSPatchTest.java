@@ -0,0 +1,143 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.bsdiff;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BSPatchTest {
+    private static final BlockCodec[] CODECS = {BlockCodecs.GZIP, BlockCodecs.LZ4, BlockCodecs.STORED};
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void mappedMatchesFastOnRandomPairs() throws Exception {
+        Random random = new Random(12);
+        for (int i = 0; i < 20; i++) {
+            // around the chunk size of patchMapped, so blocks are split into several chunks or not at all
+            int size = 1 + random.nextInt(3 * BSUtil.BUFFER_SIZE);
+            byte[] oldBuf = SAISTest.randomBytes(random, size, 1 + random.nextInt(256));
+            byte[] newBuf = SAISTest.mutate(random, oldBuf);
+            for (BlockCodec codec : CODECS) {
+                byte[] diff = BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, codec);
+                checkMappedMatchesFast(codec.getName() + " #" + i, oldBuf, newBuf, diff);
+            }
+        }
+    }
+
+    @Test
+    public void mappedReadsBuffersFromTheirPosition() throws Exception {
+        Random random = new Random(13);
+        byte[] oldBuf = SAISTest.randomBytes(random, 50000, 16);
+        byte[] newBuf = SAISTest.mutate(random, oldBuf);
+        byte[] diff = BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length);
+
+        ByteBuffer oldWithPrefix = ByteBuffer.wrap(concat(new byte[7], oldBuf));
+        oldWithPrefix.position(7);
+        ByteBuffer diffWithPrefix = ByteBuffer.wrap(concat(new byte[3], diff));
+        diffWithPrefix.position(3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(BSPatch.RETURN_SUCCESS, BSPatch.patchMapped(oldWithPrefix, diffWithPrefix, Channels.newChannel(out)));
+        assertArrayEquals(newBuf, out.toByteArray());
+        assertEquals(7, oldWithPrefix.position());
+        assertEquals(3, diffWithPrefix.position());
+    }
+
+    @Test
+    public void mappedRejectsBadFiles() throws Exception {
+        byte[] oldBuf = SAISTest.randomBytes(new Random(14), 10000, 4);
+        File oldFile = write("old", oldBuf);
+        File newFile = tempFolder.newFile("new");
+        File emptyFile = write("empty", new byte[0]);
+        File shortDiffFile = write("short", new byte[BSUtil.HEADER_SIZE]);
+
+        assertEquals(BSPatch.RETURN_OLD_FILE_ERR, BSPatch.patchMapped(emptyFile, newFile, shortDiffFile, 0));
+        assertEquals(BSPatch.RETURN_DIFF_FILE_ERR, BSPatch.patchMapped(oldFile, newFile, shortDiffFile, 0));
+        assertEquals(BSPatch.RETURN_NEW_FILE_ERR, BSPatch.patchMapped(oldFile, null, shortDiffFile, 0));
+        assertEquals(BSPatch.RETURN_OLD_FILE_ERR, BSPatch.patchMapped(new File(tempFolder.getRoot(), "missing"), shortDiffFile,
+            Channels.newChannel(new ByteArrayOutputStream())));
+    }
+
+    @Test
+    public void mappedAcceptsEmptyOldFile() throws Exception {
+        byte[] newBuf = SAISTest.randomBytes(new Random(15), 10000, 4);
+        byte[] diff = BSDiff.bsdiff(new byte[0], 0, newBuf, newBuf.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(BSPatch.RETURN_SUCCESS, BSPatch.patchMapped(write("empty", new byte[0]), write("diff", diff),
+            Channels.newChannel(out)));
+        assertArrayEquals(newBuf, out.toByteArray());
+    }
+
+    private void checkMappedMatchesFast(String message, byte[] oldBuf, byte[] newBuf, byte[] diff) throws IOException {
+        byte[] fastBytes = BSPatch.patchFast(oldBuf, oldBuf.length, diff, diff.length, 0);
+        assertArrayEquals(message, newBuf, fastBytes);
+
+        File oldFile = write("old", oldBuf);
+        File diffFile = write("diff", diff);
+        File newFile = new File(tempFolder.getRoot(), "new");
+        assertEquals(message, BSPatch.RETURN_SUCCESS, BSPatch.patchMapped(oldFile, newFile, diffFile, 0));
+        assertArrayEquals(message, fastBytes, read(newFile));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(message, BSPatch.RETURN_SUCCESS, BSPatch.patchMapped(oldFile, diffFile, Channels.newChannel(out)));
+        assertArrayEquals(message, fastBytes, out.toByteArray());
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = new File(tempFolder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] result = new byte[(int) raf.length()];
+            raf.readFully(result);
+            return result;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.bsdiff;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BlockCodecsTest {
+    private static final BlockCodec[] CODECS = {
+        BlockCodecs.GZIP, BlockCodecs.STORED, BlockCodecs.deflate(1), BlockCodecs.deflate(9), BlockCodecs.LZ4
+    };
+
+    @Test
+    public void everyCodecRoundTrips() throws Exception {
+        Random random = new Random(5);
+        byte[] oldBuf = SAISTest.randomBytes(random, 300000, 8);
+        byte[] newBuf = SAISTest.mutate(random, oldBuf);
+        for (BlockCodec codec : CODECS) {
+            byte[] diff = BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, codec);
+            checkPatch(codec.getName(), oldBuf, newBuf, diff);
+            byte[] fastDiff = BSDiff.fastdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, codec);
+            checkPatch(codec.getName(), oldBuf, newBuf, fastDiff);
+        }
+    }
+
+    @Test
+    public void emptyNewFileRoundTrips() throws Exception {
+        byte[] oldBuf = "some old content".getBytes();
+        for (BlockCodec codec : CODECS) {
+            byte[] diff = BSDiff.bsdiff(oldBuf, oldBuf.length, new byte[0], 0, codec);
+            checkPatch(codec.getName(), oldBuf, new byte[0], diff);
+        }
+    }
+
+    @Test
+    public void lz4RejectsTrailingData() throws Exception {
+        byte[] oldBuf = SAISTest.randomBytes(new Random(6), 100000, 4);
+        byte[] newBuf = SAISTest.mutate(new Random(7), oldBuf);
+        byte[] diff = BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, BlockCodecs.LZ4);
+        byte[] withGarbage = Arrays.copyOf(diff, diff.length + 3);
+        expectCorrupt(oldBuf, withGarbage);
+    }
+
+    @Test
+    public void lz4RejectsMissingEndChunk() throws Exception {
+        byte[] oldBuf = SAISTest.randomBytes(new Random(8), 100000, 4);
+        byte[] newBuf = SAISTest.mutate(new Random(9), oldBuf);
+        byte[] diff = BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, BlockCodecs.LZ4);
+        // the end chunk is the last 9 bytes of the extra block
+        expectCorrupt(oldBuf, Arrays.copyOf(diff, diff.length - 9));
+    }
+
+    @Test
+    public void storedRejectsTrailingData() throws Exception {
+        byte[] oldBuf = SAISTest.randomBytes(new Random(10), 100000, 4);
+        byte[] newBuf = SAISTest.mutate(new Random(11), oldBuf);
+        byte[] diff = BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, BlockCodecs.STORED);
+        expectCorrupt(oldBuf, Arrays.copyOf(diff, diff.length + 1));
+    }
+
+    @Test
+    public void forNameResolvesBuiltInCodecs() {
+        assertEquals(BlockCodecs.ID_GZIP, BlockCodecs.forName("gzip").getId());
+        assertEquals(BlockCodecs.ID_STORED, BlockCodecs.forName("stored").getId());
+        assertEquals(BlockCodecs.ID_LZ4, BlockCodecs.forName("lz4").getId());
+        assertEquals(BlockCodecs.ID_DEFLATE, BlockCodecs.forName("deflate:9").getId());
+        try {
+            BlockCodecs.forName("lz4:9");
+            fail("lz4 has no level");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    private static void checkPatch(String codecName, byte[] oldBuf, byte[] newBuf, byte[] diff) throws IOException {
+        assertArrayEquals(codecName, newBuf, BSPatch.patchFast(oldBuf, oldBuf.length, diff, diff.length, 0));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(codecName, BSPatch.RETURN_SUCCESS,
+            BSPatch.patchMapped(ByteBuffer.wrap(oldBuf), ByteBuffer.wrap(diff), Channels.newChannel(out)));
+        assertArrayEquals(codecName, newBuf, out.toByteArray());
+    }
+
+    private static void expectCorrupt(byte[] oldBuf, byte[] diff) {
+        try {
+            BSPatch.patchFast(oldBuf, oldBuf.length, diff, diff.length, 0);
+            fail("corrupt patch is applied by patchFast");
+        } catch (IOException expected) {
+            // expected
+        }
+        try {
+            int result = BSPatch.patchMapped(ByteBuffer.wrap(oldBuf), ByteBuffer.wrap(diff),
+                Channels.newChannel(new ByteArrayOutputStream()));
+            fail("corrupt patch is applied by patchMapped: " + result);
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+}
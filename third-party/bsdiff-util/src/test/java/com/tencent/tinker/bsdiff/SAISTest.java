@@ -0,0 +1,140 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.bsdiff;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class SAISTest {
+
+    @Test
+    public void sortsEdgeCases() {
+        checkAgainstNaiveSort(new byte[0]);
+        checkAgainstNaiveSort(new byte[]{7});
+        checkAgainstNaiveSort(new byte[]{7, 7});
+        checkAgainstNaiveSort(new byte[]{(byte) 0xff, 0, (byte) 0x80, 0x7f});
+        checkAgainstNaiveSort(repeat((byte) 'a', 1000));
+        checkAgainstNaiveSort("mississippi".getBytes());
+    }
+
+    @Test
+    public void sortsLikeNaiveSort() {
+        Random random = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            checkAgainstNaiveSort(randomBytes(random, random.nextInt(2000), 1 + random.nextInt(256)));
+        }
+    }
+
+    @Test
+    public void sortsLikeQsufsort() {
+        Random random = new Random(2);
+        byte[][] inputs = {
+            randomBytes(random, 300000, 256),
+            randomBytes(random, 300000, 3),
+            periodic(300000, "abcabcabd".getBytes()),
+            repeat((byte) 0, 100000)
+        };
+        for (byte[] input : inputs) {
+            int[] expected = BSDiff.suffixsort(input, input.length, BSDiff.SUFFIX_SORT_QSUFSORT);
+            int[] actual = BSDiff.suffixsort(input, input.length, BSDiff.SUFFIX_SORT_SAIS);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void patchesAreByteIdenticalToQsufsort() throws Exception {
+        Random random = new Random(3);
+        byte[] oldBuf = randomBytes(random, 200000, 16);
+        byte[] newBuf = mutate(random, oldBuf);
+        byte[] expected = BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, BSDiff.SUFFIX_SORT_QSUFSORT, 1);
+        byte[] actual = BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, BSDiff.SUFFIX_SORT_SAIS, 1);
+        assertArrayEquals(expected, actual);
+    }
+
+    private static void checkAgainstNaiveSort(final byte[] text) {
+        int[] sa = new int[text.length + 1];
+        SAIS.suffixsort(text, text.length, sa);
+        assertArrayEquals(Arrays.toString(text), naiveSuffixSort(text), sa);
+    }
+
+    private static int[] naiveSuffixSort(final byte[] text) {
+        Integer[] suffixes = new Integer[text.length + 1];
+        for (int i = 0; i <= text.length; i++) {
+            suffixes[i] = i;
+        }
+        Arrays.sort(suffixes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                int a = lhs;
+                int b = rhs;
+                while (a < text.length && b < text.length) {
+                    int diff = (text[a] & 0xff) - (text[b] & 0xff);
+                    if (diff != 0) {
+                        return diff;
+                    }
+                    a++;
+                    b++;
+                }
+                // the shorter suffix is smaller
+                return (text.length - a) - (text.length - b);
+            }
+        });
+        int[] result = new int[suffixes.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = suffixes[i];
+        }
+        return result;
+    }
+
+    static byte[] randomBytes(Random random, int size, int alphabet) {
+        byte[] result = new byte[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = (byte) random.nextInt(alphabet);
+        }
+        return result;
+    }
+
+    static byte[] mutate(Random random, byte[] oldBuf) {
+        byte[] newBuf = Arrays.copyOf(oldBuf, oldBuf.length + oldBuf.length / 10);
+        for (int i = 0; i < oldBuf.length / 100; i++) {
+            newBuf[random.nextInt(oldBuf.length)] = (byte) random.nextInt();
+        }
+        // shift the tail, bsdiff has to seek to find it
+        System.arraycopy(oldBuf, oldBuf.length / 2, newBuf, oldBuf.length / 2 + oldBuf.length / 10, oldBuf.length - oldBuf.length / 2);
+        return newBuf;
+    }
+
+    private static byte[] repeat(byte value, int size) {
+        byte[] result = new byte[size];
+        Arrays.fill(result, value);
+        return result;
+    }
+
+    private static byte[] periodic(int size, byte[] period) {
+        byte[] result = new byte[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = period[i % period.length];
+        }
+        return result;
+    }
+}
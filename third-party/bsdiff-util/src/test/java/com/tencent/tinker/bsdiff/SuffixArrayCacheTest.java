@@ -0,0 +1,142 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.bsdiff;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SuffixArrayCacheTest {
+    private static final long MAX_SIZE = 64L * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void cacheHitGivesTheSamePatch() throws Exception {
+        SuffixArrayCache cache = new SuffixArrayCache(tempFolder.newFolder("cache"), MAX_SIZE);
+        Random random = new Random(15);
+        // one, two and three bytes per cached entry
+        for (int size : new int[]{200, 40000, 300000}) {
+            byte[] oldBuf = SAISTest.randomBytes(random, size, 16);
+            byte[] newBuf = SAISTest.mutate(random, oldBuf);
+            byte[] uncached = diff(oldBuf, newBuf, null);
+
+            String key = cache.keyOf(oldBuf, oldBuf.length);
+            assertNull(cache.load(key, oldBuf.length));
+            assertArrayEquals(uncached, diff(oldBuf, newBuf, cache));
+
+            int[] cached = cache.load(key, oldBuf.length);
+            assertNotNull("suffix array of " + size + " bytes is not cached", cached);
+            assertArrayEquals(BSDiff.suffixsort(oldBuf, oldBuf.length, BSDiff.SUFFIX_SORT_SAIS), cached);
+            assertArrayEquals(uncached, diff(oldBuf, newBuf, cache));
+        }
+        assertEquals(3, cacheFiles(cache).length);
+    }
+
+    @Test
+    public void corruptFileIsAMiss() throws Exception {
+        SuffixArrayCache cache = new SuffixArrayCache(tempFolder.newFolder("cache"), MAX_SIZE);
+        byte[] oldBuf = SAISTest.randomBytes(new Random(16), 1000, 8);
+        byte[] newBuf = SAISTest.mutate(new Random(17), oldBuf);
+        byte[] uncached = diff(oldBuf, newBuf, null);
+        String key = cache.keyOf(oldBuf, oldBuf.length);
+        diff(oldBuf, newBuf, cache);
+        File cacheFile = cacheFiles(cache)[0];
+
+        // an entry pointing outside the text
+        RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+        try {
+            raf.seek(raf.length() - 2);
+            raf.writeShort(0xffff);
+        } finally {
+            raf.close();
+        }
+        assertNull(cache.load(key, oldBuf.length));
+        assertFalse(cacheFile.exists());
+
+        // a truncated file
+        diff(oldBuf, newBuf, cache);
+        raf = new RandomAccessFile(cacheFile, "rw");
+        try {
+            raf.setLength(raf.length() - 1);
+        } finally {
+            raf.close();
+        }
+        assertArrayEquals(uncached, diff(oldBuf, newBuf, cache));
+        // the damaged file was replaced by the diff above
+        assertNotNull(cache.load(key, oldBuf.length));
+    }
+
+    @Test
+    public void leastRecentlyUsedFilesAreEvicted() throws Exception {
+        Random random = new Random(18);
+        byte[][] oldBufs = new byte[3][];
+        for (int i = 0; i < oldBufs.length; i++) {
+            oldBufs[i] = SAISTest.randomBytes(random, 1000, 256);
+        }
+        // 20 bytes of header and 1001 entries of 2 bytes each, room for two files
+        SuffixArrayCache cache = new SuffixArrayCache(tempFolder.newFolder("cache"), 2 * 2022 + 100);
+        String[] keys = new String[oldBufs.length];
+        for (int i = 0; i < 2; i++) {
+            keys[i] = cache.keyOf(oldBufs[i], oldBufs[i].length);
+            cache.store(keys[i], BSDiff.suffixsort(oldBufs[i], oldBufs[i].length, BSDiff.SUFFIX_SORT_SAIS), oldBufs[i].length);
+        }
+        File[] files = cacheFiles(cache);
+        assertEquals(2, files.length);
+        // file systems keep lastModified in seconds at best, make the order explicit
+        for (File file : files) {
+            file.setLastModified(file.getName().startsWith(keys[0]) ? 1000000000L : 2000000000L);
+        }
+        // a hit makes keys[0] the most recently used one
+        assertNotNull(cache.load(keys[0], oldBufs[0].length));
+
+        keys[2] = cache.keyOf(oldBufs[2], oldBufs[2].length);
+        cache.store(keys[2], BSDiff.suffixsort(oldBufs[2], oldBufs[2].length, BSDiff.SUFFIX_SORT_SAIS), oldBufs[2].length);
+
+        assertEquals(2, cacheFiles(cache).length);
+        assertNotNull(cache.load(keys[0], oldBufs[0].length));
+        assertNull(cache.load(keys[1], oldBufs[1].length));
+        assertNotNull(cache.load(keys[2], oldBufs[2].length));
+        long total = 0;
+        for (File file : cacheFiles(cache)) {
+            total += file.length();
+        }
+        assertTrue(total <= cache.getMaxSize());
+    }
+
+    private static byte[] diff(byte[] oldBuf, byte[] newBuf, SuffixArrayCache cache) throws Exception {
+        return BSDiff.bsdiff(oldBuf, oldBuf.length, newBuf, newBuf.length, BSDiff.SUFFIX_SORT_SAIS, 1, BlockCodecs.GZIP, cache);
+    }
+
+    private static File[] cacheFiles(SuffixArrayCache cache) {
+        File[] files = cache.getDirectory().listFiles();
+        return files == null ? new File[0] : files;
+    }
+}
@@ -375,10 +375,30 @@ public class TinkerZipFile implements Closeable, ZipConstants {
             } else {
                 rafStream.endOffset = rafStream.offset + entry.compressedSize;
             }
+            entry.dataOffset = rafStream.offset;
             return rafStream;
         }
     }
 
+    /**
+     * Returns the offset of the entry's (possibly compressed) data from the start of the file,
+     * which is only known after its local header has been read.
+     *
+     * @param entry
+     *            the ZipEntry.
+     * @return the data offset, or -1 if the entry is not in this zip file.
+     * @throws IOException
+     *             if an {@code IOException} occurs.
+     */
+    public long getEntryDataOffset(TinkerZipEntry entry) throws IOException {
+        InputStream in = getInputStream(entry);
+        if (in == null) {
+            return -1;
+        }
+        in.close();
+        return getEntry(entry.getName()).dataOffset;
+    }
+
     /**
      * Gets the file name of this {@code ZipFile}.
      *
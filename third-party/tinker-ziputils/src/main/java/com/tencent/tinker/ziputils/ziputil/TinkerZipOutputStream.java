@@ -23,7 +23,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
+import java.util.zip.CRC32;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
@@ -100,6 +103,16 @@ public class TinkerZipOutputStream extends FilterOutputStream implements ZipCons
     private TinkerZipEntry currentEntry;
     // private final CRC32 crc = new CRC32();
     private long offset = 0;
+    /**
+     * Digests of the data written for the current entry, only maintained if
+     * {@link #setEntryDigestEnabled(boolean)} was called.
+     */
+    private CRC32         entryCrc;
+    private MessageDigest entryMd5;
+    private long          lastEntryCrc = -1;
+    private String        lastEntryMd5;
+    /** Reused by {@link #write(int)}. */
+    private final byte[]  singleByte   = new byte[1];
     /** The charset-encoded name for the current entry. */
     private byte[] nameBytes;
     /** The charset-encoded comment for the current entry. */
@@ -134,6 +147,43 @@ public class TinkerZipOutputStream extends FilterOutputStream implements ZipCons
         this.forceZip64 = forceZip64;
     }
 
+    /**
+     * Compute the CRC32 and MD5 of the data written for every entry, see {@link #getLastEntryCrc()}
+     * and {@link #getLastEntryMd5()}. The data of a STORED entry must then match its CRC, or
+     * {@link #closeEntry()} throws.
+     */
+    public void setEntryDigestEnabled(boolean enabled) {
+        if (!enabled) {
+            entryCrc = null;
+            entryMd5 = null;
+            return;
+        }
+        if (entryCrc == null) {
+            try {
+                entryMd5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            entryCrc = new CRC32();
+        }
+    }
+
+    /**
+     * CRC32 of the data written for the last closed entry, -1 if digests are not enabled.
+     * The data is what was written, so for a DEFLATED entry it is the compressed data.
+     */
+    public long getLastEntryCrc() {
+        return lastEntryCrc;
+    }
+
+    /**
+     * Lower case hex MD5 of the data written for the last closed entry, null if digests are not
+     * enabled. For a STORED entry it is the MD5 of the entry content.
+     */
+    public String getLastEntryMd5() {
+        return lastEntryMd5;
+    }
+
     /**
      * Sets the default compression method to be used when a {@code ZipEntry} doesn't
      * explicitly specify a method. See {@link TinkerZipEntry#setMethod} for more details.
@@ -242,6 +292,14 @@ public class TinkerZipOutputStream extends FilterOutputStream implements ZipCons
                 throw new ZipException("Size mismatch");
             }
         }*/
+        if (entryCrc != null) {
+            lastEntryCrc = entryCrc.getValue();
+            lastEntryMd5 = toHex(entryMd5.digest());
+            entryCrc.reset();
+            if (currentEntry.getMethod() == STORED && lastEntryCrc != currentEntry.crc) {
+                throw new ZipException("CRC mismatch, entry: " + currentEntry.name);
+            }
+        }
         long curOffset = LOCHDR;
         // Write the DataDescriptor
         if (currentEntry.getMethod() != STORED) {
@@ -460,6 +518,12 @@ public class TinkerZipOutputStream extends FilterOutputStream implements ZipCons
         // def.setLevel(compressionLevel);
         ze.setMethod(method);
         currentEntry = ze;
+        if (entryCrc != null) {
+            entryCrc.reset();
+            entryMd5.reset();
+            lastEntryCrc = -1;
+            lastEntryMd5 = null;
+        }
 
         currentEntry.localHeaderRelOffset = offset;
         entries.add(currentEntry.name);
@@ -555,6 +619,28 @@ public class TinkerZipOutputStream extends FilterOutputStream implements ZipCons
             out.write(buffer, offset, byteCount);
         }
         // crc.update(buffer, offset, byteCount);
+        if (entryCrc != null) {
+            entryCrc.update(buffer, offset, byteCount);
+            entryMd5.update(buffer, offset, byteCount);
+        }
+    }
+
+    /**
+     * Writes a single byte of the current entry, see {@link #write(byte[], int, int)}.
+     */
+    @Override
+    public void write(int oneByte) throws IOException {
+        singleByte[0] = (byte) oneByte;
+        write(singleByte, 0, 1);
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
     }
     private void checkOpen() throws IOException {
         if (cDir == null) {
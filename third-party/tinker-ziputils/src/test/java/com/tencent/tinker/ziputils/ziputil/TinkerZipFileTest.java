@@ -0,0 +1,143 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.ziputils.ziputil;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TinkerZipFileTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testEntryDataOffset() throws IOException, DataFormatException {
+        Random random = new Random(1);
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("a", createData(random, 0));
+        contents.put("stored.bin", createData(random, 5000));
+        contents.put("res/layout/a_rather_long_file_name_for_the_local_header.xml", createData(random, 20000));
+        contents.put("with_extra.txt", createData(random, 3000));
+        contents.put("deflated_empty", createData(random, 0));
+
+        File file = tempFolder.newFile("test.zip");
+        ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(content.getKey());
+                byte[] data = content.getValue();
+                if (content.getKey().endsWith(".bin")) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(data.length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                if (content.getKey().startsWith("with_extra")) {
+                    // the extra field moves the data behind the local header
+                    zipEntry.setExtra(new byte[]{0x34, 0x12, 4, 0, 1, 2, 3, 4});
+                }
+                zipOut.putNextEntry(zipEntry);
+                zipOut.write(data);
+                zipOut.closeEntry();
+            }
+        } finally {
+            zipOut.close();
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        TinkerZipFile zipFile = new TinkerZipFile(file);
+        try {
+            int count = 0;
+            Enumeration<? extends TinkerZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                TinkerZipEntry entry = entries.nextElement();
+                byte[] expected = contents.get(entry.getName());
+                long offset = zipFile.getEntryDataOffset(entry);
+                assertTrue(offset >= entry.localHeaderRelOffset + 30 + entry.getName().length());
+
+                byte[] raw = new byte[(int) entry.getCompressedSize()];
+                raf.seek(offset);
+                raf.readFully(raw);
+                if (entry.getMethod() == TinkerZipEntry.STORED) {
+                    assertArrayEquals(entry.getName(), expected, raw);
+                } else {
+                    assertArrayEquals(entry.getName(), expected, inflate(raw, expected.length));
+                }
+                count++;
+            }
+            assertEquals(contents.size(), count);
+
+            assertEquals(-1, zipFile.getEntryDataOffset(new TinkerZipEntry("missing")));
+        } finally {
+            zipFile.close();
+            raf.close();
+        }
+    }
+
+    private static byte[] inflate(byte[] raw, int size) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            // a nowrap inflater may need one extra dummy byte.
+            byte[] input = new byte[raw.length + 1];
+            System.arraycopy(raw, 0, input, 0, raw.length);
+            inflater.setInput(input);
+            byte[] result = new byte[size];
+            int count = 0;
+            while (!inflater.finished()) {
+                int n = inflater.inflate(result, count, size - count);
+                if (n == 0 && (inflater.needsInput() || count == size)) {
+                    break;
+                }
+                count += n;
+            }
+            assertTrue(inflater.finished());
+            assertEquals(raw.length, inflater.getBytesRead());
+            return result;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] createData(Random random, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + random.nextInt(random.nextInt(26) + 1));
+        }
+        return data;
+    }
+}
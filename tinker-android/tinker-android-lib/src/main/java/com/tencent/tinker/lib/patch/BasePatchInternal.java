@@ -16,6 +16,8 @@
 
 package com.tencent.tinker.lib.patch;
 
+import com.tencent.tinker.commons.archive.ArchivePatch;
+import com.tencent.tinker.commons.archive.DeflateParameters;
 import com.tencent.tinker.commons.util.StreamUtil;
 import com.tencent.tinker.lib.util.TinkerLog;
 import com.tencent.tinker.loader.shareutil.ShareConstants;
@@ -50,6 +52,16 @@ public class BasePatchInternal {
     protected static final int TYPE_RESOURCE    = ShareConstants.TYPE_RESOURCE;
     protected static final int TYPE_CLASS_N_DEX = ShareConstants.TYPE_CLASS_N_DEX;
 
+    static {
+        ArchivePatch.setListener(new ArchivePatch.Listener() {
+            @Override
+            public void onDeflateIncompatible(DeflateParameters parameters, boolean hasFallback) {
+                TinkerLog.e(TAG, "zlib of this device does not match the archive patch, parameters: "
+                    + parameters + ", " + (hasFallback ? "use plain bsdiff fallback" : "no fallback, patch fails"));
+            }
+        });
+    }
+
 
     public static boolean extract(ZipFile zipFile, ZipEntry entryFile, File extractTo, String targetMd5, boolean isDex) throws IOException {
         int numAttempts = 0;
@@ -21,6 +21,8 @@ import android.content.pm.ApplicationInfo;
 import android.os.SystemClock;
 
 import com.tencent.tinker.bsdiff.BSPatch;
+import com.tencent.tinker.commons.archive.ArchivePatch;
+import com.tencent.tinker.commons.util.DigestingOutputStream;
 import com.tencent.tinker.commons.util.StreamUtil;
 import com.tencent.tinker.lib.tinker.Tinker;
 import com.tencent.tinker.lib.util.TinkerLog;
@@ -30,7 +32,10 @@ import com.tencent.tinker.loader.shareutil.SharePatchFileUtil;
 import com.tencent.tinker.loader.shareutil.ShareSecurityCheck;
 import com.tencent.tinker.loader.shareutil.ShareTinkerInternals;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.zip.ZipEntry;
@@ -176,19 +181,29 @@ public class BsDiffPatchInternal extends BasePatchInternal {
                         manager.getPatchReporter().onPatchTypeExtractFail(patchFile, extractedFile, info.name, type);
                         return false;
                     }
-                    InputStream oldStream = null;
-                    InputStream newStream = null;
+                    String patchedMd5;
+                    File oldTempFile = null;
+                    File diffTempFile = null;
                     try {
-                        oldStream = apk.getInputStream(rawApkFileEntry);
-                        newStream = patch.getInputStream(patchFileEntry);
-                        BSPatch.patchFast(oldStream, newStream, extractedFile);
+                        // extracted old and patch files are mapped, a large library is never held on the heap
+                        try {
+                            oldTempFile = extractToTempFile(apk, rawApkFileEntry, extractedFile.getParentFile());
+                            diffTempFile = extractToTempFile(patch, patchFileEntry, extractedFile.getParentFile());
+                        } catch (IOException e) {
+                            TinkerLog.w(TAG, "can not extract %s to patch it mapped, patch it on heap, e: %s", info.name, e);
+                            SharePatchFileUtil.safeDeleteFile(oldTempFile);
+                            SharePatchFileUtil.safeDeleteFile(diffTempFile);
+                            oldTempFile = null;
+                            diffTempFile = null;
+                        }
+                        patchedMd5 = patchLibrary(apk, rawApkFileEntry, patch, patchFileEntry, oldTempFile, diffTempFile, extractedFile);
                     } finally {
-                        StreamUtil.closeQuietly(oldStream);
-                        StreamUtil.closeQuietly(newStream);
+                        SharePatchFileUtil.safeDeleteFile(oldTempFile);
+                        SharePatchFileUtil.safeDeleteFile(diffTempFile);
                     }
 
                     //go go go bsdiff get the
-                    if (!SharePatchFileUtil.verifyFileMd5(extractedFile, fileMd5)) {
+                    if (patchedMd5 == null || !patchedMd5.equals(fileMd5)) {
                         TinkerLog.w(TAG, "Failed to recover diff file " + extractedFile.getPath());
                         manager.getPatchReporter().onPatchTypeExtractFail(patchFile, extractedFile, info.name, type);
                         SharePatchFileUtil.safeDeleteFile(extractedFile);
@@ -209,4 +224,44 @@ public class BsDiffPatchInternal extends BasePatchInternal {
         return true;
     }
 
+    /**
+     * @return md5 of the patched file, taken while writing it, null if the patch is corrupted
+     */
+    private static String patchLibrary(ZipFile apk, ZipEntry rawApkFileEntry, ZipFile patch, ZipEntry patchFileEntry,
+                                       File oldTempFile, File diffTempFile, File extractedFile) throws IOException {
+        InputStream oldStream = null;
+        InputStream newStream = null;
+        DigestingOutputStream digestOut = null;
+        try {
+            digestOut = new DigestingOutputStream(new BufferedOutputStream(new FileOutputStream(extractedFile)));
+            int result;
+            if (oldTempFile != null && diffTempFile != null) {
+                result = ArchivePatch.patchMapped(oldTempFile, diffTempFile, digestOut);
+            } else {
+                oldStream = apk.getInputStream(rawApkFileEntry);
+                newStream = patch.getInputStream(patchFileEntry);
+                result = ArchivePatch.patchFast(oldStream, newStream, digestOut);
+            }
+            if (result != BSPatch.RETURN_SUCCESS) {
+                TinkerLog.e(TAG, "patch %s failed, result: %d", extractedFile.getName(), result);
+                return null;
+            }
+            // md5 is taken while writing, it is only trusted once everything reached the file
+            digestOut.flush();
+            return digestOut.getMd5();
+        } finally {
+            StreamUtil.closeQuietly(oldStream);
+            StreamUtil.closeQuietly(newStream);
+            StreamUtil.closeQuietly(digestOut);
+        }
+    }
+
+    private static File extractToTempFile(ZipFile zipFile, ZipEntry entry, File directory) throws IOException {
+        File tempFile = File.createTempFile("bsdiff", ".tmp", directory);
+        if (!extract(zipFile, entry, tempFile, null, false)) {
+            SharePatchFileUtil.safeDeleteFile(tempFile);
+            throw new IOException("failed to extract " + entry.getName());
+        }
+        return tempFile;
+    }
 }
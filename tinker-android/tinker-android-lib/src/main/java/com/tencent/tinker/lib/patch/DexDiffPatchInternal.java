@@ -16,14 +16,21 @@
 
 package com.tencent.tinker.lib.patch;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.os.Build;
 import android.os.SystemClock;
 
 import com.tencent.tinker.commons.dexpatcher.DexPatchApplier;
+import com.tencent.tinker.commons.dexpatcher.DexSectionMetrics;
 import com.tencent.tinker.commons.util.StreamUtil;
+import com.tencent.tinker.lib.reporter.DexSectionMetricsReporter;
+import com.tencent.tinker.lib.reporter.PatchReporter;
 import com.tencent.tinker.lib.tinker.Tinker;
+import com.tencent.tinker.lib.util.FileObserverWatcher;
+import com.tencent.tinker.lib.util.FileReadyWaiter;
+import com.tencent.tinker.lib.util.HeapBudgetedExecutor;
 import com.tencent.tinker.lib.util.TinkerLog;
 import com.tencent.tinker.loader.TinkerDexOptimizer;
 import com.tencent.tinker.loader.TinkerRuntimeException;
@@ -48,6 +55,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
@@ -61,6 +73,21 @@ public class DexDiffPatchInternal extends BasePatchInternal {
 
     protected static final int WAIT_ASYN_OAT_TIME = 10 * 1000;
     protected static final int MAX_WAIT_COUNT     = 120;
+    // Opt files are checked again this often even if no change of them is observed.
+    protected static final int DEX_OPT_RECHECK_INTERVAL = 1000;
+
+    // Devices with no more RAM than this patch dex in low memory mode.
+    protected static final long LOW_RAM_DEVICE_TOTAL_MEM = 2L * 1024 * 1024 * 1024;
+    // Part of the free heap dex patching may use, leave the rest to the patch process itself.
+    protected static final float FREE_HEAP_BUDGET_RATIO  = 0.75f;
+    // Dexes patched at the same time by default, more hardly helps since patching also writes files.
+    protected static final int   DEFAULT_MAX_DEX_PATCH_THREAD_COUNT = 4;
+    protected static final long  STOP_DEX_PATCH_JOBS_TIMEOUT        = 60 * 1000;
+
+    private static int  maxDexPatchThreadCount  = 0;
+    private static long dexPatchHeapBudgetBytes = 0;
+    private static long dexOptWaitTimeoutMillis = 0;
+    private static int  dexSectionThreadCount   = 1;
 
 
     private static ArrayList<File>                      optFiles      = new ArrayList<>();
@@ -69,6 +96,47 @@ public class DexDiffPatchInternal extends BasePatchInternal {
     private static boolean                              isVmArt       = ShareTinkerInternals.isVmArt();
 
 
+    /**
+     * Patch several dexes at the same time, low ram devices always patch them one by one.
+     *
+     * @param maxThreadCount  max dexes patched at the same time, 1 to patch them one by one,
+     *                        0 to decide by cpu count
+     * @param heapBudgetBytes max heap dexes patched at the same time may hold, 0 to use a part
+     *                        of the free heap
+     */
+    public static void setDexPatchParallelism(int maxThreadCount, long heapBudgetBytes) {
+        if (maxThreadCount < 0 || heapBudgetBytes < 0) {
+            throw new IllegalArgumentException("thread count and heap budget can not be negative.");
+        }
+        maxDexPatchThreadCount = maxThreadCount;
+        dexPatchHeapBudgetBytes = heapBudgetBytes;
+    }
+
+    /**
+     * Some roms run dex2oat asynchronously, wait at most {@code timeoutMillis} for their opt files.
+     *
+     * @param timeoutMillis 0 to decide by the dex count
+     */
+    public static void setDexOptWaitTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeout can not be negative.");
+        }
+        dexOptWaitTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Patch the independent sections of each dex with several threads, low ram devices always
+     * use one. The patched dexes are the same either way.
+     *
+     * @param threadCount threads per dex, 1 to patch sections one by one
+     */
+    public static void setDexSectionThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("section thread count must be positive.");
+        }
+        dexSectionThreadCount = threadCount;
+    }
+
     protected static boolean tryRecoverDexFiles(Tinker manager, ShareSecurityCheck checker, Context context,
                                                 String patchVersionDirectory, File patchFile) {
         if (!manager.isEnabledForDex()) {
@@ -93,22 +161,34 @@ public class DexDiffPatchInternal extends BasePatchInternal {
         if (optFiles.isEmpty()) {
             return true;
         }
-        // should use patch list size
-        int size = patchList.size() * 30;
-        if (size > MAX_WAIT_COUNT) {
-            size = MAX_WAIT_COUNT;
+        long timeoutMillis = dexOptWaitTimeoutMillis;
+        if (timeoutMillis == 0) {
+            // should use patch list size
+            timeoutMillis = (long) Math.min(patchList.size() * 30, MAX_WAIT_COUNT) * WAIT_ASYN_OAT_TIME;
         }
-        TinkerLog.i(TAG, "raw dex count: %d, dex opt dex count: %d, final wait times: %d", patchList.size(), optFiles.size(), size);
+        TinkerLog.i(TAG, "raw dex count: %d, dex opt dex count: %d, final wait time: %d", patchList.size(), optFiles.size(), timeoutMillis);
 
-        for (int i = 0; i < size; i++) {
-            if (!checkAllDexOptFile(optFiles, i + 1)) {
-                try {
-                    Thread.sleep(WAIT_ASYN_OAT_TIME);
-                } catch (InterruptedException e) {
-                    TinkerLog.e(TAG, "thread sleep InterruptedException e:" + e);
-                }
+        long begin = SystemClock.elapsedRealtime();
+        FileReadyWaiter waiter = new FileReadyWaiter(new FileObserverWatcher(), new FileReadyWaiter.FileValidator() {
+            @Override
+            public boolean isReady(File file) {
+                return isDexOptFileReady(file);
+            }
+        }, DEX_OPT_RECHECK_INTERVAL);
+        try {
+            FileReadyWaiter.Result result = waiter.await(optFiles, timeoutMillis);
+            for (File file : result.getFailedFiles()) {
+                TinkerLog.e(TAG, "parallel dex optimizer file %s is written but not valid", file.getName());
+            }
+            for (File file : result.getPendingFiles()) {
+                TinkerLog.e(TAG, "parallel dex optimizer file %s is not ready after %d ms", file.getName(), timeoutMillis);
             }
+        } catch (InterruptedException e) {
+            TinkerLog.e(TAG, "wait dex optimizer file InterruptedException e:" + e);
+            Thread.currentThread().interrupt();
         }
+        TinkerLog.i(TAG, "wait dex optimizer file cost: %d", SystemClock.elapsedRealtime() - begin);
+
         List<File> failDexFiles = new ArrayList<>();
         // check again, if still can't be found, just return
         for (File file : optFiles) {
@@ -261,9 +341,12 @@ public class DexDiffPatchInternal extends BasePatchInternal {
         }
         long start = System.currentTimeMillis();
         boolean result = true;
+        // entries whose md5 could not be taken while writing, they are verified by reading them back.
+        ArrayList<ShareDexDiffPatchInfo> unverifiedInfos = new ArrayList<>();
         TinkerZipOutputStream out = null;
         try {
             out = new TinkerZipOutputStream(new BufferedOutputStream(new FileOutputStream(classNFile)));
+            out.setEntryDigestEnabled(true);
             for (ShareDexDiffPatchInfo info : classNDexInfo.keySet()) {
                 File dexFile = classNDexInfo.get(info);
 
@@ -276,6 +359,11 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                         TinkerZipEntry newDexZipEntry = new TinkerZipEntry(rawDexZipEntry, info.rawName);
                         inputStream = dexZipFile.getInputStream(rawDexZipEntry);
                         TinkerZipUtil.extractTinkerEntry(newDexZipEntry, inputStream, out);
+                        // raw data of a deflated entry is not the dex itself
+                        if (newDexZipEntry.getMethod() != TinkerZipEntry.STORED) {
+                            unverifiedInfos.add(info);
+                            continue;
+                        }
                     } finally {
                         StreamUtil.closeQuietly(inputStream);
                         StreamUtil.closeQuietly(dexZipFile);
@@ -284,7 +372,15 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                     TinkerZipEntry dexZipEntry = new TinkerZipEntry(info.rawName);
                     TinkerZipUtil.extractLargeModifyFile(dexZipEntry, dexFile, Long.parseLong(info.newOrPatchedDexCrC), out);
                 }
-
+                if (!info.destMd5InArt.equals(out.getLastEntryMd5())) {
+                    result = false;
+                    TinkerLog.e(TAG, "verify dex file md5 error, entry name; %s, file len: %d", info.rawName, classNFile.length());
+                    break;
+                }
+            }
+            if (result) {
+                out.close();
+                out = null;
             }
         } catch (Throwable throwable) {
             TinkerLog.printErrStackTrace(TAG, throwable, "merge classN file");
@@ -294,7 +390,7 @@ public class DexDiffPatchInternal extends BasePatchInternal {
         }
 
         if (result) {
-            for (ShareDexDiffPatchInfo info : classNDexInfo.keySet()) {
+            for (ShareDexDiffPatchInfo info : unverifiedInfos) {
                 if (!SharePatchFileUtil.verifyDexFileMd5(classNFile, info.rawName, info.destMd5InArt)) {
                     result = false;
                     TinkerLog.e(TAG, "verify dex file md5 error, entry name; %s, file len: %d", info.rawName, classNFile.length());
@@ -335,20 +431,20 @@ public class DexDiffPatchInternal extends BasePatchInternal {
             }
 
             TinkerLog.i(TAG, "patch recover, try to optimize dex file count:%d, optimizeDexDirectory:%s", dexFiles.size(), optimizeDexDirectory);
-            // only use parallel dex optimizer for art
-            // for Android O version, it is very strange. If we use parallel dex optimizer, it won't work
+            // dexes are optimized on a bounded pool sized by the core count, the largest ones first
+            // for Android O version, it is very strange. If we use parallel dex optimizer, it won't work,
+            // so TinkerDexOptimizer still optimizes them one by one there
             final List<File> failOptDexFile = new Vector<>();
             final Throwable[] throwable = new Throwable[1];
 
-            // try parallel dex optimizer
             TinkerDexOptimizer.optimizeAll(
                     dexFiles, optimizeDexDirectoryFile,
-                new TinkerDexOptimizer.ResultCallback() {
-                    long startTime;
+                new TinkerDexOptimizer.CancellableResultCallback() {
+                    final HashMap<File, Long> startTimes = new HashMap<>();
 
                     @Override
                     public void onStart(File dexFile, File optimizedDir) {
-                        startTime = System.currentTimeMillis();
+                        startTimes.put(dexFile, System.currentTimeMillis());
                         TinkerLog.i(TAG, "start to parallel optimize dex %s, size: %d", dexFile.getPath(), dexFile.length());
                     }
 
@@ -356,16 +452,30 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                     public void onSuccess(File dexFile, File optimizedDir, File optimizedFile) {
                         // Do nothing.
                         TinkerLog.i(TAG, "success to parallel optimize dex %s, opt file:%s, opt file size: %d, use time %d",
-                            dexFile.getPath(), optimizedFile.getPath(), optimizedFile.length(), (System.currentTimeMillis() - startTime));
+                            dexFile.getPath(), optimizedFile.getPath(), optimizedFile.length(), getUseTime(dexFile));
                     }
 
                     @Override
                     public void onFailed(File dexFile, File optimizedDir, Throwable thr) {
                         TinkerLog.i(TAG, "fail to parallel optimize dex %s use time %d",
-                            dexFile.getPath(), (System.currentTimeMillis() - startTime));
+                            dexFile.getPath(), getUseTime(dexFile));
                         failOptDexFile.add(dexFile);
                         throwable[0] = thr;
                     }
+
+                    @Override
+                    public void onCancelled(File dexFile, File optimizedDir) {
+                        TinkerLog.i(TAG, "cancel to parallel optimize dex %s", dexFile.getPath());
+                        failOptDexFile.add(dexFile);
+                        if (throwable[0] == null) {
+                            throwable[0] = new CancellationException("optimize dex " + dexFile.getPath() + " is cancelled");
+                        }
+                    }
+
+                    private long getUseTime(File dexFile) {
+                        Long start = startTimes.get(dexFile);
+                        return start == null ? 0 : System.currentTimeMillis() - start;
+                    }
                 }
             );
 
@@ -379,23 +489,28 @@ public class DexDiffPatchInternal extends BasePatchInternal {
 
     /**
      * for ViVo or some other rom, they would make dex2oat asynchronous
-     * so we need to check whether oat file is actually generated.
-     *
-     * @param files
-     * @param count
-     * @return
+     * so we need to check whether oat file is actually generated and complete.
      */
-    private static boolean checkAllDexOptFile(ArrayList<File> files, int count) {
-        for (File file : files) {
-            if (!SharePatchFileUtil.isLegalFile(file)) {
-                if (SharePatchFileUtil.shouldAcceptEvenIfIllegal(file)) {
-                    continue;
-                }
-                TinkerLog.e(TAG, "parallel dex optimizer file %s is not exist, just wait %d times", file.getName(), count);
-                return false;
+    private static boolean isDexOptFileReady(File file) {
+        if (!SharePatchFileUtil.isLegalFile(file)) {
+            return SharePatchFileUtil.shouldAcceptEvenIfIllegal(file);
+        }
+        if (Build.VERSION.SDK_INT < 21) {
+            return true;
+        }
+        ShareElfFile elfFile = null;
+        try {
+            if (ShareElfFile.getFileTypeByMagic(file) != ShareElfFile.FILE_TYPE_ELF) {
+                return true;
             }
+            elfFile = new ShareElfFile(file);
+            return true;
+        } catch (Throwable e) {
+            // still being written, or broken which is reported after waiting
+            return false;
+        } finally {
+            StreamUtil.closeQuietly(elfFile);
         }
-        return true;
     }
 
     private static boolean extractDexDiffInternals(Context context, String dir, String meta, File patchFile, int type) {
@@ -414,6 +529,7 @@ public class DexDiffPatchInternal extends BasePatchInternal {
         }
         //I think it is better to extract the raw files from apk
         Tinker manager = Tinker.with(context);
+        final boolean isLowRamDevice = isLowRamDevice(context);
         ZipFile apk = null;
         ZipFile patch = null;
         try {
@@ -431,8 +547,9 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                 TinkerLog.w(TAG, "class n dex file %s is already exist, and md5 match, just continue", ShareConstants.CLASS_N_APK_NAME);
                 return true;
             }
+            // Dexes need patching are collected after all cheap checks pass, then patched together.
+            final List<DexPatchJob> dexPatchJobs = new ArrayList<>();
             for (ShareDexDiffPatchInfo info : patchList) {
-                long start = System.currentTimeMillis();
 
                 final String infoPath = info.path;
                 String patchRealPath;
@@ -545,19 +662,12 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                         return false;
                     }
 
-                    patchDexFile(apk, patch, rawApkFileEntry, patchFileEntry, info, extractedFile);
-
-                    if (!SharePatchFileUtil.verifyDexFileMd5(extractedFile, extractedFileMd5)) {
-                        TinkerLog.w(TAG, "Failed to recover dex file when verify patched dex: " + extractedFile.getPath());
-                        manager.getPatchReporter().onPatchTypeExtractFail(patchFile, extractedFile, info.rawName, type);
-                        SharePatchFileUtil.safeDeleteFile(extractedFile);
-                        return false;
-                    }
-
-                    TinkerLog.w(TAG, "success recover dex file: %s, size: %d, use time: %d",
-                        extractedFile.getPath(), extractedFile.length(), (System.currentTimeMillis() - start));
+                    dexPatchJobs.add(new DexPatchJob(info, rawApkFileEntry, patchFileEntry, extractedFile, extractedFileMd5));
                 }
             }
+            if (!patchDexFiles(manager, patchFile, type, apk, patch, dexPatchJobs, isLowRamDevice)) {
+                return false;
+            }
             if (!mergeClassNDexFiles(context, patchFile, dir)) {
                 return false;
             }
@@ -570,6 +680,129 @@ public class DexDiffPatchInternal extends BasePatchInternal {
         return true;
     }
 
+    /**
+     * Patch and verify dexes of {@code jobs}, several of them at the same time while the heap
+     * they hold fits in the budget. Results are checked in the order of {@code jobs}, and
+     * running jobs are stopped before a failure is reported, the same as patching one by one.
+     */
+    private static boolean patchDexFiles(Tinker manager, File patchFile, int type, final ZipFile apk, final ZipFile patch,
+                                         List<DexPatchJob> jobs, final boolean isLowRamDevice) throws Exception {
+        if (jobs.isEmpty()) {
+            return true;
+        }
+        final int threadCount = getDexPatchThreadCount(jobs.size(), isLowRamDevice);
+        final long heapBudgetBytes = (dexPatchHeapBudgetBytes > 0 ? dexPatchHeapBudgetBytes : getFreeHeapBudget());
+        TinkerLog.i(TAG, "patch %d dex files with %d threads, heap budget: %d", jobs.size(), threadCount, heapBudgetBytes);
+
+        // section metrics cost a listener call and an object per section, only collect them for a reporter
+        final PatchReporter patchReporter = manager.getPatchReporter();
+        final boolean collectSectionMetrics = patchReporter instanceof DexSectionMetricsReporter;
+        final HeapBudgetedExecutor executor = new HeapBudgetedExecutor(threadCount, heapBudgetBytes, "Tinker.DexPatch");
+        final List<Future<String>> futures = new ArrayList<>(jobs.size());
+        try {
+            for (final DexPatchJob job : jobs) {
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        long start = System.currentTimeMillis();
+                        String patchedDexMd5 = patchDexFile(
+                            apk, patch, job.rawApkFileEntry, job.patchFileEntry, job.info, job.extractedFile,
+                            isLowRamDevice, collectSectionMetrics ? job.sectionMetrics : null
+                        );
+                        job.costMillis = System.currentTimeMillis() - start;
+                        return patchedDexMd5;
+                    }
+                }, estimateDexPatchHeapBytes(job)));
+            }
+
+            for (int i = 0; i < jobs.size(); ++i) {
+                final DexPatchJob job = jobs.get(i);
+                final String patchedDexMd5;
+                try {
+                    patchedDexMd5 = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw (Exception) cause;
+                }
+
+                if (!patchedDexMd5.equals(job.extractedFileMd5)) {
+                    TinkerLog.w(TAG, "Failed to recover dex file when verify patched dex: " + job.extractedFile.getPath());
+                    stopDexPatchJobs(executor, futures);
+                    patchReporter.onPatchTypeExtractFail(patchFile, job.extractedFile, job.info.rawName, type);
+                    SharePatchFileUtil.safeDeleteFile(job.extractedFile);
+                    return false;
+                }
+
+                TinkerLog.w(TAG, "success recover dex file: %s, size: %d, use time: %d",
+                    job.extractedFile.getPath(), job.extractedFile.length(), job.costMillis);
+                if (collectSectionMetrics) {
+                    ((DexSectionMetricsReporter) patchReporter).onPatchDexSectionMetrics(patchFile, job.extractedFile, job.sectionMetrics);
+                }
+            }
+            return true;
+        } finally {
+            stopDexPatchJobs(executor, futures);
+        }
+    }
+
+    /**
+     * Cancel jobs not started yet and wait a while for the running ones, they write into the patch
+     * directory which may be cleaned once a failure is reported. Runs in finally, so it never
+     * throws and hides the original failure, jobs still running after the wait are abandoned.
+     */
+    private static void stopDexPatchJobs(HeapBudgetedExecutor executor, List<Future<String>> futures) {
+        for (Future<String> future : futures) {
+            future.cancel(false);
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(STOP_DEX_PATCH_JOBS_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                TinkerLog.e(TAG, "dex patch jobs are still running after %d ms, abandon them", STOP_DEX_PATCH_JOBS_TIMEOUT);
+            }
+        } catch (Throwable e) {
+            TinkerLog.w(TAG, "failed to wait for running dex patch jobs: " + e);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static int getDexPatchThreadCount(int jobCount, boolean isLowRamDevice) {
+        if (isLowRamDevice) {
+            // Each dex may already be patched within the free heap, one at a time.
+            return 1;
+        }
+        int threadCount = maxDexPatchThreadCount;
+        if (threadCount <= 0) {
+            threadCount = Math.min(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_DEX_PATCH_THREAD_COUNT);
+        }
+        return Math.max(1, Math.min(threadCount, jobCount));
+    }
+
+    /**
+     * Old dex, patch file and patched dex are held in heap while patching. The patched dex is
+     * taken as large as old dex and patch file together, its real size is in the patch header
+     * and reading that would inflate every patch file on the submitting thread first.
+     */
+    private static long estimateDexPatchHeapBytes(DexPatchJob job) {
+        final long oldDexSize = job.rawApkFileEntry.getSize();
+        final long patchFileSize = (job.patchFileEntry != null ? job.patchFileEntry.getSize() : 0);
+        if (oldDexSize < 0 || patchFileSize < 0) {
+            // Unknown sizes, let the job take the whole budget.
+            return Long.MAX_VALUE;
+        }
+        return 2 * (oldDexSize + patchFileSize);
+    }
+
+    private static long getFreeHeapBudget() {
+        final Runtime runtime = Runtime.getRuntime();
+        final long freeHeapBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return (long) (freeHeapBytes * FREE_HEAP_BUDGET_RATIO);
+    }
+
     /**
      * repack dex to jar
      *
@@ -654,16 +887,29 @@ public class DexDiffPatchInternal extends BasePatchInternal {
      * @param patchedDexFile Patched dex file, may be a jar.
      *                       <p>
      *                       <b>Notice: patchFileEntry and smallPatchInfoFile cannot both be null.</b>
+     * @param isLowRamDevice Patch within the free heap, see {@link #createDexPatchApplier}.
+     * @param sectionMetrics Receives numbers of each patched dex section, null to skip them.
+     * @return md5 of the patched dex, computed while it was written. For a jar it is the md5 of
+     * the dex inside, the same as SharePatchFileUtil.verifyDexFileMd5 checks.
      * @throws IOException
      */
-    private static void patchDexFile(
+    private static String patchDexFile(
         ZipFile baseApk, ZipFile patchPkg, ZipEntry oldDexEntry, ZipEntry patchFileEntry,
-        ShareDexDiffPatchInfo patchInfo, File patchedDexFile) throws IOException {
+        ShareDexDiffPatchInfo patchInfo, File patchedDexFile, boolean isLowRamDevice,
+        final List<DexSectionMetrics> sectionMetrics) throws IOException {
         InputStream oldDexStream = null;
         InputStream patchFileStream = null;
+        DexPatchApplier applier;
         try {
             oldDexStream = new BufferedInputStream(baseApk.getInputStream(oldDexEntry));
             patchFileStream = (patchFileEntry != null ? new BufferedInputStream(patchPkg.getInputStream(patchFileEntry)) : null);
+            final DexSectionMetrics.IDexSectionMetricsListener metricsListener = (sectionMetrics == null ? null
+                : new DexSectionMetrics.IDexSectionMetricsListener() {
+                    @Override
+                    public void onSectionMetrics(DexSectionMetrics metrics) {
+                        sectionMetrics.add(metrics);
+                    }
+                });
 
             final boolean isRawDexFile = SharePatchFileUtil.isRawDexFile(patchInfo.rawName);
             if (!isRawDexFile || patchInfo.isJarMode) {
@@ -683,24 +929,92 @@ public class DexDiffPatchInternal extends BasePatchInternal {
                             if (entry == null) {
                                 throw new TinkerRuntimeException("can't recognize zip dex format file:" + patchedDexFile.getAbsolutePath());
                             }
-                            new DexPatchApplier(zis, patchFileStream).executeAndSaveTo(zos);
+                            applier = createDexPatchApplier(zis, patchFileStream, patchedDexFile, isLowRamDevice);
+                            applier.setMetricsListener(metricsListener);
+                            applier.executeAndSaveTo(zos);
                         } finally {
                             StreamUtil.closeQuietly(zis);
                         }
                     } else {
-                        new DexPatchApplier(oldDexStream, patchFileStream).executeAndSaveTo(zos);
+                        applier = createDexPatchApplier(oldDexStream, patchFileStream, patchedDexFile, isLowRamDevice);
+                        applier.setMetricsListener(metricsListener);
+                        applier.executeAndSaveTo(zos);
                     }
                     zos.closeEntry();
+                    // close here so a failed write is not hidden behind the digest
+                    zos.close();
+                    zos = null;
                 } finally {
                     StreamUtil.closeQuietly(zos);
                 }
             } else {
-                new DexPatchApplier(oldDexStream, patchFileStream).executeAndSaveTo(patchedDexFile);
+                applier = createDexPatchApplier(oldDexStream, patchFileStream, patchedDexFile, isLowRamDevice);
+                applier.setMetricsListener(metricsListener);
+                applier.executeAndSaveTo(patchedDexFile);
             }
+            return applier.getPatchedDexMd5();
         } finally {
             StreamUtil.closeQuietly(oldDexStream);
             StreamUtil.closeQuietly(patchFileStream);
         }
     }
 
+    /**
+     * On low ram devices holding old dex, patch file and patched dex in heap at once may OOM,
+     * so the applier gets the free heap as its budget and maps the dex files beside
+     * {@code patchedDexFile} once it does not fit.
+     */
+    private static DexPatchApplier createDexPatchApplier(
+        InputStream oldDexStream, InputStream patchFileStream, File patchedDexFile, boolean isLowRamDevice) throws IOException {
+        if (!isLowRamDevice) {
+            final DexPatchApplier applier = new DexPatchApplier(oldDexStream, patchFileStream);
+            // parallel sections read all patch operations ahead, more heap than low ram devices can spare
+            applier.setSectionThreadCount(dexSectionThreadCount);
+            return applier;
+        }
+        final long maxHeapBytes = getFreeHeapBudget();
+        final DexPatchApplier applier = new DexPatchApplier(oldDexStream, patchFileStream, maxHeapBytes, patchedDexFile.getParentFile());
+        TinkerLog.i(TAG, "low ram device, heap budget: %d, low memory mode: %b, dex: %s",
+            maxHeapBytes, applier.isLowMemoryMode(), patchedDexFile.getName());
+        return applier;
+    }
+
+    private static boolean isLowRamDevice(Context context) {
+        final ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am == null) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= 19 && am.isLowRamDevice()) {
+            return true;
+        }
+        if (Build.VERSION.SDK_INT >= 16) {
+            ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+            am.getMemoryInfo(memoryInfo);
+            return memoryInfo.totalMem <= LOW_RAM_DEVICE_TOTAL_MEM;
+        }
+        // Devices before jelly bean hardly have more than 2G ram.
+        return true;
+    }
+
+    private static final class DexPatchJob {
+        final ShareDexDiffPatchInfo   info;
+        final ZipEntry                rawApkFileEntry;
+        final ZipEntry                patchFileEntry;
+        final File                    extractedFile;
+        final String                  extractedFileMd5;
+        final List<DexSectionMetrics> sectionMetrics = new ArrayList<>();
+        /**
+         * Written by the patching thread, read after its future is done.
+         */
+        long costMillis = 0;
+
+        DexPatchJob(ShareDexDiffPatchInfo info, ZipEntry rawApkFileEntry, ZipEntry patchFileEntry,
+                    File extractedFile, String extractedFileMd5) {
+            this.info = info;
+            this.rawApkFileEntry = rawApkFileEntry;
+            this.patchFileEntry = patchFileEntry;
+            this.extractedFile = extractedFile;
+            this.extractedFileMd5 = extractedFileMd5;
+        }
+    }
 }
@@ -20,7 +20,7 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.os.SystemClock;
 
-import com.tencent.tinker.bsdiff.BSPatch;
+import com.tencent.tinker.commons.archive.ArchivePatch;
 import com.tencent.tinker.commons.util.StreamUtil;
 import com.tencent.tinker.lib.tinker.Tinker;
 import com.tencent.tinker.lib.util.TinkerLog;
@@ -41,6 +41,7 @@ import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 /**
@@ -129,6 +130,8 @@ public class ResDiffPatchInternal extends BasePatchInternal {
             TinkerZipOutputStream out = null;
             TinkerZipFile oldApk = null;
             TinkerZipFile newApk = null;
+            ZipFile oldApkZip = null;
+            ZipFile patchZip = null;
             int totalEntryCount = 0;
             try {
                 out = new TinkerZipOutputStream(new BufferedOutputStream(new FileOutputStream(resOutput)));
@@ -166,7 +169,14 @@ public class ResDiffPatchInternal extends BasePatchInternal {
                 TinkerZipUtil.extractTinkerEntry(oldApk, manifestZipEntry, out);
                 totalEntryCount++;
 
+                if (!resPatchInfo.largeModRes.isEmpty()) {
+                    oldApkZip = new ZipFile(apkPath);
+                    patchZip = new ZipFile(patchFile);
+                }
+                // crc and md5 of the large modified entries are checked while they are written
+                out.setEntryDigestEnabled(true);
                 for (String name : resPatchInfo.largeModRes) {
+                    long largeStart = System.currentTimeMillis();
                     TinkerZipEntry largeZipEntry = oldApk.getEntry(name);
                     if (largeZipEntry == null) {
                         TinkerLog.w(TAG, "large patch entry is null. path:" + name);
@@ -174,9 +184,32 @@ public class ResDiffPatchInternal extends BasePatchInternal {
                         return false;
                     }
                     ShareResPatchInfo.LargeModeInfo largeModeInfo = resPatchInfo.largeModMap.get(name);
-                    TinkerZipUtil.extractLargeModifyFile(largeZipEntry, largeModeInfo.file, largeModeInfo.crc, out);
+                    // patch straight into the new apk, the entries were checked in checkAndExtractResourceLargeFile,
+                    // resOutput is dropped if the patched data does not match the crc or md5
+                    InputStream oldStream = null;
+                    InputStream newStream = null;
+                    boolean patched;
+                    try {
+                        oldStream = oldApkZip.getInputStream(oldApkZip.getEntry(name));
+                        newStream = patchZip.getInputStream(patchZip.getEntry(name));
+                        patched = ArchivePatch.patchFastToZipEntry(oldStream, newStream, largeZipEntry, largeModeInfo.crc,
+                            largeModeInfo.md5, out);
+                    } catch (ZipException e) {
+                        TinkerLog.e(TAG, "large modify file mismatch:%s, %s", name, e.getMessage());
+                        patched = false;
+                    } finally {
+                        StreamUtil.closeQuietly(oldStream);
+                        StreamUtil.closeQuietly(newStream);
+                    }
+                    if (!patched) {
+                        TinkerLog.w(TAG, "Failed to recover large modify file:%s", name);
+                        manager.getPatchReporter().onPatchTypeExtractFail(patchFile, resOutput, name, type);
+                        return false;
+                    }
+                    TinkerLog.w(TAG, "success recover large modify file:%s, use time:%d", name, (System.currentTimeMillis() - largeStart));
                     totalEntryCount++;
                 }
+                out.setEntryDigestEnabled(false);
 
                 for (String name : resPatchInfo.addRes) {
                     TinkerZipEntry addZipEntry = newApk.getEntry(name);
@@ -215,6 +248,8 @@ public class ResDiffPatchInternal extends BasePatchInternal {
                 StreamUtil.closeQuietly(out);
                 StreamUtil.closeQuietly(oldApk);
                 StreamUtil.closeQuietly(newApk);
+                SharePatchFileUtil.closeZip(oldApkZip);
+                SharePatchFileUtil.closeZip(patchZip);
 
                 //delete temp files
                 SharePatchFileUtil.deleteDir(tempResFileDirectory);
@@ -290,7 +325,6 @@ public class ResDiffPatchInternal extends BasePatchInternal {
                 TinkerLog.w(TAG, "success recover store file:%s, file size:%d, use time:%d", destCopy.getPath(), destCopy.length(), (System.currentTimeMillis() - storeStart));
             }
             for (String name : resPatchInfo.largeModRes) {
-                long largeStart = System.currentTimeMillis();
                 ShareResPatchInfo.LargeModeInfo largeModeInfo = resPatchInfo.largeModMap.get(name);
 
                 if (largeModeInfo == null) {
@@ -299,9 +333,6 @@ public class ResDiffPatchInternal extends BasePatchInternal {
                     return false;
                 }
 
-                largeModeInfo.file = new File(tempFileDirtory, name);
-                SharePatchFileUtil.ensureFileDirectory(largeModeInfo.file);
-
                 //we do not check the intermediate files' md5 to save time, use check whether it is 32 length
                 if (!SharePatchFileUtil.checkIfMd5Valid(largeModeInfo.md5)) {
                     TinkerLog.w(TAG, "resource meta file md5 mismatch, type:%s, name: %s, md5: %s", ShareTinkerInternals.getTypeString(type), name, largeModeInfo.md5);
@@ -311,36 +342,19 @@ public class ResDiffPatchInternal extends BasePatchInternal {
                 ZipEntry patchEntry = patchZipFile.getEntry(name);
                 if (patchEntry == null) {
                     TinkerLog.w(TAG, "large mod patch entry is null. path:" + name);
-                    manager.getPatchReporter().onPatchTypeExtractFail(patchFile, largeModeInfo.file, name, type);
+                    manager.getPatchReporter().onPatchTypeExtractFail(patchFile, new File(tempFileDirtory, name), name, type);
                     return false;
                 }
 
                 ZipEntry baseEntry = apkFile.getEntry(name);
                 if (baseEntry == null) {
                     TinkerLog.w(TAG, "resources apk entry is null. path:" + name);
-                    manager.getPatchReporter().onPatchTypeExtractFail(patchFile, largeModeInfo.file, name, type);
-                    return false;
-                }
-                InputStream oldStream = null;
-                InputStream newStream = null;
-                try {
-                    oldStream = apkFile.getInputStream(baseEntry);
-                    newStream = patchZipFile.getInputStream(patchEntry);
-                    BSPatch.patchFast(oldStream, newStream, largeModeInfo.file);
-                } finally {
-                    StreamUtil.closeQuietly(oldStream);
-                    StreamUtil.closeQuietly(newStream);
-                }
-                //go go go bsdiff get the
-                if (!SharePatchFileUtil.verifyFileMd5(largeModeInfo.file, largeModeInfo.md5)) {
-                    TinkerLog.w(TAG, "Failed to recover large modify file:%s", largeModeInfo.file.getPath());
-                    SharePatchFileUtil.safeDeleteFile(largeModeInfo.file);
-                    manager.getPatchReporter().onPatchTypeExtractFail(patchFile, largeModeInfo.file, name, type);
+                    manager.getPatchReporter().onPatchTypeExtractFail(patchFile, new File(tempFileDirtory, name), name, type);
                     return false;
                 }
-                TinkerLog.w(TAG, "success recover large modify file:%s, file size:%d, use time:%d", largeModeInfo.file.getPath(), largeModeInfo.file.length(), (System.currentTimeMillis() - largeStart));
+                // large modify files are patched straight into the new resource apk, no temporary file here.
             }
-            TinkerLog.w(TAG, "success recover all large modify and store resources use time:%d", (System.currentTimeMillis() - start));
+            TinkerLog.w(TAG, "success check all large modify and recover store resources use time:%d", (System.currentTimeMillis() - start));
         } catch (Throwable e) {
 //            e.printStackTrace();
             throw new TinkerRuntimeException("patch " + ShareTinkerInternals.getTypeString(type) +  " extract failed (" + e.getMessage() + ").", e);
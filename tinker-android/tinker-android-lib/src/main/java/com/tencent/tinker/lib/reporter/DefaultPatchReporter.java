@@ -20,6 +20,7 @@ package com.tencent.tinker.lib.reporter;
 import android.content.Context;
 import android.content.Intent;
 
+import com.tencent.tinker.commons.dexpatcher.DexSectionMetrics;
 import com.tencent.tinker.lib.service.DefaultTinkerResultService;
 import com.tencent.tinker.lib.tinker.Tinker;
 import com.tencent.tinker.lib.util.TinkerLog;
@@ -38,7 +39,7 @@ import java.util.List;
  * you can extent it for your own work
  * all is running in the :patch process
  */
-public class DefaultPatchReporter implements PatchReporter {
+public class DefaultPatchReporter implements PatchReporter, DexSectionMetricsReporter {
     private static final String TAG = "Tinker.DefaultPatchReporter";
     private static boolean shouldRetry = false;
     protected final Context context;
@@ -151,6 +152,24 @@ public class DefaultPatchReporter implements PatchReporter {
         }
     }
 
+    /**
+     * a dex was patched and verified, numbers of each section in the order they are patched
+     *
+     * @param patchFile      the input patch file to recover
+     * @param patchedDexFile the patched dex file, may be a jar
+     * @param sectionMetrics item counts, bytes and time cost of each dex section
+     */
+    @Override
+    public void onPatchDexSectionMetrics(File patchFile, File patchedDexFile, List<DexSectionMetrics> sectionMetrics) {
+        long timeCostNanos = 0;
+        for (DexSectionMetrics metrics : sectionMetrics) {
+            timeCostNanos += metrics.timeCostNanos;
+            TinkerLog.d(TAG, "patchReporter onPatchDexSectionMetrics: dex: %s, %s", patchedDexFile.getName(), metrics);
+        }
+        TinkerLog.i(TAG, "patchReporter onPatchDexSectionMetrics: dex: %s, sections: %d, cost: %dms",
+            patchedDexFile.getName(), sectionMetrics.size(), timeCostNanos / 1000000);
+    }
+
     /**
      * recover result, we will also send a result to {@link DefaultTinkerResultService}
      *
@@ -0,0 +1,40 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.tencent.tinker.lib.reporter;
+
+import com.tencent.tinker.commons.dexpatcher.DexSectionMetrics;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Optional callback of a {@link PatchReporter}, a reporter implementing it as well gets the
+ * numbers of every patched dex. {@link DefaultPatchReporter} logs them.
+ */
+public interface DexSectionMetricsReporter {
+
+    /**
+     * a dex was patched and verified, numbers of each section in the order they are patched
+     *
+     * @param patchFile      the input patch file to recover
+     * @param patchedDexFile the patched dex file, may be a jar
+     * @param sectionMetrics item counts, bytes and time cost of each dex section
+     */
+    void onPatchDexSectionMetrics(File patchFile, File patchedDexFile, List<DexSectionMetrics> sectionMetrics);
+}
@@ -0,0 +1,60 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.lib.util;
+
+import android.os.FileObserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * inotify backed {@link FileWatcher}, reports files written and closed or moved into the directories.
+ */
+public class FileObserverWatcher implements FileWatcher {
+    private static final int WATCH_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO;
+
+    // FileObserver stops watching once it is garbage collected, hold them until stopWatching
+    private final List<FileObserver> observers = new ArrayList<>();
+
+    @Override
+    public synchronized boolean startWatching(final File directory, final Callback callback) {
+        if (!directory.isDirectory()) {
+            return false;
+        }
+        FileObserver observer = new FileObserver(directory.getAbsolutePath(), WATCH_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (path != null) {
+                    callback.onFileChanged(directory, path);
+                }
+            }
+        };
+        observer.startWatching();
+        observers.add(observer);
+        return true;
+    }
+
+    @Override
+    public synchronized void stopWatching() {
+        for (FileObserver observer : observers) {
+            observer.stopWatching();
+        }
+        observers.clear();
+    }
+}
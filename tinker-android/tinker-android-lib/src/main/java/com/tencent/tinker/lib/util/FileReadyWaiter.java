@@ -0,0 +1,182 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.lib.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits until some files, written by another process, are all ready.
+ * <p/>
+ * Files are checked again as soon as the {@link FileWatcher} reports a change in their directories,
+ * and every {@code recheckIntervalMillis} in case a change is missed, e.g. the directory does not exist yet.
+ * A file which is still not valid after its writer finished, that is its size and modification time stay
+ * the same from the check following a change of it to the next check, is failed without waiting any longer.
+ */
+public class FileReadyWaiter {
+
+    public interface FileValidator {
+        boolean isReady(File file);
+    }
+
+    public static final class Result {
+        private final List<File> failedFiles;
+        private final List<File> pendingFiles;
+
+        Result(List<File> failedFiles, List<File> pendingFiles) {
+            this.failedFiles = failedFiles;
+            this.pendingFiles = pendingFiles;
+        }
+
+        /**
+         * files written completely but still not valid
+         */
+        public List<File> getFailedFiles() {
+            return failedFiles;
+        }
+
+        /**
+         * files not ready when the timeout passed
+         */
+        public List<File> getPendingFiles() {
+            return pendingFiles;
+        }
+
+        public boolean isAllReady() {
+            return failedFiles.isEmpty() && pendingFiles.isEmpty();
+        }
+    }
+
+    private final FileWatcher   watcher;
+    private final FileValidator validator;
+    private final long          recheckIntervalMillis;
+
+    /**
+     * @param watcher null to only check the files every {@code recheckIntervalMillis}, a file is never failed
+     *                before the timeout then
+     */
+    public FileReadyWaiter(FileWatcher watcher, FileValidator validator, long recheckIntervalMillis) {
+        if (recheckIntervalMillis <= 0) {
+            throw new IllegalArgumentException("recheck interval must be positive: " + recheckIntervalMillis);
+        }
+        this.watcher = watcher;
+        this.validator = validator;
+        this.recheckIntervalMillis = recheckIntervalMillis;
+    }
+
+    public Result await(Collection<File> files, long timeoutMillis) throws InterruptedException {
+        final Set<File> pendingFiles = new LinkedHashSet<>();
+        for (File file : files) {
+            pendingFiles.add(file.getAbsoluteFile());
+        }
+        final List<File> failedFiles = new ArrayList<>();
+        final Map<File, FileState> states = new HashMap<>();
+        final Set<File> changedFiles = new HashSet<>();
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (watcher != null) {
+            final FileWatcher.Callback callback = new FileWatcher.Callback() {
+                @Override
+                public void onFileChanged(File directory, String fileName) {
+                    synchronized (changedFiles) {
+                        changedFiles.add(new File(directory.getAbsoluteFile(), fileName));
+                        changedFiles.notifyAll();
+                    }
+                }
+            };
+            Set<File> directories = new LinkedHashSet<>();
+            for (File file : pendingFiles) {
+                directories.add(file.getParentFile());
+            }
+            for (File directory : directories) {
+                watcher.startWatching(directory, callback);
+            }
+        }
+        try {
+            while (true) {
+                final Set<File> changedSinceLastCheck;
+                synchronized (changedFiles) {
+                    changedSinceLastCheck = new HashSet<>(changedFiles);
+                    changedFiles.clear();
+                }
+                checkFiles(pendingFiles, failedFiles, states, changedSinceLastCheck);
+                final long remainingNanos = deadlineNanos - System.nanoTime();
+                if (pendingFiles.isEmpty() || remainingNanos <= 0) {
+                    break;
+                }
+                synchronized (changedFiles) {
+                    if (changedFiles.isEmpty()) {
+                        long waitMillis = Math.min(TimeUnit.NANOSECONDS.toMillis(remainingNanos), recheckIntervalMillis);
+                        changedFiles.wait(Math.max(1, waitMillis));
+                    }
+                }
+            }
+        } finally {
+            if (watcher != null) {
+                watcher.stopWatching();
+            }
+        }
+        return new Result(failedFiles, new ArrayList<>(pendingFiles));
+    }
+
+    private void checkFiles(Set<File> pendingFiles, List<File> failedFiles, Map<File, FileState> states,
+                            Set<File> changedFiles) {
+        Iterator<File> iterator = pendingFiles.iterator();
+        while (iterator.hasNext()) {
+            final File file = iterator.next();
+            if (validator.isReady(file)) {
+                iterator.remove();
+                continue;
+            }
+            if (!file.exists()) {
+                states.remove(file);
+                continue;
+            }
+            final FileState current = new FileState(file.length(), file.lastModified(), changedFiles.contains(file));
+            final FileState last = states.put(file, current);
+            if (last != null && last.writeFinished && !current.writeFinished
+                && last.length == current.length && last.lastModified == current.lastModified) {
+                iterator.remove();
+                failedFiles.add(file);
+            }
+        }
+    }
+
+    private static final class FileState {
+        final long    length;
+        final long    lastModified;
+        /**
+         * a change of the file was reported before it was checked, so the writer closed or moved it
+         */
+        final boolean writeFinished;
+
+        FileState(long length, long lastModified, boolean writeFinished) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.writeFinished = writeFinished;
+        }
+    }
+}
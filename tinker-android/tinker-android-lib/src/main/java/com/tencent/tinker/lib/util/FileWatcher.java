@@ -0,0 +1,43 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.lib.util;
+
+import java.io.File;
+
+/**
+ * Notifies changes of the files inside some directories.
+ */
+public interface FileWatcher {
+
+    interface Callback {
+        /**
+         * may be called on any thread
+         */
+        void onFileChanged(File directory, String fileName);
+    }
+
+    /**
+     * @return false if the directory can not be watched, changes in it are not reported then
+     */
+    boolean startWatching(File directory, Callback callback);
+
+    /**
+     * stop watching all directories
+     */
+    void stopWatching();
+}
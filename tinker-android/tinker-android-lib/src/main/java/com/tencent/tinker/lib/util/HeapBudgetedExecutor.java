@@ -0,0 +1,115 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.lib.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a bounded pool while the heap they declare stays under a budget.
+ * <p/>
+ * {@link #submit} blocks until the task fits in the budget together with tasks in flight,
+ * a task larger than the whole budget runs only when nothing else is in flight.
+ */
+public class HeapBudgetedExecutor {
+    private final ExecutorService executor;
+    private final long            heapBudgetBytes;
+
+    private final Object budgetLock          = new Object();
+    private long         inFlightHeapBytes   = 0;
+    private int          inFlightTaskCount   = 0;
+
+    public HeapBudgetedExecutor(int threadCount, long heapBudgetBytes, final String threadName) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("thread count must be positive: " + threadCount);
+        }
+        this.heapBudgetBytes = heapBudgetBytes;
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, threadName + "-" + threadIndex.incrementAndGet());
+                }
+            });
+    }
+
+    /**
+     * @param heapBytes heap {@code task} is expected to hold at most while running
+     */
+    public <T> Future<T> submit(Callable<T> task, long heapBytes) throws InterruptedException {
+        final long reservedBytes = Math.max(0, Math.min(heapBytes, heapBudgetBytes));
+        synchronized (budgetLock) {
+            while (inFlightTaskCount > 0 && inFlightHeapBytes + reservedBytes > heapBudgetBytes) {
+                budgetLock.wait();
+            }
+            inFlightHeapBytes += reservedBytes;
+            ++inFlightTaskCount;
+        }
+        // done() may come with cancel() while the task body is still running, so the budget is
+        // released when run() returns instead. The pool keeps running queued tasks after shutdown(),
+        // a task cancelled before it starts returns from run() at once.
+        FutureTask<T> futureTask = new FutureTask<T>(task) {
+            @Override
+            public void run() {
+                try {
+                    super.run();
+                } finally {
+                    release(reservedBytes);
+                }
+            }
+        };
+        try {
+            executor.execute(futureTask);
+        } catch (RuntimeException e) {
+            release(reservedBytes);
+            throw e;
+        }
+        return futureTask;
+    }
+
+    private void release(long reservedBytes) {
+        synchronized (budgetLock) {
+            inFlightHeapBytes -= reservedBytes;
+            --inFlightTaskCount;
+            budgetLock.notifyAll();
+        }
+    }
+
+    /**
+     * Tasks submitted are still run, no more tasks are accepted.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Wait for running tasks after {@link #shutdown()}, tasks cancelled before they start are skipped.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.lib.util;
+
+import com.tencent.tinker.loader.shareutil.ShareElfFile;
+import com.tencent.tinker.loader.shareutil.SharePatchFileUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileReadyWaiterTest {
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+
+    private File directory;
+    private File oatFile;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("tinker_file_waiter", "");
+        directory.delete();
+        directory.mkdirs();
+        oatFile = new File(directory, "classes.dex.oat").getAbsoluteFile();
+    }
+
+    @After
+    public void tearDown() {
+        oatFile.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void fileWrittenLaterIsReady() throws Exception {
+        // rechecks alone would not see the file in time, the watcher has to wake the waiter up
+        final FileReadyWaiter waiter = new FileReadyWaiter(new WatchServiceWatcher(), new ElfValidator(), TIMEOUT_MILLIS);
+        writeLater(oatFile, validElf(), 200);
+
+        final long begin = System.nanoTime();
+        final FileReadyWaiter.Result result = waiter.await(Collections.singletonList(oatFile), TIMEOUT_MILLIS);
+        final long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        assertTrue(result.isAllReady());
+        assertTrue("cost " + costMillis + " ms", costMillis >= 150 && costMillis < TIMEOUT_MILLIS / 2);
+    }
+
+    @Test
+    public void missingFileIsPendingAtDeadline() throws Exception {
+        final FileReadyWaiter waiter = new FileReadyWaiter(new WatchServiceWatcher(), new ElfValidator(), 100);
+
+        final long begin = System.nanoTime();
+        final FileReadyWaiter.Result result = waiter.await(Collections.singletonList(oatFile), 500);
+        final long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        assertEquals(Collections.singletonList(oatFile), result.getPendingFiles());
+        assertTrue(result.getFailedFiles().isEmpty());
+        assertTrue("cost " + costMillis + " ms", costMillis >= 500 && costMillis < TIMEOUT_MILLIS / 2);
+    }
+
+    @Test
+    public void invalidFileFailsBeforeDeadline() throws Exception {
+        final FileReadyWaiter waiter = new FileReadyWaiter(new WatchServiceWatcher(), new ElfValidator(), 300);
+        // only the start of an elf header, and nothing is written after it
+        final byte[] truncatedElf = new byte[20];
+        System.arraycopy(validElf(), 0, truncatedElf, 0, truncatedElf.length);
+        writeLater(oatFile, truncatedElf, 200);
+
+        final long begin = System.nanoTime();
+        final FileReadyWaiter.Result result = waiter.await(Collections.singletonList(oatFile), TIMEOUT_MILLIS);
+        final long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        assertEquals(Collections.singletonList(oatFile), result.getFailedFiles());
+        assertTrue(result.getPendingFiles().isEmpty());
+        assertTrue("cost " + costMillis + " ms", costMillis < TIMEOUT_MILLIS / 2);
+    }
+
+    private static void writeLater(final File file, final byte[] content, final long delayMillis) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(delayMillis);
+                    FileOutputStream os = new FileOutputStream(file);
+                    try {
+                        os.write(content);
+                    } finally {
+                        os.close();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * an elf64 header with no program or section headers
+     */
+    private static byte[] validElf() {
+        ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[]{0x7F, 'E', 'L', 'F', 2, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        buffer.putShort((short) 3);   // e_type
+        buffer.putShort((short) 183); // e_machine
+        buffer.putInt(1);             // e_version
+        buffer.putLong(0);            // e_entry
+        buffer.putLong(64);           // e_phoff
+        buffer.putLong(64);           // e_shoff
+        buffer.putInt(0);             // e_flags
+        buffer.putShort((short) 64);  // e_ehsize
+        buffer.putShort((short) 56);  // e_phentsize
+        buffer.putShort((short) 0);   // e_phnum
+        buffer.putShort((short) 64);  // e_shentsize
+        buffer.putShort((short) 0);   // e_shnum
+        buffer.putShort((short) 0);   // e_shstrndx
+        return buffer.array();
+    }
+
+    /**
+     * the check of DexDiffPatchInternal on art without the vendor exceptions
+     */
+    private static final class ElfValidator implements FileReadyWaiter.FileValidator {
+        @Override
+        public boolean isReady(File file) {
+            if (!SharePatchFileUtil.isLegalFile(file)) {
+                return false;
+            }
+            ShareElfFile elfFile = null;
+            try {
+                if (ShareElfFile.getFileTypeByMagic(file) != ShareElfFile.FILE_TYPE_ELF) {
+                    return true;
+                }
+                elfFile = new ShareElfFile(file);
+                return true;
+            } catch (IOException e) {
+                return false;
+            } finally {
+                if (elfFile != null) {
+                    try {
+                        elfFile.close();
+                    } catch (IOException ignored) {
+                        // Ignored.
+                    }
+                }
+            }
+        }
+    }
+}
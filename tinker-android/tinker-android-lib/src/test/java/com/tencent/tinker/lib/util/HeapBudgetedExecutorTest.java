@@ -0,0 +1,221 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.lib.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HeapBudgetedExecutorTest {
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+    private static final long BLOCKED_MILLIS = 200;
+    private static final long BUDGET = 100;
+
+    private HeapBudgetedExecutor executor;
+    private ExecutorService submitter;
+
+    @Before
+    public void setUp() {
+        executor = new HeapBudgetedExecutor(4, BUDGET, "heap_budget_test");
+        submitter = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        submitter.shutdownNow();
+        executor.shutdown();
+        executor.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void tasksOverBudgetAreSerialized() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        Future<Integer> first = executor.submit(holdUntil(release, running, maxRunning), 60);
+
+        Future<Future<Integer>> second = submitLater(holdUntil(null, running, maxRunning), 60);
+        assertBlocked(second);
+
+        release.countDown();
+        first.get();
+        second.get().get();
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void tasksWithinBudgetRunTogether() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        Future<Integer> first = executor.submit(holdUntil(release, running, maxRunning), 50);
+        Future<Integer> second = executor.submit(holdUntil(release, running, maxRunning), 50);
+
+        // both reservations fit, so the two tasks end up holding the workers at once
+        while (running.get() < 2) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        first.get();
+        second.get();
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void taskLargerThanBudgetRunsAlone() throws Exception {
+        final CountDownLatch releaseSmall = new CountDownLatch(1);
+        final CountDownLatch releaseLarge = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        Future<Integer> small = executor.submit(holdUntil(releaseSmall, running, maxRunning), 10);
+
+        // the oversized task must wait for the small one, then run without company
+        Future<Future<Integer>> large = submitLater(holdUntil(releaseLarge, running, maxRunning), Long.MAX_VALUE);
+        assertBlocked(large);
+        releaseSmall.countDown();
+        small.get();
+        Future<Integer> largeTask = large.get();
+
+        Future<Future<Integer>> after = submitLater(holdUntil(null, running, maxRunning), 10);
+        assertBlocked(after);
+        releaseLarge.countDown();
+        largeTask.get();
+        after.get().get();
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void budgetIsReleasedWhenTaskThrows() throws Exception {
+        Future<Integer> failing = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                throw new IllegalStateException("boom");
+            }
+        }, BUDGET);
+        try {
+            failing.get();
+            fail("the task should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        // a leaked reservation would block this submit forever
+        assertEquals(Integer.valueOf(1), executor.submit(holdUntil(null, new AtomicInteger(), new AtomicInteger()), BUDGET).get());
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void budgetIsReleasedWhenTaskIsCancelledBeforeStart() throws Exception {
+        executor.shutdown();
+        executor = new HeapBudgetedExecutor(1, BUDGET, "heap_budget_test");
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        Future<Integer> first = executor.submit(holdUntil(release, running, maxRunning), 50);
+
+        // the only worker is busy, so this one stays queued until it is cancelled
+        final AtomicBoolean cancelledRan = new AtomicBoolean();
+        Future<Integer> cancelled = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                cancelledRan.set(true);
+                return 0;
+            }
+        }, 50);
+        assertTrue(cancelled.cancel(true));
+
+        release.countDown();
+        first.get();
+        assertEquals(Integer.valueOf(1), executor.submit(holdUntil(null, running, maxRunning), BUDGET).get());
+        assertFalse(cancelledRan.get());
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void budgetIsReleasedWhenRunningTaskIsCancelled() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        Future<Integer> blocked = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                started.countDown();
+                new CountDownLatch(1).await();
+                return 0;
+            }
+        }, BUDGET);
+        started.await();
+        assertTrue(blocked.cancel(true));
+
+        assertEquals(Integer.valueOf(1), executor.submit(holdUntil(null, new AtomicInteger(), new AtomicInteger()), BUDGET).get());
+    }
+
+    private Future<Future<Integer>> submitLater(final Callable<Integer> task, final long heapBytes) {
+        return submitter.submit(new Callable<Future<Integer>>() {
+            @Override
+            public Future<Integer> call() throws Exception {
+                return executor.submit(task, heapBytes);
+            }
+        });
+    }
+
+    private static void assertBlocked(Future<?> submission) throws Exception {
+        try {
+            submission.get(BLOCKED_MILLIS, TimeUnit.MILLISECONDS);
+            fail("submit should wait for the heap budget");
+        } catch (TimeoutException expected) {
+            // still waiting, as it should
+        }
+    }
+
+    private static Callable<Integer> holdUntil(final CountDownLatch release, final AtomicInteger running,
+                                               final AtomicInteger maxRunning) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                try {
+                    if (release != null) {
+                        release.await();
+                    }
+                    return 1;
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.lib.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link FileWatcher} on {@link WatchService}, for running {@link FileReadyWaiter} on the JVM where
+ * {@code android.os.FileObserver} is missing. Unlike FileObserverWatcher every modification is reported,
+ * not only the writer closing the file.
+ */
+public class WatchServiceWatcher implements FileWatcher {
+    private WatchService               watchService;
+    private final Map<WatchKey, Entry> entries = new HashMap<>();
+
+    @Override
+    public synchronized boolean startWatching(File directory, Callback callback) {
+        if (!directory.isDirectory()) {
+            return false;
+        }
+        try {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+                startPolling(watchService);
+            }
+            WatchKey key = directory.toPath().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            entries.put(key, new Entry(directory, callback));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void stopWatching() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            // the polling thread quits with a ClosedWatchServiceException
+            watchService.close();
+        } catch (IOException ignored) {
+            // Ignored.
+        }
+        watchService = null;
+        entries.clear();
+    }
+
+    private void startPolling(final WatchService service) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        WatchKey key = service.take();
+                        final Entry entry;
+                        synchronized (WatchServiceWatcher.this) {
+                            entry = entries.get(key);
+                        }
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (entry != null && event.context() instanceof Path) {
+                                entry.callback.onFileChanged(entry.directory, event.context().toString());
+                            }
+                        }
+                        key.reset();
+                    }
+                } catch (ClosedWatchServiceException | InterruptedException ignored) {
+                    // stopped
+                }
+            }
+        }, "Tinker.WatchServiceWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static final class Entry {
+        final File     directory;
+        final Callback callback;
+
+        Entry(File directory, Callback callback) {
+            this.directory = directory;
+            this.callback = callback;
+        }
+    }
+}
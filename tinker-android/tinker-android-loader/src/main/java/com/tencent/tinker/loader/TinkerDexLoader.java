@@ -33,6 +33,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 import dalvik.system.PathClassLoader;
 
@@ -156,34 +157,45 @@ public class TinkerDexLoader {
             // change dir
             optimizeDir = new File(directory + "/" + INTERPRET_DEX_OPTIMIZE_PATH);
 
-            TinkerDexOptimizer.optimizeAll(
+            boolean optimizeSuccess = TinkerDexOptimizer.optimizeAll(
                 legalFiles, optimizeDir, true, targetISA,
-                new TinkerDexOptimizer.ResultCallback() {
-                    long start;
+                new TinkerDexOptimizer.CancellableResultCallback() {
+                    final Map<File, Long> startTimes = new HashMap<>();
 
                     @Override
                     public void onStart(File dexFile, File optimizedDir) {
-                        start = System.currentTimeMillis();
+                        startTimes.put(dexFile, System.currentTimeMillis());
                         Log.i(TAG, "start to optimize dex:" + dexFile.getPath());
                     }
 
                     @Override
                     public void onSuccess(File dexFile, File optimizedDir, File optimizedFile) {
                         // Do nothing.
-                        Log.i(TAG, "success to optimize dex " + dexFile.getPath() + ", use time " + (System.currentTimeMillis() - start));
+                        Log.i(TAG, "success to optimize dex " + dexFile.getPath() + ", use time " + getUseTime(dexFile));
                     }
 
                     @Override
                     public void onFailed(File dexFile, File optimizedDir, Throwable thr) {
                         parallelOTAResult[0] = false;
                         parallelOTAThrowable[0] = thr;
-                        Log.i(TAG, "fail to optimize dex " + dexFile.getPath() + ", use time " + (System.currentTimeMillis() - start));
+                        Log.i(TAG, "fail to optimize dex " + dexFile.getPath() + ", use time " + getUseTime(dexFile));
+                    }
+
+                    @Override
+                    public void onCancelled(File dexFile, File optimizedDir) {
+                        parallelOTAResult[0] = false;
+                        Log.i(TAG, "cancel to optimize dex " + dexFile.getPath());
+                    }
+
+                    private long getUseTime(File dexFile) {
+                        Long start = startTimes.get(dexFile);
+                        return start == null ? 0 : System.currentTimeMillis() - start;
                     }
                 }
             );
 
 
-            if (!parallelOTAResult[0]) {
+            if (!optimizeSuccess || !parallelOTAResult[0]) {
                 Log.e(TAG, "parallel oat dexes failed");
                 intentResult.putExtra(ShareIntentUtil.INTENT_PATCH_INTERPRET_EXCEPTION, parallelOTAThrowable[0]);
                 ShareIntentUtil.setIntentReturnCode(intentResult, ShareConstants.ERROR_LOAD_PATCH_OTA_INTERPRET_ONLY_EXCEPTION);
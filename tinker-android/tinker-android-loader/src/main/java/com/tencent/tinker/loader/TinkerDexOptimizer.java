@@ -29,9 +29,25 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import dalvik.system.DexFile;
 
@@ -45,6 +61,11 @@ public final class TinkerDexOptimizer {
 
     private static final String INTERPRET_LOCK_FILE_NAME = "interpret.lock";
 
+    /**
+     * a single dex taking longer than this since it was started is treated as failed
+     */
+    public static final long DEFAULT_OPTIMIZE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
     /**
      * Optimize (trigger dexopt or dex2oat) dexes.
      *
@@ -59,6 +80,26 @@ public final class TinkerDexOptimizer {
 
     public static boolean optimizeAll(Collection<File> dexFiles, File optimizedDir,
                                       boolean useInterpretMode, String targetISA, ResultCallback cb) {
+        return optimizeAll(dexFiles, optimizedDir, new DefaultOptimizer(useInterpretMode, targetISA),
+            getDefaultThreadCount(dexFiles.size()), DEFAULT_OPTIMIZE_TIMEOUT_MILLIS, cb);
+    }
+
+    /**
+     * Optimize dexes with at most threadCount optimizations running at the same time, larger dexes are started first.
+     * A dex which is not done within timeoutMillis since it was started fails with a {@link TimeoutException},
+     * a non-positive timeoutMillis means no timeout.
+     * Once a dex fails or the calling thread is interrupted, the unfinished dexes are cancelled and reported by
+     * {@link CancellableResultCallback#onCancelled}, a plain {@link ResultCallback} gets onFailed with a
+     * {@link CancellationException} for those already started and nothing for the others.
+     * Callbacks are never called concurrently, but they may be called on the worker threads.
+     *
+     * @return If all dexes are optimized successfully, return true. Otherwise return false.
+     */
+    public static boolean optimizeAll(Collection<File> dexFiles, File optimizedDir, Optimizer optimizer,
+                                      int threadCount, long timeoutMillis, ResultCallback cb) {
+        if (dexFiles.isEmpty()) {
+            return true;
+        }
         ArrayList<File> sortList = new ArrayList<>(dexFiles);
         // sort input dexFiles with its file length
         Collections.sort(sortList, new Comparator<File>() {
@@ -75,15 +116,91 @@ public final class TinkerDexOptimizer {
             }
         });
         Collections.reverse(sortList);
-        for (File dexFile : sortList) {
-            OptimizeWorker worker = new OptimizeWorker(dexFile, optimizedDir, useInterpretMode, targetISA, cb);
-            if (!worker.run()) {
-                return false;
+
+        final int poolSize = Math.max(1, Math.min(threadCount, sortList.size()));
+        final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final CallbackDispatcher dispatcher = new CallbackDispatcher(optimizedDir, cb);
+        // the queue is FIFO, so the largest dexes are the first ones picked up by the workers.
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new OptimizeThreadFactory());
+        final CompletionService<File> completionService = new ExecutorCompletionService<>(executor);
+        final Map<Future<File>, OptimizeTask> pendingTasks = new LinkedHashMap<>();
+        try {
+            for (File dexFile : sortList) {
+                OptimizeTask task = new OptimizeTask(dexFile, optimizedDir, optimizer, dispatcher);
+                pendingTasks.put(completionService.submit(task), task);
+            }
+            while (!pendingTasks.isEmpty()) {
+                final Future<File> future;
+                if (timeoutNanos > 0) {
+                    future = completionService.poll(getNextTimeoutNanos(pendingTasks.values(), timeoutNanos),
+                        TimeUnit.NANOSECONDS);
+                } else {
+                    future = completionService.take();
+                }
+                if (future == null) {
+                    Future<File> expired = findExpiredTask(pendingTasks, timeoutNanos);
+                    if (expired == null) {
+                        continue;
+                    }
+                    OptimizeTask task = pendingTasks.remove(expired);
+                    expired.cancel(true);
+                    dispatcher.onFailed(task.dexFile, new TimeoutException("optimize dex " + task.dexFile.getAbsolutePath()
+                        + " is not finished in " + timeoutMillis + "ms"));
+                    return false;
+                }
+                OptimizeTask task = pendingTasks.remove(future);
+                if (task == null) {
+                    continue;
+                }
+                try {
+                    dispatcher.onSuccess(task.dexFile, future.get());
+                } catch (ExecutionException e) {
+                    dispatcher.onFailed(task.dexFile, e.getCause());
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            for (Map.Entry<Future<File>, OptimizeTask> entry : pendingTasks.entrySet()) {
+                entry.getKey().cancel(true);
+                dispatcher.onCancelled(entry.getValue().dexFile);
             }
+            executor.shutdownNow();
         }
-        return true;
+    }
 
+    private static int getDefaultThreadCount(int dexCount) {
+        // for Android O version, it is very strange. If we use parallel dex optimizer, it won't work
+        if (Build.VERSION.SDK_INT == 26 || Build.VERSION.SDK_INT == 27) {
+            return 1;
+        }
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), dexCount));
+    }
 
+    private static long getNextTimeoutNanos(Collection<OptimizeTask> tasks, long timeoutNanos) {
+        final long now = System.nanoTime();
+        long result = timeoutNanos;
+        for (OptimizeTask task : tasks) {
+            if (task.started) {
+                result = Math.min(result, task.startNanos + timeoutNanos - now);
+            }
+        }
+        return Math.max(0, result);
+    }
+
+    private static Future<File> findExpiredTask(Map<Future<File>, OptimizeTask> tasks, long timeoutNanos) {
+        final long now = System.nanoTime();
+        for (Map.Entry<Future<File>, OptimizeTask> entry : tasks.entrySet()) {
+            OptimizeTask task = entry.getValue();
+            if (task.started && now - task.startNanos >= timeoutNanos) {
+                return entry.getKey();
+            }
+        }
+        return null;
     }
 
     public interface ResultCallback {
@@ -94,51 +211,146 @@ public final class TinkerDexOptimizer {
         void onFailed(File dexFile, File optimizedDir, Throwable thr);
     }
 
-    private static class OptimizeWorker {
-        private static String targetISA = null;
+    /**
+     * A {@link ResultCallback} which is also told about the dexes given up, so that each dex gets exactly one
+     * of onSuccess, onFailed and onCancelled.
+     */
+    public interface CancellableResultCallback extends ResultCallback {
+        /**
+         * the dex is given up because another dex failed or the optimization was interrupted,
+         * onStart may or may not have been called for it
+         */
+        void onCancelled(File dexFile, File optimizedDir);
+    }
+
+    /**
+     * The step which actually optimizes a single dex, it may be called on several threads at the same time.
+     */
+    public interface Optimizer {
+        /**
+         * @return the optimized file
+         */
+        File optimize(File dexFile, File optimizedDir) throws IOException;
+    }
+
+    private static final class OptimizeTask implements Callable<File> {
+        private final File               dexFile;
+        private final File               optimizedDir;
+        private final Optimizer          optimizer;
+        private final CallbackDispatcher dispatcher;
+
+        private volatile boolean started = false;
+        private volatile long    startNanos;
+
+        OptimizeTask(File dexFile, File optimizedDir, Optimizer optimizer, CallbackDispatcher dispatcher) {
+            this.dexFile = dexFile;
+            this.optimizedDir = optimizedDir;
+            this.optimizer = optimizer;
+            this.dispatcher = dispatcher;
+        }
 
-        private final File           dexFile;
+        @Override
+        public File call() throws Exception {
+            startNanos = System.nanoTime();
+            started = true;
+            if (!SharePatchFileUtil.isLegalFile(dexFile)) {
+                throw new IOException("dex file " + dexFile.getAbsolutePath() + " is not exist!");
+            }
+            if (!dispatcher.onStart(dexFile)) {
+                throw new CancellationException("optimize dex " + dexFile.getAbsolutePath() + " is cancelled");
+            }
+            return optimizer.optimize(dexFile, optimizedDir);
+        }
+    }
+
+    /**
+     * Serializes the callbacks and makes sure each dex gets at most one of onSuccess, onFailed and onCancelled.
+     */
+    private static final class CallbackDispatcher {
         private final File           optimizedDir;
-        private final boolean        useInterpretMode;
         private final ResultCallback callback;
+        private final Set<File>      startedFiles  = new HashSet<>();
+        private final Set<File>      finishedFiles = new HashSet<>();
 
-        OptimizeWorker(File dexFile, File optimizedDir, boolean useInterpretMode, String targetISA, ResultCallback cb) {
-            this.dexFile = dexFile;
+        CallbackDispatcher(File optimizedDir, ResultCallback callback) {
             this.optimizedDir = optimizedDir;
+            this.callback = callback;
+        }
+
+        synchronized boolean onStart(File dexFile) {
+            if (finishedFiles.contains(dexFile)) {
+                return false;
+            }
+            startedFiles.add(dexFile);
+            if (callback != null) {
+                callback.onStart(dexFile, optimizedDir);
+            }
+            return true;
+        }
+
+        synchronized void onSuccess(File dexFile, File optimizedFile) {
+            if (finishedFiles.add(dexFile) && callback != null) {
+                callback.onSuccess(dexFile, optimizedDir, optimizedFile);
+            }
+        }
+
+        synchronized void onFailed(File dexFile, Throwable thr) {
+            if (finishedFiles.add(dexFile) && callback != null) {
+                callback.onFailed(dexFile, optimizedDir, thr);
+            }
+        }
+
+        synchronized void onCancelled(File dexFile) {
+            if (!finishedFiles.add(dexFile) || callback == null) {
+                return;
+            }
+            if (callback instanceof CancellableResultCallback) {
+                ((CancellableResultCallback) callback).onCancelled(dexFile, optimizedDir);
+            } else if (startedFiles.contains(dexFile)) {
+                callback.onFailed(dexFile, optimizedDir,
+                    new CancellationException("optimize dex " + dexFile.getAbsolutePath() + " is cancelled"));
+            }
+        }
+    }
+
+    private static final class OptimizeThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "tinker_dex_optimizer_" + threadIndex.incrementAndGet());
+            // a dexopt stuck in DexFile.loadDex can not be interrupted, never let it hold the process.
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * dexopt or dex2oat with DexFile.loadDex, or run dex2oat with interpret-only filter in interpret mode.
+     */
+    private static final class DefaultOptimizer implements Optimizer {
+        private final boolean useInterpretMode;
+        private final String  targetISA;
+
+        DefaultOptimizer(boolean useInterpretMode, String targetISA) {
             this.useInterpretMode = useInterpretMode;
-            this.callback = cb;
             this.targetISA = targetISA;
         }
 
-        public boolean run() {
+        @Override
+        public File optimize(File dexFile, File optimizedDir) throws IOException {
             try {
-                if (!SharePatchFileUtil.isLegalFile(dexFile)) {
-                    if (callback != null) {
-                        callback.onFailed(dexFile, optimizedDir,
-                            new IOException("dex file " + dexFile.getAbsolutePath() + " is not exist!"));
-                        return false;
-                    }
-                }
-                if (callback != null) {
-                    callback.onStart(dexFile, optimizedDir);
-                }
-                String optimizedPath = SharePatchFileUtil.optimizedPathFor(this.dexFile, this.optimizedDir);
+                String optimizedPath = SharePatchFileUtil.optimizedPathFor(dexFile, optimizedDir);
                 if (useInterpretMode) {
                     interpretDex2Oat(dexFile.getAbsolutePath(), optimizedPath);
                 } else {
                     DexFile.loadDex(dexFile.getAbsolutePath(), optimizedPath, 0);
                 }
-                if (callback != null) {
-                    callback.onSuccess(dexFile, optimizedDir, new File(optimizedPath));
-                }
-            } catch (final Throwable e) {
+                return new File(optimizedPath);
+            } catch (IOException | RuntimeException e) {
                 Log.e(TAG, "Failed to optimize dex: " + dexFile.getAbsolutePath(), e);
-                if (callback != null) {
-                    callback.onFailed(dexFile, optimizedDir, e);
-                    return false;
-                }
+                throw e;
             }
-            return true;
         }
 
         private void interpretDex2Oat(String dexFilePath, String oatFilePath) throws IOException {
@@ -148,7 +360,9 @@ public final class TinkerDexOptimizer {
                 oatFile.getParentFile().mkdirs();
             }
 
-            File lockFile = new File(oatFile.getParentFile(), INTERPRET_LOCK_FILE_NAME);
+            // lock each oat file by itself, dexes of the same directory are compiled at the same time,
+            // and a FileChannel lock can not be held twice in one process.
+            File lockFile = new File(oatFile.getParentFile(), oatFile.getName() + "." + INTERPRET_LOCK_FILE_NAME);
             ShareFileLockHelper fileLock = null;
             try {
                 fileLock = ShareFileLockHelper.getFileLock(lockFile);
@@ -182,6 +396,8 @@ public final class TinkerDexOptimizer {
                         throw new IOException("dex2oat works unsuccessfully, exit code: " + ret);
                     }
                 } catch (InterruptedException e) {
+                    // timed out or cancelled, do not leave dex2oat running behind us.
+                    dex2oatProcess.destroy();
                     throw new IOException("dex2oat is interrupted, msg: " + e.getMessage(), e);
                 }
             } finally {
@@ -0,0 +1,247 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TinkerDexOptimizerTest {
+    private static final int DEX_COUNT = 8;
+
+    private File       tempDir;
+    private File       optimizedDir;
+    private List<File> dexFiles;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = File.createTempFile("tinker_dex_optimizer", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+        optimizedDir = new File(tempDir, "odex");
+        // sizes are shuffled, so the order given is not the order expected
+        final List<Integer> sizes = new ArrayList<>();
+        for (int i = 1; i <= DEX_COUNT; ++i) {
+            sizes.add(i * 1024);
+        }
+        Collections.shuffle(sizes, new Random(7));
+        dexFiles = new ArrayList<>();
+        for (int i = 0; i < DEX_COUNT; ++i) {
+            File dexFile = new File(tempDir, "classes" + i + ".dex");
+            FileOutputStream os = new FileOutputStream(dexFile);
+            try {
+                os.write(new byte[sizes.get(i)]);
+            } finally {
+                os.close();
+            }
+            dexFiles.add(dexFile);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (File dexFile : dexFiles) {
+            dexFile.delete();
+        }
+        tempDir.delete();
+    }
+
+    @Test
+    public void concurrencyIsBoundedByThreadCount() {
+        final FakeOptimizer optimizer = new FakeOptimizer(null, 50);
+        final RecordingCallback callback = new RecordingCallback();
+
+        assertTrue(TinkerDexOptimizer.optimizeAll(dexFiles, optimizedDir, optimizer, 3, 0, callback));
+        assertTrue("max running: " + optimizer.maxRunning.get(), optimizer.maxRunning.get() <= 3);
+        assertTrue("max running: " + optimizer.maxRunning.get(), optimizer.maxRunning.get() > 1);
+        // the first dexes picked up are the largest ones
+        assertEquals(new HashSet<>(sortedBySizeDesc().subList(0, 3)), new HashSet<>(optimizer.started.subList(0, 3)));
+        assertOneTerminalCallbackEach(callback);
+        assertEquals(DEX_COUNT, callback.succeeded.size());
+    }
+
+    @Test
+    public void largestDexIsStartedFirst() {
+        final FakeOptimizer optimizer = new FakeOptimizer(null, 0);
+        final RecordingCallback callback = new RecordingCallback();
+
+        assertTrue(TinkerDexOptimizer.optimizeAll(dexFiles, optimizedDir, optimizer, 1, 0, callback));
+        assertEquals(sortedBySizeDesc(), optimizer.started);
+        assertEquals(optimizer.started, callback.started);
+        assertOneTerminalCallbackEach(callback);
+    }
+
+    @Test
+    public void failureCancelsOtherDexes() {
+        final File failing = sortedBySizeDesc().get(0);
+        // every other dex blocks until it is interrupted
+        final FakeOptimizer optimizer = new FakeOptimizer(failing, Long.MAX_VALUE);
+        final RecordingCallback callback = new RecordingCallback();
+
+        assertFalse(TinkerDexOptimizer.optimizeAll(dexFiles, optimizedDir, optimizer, 2, 0, callback));
+        assertEquals(Collections.singletonList(failing), callback.failed);
+        assertEquals(DEX_COUNT - 1, callback.cancelled.size());
+        assertTrue(callback.succeeded.isEmpty());
+        assertOneTerminalCallbackEach(callback);
+    }
+
+    @Test
+    public void plainCallbackGetsCancelledStartedDexAsFailure() {
+        final List<File> sorted = sortedBySizeDesc();
+        final FakeOptimizer optimizer = new FakeOptimizer(sorted.get(0), Long.MAX_VALUE);
+        final Map<File, Throwable> failures = new HashMap<>();
+        final List<File> started = new ArrayList<>();
+
+        assertFalse(TinkerDexOptimizer.optimizeAll(dexFiles, optimizedDir, optimizer, 2, 0,
+            new TinkerDexOptimizer.ResultCallback() {
+                @Override
+                public void onStart(File dexFile, File optimizedDir) {
+                    started.add(dexFile);
+                }
+
+                @Override
+                public void onSuccess(File dexFile, File optimizedDir, File optimizedFile) {
+                    throw new AssertionError("unexpected success: " + dexFile);
+                }
+
+                @Override
+                public void onFailed(File dexFile, File optimizedDir, Throwable thr) {
+                    assertNull(failures.put(dexFile, thr));
+                }
+            }));
+        // only the dexes which got onStart hear about their end
+        assertEquals(new HashSet<>(started), failures.keySet());
+        assertTrue(failures.get(sorted.get(0)) instanceof IOException);
+        for (Map.Entry<File, Throwable> entry : failures.entrySet()) {
+            if (!entry.getKey().equals(sorted.get(0))) {
+                assertTrue(entry.getValue() instanceof CancellationException);
+            }
+        }
+    }
+
+    private List<File> sortedBySizeDesc() {
+        final List<File> sorted = new ArrayList<>(dexFiles);
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(rhs.length(), lhs.length());
+            }
+        });
+        return sorted;
+    }
+
+    private void assertOneTerminalCallbackEach(RecordingCallback callback) {
+        for (File dexFile : dexFiles) {
+            Integer count = callback.terminalCounts.get(dexFile);
+            assertEquals("terminal callbacks of " + dexFile, Integer.valueOf(1), count);
+        }
+    }
+
+    private static final class FakeOptimizer implements TinkerDexOptimizer.Optimizer {
+        private final File failingDex;
+        private final long busyMillis;
+
+        final List<File>    started    = Collections.synchronizedList(new ArrayList<File>());
+        final AtomicInteger running    = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+
+        FakeOptimizer(File failingDex, long busyMillis) {
+            this.failingDex = failingDex;
+            this.busyMillis = busyMillis;
+        }
+
+        @Override
+        public File optimize(File dexFile, File optimizedDir) throws IOException {
+            started.add(dexFile);
+            final int now = running.incrementAndGet();
+            try {
+                int max;
+                while ((max = maxRunning.get()) < now && !maxRunning.compareAndSet(max, now)) {
+                    // retry
+                }
+                if (dexFile.equals(failingDex)) {
+                    throw new IOException("fake failure of " + dexFile);
+                }
+                if (busyMillis > 0) {
+                    try {
+                        Thread.sleep(busyMillis);
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted", e);
+                    }
+                }
+                return new File(optimizedDir, dexFile.getName() + ".odex");
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    private static final class RecordingCallback implements TinkerDexOptimizer.CancellableResultCallback {
+        final List<File>         started        = new ArrayList<>();
+        final List<File>         succeeded      = new ArrayList<>();
+        final List<File>         failed         = new ArrayList<>();
+        final List<File>         cancelled      = new ArrayList<>();
+        final Map<File, Integer> terminalCounts = new HashMap<>();
+
+        @Override
+        public void onStart(File dexFile, File optimizedDir) {
+            started.add(dexFile);
+        }
+
+        @Override
+        public void onSuccess(File dexFile, File optimizedDir, File optimizedFile) {
+            succeeded.add(dexFile);
+            countTerminal(dexFile);
+        }
+
+        @Override
+        public void onFailed(File dexFile, File optimizedDir, Throwable thr) {
+            failed.add(dexFile);
+            countTerminal(dexFile);
+        }
+
+        @Override
+        public void onCancelled(File dexFile, File optimizedDir) {
+            cancelled.add(dexFile);
+            countTerminal(dexFile);
+        }
+
+        private void countTerminal(File dexFile) {
+            Integer count = terminalCounts.get(dexFile);
+            terminalCounts.put(dexFile, count == null ? 1 : count + 1);
+        }
+    }
+}
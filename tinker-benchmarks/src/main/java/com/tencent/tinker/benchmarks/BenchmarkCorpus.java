@@ -0,0 +1,268 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Inputs shared by the benchmarks. Synthetic data is generated from a fixed seed so runs are
+ * comparable, checked-in corpora are files of this repository, resolved against the
+ * "tinker.benchmark.root" system property which the jmh task sets.
+ *
+ * Every checked-in corpus can be replaced by a local file with "-Dtinker.benchmark.&lt;name&gt;=path",
+ * e.g. a pair of real apks or dexes. The jmh task forwards all "tinker.benchmark.*" properties
+ * to the forked benchmark jvms.
+ */
+final class BenchmarkCorpus {
+    static final String SYNTHETIC_256K = "synthetic-256k";
+    static final String SYNTHETIC_4M   = "synthetic-4m";
+    static final String CHECKED_IN     = "checked-in";
+    static final String SYNTHETIC_DEX  = "synthetic-dex";
+
+    static final String CHECKED_IN_DEX = "tinker-build/tinker-patch-lib/src/main/resources/test.dex";
+    static final String CHECKED_IN_ZIP = "gradle/wrapper/gradle-wrapper.jar";
+
+    private static final long SEED = 0x74696e6b6572L;
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * Random data with some redundancy, roughly as compressible as a dex.
+     */
+    static byte[] syntheticOld(int size) {
+        Random random = new Random(SEED);
+        byte[] data = new byte[size];
+        byte[] words = new byte[4096];
+        random.nextBytes(words);
+        int pos = 0;
+        while (pos < size) {
+            int len = Math.min(size - pos, 8 + random.nextInt(56));
+            if (random.nextBoolean()) {
+                System.arraycopy(words, random.nextInt(words.length - len), data, pos, len);
+            } else {
+                for (int i = 0; i < len; i++) {
+                    data[pos + i] = (byte) random.nextInt(256);
+                }
+            }
+            pos += len;
+        }
+        return data;
+    }
+
+    /**
+     * The old data with a patch-like edit script applied: sparse byte changes, inserted and
+     * removed runs, and one moved block.
+     */
+    static byte[] syntheticNew(byte[] old) {
+        Random random = new Random(SEED + 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(old.length + old.length / 16);
+        int pos = 0;
+        while (pos < old.length) {
+            int keep = Math.min(old.length - pos, 256 + random.nextInt(4096));
+            out.write(old, pos, keep);
+            pos += keep;
+            if (random.nextBoolean()) {
+                byte[] inserted = new byte[1 + random.nextInt(128)];
+                random.nextBytes(inserted);
+                out.write(inserted, 0, inserted.length);
+            } else {
+                pos += Math.min(old.length - pos, random.nextInt(128));
+            }
+        }
+        byte[] result = out.toByteArray();
+        // small changes like relocated offsets
+        for (int i = random.nextInt(512); i < result.length; i += 64 + random.nextInt(1024)) {
+            result[i]++;
+        }
+        if (result.length > 64 * 1024) {
+            int len = result.length / 32;
+            byte[] moved = new byte[len];
+            System.arraycopy(result, 0, moved, 0, len);
+            System.arraycopy(result, len, result, 0, result.length / 2 - len);
+            System.arraycopy(moved, 0, result, result.length / 2 - len, len);
+        }
+        return result;
+    }
+
+    /**
+     * Old and new data of a diff corpus. The checked-in pair is the gradle wrapper jar and a
+     * synthetic edit of it, override both with "-Dtinker.benchmark.old" and "-Dtinker.benchmark.new".
+     */
+    static byte[][] diffPair(String corpus) throws IOException {
+        if (SYNTHETIC_256K.equals(corpus)) {
+            byte[] old = syntheticOld(256 * 1024);
+            return new byte[][]{old, syntheticNew(old)};
+        } else if (SYNTHETIC_4M.equals(corpus)) {
+            byte[] old = syntheticOld(4 * 1024 * 1024);
+            return new byte[][]{old, syntheticNew(old)};
+        } else if (CHECKED_IN.equals(corpus)) {
+            String newOverride = System.getProperty("tinker.benchmark.new");
+            byte[] old = readFully(checkedIn("old", CHECKED_IN_ZIP));
+            if (newOverride != null && newOverride.length() > 0) {
+                return new byte[][]{old, readFully(checkExists(new File(newOverride)))};
+            }
+            return new byte[][]{old, syntheticNew(old)};
+        }
+        throw new IllegalArgumentException("unknown corpus: " + corpus);
+    }
+
+    /**
+     * Old and new dex of a dex corpus. The synthetic pair is generated by {@link SyntheticDex}, the
+     * checked-in one is the test dex of tinker-patch-lib unless "-Dtinker.benchmark.oldDex" and
+     * "-Dtinker.benchmark.newDex" point at two builds of an app.
+     *
+     * @throws IllegalStateException if both dexes are the same, the patch would be empty
+     */
+    static byte[][] dexPair(String corpus) throws IOException {
+        byte[][] pair;
+        if (SYNTHETIC_DEX.equals(corpus)) {
+            pair = SyntheticDex.pair(SyntheticDex.DEFAULT_CLASS_COUNT);
+        } else if (CHECKED_IN.equals(corpus)) {
+            pair = new byte[][]{
+                readFully(checkedIn("oldDex", CHECKED_IN_DEX)),
+                readFully(checkedIn("newDex", CHECKED_IN_DEX))
+            };
+        } else {
+            throw new IllegalArgumentException("unknown corpus: " + corpus);
+        }
+        if (Arrays.equals(pair[0], pair[1])) {
+            throw new IllegalStateException("old and new dex of corpus " + corpus + " are identical, the patch would be empty,"
+                + " set -Dtinker.benchmark.oldDex and -Dtinker.benchmark.newDex to two different dexes");
+        }
+        return pair;
+    }
+
+    /**
+     * A single dex, the new dex of the synthetic pair or "-Dtinker.benchmark.dex" for the checked-in corpus.
+     */
+    static byte[] dex(String corpus) throws IOException {
+        if (SYNTHETIC_DEX.equals(corpus)) {
+            return SyntheticDex.generate(SyntheticDex.DEFAULT_CLASS_COUNT, true);
+        } else if (CHECKED_IN.equals(corpus)) {
+            return readFully(checkedIn("dex", CHECKED_IN_DEX));
+        }
+        throw new IllegalArgumentException("unknown corpus: " + corpus);
+    }
+
+    /**
+     * A zip with a mix of stored and deflated entries of the given sizes, like an apk.
+     */
+    static void writeSyntheticZip(File zipFile, int entryCount, int entrySize) throws IOException {
+        Random random = new Random(SEED + 2);
+        byte[] data = syntheticOld(entrySize * 4);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            for (int i = 0; i < entryCount; i++) {
+                int off = random.nextInt(data.length - entrySize);
+                ZipEntry entry = new ZipEntry("res/raw/entry_" + i);
+                if (i % 4 == 0) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data, off, entrySize);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(entrySize);
+                    entry.setCompressedSize(entrySize);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(data, off, entrySize);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param name     corpus name, also the suffix of the system property that overrides it
+     * @param relative path of the checked-in file, relative to the repository root
+     */
+    static File checkedIn(String name, String relative) {
+        String override = System.getProperty("tinker.benchmark." + name);
+        if (override != null && override.length() > 0) {
+            return checkExists(new File(override));
+        }
+        String root = System.getProperty("tinker.benchmark.root", ".");
+        return checkExists(new File(root, relative));
+    }
+
+    static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int off = 0;
+            while (off < data.length) {
+                int len = in.read(data, off, data.length - off);
+                if (len < 0) {
+                    throw new IOException("unexpected end of " + file);
+                }
+                off += len;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    static void writeFully(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    static File createTempFile(String prefix) throws IOException {
+        File file = File.createTempFile("tinker-benchmark-" + prefix, ".tmp");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static File checkExists(File file) {
+        if (!file.isFile()) {
+            throw new IllegalStateException("benchmark corpus not found: " + file.getAbsolutePath()
+                + ", run through the jmh task or set -Dtinker.benchmark.root");
+        }
+        return file;
+    }
+
+    /**
+     * Discards everything, so only the code under test is measured.
+     */
+    static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.benchmarks;
+
+import com.tencent.tinker.bsdiff.BSDiff;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BSDiff.bsdiff over both suffix sort engines and with a parallel match search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BsDiffBenchmark {
+    @Param({BenchmarkCorpus.SYNTHETIC_256K, BenchmarkCorpus.SYNTHETIC_4M, BenchmarkCorpus.CHECKED_IN})
+    public String corpus;
+
+    /**
+     * {@link BSDiff#SUFFIX_SORT_QSUFSORT} or {@link BSDiff#SUFFIX_SORT_SAIS}.
+     */
+    @Param({"0", "1"})
+    public int engine;
+
+    @Param({"1", "4"})
+    public int threadCount;
+
+    private byte[] oldData;
+    private byte[] newData;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[][] pair = BenchmarkCorpus.diffPair(corpus);
+        oldData = pair[0];
+        newData = pair[1];
+    }
+
+    @Benchmark
+    public byte[] bsdiff() throws IOException {
+        return BSDiff.bsdiff(oldData, oldData.length, newData, newData.length, engine, threadCount);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.benchmarks;
+
+import com.tencent.tinker.bsdiff.BSDiff;
+import com.tencent.tinker.bsdiff.BSPatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The BSPatch modes on the same patch: in memory, less memory and memory mapped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BsPatchBenchmark {
+    @Param({BenchmarkCorpus.SYNTHETIC_256K, BenchmarkCorpus.SYNTHETIC_4M, BenchmarkCorpus.CHECKED_IN})
+    public String corpus;
+
+    private byte[] oldData;
+    private byte[] diffData;
+    private File   oldFile;
+    private File   diffFile;
+    private File   newFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[][] pair = BenchmarkCorpus.diffPair(corpus);
+        oldData = pair[0];
+        diffData = BSDiff.bsdiff(oldData, oldData.length, pair[1], pair[1].length);
+
+        oldFile = BenchmarkCorpus.createTempFile("old");
+        diffFile = BenchmarkCorpus.createTempFile("diff");
+        newFile = BenchmarkCorpus.createTempFile("new");
+        BenchmarkCorpus.writeFully(oldFile, oldData);
+        BenchmarkCorpus.writeFully(diffFile, diffData);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        oldFile.delete();
+        diffFile.delete();
+        newFile.delete();
+    }
+
+    @Benchmark
+    public byte[] patchFast() throws IOException {
+        return BSPatch.patchFast(oldData, oldData.length, diffData, diffData.length, 0);
+    }
+
+    /**
+     * patchLessMemory closes the old file, so it is opened on every invocation.
+     */
+    @Benchmark
+    public int patchLessMemory() throws IOException {
+        return BSPatch.patchLessMemory(new RandomAccessFile(oldFile, "r"), oldData.length, diffData, diffData.length, newFile, 0);
+    }
+
+    @Benchmark
+    public int patchMapped() throws IOException {
+        return BSPatch.patchMapped(oldFile, newFile, diffFile, 0);
+    }
+}
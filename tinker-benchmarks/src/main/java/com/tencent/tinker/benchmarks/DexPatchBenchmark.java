@@ -0,0 +1,97 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.benchmarks;
+
+import com.tencent.tinker.android.dex.Dex;
+import com.tencent.tinker.build.dexpatcher.DexPatchGenerator;
+import com.tencent.tinker.build.util.DexClassesComparator;
+import com.tencent.tinker.commons.dexpatcher.DexPatchApplier;
+import com.tencent.tinker.commons.dexpatcher.struct.DexPatchFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dex diff, patch and class comparison. The synthetic corpus is a generated pair of 4000 class
+ * dexes, the checked-in one needs "-Dtinker.benchmark.oldDex" and "-Dtinker.benchmark.newDex"
+ * pointing at the dexes of two app builds.
+ *
+ * Every invocation parses the dexes again, as the patch tools do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DexPatchBenchmark {
+    @Param({BenchmarkCorpus.SYNTHETIC_DEX})
+    public String corpus;
+
+    private byte[] oldDexData;
+    private byte[] newDexData;
+    private byte[] patchData;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[][] pair = BenchmarkCorpus.dexPair(corpus);
+        oldDexData = pair[0];
+        newDexData = pair[1];
+        ByteArrayOutputStream patchOut = new ByteArrayOutputStream();
+        new DexPatchGenerator(new Dex(oldDexData), new Dex(newDexData)).executeAndSaveTo(patchOut);
+        patchData = patchOut.toByteArray();
+    }
+
+    @Benchmark
+    public int generatePatch() throws IOException {
+        ByteArrayOutputStream patchOut = new ByteArrayOutputStream(patchData.length);
+        new DexPatchGenerator(new Dex(oldDexData), new Dex(newDexData)).executeAndSaveTo(patchOut);
+        return patchOut.size();
+    }
+
+    @Benchmark
+    public String applyPatch() throws IOException {
+        DexPatchApplier applier = new DexPatchApplier(
+            new Dex(oldDexData), new DexPatchFile(new ByteArrayInputStream(patchData))
+        );
+        applier.executeAndSaveTo(new BenchmarkCorpus.NullOutputStream());
+        return applier.getPatchedDexMd5();
+    }
+
+    @Benchmark
+    public List<DexClassesComparator.DexClassInfo> compareClasses() throws IOException {
+        DexClassesComparator comparator = new DexClassesComparator("*");
+        comparator.startCheck(new Dex(oldDexData), new Dex(newDexData));
+        return comparator.getAddedClassInfos();
+    }
+}
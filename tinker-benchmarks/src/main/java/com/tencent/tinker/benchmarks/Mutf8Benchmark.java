@@ -0,0 +1,124 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.benchmarks;
+
+import com.tencent.tinker.android.dex.Dex;
+import com.tencent.tinker.android.dex.Mutf8;
+import com.tencent.tinker.android.dex.SizeOf;
+import com.tencent.tinker.android.dex.io.DexDataBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MUTF-8 decoding and encoding of a whole dex string pool, the bulk ByteBuffer codecs
+ * against the per byte ByteInput decoder and the countBytes based encoder. The synthetic pool
+ * holds the type descriptors, member names and constants of a generated 4000 class dex, some
+ * of them non-ASCII; for the checked-in corpus point "-Dtinker.benchmark.dex" at an app dex.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Mutf8Benchmark {
+    @Param({BenchmarkCorpus.SYNTHETIC_DEX})
+    public String corpus;
+
+    private ByteBuffer dexData;
+    private int[] stringDataOffsets;
+    private String[] strings;
+    private ByteBuffer encodeBuffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] rawData = BenchmarkCorpus.dex(corpus);
+        Dex dex = new Dex(rawData);
+        List<String> stringList = dex.strings();
+        int stringCount = stringList.size();
+        strings = stringList.toArray(new String[stringCount]);
+        stringDataOffsets = new int[stringCount];
+        int totalBytes = 0;
+        for (int i = 0; i < stringCount; ++i) {
+            stringDataOffsets[i] = dex.openSection(dex.getTableOfContents().stringIds.off + i * SizeOf.STRING_ID_ITEM).readInt();
+            totalBytes += (int) Mutf8.countBytes(strings[i], false) + 1;
+        }
+        dexData = ByteBuffer.wrap(rawData);
+        dexData.order(ByteOrder.LITTLE_ENDIAN);
+        encodeBuffer = ByteBuffer.allocate(totalBytes);
+    }
+
+    @Benchmark
+    public int decodeBulk() {
+        int result = 0;
+        for (int i = 0; i < stringDataOffsets.length; ++i) {
+            DexDataBuffer in = new DexDataBuffer(dexData.duplicate());
+            in.position(stringDataOffsets[i]);
+            result += in.readStringData().value.length();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int decodeByteInput() throws UTFDataFormatException {
+        int result = 0;
+        for (int i = 0; i < stringDataOffsets.length; ++i) {
+            DexDataBuffer in = new DexDataBuffer(dexData.duplicate());
+            in.position(stringDataOffsets[i]);
+            int length = in.readUleb128();
+            result += Mutf8.decode(in, new char[length]).length();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int encodeBulk() {
+        encodeBuffer.clear();
+        for (String s : strings) {
+            Mutf8.encode(encodeBuffer, s);
+            encodeBuffer.put((byte) 0);
+        }
+        return encodeBuffer.position();
+    }
+
+    @Benchmark
+    public int encodeCounted() throws UTFDataFormatException {
+        encodeBuffer.clear();
+        for (String s : strings) {
+            encodeBuffer.put(Mutf8.encode(s));
+            encodeBuffer.put((byte) 0);
+        }
+        return encodeBuffer.position();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.tencent.tinker.benchmarks;
+
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableField;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction21c;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction35c;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.reference.ImmutableStringReference;
+import org.jf.dexlib2.immutable.value.ImmutableIntEncodedValue;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Dexes written with dexlib2 from a fixed seed, shaped like an app dex: classes in a few dozen
+ * packages with fields, methods calling each other and string constants, some of them non-ASCII.
+ * The new dex of a pair changes, removes and adds classes the way a patch release does.
+ */
+final class SyntheticDex {
+    static final int DEFAULT_CLASS_COUNT = 4000;
+
+    private static final long SEED = 0x74696e6b6572L;
+
+    private SyntheticDex() {
+    }
+
+    static byte[][] pair(int classCount) throws IOException {
+        return new byte[][]{generate(classCount, false), generate(classCount, true)};
+    }
+
+    /**
+     * @param patched false for the old dex, true for the new one
+     */
+    static byte[] generate(int classCount, boolean patched) throws IOException {
+        Random random = new Random(SEED);
+        List<ImmutableClassDef> classDefs = new ArrayList<>(classCount);
+        for (int c = 0; c < classCount; c++) {
+            boolean changed = patched && random.nextInt(20) == 0;
+            boolean removed = patched && random.nextInt(50) == 0;
+            if (!removed) {
+                classDefs.add(createClass(c, classCount, changed));
+            }
+        }
+        if (patched) {
+            for (int c = classCount; c < classCount + classCount / 30; c++) {
+                classDefs.add(new ImmutableClassDef("Lcom/example/added/Added" + c + ";", AccessFlags.PUBLIC.getValue(),
+                    "Ljava/lang/Object;", null, null, null, null, null));
+            }
+        }
+        MemoryDataStore dataStore = new MemoryDataStore();
+        DexPool.writeTo(dataStore, new ImmutableDexFile(Opcodes.forApi(19), classDefs));
+        // the store grows in steps, the header knows the real size
+        byte[] data = dataStore.getData();
+        int fileSize = (data[32] & 0xff) | ((data[33] & 0xff) << 8) | ((data[34] & 0xff) << 16) | ((data[35] & 0xff) << 24);
+        return Arrays.copyOf(data, fileSize);
+    }
+
+    private static String typeOf(int c, int classCount) {
+        int index = c % classCount;
+        return "Lcom/example/module" + (index % 37) + "/Class" + index + (index % 11 == 0 ? "é中" : "") + ";";
+    }
+
+    private static ImmutableClassDef createClass(int c, int classCount, boolean changed) {
+        final int staticPublic = AccessFlags.STATIC.getValue() | AccessFlags.PUBLIC.getValue();
+        String type = typeOf(c, classCount);
+        String callee = typeOf(c + 1, classCount);
+
+        List<ImmutableField> fields = new ArrayList<>();
+        for (int f = 0; f < 4; f++) {
+            boolean isInt = f % 2 == 0;
+            fields.add(new ImmutableField(type, "field" + f, isInt ? "I" : "Ljava/lang/String;", staticPublic,
+                isInt ? new ImmutableIntEncodedValue(c * 31 + f + (changed ? 1 : 0)) : null, null));
+        }
+
+        List<ImmutableMethod> methods = new ArrayList<>();
+        for (int m = 0; m < 6; m++) {
+            List<ImmutableInstruction> instructions = new ArrayList<>();
+            String constant = "message " + c + " " + m + (changed ? " v2" : "") + (m == 3 ? " über 日本" : "");
+            instructions.add(new ImmutableInstruction21c(Opcode.CONST_STRING, 0, new ImmutableStringReference(constant)));
+            instructions.add(new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 1, 0, 0, 0, 0, 0,
+                new ImmutableMethodReference(callee, "method" + m, Collections.singletonList("Ljava/lang/String;"), "V")));
+            instructions.add(new ImmutableInstruction10x(Opcode.RETURN_VOID));
+            methods.add(new ImmutableMethod(type, "method" + m,
+                Collections.singletonList(new ImmutableMethodParameter("Ljava/lang/String;", null, null)), "V",
+                staticPublic, null, new ImmutableMethodImplementation(2, instructions, null, null)));
+        }
+        return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null,
+            "Class" + c + ".java", null, fields, methods);
+    }
+}
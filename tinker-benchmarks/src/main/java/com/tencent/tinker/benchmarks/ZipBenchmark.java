@@ -0,0 +1,126 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.benchmarks;
+
+import com.tencent.tinker.ziputils.ziputil.TinkerZipEntry;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipFile;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipOutputStream;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the raw data of every entry of a zip, and repacking it the way the resource and
+ * classN merges do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipBenchmark {
+    private static final String SYNTHETIC_SMALL_ENTRIES = "synthetic-2000x4k";
+    private static final String SYNTHETIC_LARGE_ENTRIES = "synthetic-16x1m";
+
+    @Param({SYNTHETIC_SMALL_ENTRIES, SYNTHETIC_LARGE_ENTRIES, BenchmarkCorpus.CHECKED_IN})
+    public String corpus;
+
+    private File                 syntheticFile;
+    private TinkerZipFile        zipFile;
+    private List<TinkerZipEntry> entries;
+    private final byte[]         buffer = new byte[16 * 1024];
+
+    @Setup
+    public void setUp() throws IOException {
+        File file;
+        if (SYNTHETIC_SMALL_ENTRIES.equals(corpus)) {
+            file = syntheticFile = BenchmarkCorpus.createTempFile("zip");
+            BenchmarkCorpus.writeSyntheticZip(file, 2000, 4 * 1024);
+        } else if (SYNTHETIC_LARGE_ENTRIES.equals(corpus)) {
+            file = syntheticFile = BenchmarkCorpus.createTempFile("zip");
+            BenchmarkCorpus.writeSyntheticZip(file, 16, 1024 * 1024);
+        } else {
+            file = BenchmarkCorpus.checkedIn("zip", BenchmarkCorpus.CHECKED_IN_ZIP);
+        }
+        zipFile = new TinkerZipFile(file);
+        entries = new ArrayList<>();
+        Enumeration<? extends TinkerZipEntry> enumeration = zipFile.entries();
+        while (enumeration.hasMoreElements()) {
+            TinkerZipEntry entry = enumeration.nextElement();
+            if (!entry.isDirectory()) {
+                entries.add(entry);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        zipFile.close();
+        if (syntheticFile != null) {
+            syntheticFile.delete();
+        }
+    }
+
+    @Benchmark
+    public long readAllEntries() throws IOException {
+        long total = 0;
+        for (TinkerZipEntry entry : entries) {
+            InputStream in = zipFile.getInputStream(entry);
+            try {
+                for (int len = in.read(buffer); len != -1; len = in.read(buffer)) {
+                    total += len;
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public void extractAllEntries() throws IOException {
+        TinkerZipOutputStream out = new TinkerZipOutputStream(new BenchmarkCorpus.NullOutputStream());
+        try {
+            for (TinkerZipEntry entry : entries) {
+                TinkerZipUtil.extractTinkerEntry(zipFile, entry, out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -28,14 +28,31 @@ public class TinkerLibExtension {
      */
     Iterable<String> pattern;
 
+    /**
+     * default 'gzip'
+     * how to compress the bsdiff blocks of library patches,
+     * such as gzip, stored, deflate, deflate:9 or lz4
+     */
+    String bsDiffCodec
+
+    /**
+     * default false
+     * if the old and new library are zip files, diff their inflated entries
+     * and deflate them again on device
+     */
+    boolean archiveDiff
 
     public TinkerLibExtension() {
         pattern = []
+        bsDiffCodec = "gzip"
+        archiveDiff = false
     }
 
     @Override
     public String toString() {
         """| pattern = ${pattern}
+           | bsDiffCodec = ${bsDiffCodec}
+           | archiveDiff = ${archiveDiff}
         """.stripMargin()
     }
 }
\ No newline at end of file
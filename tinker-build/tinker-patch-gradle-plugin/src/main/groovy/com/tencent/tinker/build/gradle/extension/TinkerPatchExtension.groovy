@@ -60,6 +60,34 @@ public class TinkerPatchExtension {
      */
     boolean tinkerEnable
 
+    /**
+     * Cache the suffix arrays of the old lib and resource files in this directory,
+     * patches built against the same base apk would not sort the same old file again.
+     * default: "", disabled
+     */
+    String bsDiffCacheDir
+
+    /**
+     * Upper bound of the bsDiff cache in MB, least recently used files are evicted first
+     * default: 512
+     */
+    int bsDiffCacheMaxSize
+
+    /**
+     * Lib and resource files of at least this size in MB are diffed with a rolling hash,
+     * which is much faster and needs less memory than bsdiff, the patch may be a bit larger.
+     * 0 to always use bsdiff
+     * default: 128
+     */
+    int bsDiffFastThreshold
+
+    /**
+     * Archive patches of lib and resource files also carry a plain bsdiff patch, which is applied
+     * on devices whose zlib does not deflate like the build machine. Costs patch size.
+     * default: true
+     */
+    boolean archiveDiffFallback
+
     public TinkerPatchExtension() {
         oldApk = ""
         outputFolder = ""
@@ -67,6 +95,10 @@ public class TinkerPatchExtension {
         ignoreWarning = false
         useSign = true
         tinkerEnable = true
+        bsDiffCacheDir = ""
+        bsDiffCacheMaxSize = 512
+        bsDiffFastThreshold = 128
+        archiveDiffFallback = true
     }
 
     void checkParameter() {
@@ -90,6 +122,10 @@ public class TinkerPatchExtension {
            | ignoreWarning = ${ignoreWarning}
            | tinkerEnable = ${tinkerEnable}
            | useSign = ${useSign}
+           | bsDiffCacheDir = ${bsDiffCacheDir}
+           | bsDiffCacheMaxSize = ${bsDiffCacheMaxSize}
+           | bsDiffFastThreshold = ${bsDiffFastThreshold}
+           | archiveDiffFallback = ${archiveDiffFallback}
         """.stripMargin()
     }
 }
\ No newline at end of file
@@ -49,11 +49,27 @@ public class TinkerResourceExtension {
      */
     int largeModSize
 
+    /**
+     * default 'gzip'
+     * how to compress the bsdiff blocks of large modify resources,
+     * such as gzip, stored, deflate, deflate:9 or lz4
+     */
+    String bsDiffCodec
+
+    /**
+     * default false
+     * for large modify resources which are zip files, such as jar or zip in assets,
+     * diff their inflated entries and deflate them again on device
+     */
+    boolean archiveDiff
+
     public TinkerResourceExtension() {
         pattern = []
         ignoreChange = []
         ignoreChangeWarning = []
         largeModSize = 100
+        bsDiffCodec = "gzip"
+        archiveDiff = false
     }
     void checkParameter() {
         if (largeModSize <= 0) {
@@ -67,6 +83,8 @@ public class TinkerResourceExtension {
            | exclude = ${ignoreChange}
            | ignoreWarning = ${ignoreChangeWarning}
            | largeModSize = ${largeModSize}kb
+           | bsDiffCodec = ${bsDiffCodec}
+           | archiveDiff = ${archiveDiff}
         """.stripMargin()
     }
 }
\ No newline at end of file
@@ -73,14 +73,22 @@ public class TinkerPatchSchemaTask extends DefaultTask {
                .setDexIgnoreWarningLoaderPattern(new ArrayList<String>(configuration.dex.ignoreWarningLoader))
                .setDexMode(configuration.dex.dexMode)
                .setSoFilePattern(new ArrayList<String>(configuration.lib.pattern))
+               .setSoBsDiffCodec(configuration.lib.bsDiffCodec)
+               .setSoArchiveDiff(configuration.lib.archiveDiff)
                .setResourceFilePattern(new ArrayList<String>(configuration.res.pattern))
                .setResourceIgnoreChangePattern(new ArrayList<String>(configuration.res.ignoreChange))
                .setResourceIgnoreChangeWarningPattern(new ArrayList<String>(configuration.res.ignoreChangeWarning))
                .setResourceLargeModSize(configuration.res.largeModSize)
+               .setResourceBsDiffCodec(configuration.res.bsDiffCodec)
+               .setResourceArchiveDiff(configuration.res.archiveDiff)
                .setUseApplyResource(configuration.buildConfig.usingResourceMapping)
                .setConfigFields(new HashMap<String, String>(configuration.packageConfig.getFields()))
                .setSevenZipPath(configuration.sevenZip.path)
                .setUseSign(configuration.useSign)
+               .setBsDiffCacheDir(configuration.bsDiffCacheDir)
+               .setBsDiffCacheMaxSize(configuration.bsDiffCacheMaxSize)
+               .setBsDiffFastThreshold(configuration.bsDiffFastThreshold)
+               .setArchiveDiffFallback(configuration.archiveDiffFallback)
 
         InputParam inputParam = builder.create()
         Runner.gradleRun(inputParam);
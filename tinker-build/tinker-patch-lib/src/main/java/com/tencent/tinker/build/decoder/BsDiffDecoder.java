@@ -24,6 +24,7 @@ import com.tencent.tinker.build.util.Logger;
 import com.tencent.tinker.build.util.MD5;
 import com.tencent.tinker.build.util.TinkerPatchException;
 import com.tencent.tinker.build.util.Utils;
+import com.tencent.tinker.commons.archive.ArchiveDiff;
 
 import java.io.File;
 import java.io.IOException;
@@ -93,7 +94,11 @@ public class BsDiffDecoder extends BaseDecoder {
         if (!bsDiffFile.getParentFile().exists()) {
             bsDiffFile.getParentFile().mkdirs();
         }
-        BSDiff.bsdiff(oldFile, newFile, bsDiffFile);
+        if (!config.mSoArchiveDiff
+            || !ArchiveDiff.bsdiff(oldFile, newFile, bsDiffFile, config.mSoBsDiffCodec, config.mBsDiffCache, config.getBsDiffFastThreshold(),
+                config.mArchiveDiffFallback)) {
+            BSDiff.bsdiff(oldFile, newFile, bsDiffFile, config.mSoBsDiffCodec, config.mBsDiffCache, config.getBsDiffFastThreshold());
+        }
 
         if (Utils.checkBsDiffFileSize(bsDiffFile, newFile)) {
             writeLogFiles(newFile, oldFile, bsDiffFile, newMd5);
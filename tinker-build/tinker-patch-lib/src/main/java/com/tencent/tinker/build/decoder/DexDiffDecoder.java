@@ -36,6 +36,8 @@ import com.tencent.tinker.build.util.TypedValue;
 import com.tencent.tinker.build.util.Utils;
 import com.tencent.tinker.commons.dexpatcher.DexPatchApplier;
 import com.tencent.tinker.commons.dexpatcher.DexPatcherLogger.IDexPatcherLogger;
+import com.tencent.tinker.commons.dexpatcher.DexSectionMetrics;
+import com.tencent.tinker.commons.dexpatcher.DexSectionMetrics.IDexSectionMetricsListener;
 
 import org.jf.dexlib2.builder.BuilderMutableMethodImplementation;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
@@ -70,6 +72,10 @@ public class DexDiffDecoder extends BaseDecoder {
 
     private final InfoWriter logWriter;
     private final InfoWriter metaWriter;
+    /**
+     * Per section numbers of diffing and verifying each dex, one csv line per section.
+     */
+    private final InfoWriter sectionMetricsWriter;
 
     private final ExcludedClassModifiedChecker excludedClassModifiedChecker;
 
@@ -101,6 +107,9 @@ public class DexDiffDecoder extends BaseDecoder {
             this.dexPatcherLoggerBridge = new DexPatcherLoggerBridge(logWriter);
         }
 
+        sectionMetricsWriter = new InfoWriter(config, config.mOutFolder + File.separator + TypedValue.DEX_SECTION_METRICS_FILE);
+        sectionMetricsWriter.writeLineToInfoFile(DexSectionMetricsBridge.HEADER);
+
         excludedClassModifiedChecker = new ExcludedClassModifiedChecker(config);
 
         addedClassDescToDexNameMap = new HashMap<>();
@@ -437,6 +446,7 @@ public class DexDiffDecoder extends BaseDecoder {
         try {
             DexPatchGenerator dexPatchGen = new DexPatchGenerator(oldDexFile, newDexFile);
             dexPatchGen.setAdditionalRemovingClassPatterns(config.mDexLoaderPattern);
+            dexPatchGen.setMetricsListener(new DexSectionMetricsBridge(sectionMetricsWriter, dexName, "diff"));
 
             logWriter.writeLineToInfoFile(
                     String.format(
@@ -465,7 +475,9 @@ public class DexDiffDecoder extends BaseDecoder {
         }
 
         try {
-            new DexPatchApplier(oldDexFile, dexDiffOut).executeAndSaveTo(tempFullPatchedDexFile);
+            DexPatchApplier dexPatchApplier = new DexPatchApplier(oldDexFile, dexDiffOut);
+            dexPatchApplier.setMetricsListener(new DexSectionMetricsBridge(sectionMetricsWriter, dexName, "patch"));
+            dexPatchApplier.executeAndSaveTo(tempFullPatchedDexFile);
 
             Logger.d(
                     String.format("Verifying if patched new dex is logically the same as original new dex: %s ...", getRelativeStringBy(newDexFile, config.mTempUnzipNewDir))
@@ -714,6 +726,7 @@ public class DexDiffDecoder extends BaseDecoder {
     public void clean() {
         metaWriter.close();
         logWriter.close();
+        sectionMetricsWriter.close();
     }
 
     private String getRawOrWrappedDexMD5(File dexOrJarFile) {
@@ -821,6 +834,31 @@ public class DexDiffDecoder extends BaseDecoder {
             this.logWriter.writeLineToInfoFile(msg);
         }
     }
-}
 
+    private static final class DexSectionMetricsBridge implements IDexSectionMetricsListener {
+        static final String HEADER = "dex,phase,section,del,add,replace,unchanged,bytesRead,bytesWritten,timeCostUs";
+
+        private final InfoWriter metricsWriter;
+        private final String dexName;
+        private final String phase;
+
+        DexSectionMetricsBridge(InfoWriter metricsWriter, String dexName, String phase) {
+            this.metricsWriter = metricsWriter;
+            this.dexName = dexName;
+            this.phase = phase;
+        }
 
+        @Override
+        public void onSectionMetrics(DexSectionMetrics metrics) {
+            this.metricsWriter.writeLineToInfoFile(
+                    String.format(
+                            "%s,%s,%s,%d,%d,%d,%d,%d,%d,%d",
+                            dexName, phase, metrics.getSectionName(),
+                            metrics.deletedItemCount, metrics.addedItemCount,
+                            metrics.replacedItemCount, metrics.unchangedItemCount,
+                            metrics.bytesRead, metrics.bytesWritten, metrics.timeCostNanos / 1000
+                    )
+            );
+        }
+    }
+}
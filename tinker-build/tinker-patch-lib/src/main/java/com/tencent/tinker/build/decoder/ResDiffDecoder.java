@@ -26,6 +26,7 @@ import com.tencent.tinker.build.util.MD5;
 import com.tencent.tinker.build.util.TinkerPatchException;
 import com.tencent.tinker.build.util.TypedValue;
 import com.tencent.tinker.build.util.Utils;
+import com.tencent.tinker.commons.archive.ArchiveDiff;
 
 import java.io.File;
 import java.io.IOException;
@@ -223,7 +224,11 @@ public class ResDiffDecoder extends BaseDecoder {
             if (!outputFile.getParentFile().exists()) {
                 outputFile.getParentFile().mkdirs();
             }
-            BSDiff.bsdiff(oldFile, newFile, outputFile);
+            if (!config.mResArchiveDiff
+                || !ArchiveDiff.bsdiff(oldFile, newFile, outputFile, config.mResBsDiffCodec, config.mBsDiffCache, config.getBsDiffFastThreshold(),
+                    config.mArchiveDiffFallback)) {
+                BSDiff.bsdiff(oldFile, newFile, outputFile, config.mResBsDiffCodec, config.mBsDiffCache, config.getBsDiffFastThreshold());
+            }
             //treat it as normal modify
             if (Utils.checkBsDiffFileSize(outputFile, newFile)) {
                 LargeModeInfo largeModeInfo = new LargeModeInfo();
@@ -51,8 +51,10 @@ import com.tencent.tinker.build.dexpatcher.algorithms.diff.TypeIdSectionDiffAlgo
 import com.tencent.tinker.build.dexpatcher.algorithms.diff.TypeListSectionDiffAlgorithm;
 import com.tencent.tinker.build.dexpatcher.util.PatternUtils;
 import com.tencent.tinker.commons.dexpatcher.DexPatcherLogger;
+import com.tencent.tinker.commons.dexpatcher.DexSectionMetrics;
 import com.tencent.tinker.commons.dexpatcher.struct.DexPatchFile;
 import com.tencent.tinker.commons.dexpatcher.struct.PatchOperation;
+import com.tencent.tinker.commons.dexpatcher.util.SectionTaskGraph;
 import com.tencent.tinker.commons.dexpatcher.util.SparseIndexMap;
 import com.tencent.tinker.commons.util.StreamUtil;
 
@@ -114,6 +116,8 @@ public class DexPatchGenerator {
     private int patchedEncodedArrayItemsOffset = 0;
     private int patchedMapListOffset = 0;
     private int patchedDexSize = 0;
+    private int sectionThreadCount = 1;
+    private DexSectionMetrics.IDexSectionMetricsListener metricsListener = null;
 
     public DexPatchGenerator(File oldDexFile, File newDexFile) throws IOException {
         this(new Dex(oldDexFile), new Dex(newDexFile));
@@ -137,9 +141,9 @@ public class DexPatchGenerator {
         this.oldDex = oldDex;
         this.newDex = newDex;
 
-        SparseIndexMap oldToNewIndexMap = new SparseIndexMap();
-        SparseIndexMap oldToPatchedIndexMap = new SparseIndexMap();
-        SparseIndexMap newToPatchedIndexMap = new SparseIndexMap();
+        SparseIndexMap oldToNewIndexMap = new SparseIndexMap(oldDex.getTableOfContents());
+        SparseIndexMap oldToPatchedIndexMap = new SparseIndexMap(oldDex.getTableOfContents());
+        SparseIndexMap newToPatchedIndexMap = new SparseIndexMap(newDex.getTableOfContents());
         SparseIndexMap selfIndexMapForSkip = new SparseIndexMap();
 
         additionalRemovingClassPatternSet = new HashSet<>();
@@ -273,6 +277,24 @@ public class DexPatchGenerator {
         this.logger.setLoggerImpl(logger);
     }
 
+    /**
+     * Receive {@link DexSectionMetrics} of every section once patch file is written, null to stop.
+     */
+    public void setMetricsListener(DexSectionMetrics.IDexSectionMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Diff independent sections with several threads, 1 keeps the classic single threaded
+     * diffing. The patch file is the same either way.
+     */
+    public void setSectionThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("section thread count must be positive: " + threadCount);
+        }
+        this.sectionThreadCount = threadCount;
+    }
+
     public void executeAndSaveTo(File file) throws IOException {
         OutputStream os = null;
         try {
@@ -310,6 +332,12 @@ public class DexPatchGenerator {
         ((ClassDataSectionDiffAlgorithm) this.classDataSectionDiffAlg)
                 .setOffsetOfClassDatasToRemove(offsetOfClassDatasToRemove);
 
+        if (this.metricsListener != null) {
+            for (DexSectionDiffAlgorithm<?> sectionDiffAlg : getSectionDiffAlgsInPatchFileOrder()) {
+                sectionDiffAlg.setMetrics(new DexSectionMetrics());
+            }
+        }
+
         // Then, run diff algorithms according to sections' dependencies.
 
         // Use size calculated by algorithms above or from dex file definition to
@@ -317,21 +345,21 @@ public class DexPatchGenerator {
 
         // Calculate header and id sections size, so that we can work out
         // the base offset of typeLists Section.
-        int patchedheaderSize = SizeOf.HEADER_ITEM;
-        int patchedStringIdsSize = newDex.getTableOfContents().stringIds.size * SizeOf.STRING_ID_ITEM;
-        int patchedTypeIdsSize = newDex.getTableOfContents().typeIds.size * SizeOf.TYPE_ID_ITEM;
+        final int patchedheaderSize = SizeOf.HEADER_ITEM;
+        final int patchedStringIdsSize = newDex.getTableOfContents().stringIds.size * SizeOf.STRING_ID_ITEM;
+        final int patchedTypeIdsSize = newDex.getTableOfContents().typeIds.size * SizeOf.TYPE_ID_ITEM;
 
         // Although simulatePatchOperation can calculate this value, since protoIds section
         // depends on typeLists section, we can't run protoIds Section's simulatePatchOperation
         // method so far. Instead we calculate protoIds section's size using information in newDex
         // directly.
-        int patchedProtoIdsSize = newDex.getTableOfContents().protoIds.size * SizeOf.PROTO_ID_ITEM;
+        final int patchedProtoIdsSize = newDex.getTableOfContents().protoIds.size * SizeOf.PROTO_ID_ITEM;
 
-        int patchedFieldIdsSize = newDex.getTableOfContents().fieldIds.size * SizeOf.MEMBER_ID_ITEM;
-        int patchedMethodIdsSize = newDex.getTableOfContents().methodIds.size * SizeOf.MEMBER_ID_ITEM;
-        int patchedClassDefsSize = newDex.getTableOfContents().classDefs.size * SizeOf.CLASS_DEF_ITEM;
+        final int patchedFieldIdsSize = newDex.getTableOfContents().fieldIds.size * SizeOf.MEMBER_ID_ITEM;
+        final int patchedMethodIdsSize = newDex.getTableOfContents().methodIds.size * SizeOf.MEMBER_ID_ITEM;
+        final int patchedClassDefsSize = newDex.getTableOfContents().classDefs.size * SizeOf.CLASS_DEF_ITEM;
 
-        int patchedIdSectionSize =
+        final int patchedIdSectionSize =
                 patchedStringIdsSize
                         + patchedTypeIdsSize
                         + patchedProtoIdsSize
@@ -355,144 +383,250 @@ public class DexPatchGenerator {
             this.patchedStringIdsOffset
                     = SizeOf.roundToTimesOfFour(this.patchedStringIdsOffset);
         }
-        this.stringDataSectionDiffAlg.execute();
-        this.patchedStringDataItemsOffset = patchedheaderSize + patchedIdSectionSize;
-        if (this.oldDex.getTableOfContents().stringDatas.isElementFourByteAligned) {
-            this.patchedStringDataItemsOffset
-                    = SizeOf.roundToTimesOfFour(this.patchedStringDataItemsOffset);
-        }
-        this.stringDataSectionDiffAlg.simulatePatchOperation(this.patchedStringDataItemsOffset);
+        // Each diff task only depends on simulations of the sections it references, each
+        // simulation also depends on the one laid out right before it for its base offset.
+        // Tasks write their own parts of the index maps, so independent ones can run in parallel.
+        SectionTaskGraph taskGraph = new SectionTaskGraph();
+
+        int stringDataDiff = taskGraph.addTask(newDiffTask(this.stringDataSectionDiffAlg));
+        int stringDataSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedStringDataItemsOffset = patchedheaderSize + patchedIdSectionSize;
+                if (oldDex.getTableOfContents().stringDatas.isElementFourByteAligned) {
+                    patchedStringDataItemsOffset
+                            = SizeOf.roundToTimesOfFour(patchedStringDataItemsOffset);
+                }
+                stringDataSectionDiffAlg.simulatePatchOperation(patchedStringDataItemsOffset);
+            }
+        }, stringDataDiff);
+
+        int typeIdDiff = taskGraph.addTask(newDiffTask(this.typeIdSectionDiffAlg), stringDataSim);
+        int typeIdSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedTypeIdsOffset = patchedStringIdsOffset + patchedStringIdsSize;
+                if (oldDex.getTableOfContents().typeIds.isElementFourByteAligned) {
+                    patchedTypeIdsOffset
+                            = SizeOf.roundToTimesOfFour(patchedTypeIdsOffset);
+                }
+                typeIdSectionDiffAlg.simulatePatchOperation(patchedTypeIdsOffset);
+            }
+        }, typeIdDiff);
+
+        int typeListDiff = taskGraph.addTask(newDiffTask(this.typeListSectionDiffAlg), typeIdSim);
+        int typeListSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedTypeListsOffset
+                        = patchedheaderSize
+                        + patchedIdSectionSize
+                        + stringDataSectionDiffAlg.getPatchedSectionSize();
+                if (oldDex.getTableOfContents().typeLists.isElementFourByteAligned) {
+                    patchedTypeListsOffset
+                            = SizeOf.roundToTimesOfFour(patchedTypeListsOffset);
+                }
+                typeListSectionDiffAlg.simulatePatchOperation(patchedTypeListsOffset);
+            }
+        }, typeListDiff, stringDataSim);
 
-        this.typeIdSectionDiffAlg.execute();
-        this.patchedTypeIdsOffset = this.patchedStringIdsOffset + patchedStringIdsSize;
-        if (this.oldDex.getTableOfContents().typeIds.isElementFourByteAligned) {
-            this.patchedTypeIdsOffset
-                    = SizeOf.roundToTimesOfFour(this.patchedTypeIdsOffset);
-        }
-        this.typeIdSectionDiffAlg.simulatePatchOperation(this.patchedTypeIdsOffset);
-
-        this.typeListSectionDiffAlg.execute();
-        this.patchedTypeListsOffset
-                = patchedheaderSize
-                + patchedIdSectionSize
-                + this.stringDataSectionDiffAlg.getPatchedSectionSize();
-        if (this.oldDex.getTableOfContents().typeLists.isElementFourByteAligned) {
-            this.patchedTypeListsOffset
-                    = SizeOf.roundToTimesOfFour(this.patchedTypeListsOffset);
-        }
-        this.typeListSectionDiffAlg.simulatePatchOperation(this.patchedTypeListsOffset);
+        int protoIdDiff = taskGraph.addTask(
+                newDiffTask(this.protoIdSectionDiffAlg), stringDataSim, typeIdSim, typeListSim
+        );
+        int protoIdSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedProtoIdsOffset = patchedTypeIdsOffset + patchedTypeIdsSize;
+                if (oldDex.getTableOfContents().protoIds.isElementFourByteAligned) {
+                    patchedProtoIdsOffset = SizeOf.roundToTimesOfFour(patchedProtoIdsOffset);
+                }
+                protoIdSectionDiffAlg.simulatePatchOperation(patchedProtoIdsOffset);
+            }
+        }, protoIdDiff, typeIdSim);
 
-        this.protoIdSectionDiffAlg.execute();
-        this.patchedProtoIdsOffset = this.patchedTypeIdsOffset + patchedTypeIdsSize;
-        if (this.oldDex.getTableOfContents().protoIds.isElementFourByteAligned) {
-            this.patchedProtoIdsOffset = SizeOf.roundToTimesOfFour(this.patchedProtoIdsOffset);
-        }
-        this.protoIdSectionDiffAlg.simulatePatchOperation(this.patchedProtoIdsOffset);
+        int fieldIdDiff = taskGraph.addTask(
+                newDiffTask(this.fieldIdSectionDiffAlg), stringDataSim, typeIdSim
+        );
+        int fieldIdSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedFieldIdsOffset = patchedProtoIdsOffset + patchedProtoIdsSize;
+                if (oldDex.getTableOfContents().fieldIds.isElementFourByteAligned) {
+                    patchedFieldIdsOffset = SizeOf.roundToTimesOfFour(patchedFieldIdsOffset);
+                }
+                fieldIdSectionDiffAlg.simulatePatchOperation(patchedFieldIdsOffset);
+            }
+        }, fieldIdDiff, protoIdSim);
 
-        this.fieldIdSectionDiffAlg.execute();
-        this.patchedFieldIdsOffset = this.patchedProtoIdsOffset + patchedProtoIdsSize;
-        if (this.oldDex.getTableOfContents().fieldIds.isElementFourByteAligned) {
-            this.patchedFieldIdsOffset = SizeOf.roundToTimesOfFour(this.patchedFieldIdsOffset);
-        }
-        this.fieldIdSectionDiffAlg.simulatePatchOperation(this.patchedFieldIdsOffset);
+        int methodIdDiff = taskGraph.addTask(
+                newDiffTask(this.methodIdSectionDiffAlg), stringDataSim, typeIdSim, protoIdSim
+        );
+        int methodIdSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedMethodIdsOffset = patchedFieldIdsOffset + patchedFieldIdsSize;
+                if (oldDex.getTableOfContents().methodIds.isElementFourByteAligned) {
+                    patchedMethodIdsOffset = SizeOf.roundToTimesOfFour(patchedMethodIdsOffset);
+                }
+                methodIdSectionDiffAlg.simulatePatchOperation(patchedMethodIdsOffset);
+            }
+        }, methodIdDiff, fieldIdSim);
 
-        this.methodIdSectionDiffAlg.execute();
-        this.patchedMethodIdsOffset = this.patchedFieldIdsOffset + patchedFieldIdsSize;
-        if (this.oldDex.getTableOfContents().methodIds.isElementFourByteAligned) {
-            this.patchedMethodIdsOffset = SizeOf.roundToTimesOfFour(this.patchedMethodIdsOffset);
-        }
-        this.methodIdSectionDiffAlg.simulatePatchOperation(this.patchedMethodIdsOffset);
-
-        this.annotationSectionDiffAlg.execute();
-        this.patchedAnnotationItemsOffset
-                = this.patchedTypeListsOffset
-                + this.typeListSectionDiffAlg.getPatchedSectionSize();
-        if (this.oldDex.getTableOfContents().annotations.isElementFourByteAligned) {
-            this.patchedAnnotationItemsOffset
-                    = SizeOf.roundToTimesOfFour(this.patchedAnnotationItemsOffset);
-        }
-        this.annotationSectionDiffAlg.simulatePatchOperation(this.patchedAnnotationItemsOffset);
-
-        this.annotationSetSectionDiffAlg.execute();
-        this.patchedAnnotationSetItemsOffset
-                = this.patchedAnnotationItemsOffset
-                + this.annotationSectionDiffAlg.getPatchedSectionSize();
-        if (this.oldDex.getTableOfContents().annotationSets.isElementFourByteAligned) {
-            this.patchedAnnotationSetItemsOffset
-                    = SizeOf.roundToTimesOfFour(this.patchedAnnotationSetItemsOffset);
-        }
-        this.annotationSetSectionDiffAlg.simulatePatchOperation(
-                this.patchedAnnotationSetItemsOffset
+        int annotationDiff = taskGraph.addTask(
+                newDiffTask(this.annotationSectionDiffAlg), stringDataSim, typeIdSim, fieldIdSim, methodIdSim
         );
+        int annotationSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedAnnotationItemsOffset
+                        = patchedTypeListsOffset
+                        + typeListSectionDiffAlg.getPatchedSectionSize();
+                if (oldDex.getTableOfContents().annotations.isElementFourByteAligned) {
+                    patchedAnnotationItemsOffset
+                            = SizeOf.roundToTimesOfFour(patchedAnnotationItemsOffset);
+                }
+                annotationSectionDiffAlg.simulatePatchOperation(patchedAnnotationItemsOffset);
+            }
+        }, annotationDiff, typeListSim);
 
-        this.annotationSetRefListSectionDiffAlg.execute();
-        this.patchedAnnotationSetRefListItemsOffset
-                = this.patchedAnnotationSetItemsOffset
-                + this.annotationSetSectionDiffAlg.getPatchedSectionSize();
-        if (this.oldDex.getTableOfContents().annotationSetRefLists.isElementFourByteAligned) {
-            this.patchedAnnotationSetRefListItemsOffset
-                    = SizeOf.roundToTimesOfFour(this.patchedAnnotationSetRefListItemsOffset);
-        }
-        this.annotationSetRefListSectionDiffAlg.simulatePatchOperation(
-                this.patchedAnnotationSetRefListItemsOffset
+        int annotationSetDiff = taskGraph.addTask(
+                newDiffTask(this.annotationSetSectionDiffAlg), annotationSim
+        );
+        int annotationSetSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedAnnotationSetItemsOffset
+                        = patchedAnnotationItemsOffset
+                        + annotationSectionDiffAlg.getPatchedSectionSize();
+                if (oldDex.getTableOfContents().annotationSets.isElementFourByteAligned) {
+                    patchedAnnotationSetItemsOffset
+                            = SizeOf.roundToTimesOfFour(patchedAnnotationSetItemsOffset);
+                }
+                annotationSetSectionDiffAlg.simulatePatchOperation(
+                        patchedAnnotationSetItemsOffset
+                );
+            }
+        }, annotationSetDiff, annotationSim);
+
+        int annotationSetRefListDiff = taskGraph.addTask(
+                newDiffTask(this.annotationSetRefListSectionDiffAlg), annotationSetSim
         );
+        int annotationSetRefListSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedAnnotationSetRefListItemsOffset
+                        = patchedAnnotationSetItemsOffset
+                        + annotationSetSectionDiffAlg.getPatchedSectionSize();
+                if (oldDex.getTableOfContents().annotationSetRefLists.isElementFourByteAligned) {
+                    patchedAnnotationSetRefListItemsOffset
+                            = SizeOf.roundToTimesOfFour(patchedAnnotationSetRefListItemsOffset);
+                }
+                annotationSetRefListSectionDiffAlg.simulatePatchOperation(
+                        patchedAnnotationSetRefListItemsOffset
+                );
+            }
+        }, annotationSetRefListDiff, annotationSetSim);
 
-        this.annotationsDirectorySectionDiffAlg.execute();
-        this.patchedAnnotationsDirectoryItemsOffset
-                = this.patchedAnnotationSetRefListItemsOffset
-                + this.annotationSetRefListSectionDiffAlg.getPatchedSectionSize();
-        if (this.oldDex.getTableOfContents().annotationsDirectories.isElementFourByteAligned) {
-            this.patchedAnnotationsDirectoryItemsOffset
-                    = SizeOf.roundToTimesOfFour(this.patchedAnnotationsDirectoryItemsOffset);
-        }
-        this.annotationsDirectorySectionDiffAlg.simulatePatchOperation(
-                this.patchedAnnotationsDirectoryItemsOffset
+        int annotationsDirectoryDiff = taskGraph.addTask(
+                newDiffTask(this.annotationsDirectorySectionDiffAlg),
+                fieldIdSim, methodIdSim, annotationSetSim, annotationSetRefListSim
         );
+        int annotationsDirectorySim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedAnnotationsDirectoryItemsOffset
+                        = patchedAnnotationSetRefListItemsOffset
+                        + annotationSetRefListSectionDiffAlg.getPatchedSectionSize();
+                if (oldDex.getTableOfContents().annotationsDirectories.isElementFourByteAligned) {
+                    patchedAnnotationsDirectoryItemsOffset
+                            = SizeOf.roundToTimesOfFour(patchedAnnotationsDirectoryItemsOffset);
+                }
+                annotationsDirectorySectionDiffAlg.simulatePatchOperation(
+                        patchedAnnotationsDirectoryItemsOffset
+                );
+            }
+        }, annotationsDirectoryDiff, annotationSetRefListSim);
 
-        this.debugInfoSectionDiffAlg.execute();
-        this.patchedDebugInfoItemsOffset
-                = this.patchedAnnotationsDirectoryItemsOffset
-                + this.annotationsDirectorySectionDiffAlg.getPatchedSectionSize();
-        if (this.oldDex.getTableOfContents().debugInfos.isElementFourByteAligned) {
-            this.patchedDebugInfoItemsOffset
-                    = SizeOf.roundToTimesOfFour(this.patchedDebugInfoItemsOffset);
-        }
-        this.debugInfoSectionDiffAlg.simulatePatchOperation(this.patchedDebugInfoItemsOffset);
-
-        this.codeSectionDiffAlg.execute();
-        this.patchedCodeItemsOffset
-                = this.patchedDebugInfoItemsOffset
-                + this.debugInfoSectionDiffAlg.getPatchedSectionSize();
-        if (this.oldDex.getTableOfContents().codes.isElementFourByteAligned) {
-            this.patchedCodeItemsOffset = SizeOf.roundToTimesOfFour(this.patchedCodeItemsOffset);
-        }
-        this.codeSectionDiffAlg.simulatePatchOperation(this.patchedCodeItemsOffset);
-
-        this.classDataSectionDiffAlg.execute();
-        this.patchedClassDataItemsOffset
-                = this.patchedCodeItemsOffset
-                + this.codeSectionDiffAlg.getPatchedSectionSize();
-        if (this.oldDex.getTableOfContents().classDatas.isElementFourByteAligned) {
-            this.patchedClassDataItemsOffset
-                    = SizeOf.roundToTimesOfFour(this.patchedClassDataItemsOffset);
-        }
-        this.classDataSectionDiffAlg.simulatePatchOperation(this.patchedClassDataItemsOffset);
-
-        this.encodedArraySectionDiffAlg.execute();
-        this.patchedEncodedArrayItemsOffset
-                = this.patchedClassDataItemsOffset
-                + this.classDataSectionDiffAlg.getPatchedSectionSize();
-        if (this.oldDex.getTableOfContents().encodedArrays.isElementFourByteAligned) {
-            this.patchedEncodedArrayItemsOffset
-                    = SizeOf.roundToTimesOfFour(this.patchedEncodedArrayItemsOffset);
-        }
-        this.encodedArraySectionDiffAlg.simulatePatchOperation(this.patchedEncodedArrayItemsOffset);
+        int debugInfoDiff = taskGraph.addTask(
+                newDiffTask(this.debugInfoSectionDiffAlg), stringDataSim, typeIdSim
+        );
+        int debugInfoSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedDebugInfoItemsOffset
+                        = patchedAnnotationsDirectoryItemsOffset
+                        + annotationsDirectorySectionDiffAlg.getPatchedSectionSize();
+                if (oldDex.getTableOfContents().debugInfos.isElementFourByteAligned) {
+                    patchedDebugInfoItemsOffset
+                            = SizeOf.roundToTimesOfFour(patchedDebugInfoItemsOffset);
+                }
+                debugInfoSectionDiffAlg.simulatePatchOperation(patchedDebugInfoItemsOffset);
+            }
+        }, debugInfoDiff, annotationsDirectorySim);
 
-        this.classDefSectionDiffAlg.execute();
-        this.patchedClassDefsOffset = this.patchedMethodIdsOffset + patchedMethodIdsSize;
-        if (this.oldDex.getTableOfContents().classDefs.isElementFourByteAligned) {
-            this.patchedClassDefsOffset = SizeOf.roundToTimesOfFour(this.patchedClassDefsOffset);
-        }
+        int codeDiff = taskGraph.addTask(
+                newDiffTask(this.codeSectionDiffAlg),
+                stringDataSim, typeIdSim, fieldIdSim, methodIdSim, debugInfoSim
+        );
+        int codeSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedCodeItemsOffset
+                        = patchedDebugInfoItemsOffset
+                        + debugInfoSectionDiffAlg.getPatchedSectionSize();
+                if (oldDex.getTableOfContents().codes.isElementFourByteAligned) {
+                    patchedCodeItemsOffset = SizeOf.roundToTimesOfFour(patchedCodeItemsOffset);
+                }
+                codeSectionDiffAlg.simulatePatchOperation(patchedCodeItemsOffset);
+            }
+        }, codeDiff, debugInfoSim);
+
+        int classDataDiff = taskGraph.addTask(
+                newDiffTask(this.classDataSectionDiffAlg), fieldIdSim, methodIdSim, codeSim
+        );
+        int classDataSim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedClassDataItemsOffset
+                        = patchedCodeItemsOffset
+                        + codeSectionDiffAlg.getPatchedSectionSize();
+                if (oldDex.getTableOfContents().classDatas.isElementFourByteAligned) {
+                    patchedClassDataItemsOffset
+                            = SizeOf.roundToTimesOfFour(patchedClassDataItemsOffset);
+                }
+                classDataSectionDiffAlg.simulatePatchOperation(patchedClassDataItemsOffset);
+            }
+        }, classDataDiff, codeSim);
+
+        int encodedArrayDiff = taskGraph.addTask(
+                newDiffTask(this.encodedArraySectionDiffAlg), stringDataSim, typeIdSim, fieldIdSim, methodIdSim
+        );
+        int encodedArraySim = taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                patchedEncodedArrayItemsOffset
+                        = patchedClassDataItemsOffset
+                        + classDataSectionDiffAlg.getPatchedSectionSize();
+                if (oldDex.getTableOfContents().encodedArrays.isElementFourByteAligned) {
+                    patchedEncodedArrayItemsOffset
+                            = SizeOf.roundToTimesOfFour(patchedEncodedArrayItemsOffset);
+                }
+                encodedArraySectionDiffAlg.simulatePatchOperation(patchedEncodedArrayItemsOffset);
+            }
+        }, encodedArrayDiff, classDataSim);
+
+        taskGraph.addTask(new Runnable() {
+            @Override
+            public void run() {
+                classDefSectionDiffAlg.execute();
+                patchedClassDefsOffset = patchedMethodIdsOffset + patchedMethodIdsSize;
+                if (oldDex.getTableOfContents().classDefs.isElementFourByteAligned) {
+                    patchedClassDefsOffset = SizeOf.roundToTimesOfFour(patchedClassDefsOffset);
+                }
+            }
+        }, stringDataSim, typeIdSim, typeListSim, methodIdSim, annotationsDirectorySim, classDataSim, encodedArraySim);
+
+        taskGraph.execute(this.sectionThreadCount);
 
         // Calculate any values we still know nothing about them.
         this.patchedMapListOffset
@@ -511,6 +645,35 @@ public class DexPatchGenerator {
         writeResultToStream(out);
     }
 
+    private DexSectionDiffAlgorithm<?>[] getSectionDiffAlgsInPatchFileOrder() {
+        return new DexSectionDiffAlgorithm<?>[] {
+                this.stringDataSectionDiffAlg,
+                this.typeIdSectionDiffAlg,
+                this.typeListSectionDiffAlg,
+                this.protoIdSectionDiffAlg,
+                this.fieldIdSectionDiffAlg,
+                this.methodIdSectionDiffAlg,
+                this.annotationSectionDiffAlg,
+                this.annotationSetSectionDiffAlg,
+                this.annotationSetRefListSectionDiffAlg,
+                this.annotationsDirectorySectionDiffAlg,
+                this.debugInfoSectionDiffAlg,
+                this.codeSectionDiffAlg,
+                this.classDataSectionDiffAlg,
+                this.encodedArraySectionDiffAlg,
+                this.classDefSectionDiffAlg
+        };
+    }
+
+    private static Runnable newDiffTask(final DexSectionDiffAlgorithm<?> diffAlg) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                diffAlg.execute();
+            }
+        };
+    }
+
     private void writeResultToStream(OutputStream os) throws IOException {
         DexDataBuffer buffer = new DexDataBuffer();
         buffer.write(DexPatchFile.MAGIC);
@@ -542,25 +705,24 @@ public class DexPatchGenerator {
         buffer.writeInt(firstChunkOffset);
         buffer.position(firstChunkOffset);
 
-        writePatchOperations(buffer, this.stringDataSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.typeIdSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.typeListSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.protoIdSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.fieldIdSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.methodIdSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.annotationSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.annotationSetSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.annotationSetRefListSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.annotationsDirectorySectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.debugInfoSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.codeSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.classDataSectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.encodedArraySectionDiffAlg.getPatchOperationList());
-        writePatchOperations(buffer, this.classDefSectionDiffAlg.getPatchOperationList());
+        DexSectionDiffAlgorithm<?>[] sectionDiffAlgs = getSectionDiffAlgsInPatchFileOrder();
+        for (DexSectionDiffAlgorithm<?> sectionDiffAlg : sectionDiffAlgs) {
+            int chunkOffset = buffer.position();
+            writePatchOperations(buffer, sectionDiffAlg.getPatchOperationList());
+            if (sectionDiffAlg.getMetrics() != null) {
+                sectionDiffAlg.getMetrics().bytesWritten = buffer.position() - chunkOffset;
+            }
+        }
 
         byte[] bufferData = buffer.array();
         os.write(bufferData);
         os.flush();
+
+        if (this.metricsListener != null) {
+            for (DexSectionDiffAlgorithm<?> sectionDiffAlg : sectionDiffAlgs) {
+                this.metricsListener.onSectionMetrics(sectionDiffAlg.getMetrics());
+            }
+        }
     }
 
     private <T extends Comparable<T>> void writePatchOperations(
@@ -22,6 +22,7 @@ import com.tencent.tinker.android.dex.TableOfContents;
 import com.tencent.tinker.android.dex.TableOfContents.Section.Item;
 import com.tencent.tinker.android.dex.io.DexDataBuffer;
 import com.tencent.tinker.android.dex.util.CompareUtils;
+import com.tencent.tinker.commons.dexpatcher.DexSectionMetrics;
 import com.tencent.tinker.commons.dexpatcher.struct.PatchOperation;
 import com.tencent.tinker.commons.dexpatcher.util.AbstractIndexMap;
 import com.tencent.tinker.commons.dexpatcher.util.SparseIndexMap;
@@ -115,6 +116,10 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
     private AbstractMap.SimpleEntry<Integer, T>[] adjustedOldIndexedItemsWithOrigOrder = null;
     private int oldItemCount = 0;
     private int newItemCount = 0;
+    /**
+     * Metrics of this section, null means they are not collected.
+     */
+    private DexSectionMetrics metrics = null;
 
     public DexSectionDiffAlgorithm(
             Dex oldDex,
@@ -142,6 +147,21 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
         return this.patchedSectionSize;
     }
 
+    /**
+     * Collect numbers of diffing this section into {@code metrics}, null to stop collecting.
+     * Size of the patch chunk is left to the writer of patch file.
+     */
+    public void setMetrics(DexSectionMetrics metrics) {
+        if (metrics != null) {
+            metrics.sectionType = getTocSection(this.oldDex).type;
+        }
+        this.metrics = metrics;
+    }
+
+    public DexSectionMetrics getMetrics() {
+        return this.metrics;
+    }
+
     /**
      * Get {@code Section} in {@code TableOfContents}.
      */
@@ -255,6 +275,8 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
     }
 
     public void execute() {
+        final long startNanos = (this.metrics != null ? System.nanoTime() : 0);
+
         this.patchOperationList.clear();
 
         this.adjustedOldIndexedItemsWithOrigOrder = collectSectionItems(this.oldDex, true);
@@ -366,9 +388,21 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
                 }
             }
         }
+
+        if (this.metrics != null) {
+            this.metrics.deletedItemCount = this.indexToDelOperationMap.size();
+            this.metrics.addedItemCount = this.indexToAddOperationMap.size();
+            this.metrics.replacedItemCount = this.indexToReplaceOperationMap.size();
+            this.metrics.unchangedItemCount
+                    = this.oldItemCount - this.metrics.deletedItemCount - this.metrics.replacedItemCount;
+            this.metrics.bytesRead
+                    = getTocSection(this.oldDex).byteCount + getTocSection(this.newDex).byteCount;
+            this.metrics.timeCostNanos += System.nanoTime() - startNanos;
+        }
     }
 
     public void simulatePatchOperation(int baseOffset) {
+        final long startNanos = (this.metrics != null ? System.nanoTime() : 0);
         boolean isNeedToMakeAlign = getTocSection(this.oldDex).isElementFourByteAligned;
         int oldIndex = 0;
         int patchedIndex = 0;
@@ -457,5 +491,9 @@ public abstract class DexSectionDiffAlgorithm<T extends Comparable<T>> {
         }
 
         this.patchedSectionSize = SizeOf.roundToTimesOfFour(patchedOffset - baseOffset);
+
+        if (this.metrics != null) {
+            this.metrics.timeCostNanos += System.nanoTime() - startNanos;
+        }
     }
 }
@@ -16,6 +16,9 @@
 
 package com.tencent.tinker.build.patch;
 
+import com.tencent.tinker.bsdiff.BlockCodec;
+import com.tencent.tinker.bsdiff.BlockCodecs;
+import com.tencent.tinker.bsdiff.SuffixArrayCache;
 import com.tencent.tinker.build.util.FileOperation;
 import com.tencent.tinker.build.util.TinkerPatchException;
 import com.tencent.tinker.build.util.TypedValue;
@@ -66,11 +69,17 @@ public class Configuration {
     protected static final String ATTR_SUPPORT_HOTPLUG_COMPONENT = "supportHotplugComponent";
     protected static final String ATTR_USE_SIGN                  = "useSign";
     protected static final String ATTR_SEVEN_ZIP_PATH            = "sevenZipPath";
+    protected static final String ATTR_BSDIFF_CACHE_DIR          = "bsDiffCacheDir";
+    protected static final String ATTR_BSDIFF_CACHE_MAX_SIZE     = "bsDiffCacheMaxSize";
+    protected static final String ATTR_BSDIFF_FAST_THRESHOLD     = "bsDiffFastThreshold";
+    protected static final String ATTR_ARCHIVE_DIFF_FALLBACK     = "archiveDiffFallback";
     protected static final String ATTR_DEX_MODE                  = "dexMode";
     protected static final String ATTR_PATTERN                   = "pattern";
     protected static final String ATTR_IGNORE_CHANGE             = "ignoreChange";
     protected static final String ATTR_IGNORE_CHANGE_WARNING     = "ignoreChangeWarning";
     protected static final String ATTR_RES_LARGE_MOD             = "largeModSize";
+    protected static final String ATTR_BSDIFF_CODEC              = "bsDiffCodec";
+    protected static final String ATTR_ARCHIVE_DIFF              = "archiveDiff";
 
     protected static final String ATTR_LOADER       = "loader";
     protected static final String ATTR_CONFIG_FIELD = "configField";
@@ -90,10 +99,27 @@ public class Configuration {
     public boolean mIgnoreWarning;
     public boolean mIsProtectedApp;
     public boolean mSupportHotplugComponent;
+    /**
+     * suffix arrays of the old files shared by every patch built against the same base apk,
+     * null if bsDiffCacheDir is not set
+     */
+    public String           mBsDiffCacheDir;
+    public int              mBsDiffCacheMaxSize;
+    public SuffixArrayCache mBsDiffCache;
+    /**
+     * lib and resource files of at least this size in MB are diffed with BSDiff.fastdiff, 0 to disable
+     */
+    public int              mBsDiffFastThreshold;
+    /**
+     * archive patches also carry a plain bsdiff patch, for devices whose zlib deflates differently
+     */
+    public boolean          mArchiveDiffFallback;
     /**
      * lib config
      */
     public HashSet<Pattern> mSoFilePattern;
+    public BlockCodec       mSoBsDiffCodec;
+    public boolean          mSoArchiveDiff;
     /**
      * dex config
      */
@@ -110,6 +136,8 @@ public class Configuration {
     public HashSet<Pattern> mResIgnoreChangeWarningPattern;
     public HashSet<String>  mResRawPattern;
     public int              mLargeModSize;
+    public BlockCodec       mResBsDiffCodec;
+    public boolean          mResArchiveDiff;
     /**
      * only gradle have the param
      */
@@ -168,7 +196,13 @@ public class Configuration {
         mNewApkFile = newApkFile;
         mNewApkPath = newApkFile.getAbsolutePath();
         mLargeModSize = 100;
+        mSoBsDiffCodec = BlockCodecs.GZIP;
+        mResBsDiffCodec = BlockCodecs.GZIP;
+        mBsDiffCacheMaxSize = 512;
+        mBsDiffFastThreshold = 128;
+        mArchiveDiffFallback = true;
         readXmlConfig(config);
+        createBsDiffCache();
         createTempDirectory();
         checkInputPatternParameter();
     }
@@ -212,6 +246,10 @@ public class Configuration {
             addToPatterns(item, mResIgnoreChangeWarningPattern);
         }
         mLargeModSize = param.largeModSize;
+        mSoBsDiffCodec = parseBsDiffCodec(param.soBsDiffCodec);
+        mResBsDiffCodec = parseBsDiffCodec(param.resourceBsDiffCodec);
+        mSoArchiveDiff = param.soArchiveDiff;
+        mResArchiveDiff = param.resourceArchiveDiff;
         //only gradle have the param
         mUseApplyResource = param.useApplyResource;
 
@@ -236,6 +274,12 @@ public class Configuration {
 
         mSupportHotplugComponent = param.supportHotplugComponent;
 
+        mBsDiffCacheDir = param.bsDiffCacheDir;
+        mBsDiffCacheMaxSize = param.bsDiffCacheMaxSize;
+        createBsDiffCache();
+        mBsDiffFastThreshold = param.bsDiffFastThreshold;
+        mArchiveDiffFallback = param.archiveDiffFallback;
+
         mSevenZipPath = param.sevenZipPath;
         mPackageFields = param.configFields;
 
@@ -260,6 +304,10 @@ public class Configuration {
         sb.append("isProtectedApp:" + mIsProtectedApp + "\n");
         sb.append("7-ZipPath:" + mSevenZipPath + "\n");
         sb.append("useSignAPk:" + mUseSignAPk + "\n");
+        sb.append("bsDiffCacheDir:" + mBsDiffCacheDir + "\n");
+        sb.append("bsDiffCacheMaxSize:" + mBsDiffCacheMaxSize + "mb\n");
+        sb.append("bsDiffFastThreshold:" + mBsDiffFastThreshold + "mb\n");
+        sb.append("archiveDiffFallback:" + mArchiveDiffFallback + "\n");
 
         sb.append("package meta fields: \n");
 
@@ -287,6 +335,8 @@ public class Configuration {
         for (Pattern name : mSoFilePattern) {
             sb.append("libPattern:" + name.toString() + "\n");
         }
+        sb.append("libBsDiffCodec:" + mSoBsDiffCodec + "\n");
+        sb.append("libArchiveDiff:" + mSoArchiveDiff + "\n");
 
         sb.append("resource configs: \n");
         for (Pattern name : mResFilePattern) {
@@ -299,6 +349,8 @@ public class Configuration {
             sb.append("resIgnore change warning:" + name.toString() + "\n");
         }
         sb.append("largeModSize:" + mLargeModSize + "kb\n");
+        sb.append("resBsDiffCodec:" + mResBsDiffCodec + "\n");
+        sb.append("resArchiveDiff:" + mResArchiveDiff + "\n");
         sb.append("useApplyResource:" + mUseApplyResource + "\n");
         return sb.toString();
     }
@@ -353,6 +405,24 @@ public class Configuration {
         }
     }
 
+    private void createBsDiffCache() throws TinkerPatchException {
+        if (Utils.isBlank(mBsDiffCacheDir)) {
+            mBsDiffCache = null;
+            return;
+        }
+        if (mBsDiffCacheMaxSize <= 0) {
+            throw new TinkerPatchException("bsDiffCacheMaxSize must be larger than 0");
+        }
+        mBsDiffCache = new SuffixArrayCache(new File(mBsDiffCacheDir), mBsDiffCacheMaxSize * 1024L * 1024L);
+    }
+
+    /**
+     * @return mBsDiffFastThreshold in bytes
+     */
+    public long getBsDiffFastThreshold() {
+        return mBsDiffFastThreshold * 1024L * 1024L;
+    }
+
     private void checkInputPatternParameter() throws TinkerPatchException {
         if (mSoFilePattern.isEmpty() && mDexFilePattern.isEmpty() && mResFilePattern.isEmpty()) {
             throw new TinkerPatchException("no dex, so or resource pattern are found");
@@ -452,6 +522,14 @@ public class Configuration {
                         } else {
                             mSevenZipPath = "7za";
                         }
+                    } else if (tagName.equals(ATTR_BSDIFF_CACHE_DIR)) {
+                        mBsDiffCacheDir = value;
+                    } else if (tagName.equals(ATTR_BSDIFF_CACHE_MAX_SIZE)) {
+                        mBsDiffCacheMaxSize = Integer.valueOf(value);
+                    } else if (tagName.equals(ATTR_BSDIFF_FAST_THRESHOLD)) {
+                        mBsDiffFastThreshold = Integer.valueOf(value);
+                    } else if (tagName.equals(ATTR_ARCHIVE_DIFF_FALLBACK)) {
+                        mArchiveDiffFallback = value.equals("true");
                     } else {
                         System.err.println("unknown property tag " + tagName);
                     }
@@ -545,6 +623,10 @@ public class Configuration {
                     String value = check.getAttribute(ATTR_VALUE);
                     if (tagName.equals(ATTR_PATTERN)) {
                         addToPatterns(value, mSoFilePattern);
+                    } else if (tagName.equals(ATTR_BSDIFF_CODEC)) {
+                        mSoBsDiffCodec = parseBsDiffCodec(value);
+                    } else if (tagName.equals(ATTR_ARCHIVE_DIFF)) {
+                        mSoArchiveDiff = value.equals("true");
                     } else {
                         System.err.println("unknown dex tag " + tagName);
                     }
@@ -576,6 +658,10 @@ public class Configuration {
                         }
                     } else if (tagName.equals(ATTR_RES_LARGE_MOD)) {
                         mLargeModSize = Integer.valueOf(value);
+                    } else if (tagName.equals(ATTR_BSDIFF_CODEC)) {
+                        mResBsDiffCodec = parseBsDiffCodec(value);
+                    } else if (tagName.equals(ATTR_ARCHIVE_DIFF)) {
+                        mResArchiveDiff = value.equals("true");
                     } else {
                         System.err.println("unknown dex tag " + tagName);
                     }
@@ -606,6 +692,22 @@ public class Configuration {
         }
     }
 
+    /**
+     * gzip, stored, deflate, deflate:level or lz4, the default is gzip which keeps the classic patch format
+     */
+    private BlockCodec parseBsDiffCodec(String value) throws IOException {
+        if (value == null || value.trim().length() == 0) {
+            return BlockCodecs.GZIP;
+        }
+        try {
+            return BlockCodecs.forName(value);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(
+                String.format("Invalid config: %s %s, %s\n", ATTR_BSDIFF_CODEC, value, e.getMessage())
+            );
+        }
+    }
+
     private void addToPatterns(String value, HashSet<Pattern> patterns) throws IOException {
         if (value.length() == 0) {
             throw new IOException(
@@ -38,6 +38,22 @@ public class InputParam {
     public final boolean isProtectedApp;
     public final boolean supportHotplugComponent;
     public final boolean useSign;
+    /**
+     * tinkerPatch bsDiffCacheDir, empty to disable the suffix array cache
+     */
+    public final String  bsDiffCacheDir;
+    /**
+     * tinkerPatch bsDiffCacheMaxSize, in MB
+     */
+    public final int     bsDiffCacheMaxSize;
+    /**
+     * tinkerPatch bsDiffFastThreshold, in MB
+     */
+    public final int     bsDiffFastThreshold;
+    /**
+     * tinkerPatch archiveDiffFallback
+     */
+    public final boolean archiveDiffFallback;
 
     /**
      * tinkerPatch.dex
@@ -51,6 +67,14 @@ public class InputParam {
      * tinkerPatch.lib
      */
     public final ArrayList<String>       soFilePattern;
+    /**
+     * tinkerPatch.lib bsDiffCodec
+     */
+    public final String                  soBsDiffCodec;
+    /**
+     * tinkerPatch.lib archiveDiff
+     */
+    public final boolean                 soArchiveDiff;
     /**
      * tinkerPatch.resource pattern
      */
@@ -67,6 +91,14 @@ public class InputParam {
      * tinkerPath.resource largeModSize
      */
     public final int                     largeModSize;
+    /**
+     * tinkerPatch.resource bsDiffCodec
+     */
+    public final String                  resourceBsDiffCodec;
+    /**
+     * tinkerPatch.resource archiveDiff
+     */
+    public final boolean                 resourceArchiveDiff;
     /**
      * tinkerPath.buildConfig applyResourceMapping
      */
@@ -92,6 +124,10 @@ public class InputParam {
         boolean isProtectedApp,
         boolean supportHotplugComponent,
         boolean useSign,
+        String bsDiffCacheDir,
+        int bsDiffCacheMaxSize,
+        int bsDiffFastThreshold,
+        boolean archiveDiffFallback,
 
         ArrayList<String> dexFilePattern,
         ArrayList<String> dexLoaderPattern,
@@ -99,10 +135,14 @@ public class InputParam {
 
         String dexMode,
         ArrayList<String> soFilePattern,
+        String soBsDiffCodec,
+        boolean soArchiveDiff,
         ArrayList<String> resourceFilePattern,
         ArrayList<String> resourceIgnoreChangePattern,
         ArrayList<String> resourceIgnoreChangeWarningPattern,
         int largeModSize,
+        String resourceBsDiffCodec,
+        boolean resourceArchiveDiff,
         boolean useApplyResource,
         HashMap<String, String> configFields,
 
@@ -119,6 +159,10 @@ public class InputParam {
         this.isProtectedApp = isProtectedApp;
         this.supportHotplugComponent = supportHotplugComponent;
         this.useSign = useSign;
+        this.bsDiffCacheDir = bsDiffCacheDir;
+        this.bsDiffCacheMaxSize = bsDiffCacheMaxSize;
+        this.bsDiffFastThreshold = bsDiffFastThreshold;
+        this.archiveDiffFallback = archiveDiffFallback;
 
         this.dexFilePattern = dexFilePattern;
         this.dexLoaderPattern = dexLoaderPattern;
@@ -126,10 +170,14 @@ public class InputParam {
         this.dexMode = dexMode;
 
         this.soFilePattern = soFilePattern;
+        this.soBsDiffCodec = soBsDiffCodec;
+        this.soArchiveDiff = soArchiveDiff;
         this.resourceFilePattern = resourceFilePattern;
         this.resourceIgnoreChangePattern = resourceIgnoreChangePattern;
         this.resourceIgnoreChangeWarningPattern = resourceIgnoreChangeWarningPattern;
         this.largeModSize = largeModSize;
+        this.resourceBsDiffCodec = resourceBsDiffCodec;
+        this.resourceArchiveDiff = resourceArchiveDiff;
         this.useApplyResource = useApplyResource;
 
         this.configFields = configFields;
@@ -152,6 +200,10 @@ public class InputParam {
         private boolean isProtectedApp;
         private boolean isComponentHotplugSupported;
         private boolean useSign;
+        private String  bsDiffCacheDir;
+        private int     bsDiffCacheMaxSize;
+        private int     bsDiffFastThreshold;
+        private boolean archiveDiffFallback = true;
 
         /**
          * tinkerPatch.dex
@@ -165,6 +217,14 @@ public class InputParam {
          * tinkerPatch.lib
          */
         private ArrayList<String>       soFilePattern;
+        /**
+         * tinkerPatch.lib bsDiffCodec
+         */
+        private String                  soBsDiffCodec;
+        /**
+         * tinkerPatch.lib archiveDiff
+         */
+        private boolean                 soArchiveDiff;
         /**
          * tinkerPath.resource pattern
          */
@@ -181,6 +241,14 @@ public class InputParam {
          * tinkerPath.resource largeModSize
          */
         private  int                    largeModSize;
+        /**
+         * tinkerPatch.resource bsDiffCodec
+         */
+        private String                  resourceBsDiffCodec;
+        /**
+         * tinkerPatch.resource archiveDiff
+         */
+        private boolean                 resourceArchiveDiff;
         /**
          * tinkerPath.buildConfig applyResourceMapping
          */
@@ -213,6 +281,16 @@ public class InputParam {
             return this;
         }
 
+        public Builder setSoBsDiffCodec(String soBsDiffCodec) {
+            this.soBsDiffCodec = soBsDiffCodec;
+            return this;
+        }
+
+        public Builder setSoArchiveDiff(boolean soArchiveDiff) {
+            this.soArchiveDiff = soArchiveDiff;
+            return this;
+        }
+
         public Builder setResourceFilePattern(ArrayList<String> resourceFilePattern) {
             this.resourceFilePattern = resourceFilePattern;
             return this;
@@ -233,6 +311,16 @@ public class InputParam {
             return this;
         }
 
+        public Builder setResourceBsDiffCodec(String resourceBsDiffCodec) {
+            this.resourceBsDiffCodec = resourceBsDiffCodec;
+            return this;
+        }
+
+        public Builder setResourceArchiveDiff(boolean resourceArchiveDiff) {
+            this.resourceArchiveDiff = resourceArchiveDiff;
+            return this;
+        }
+
         public Builder setUseApplyResource(boolean useApplyResource) {
             this.useApplyResource = useApplyResource;
             return this;
@@ -313,6 +401,26 @@ public class InputParam {
             return this;
         }
 
+        public Builder setBsDiffCacheDir(String bsDiffCacheDir) {
+            this.bsDiffCacheDir = bsDiffCacheDir;
+            return this;
+        }
+
+        public Builder setBsDiffCacheMaxSize(int bsDiffCacheMaxSize) {
+            this.bsDiffCacheMaxSize = bsDiffCacheMaxSize;
+            return this;
+        }
+
+        public Builder setBsDiffFastThreshold(int bsDiffFastThreshold) {
+            this.bsDiffFastThreshold = bsDiffFastThreshold;
+            return this;
+        }
+
+        public Builder setArchiveDiffFallback(boolean archiveDiffFallback) {
+            this.archiveDiffFallback = archiveDiffFallback;
+            return this;
+        }
+
         public InputParam create() {
             return new InputParam(
                     oldApk,
@@ -326,15 +434,23 @@ public class InputParam {
                     isProtectedApp,
                     isComponentHotplugSupported,
                     useSign,
+                    bsDiffCacheDir,
+                    bsDiffCacheMaxSize,
+                    bsDiffFastThreshold,
+                    archiveDiffFallback,
                     dexFilePattern,
                     dexLoaderPattern,
                     dexIgnoreWarningLoaderPattern,
                     dexMode,
                     soFilePattern,
+                    soBsDiffCodec,
+                    soArchiveDiff,
                     resourceFilePattern,
                     resourceIgnoreChangePattern,
                     resourceIgnoreChangeWarningPattern,
                     largeModSize,
+                    resourceBsDiffCodec,
+                    resourceArchiveDiff,
                     useApplyResource,
                     configFields,
                     sevenZipPath
@@ -29,11 +29,10 @@ import com.tencent.tinker.android.dex.DebugInfoItem;
 import com.tencent.tinker.android.dex.Dex;
 import com.tencent.tinker.android.dex.EncodedValue;
 import com.tencent.tinker.android.dex.EncodedValueReader;
-import com.tencent.tinker.android.dex.FieldId;
-import com.tencent.tinker.android.dex.MethodId;
-import com.tencent.tinker.android.dex.ProtoId;
+import com.tencent.tinker.android.dex.FieldIdCursor;
+import com.tencent.tinker.android.dex.MethodIdCursor;
+import com.tencent.tinker.android.dex.ProtoIdCursor;
 import com.tencent.tinker.android.dex.TableOfContents;
-import com.tencent.tinker.android.dex.TypeList;
 import com.tencent.tinker.android.dex.io.DexDataBuffer;
 import com.tencent.tinker.android.dx.instruction.InstructionComparator;
 import com.tencent.tinker.build.dexpatcher.util.PatternUtils;
@@ -83,6 +82,14 @@ public final class DexClassesComparator {
     private final Set<String> refAffectedClassDescs = new HashSet<>();
     private final DexPatcherLogger logger = new DexPatcherLogger();
 
+    // Reused for every id comparison, so walking ids doesn't allocate.
+    private FieldIdCursor oldFieldIdCursor = null;
+    private FieldIdCursor newFieldIdCursor = null;
+    private MethodIdCursor oldMethodIdCursor = null;
+    private MethodIdCursor newMethodIdCursor = null;
+    private ProtoIdCursor oldProtoIdCursor = null;
+    private ProtoIdCursor newProtoIdCursor = null;
+
     public DexClassesComparator(String patternStringOfClassDescToCheck) {
         patternsOfClassDescToCheck.add(
                 Pattern.compile(
@@ -176,6 +183,14 @@ public final class DexClassesComparator {
         newClassDescriptorToClassInfoMap.clear();
         refAffectedClassDescs.clear();
 
+        // Type names are looked up over and over again while comparing.
+        for (Dex oldDex : oldDexGroup.dexes) {
+            oldDex.setStringCacheEnabled(true);
+        }
+        for (Dex newDex : newDexGroup.dexes) {
+            newDex.setStringCacheEnabled(true);
+        }
+
         // Map classDesc and typeIndex to classInfo
         // and collect typeIndex of classes to check in oldDexes.
         for (Dex oldDex : oldDexGroup.dexes) {
@@ -322,7 +337,7 @@ public final class DexClassesComparator {
             short[] oldInterfaceTypeIds = oldDex.interfaceTypeIndicesFromClassDef(oldClassDef);
             short[] newInterfaceTypeIds = newDex.interfaceTypeIndicesFromClassDef(newClassDef);
             if (isTypeIdsChangeAffectedToReferrer(
-                    oldDex, newDex, oldInterfaceTypeIds, newInterfaceTypeIds, false
+                    oldDex, newDex, oldInterfaceTypeIds, newInterfaceTypeIds
             )) {
                 result = true;
                 break;
@@ -385,8 +400,7 @@ public final class DexClassesComparator {
             Dex oldDex,
             Dex newDex,
             short[] oldTypeIds,
-            short[] newTypeIds,
-            boolean compareNameOnly
+            short[] newTypeIds
     ) {
         if (oldTypeIds.length != newTypeIds.length) {
             return true;
@@ -394,16 +408,8 @@ public final class DexClassesComparator {
 
         int typeIdCount = oldTypeIds.length;
         for (int i = 0; i < typeIdCount; ++i) {
-            if (compareNameOnly) {
-                String oldTypeName = oldDex.typeNames().get(oldTypeIds[i]);
-                String newTypeName = newDex.typeNames().get(newTypeIds[i]);
-                if (!oldTypeName.equals(newTypeName)) {
-                    return true;
-                }
-            } else {
-                if (isTypeChangeAffectedToReferrer(oldDex, newDex, oldTypeIds[i], newTypeIds[i])) {
-                    return true;
-                }
+            if (isTypeChangeAffectedToReferrer(oldDex, newDex, oldTypeIds[i], newTypeIds[i])) {
+                return true;
             }
         }
 
@@ -467,17 +473,17 @@ public final class DexClassesComparator {
                 return true;
             }
 
-            FieldId oldFieldId = oldDex.fieldIds().get(oldField.fieldIndex);
-            FieldId newFieldId = newDex.fieldIds().get(newField.fieldIndex);
+            FieldIdCursor oldFieldId = moveOldFieldIdCursor(oldDex, oldField.fieldIndex);
+            FieldIdCursor newFieldId = moveNewFieldIdCursor(newDex, newField.fieldIndex);
 
-            String oldFieldName = oldDex.strings().get(oldFieldId.nameIndex);
-            String newFieldName = newDex.strings().get(newFieldId.nameIndex);
+            String oldFieldName = oldDex.strings().get(oldFieldId.getNameIndex());
+            String newFieldName = newDex.strings().get(newFieldId.getNameIndex());
             if (!oldFieldName.equals(newFieldName)) {
                 return true;
             }
 
-            String oldFieldTypeName = oldDex.typeNames().get(oldFieldId.typeIndex);
-            String newFieldTypeName = newDex.typeNames().get(newFieldId.typeIndex);
+            String oldFieldTypeName = oldDex.typeNames().get(oldFieldId.getTypeIndex());
+            String newFieldTypeName = newDex.typeNames().get(newFieldId.getTypeIndex());
             if (!oldFieldTypeName.equals(newFieldTypeName)) {
                 return true;
             }
@@ -505,35 +511,31 @@ public final class DexClassesComparator {
                 return true;
             }
 
-            MethodId oldMethodId = oldDex.methodIds().get(oldMethod.methodIndex);
-            MethodId newMethodId = newDex.methodIds().get(newMethod.methodIndex);
+            MethodIdCursor oldMethodId = moveOldMethodIdCursor(oldDex, oldMethod.methodIndex);
+            MethodIdCursor newMethodId = moveNewMethodIdCursor(newDex, newMethod.methodIndex);
 
-            String oldMethodName = oldDex.strings().get(oldMethodId.nameIndex);
-            String newMethodName = newDex.strings().get(newMethodId.nameIndex);
+            String oldMethodName = oldDex.strings().get(oldMethodId.getNameIndex());
+            String newMethodName = newDex.strings().get(newMethodId.getNameIndex());
             if (!oldMethodName.equals(newMethodName)) {
                 return true;
             }
 
-            ProtoId oldProtoId = oldDex.protoIds().get(oldMethodId.protoIndex);
-            ProtoId newProtoId = newDex.protoIds().get(newMethodId.protoIndex);
+            ProtoIdCursor oldProtoId = moveOldProtoIdCursor(oldDex, oldMethodId.getProtoIndex());
+            ProtoIdCursor newProtoId = moveNewProtoIdCursor(newDex, newMethodId.getProtoIndex());
 
-            String oldMethodShorty = oldDex.strings().get(oldProtoId.shortyIndex);
-            String newMethodShorty = newDex.strings().get(newProtoId.shortyIndex);
+            String oldMethodShorty = oldDex.strings().get(oldProtoId.getShortyIndex());
+            String newMethodShorty = newDex.strings().get(newProtoId.getShortyIndex());
             if (!oldMethodShorty.equals(newMethodShorty)) {
                 return true;
             }
 
-            String oldMethodReturnTypeName = oldDex.typeNames().get(oldProtoId.returnTypeIndex);
-            String newMethodReturnTypeName = newDex.typeNames().get(newProtoId.returnTypeIndex);
+            String oldMethodReturnTypeName = oldDex.typeNames().get(oldProtoId.getReturnTypeIndex());
+            String newMethodReturnTypeName = newDex.typeNames().get(newProtoId.getReturnTypeIndex());
             if (!oldMethodReturnTypeName.equals(newMethodReturnTypeName)) {
                 return true;
             }
 
-            short[] oldParameterIds = oldDex.parameterTypeIndicesFromMethodId(oldMethodId);
-            short[] newParameterIds = newDex.parameterTypeIndicesFromMethodId(newMethodId);
-            if (isTypeIdsChangeAffectedToReferrer(
-                    oldDex, newDex, oldParameterIds, newParameterIds, true
-            )) {
+            if (!isSameParameterTypes(oldDex, newDex, oldProtoId, newProtoId)) {
                 return true;
             }
         }
@@ -729,88 +731,76 @@ public final class DexClassesComparator {
     }
 
     private boolean isSameFieldId(Dex oldDex, Dex newDex, int oldFieldIdIdx, int newFieldIdIdx) {
-        FieldId oldFieldId = oldDex.fieldIds().get(oldFieldIdIdx);
-        FieldId newFieldId = newDex.fieldIds().get(newFieldIdIdx);
+        FieldIdCursor oldFieldId = moveOldFieldIdCursor(oldDex, oldFieldIdIdx);
+        FieldIdCursor newFieldId = moveNewFieldIdCursor(newDex, newFieldIdIdx);
 
         if (!isSameClassDesc(
-                oldDex, newDex, oldFieldId.declaringClassIndex, newFieldId.declaringClassIndex
+                oldDex, newDex, oldFieldId.getDeclaringClassIndex(), newFieldId.getDeclaringClassIndex()
         )) {
             return false;
         }
 
         if (!isSameClassDesc(
-                oldDex, newDex, oldFieldId.typeIndex, newFieldId.typeIndex
+                oldDex, newDex, oldFieldId.getTypeIndex(), newFieldId.getTypeIndex()
         )) {
             return false;
         }
 
-        String oldName = oldDex.strings().get(oldFieldId.nameIndex);
-        String newName = newDex.strings().get(newFieldId.nameIndex);
+        String oldName = oldDex.strings().get(oldFieldId.getNameIndex());
+        String newName = newDex.strings().get(newFieldId.getNameIndex());
         return oldName.equals(newName);
     }
 
     private boolean isSameMethodId(Dex oldDex, Dex newDex, int oldMethodIdIdx, int newMethodIdIdx) {
-        MethodId oldMethodId = oldDex.methodIds().get(oldMethodIdIdx);
-        MethodId newMethodId = newDex.methodIds().get(newMethodIdIdx);
+        MethodIdCursor oldMethodId = moveOldMethodIdCursor(oldDex, oldMethodIdIdx);
+        MethodIdCursor newMethodId = moveNewMethodIdCursor(newDex, newMethodIdIdx);
 
         if (!isSameClassDesc(
-                oldDex, newDex, oldMethodId.declaringClassIndex, newMethodId.declaringClassIndex
+                oldDex, newDex, oldMethodId.getDeclaringClassIndex(), newMethodId.getDeclaringClassIndex()
         )) {
             return false;
         }
 
-        if (!isSameProtoId(oldDex, newDex, oldMethodId.protoIndex, newMethodId.protoIndex)) {
+        String oldName = oldDex.strings().get(oldMethodId.getNameIndex());
+        String newName = newDex.strings().get(newMethodId.getNameIndex());
+        if (!oldName.equals(newName)) {
             return false;
         }
 
-        String oldName = oldDex.strings().get(oldMethodId.nameIndex);
-        String newName = newDex.strings().get(newMethodId.nameIndex);
-        return oldName.equals(newName);
+        return isSameProtoId(oldDex, newDex, oldMethodId.getProtoIndex(), newMethodId.getProtoIndex());
     }
 
     private boolean isSameProtoId(Dex oldDex, Dex newDex, int oldProtoIdIdx, int newProtoIdIdx) {
-        ProtoId oldProtoId = oldDex.protoIds().get(oldProtoIdIdx);
-        ProtoId newProtoId = newDex.protoIds().get(newProtoIdIdx);
+        ProtoIdCursor oldProtoId = moveOldProtoIdCursor(oldDex, oldProtoIdIdx);
+        ProtoIdCursor newProtoId = moveNewProtoIdCursor(newDex, newProtoIdIdx);
 
-        String oldShorty = oldDex.strings().get(oldProtoId.shortyIndex);
-        String newShorty = newDex.strings().get(newProtoId.shortyIndex);
+        String oldShorty = oldDex.strings().get(oldProtoId.getShortyIndex());
+        String newShorty = newDex.strings().get(newProtoId.getShortyIndex());
 
         if (!oldShorty.equals(newShorty)) {
             return false;
         }
 
         if (!isSameClassDesc(
-                oldDex, newDex, oldProtoId.returnTypeIndex, newProtoId.returnTypeIndex
+                oldDex, newDex, oldProtoId.getReturnTypeIndex(), newProtoId.getReturnTypeIndex()
         )) {
             return false;
         }
 
-        return isSameParameters(
-                oldDex, newDex, oldProtoId.parametersOffset, newProtoId.parametersOffset
-        );
+        return isSameParameterTypes(oldDex, newDex, oldProtoId, newProtoId);
     }
 
-    private boolean isSameParameters(
-            Dex oldDex, Dex newDex, int oldParametersOffset, int newParametersOffset
+    private boolean isSameParameterTypes(
+            Dex oldDex, Dex newDex, ProtoIdCursor oldProtoId, ProtoIdCursor newProtoId
     ) {
-        if (oldParametersOffset == 0 && newParametersOffset == 0) {
-            return true;
-        }
-
-        if (oldParametersOffset == 0 || newParametersOffset == 0) {
+        int parameterCount = oldProtoId.getParameterCount();
+        if (parameterCount != newProtoId.getParameterCount()) {
             return false;
         }
 
-        TypeList oldParameters = oldDex.openSection(oldParametersOffset).readTypeList();
-        TypeList newParameters = newDex.openSection(newParametersOffset).readTypeList();
-
-        if (oldParameters.types.length != newParameters.types.length) {
-            return false;
-        }
-
-        for (int i = 0; i < oldParameters.types.length; ++i) {
+        for (int i = 0; i < parameterCount; ++i) {
             if (!isSameClassDesc(
-                    oldDex, newDex, oldParameters.types[i], newParameters.types[i]
+                    oldDex, newDex, oldProtoId.getParameterTypeIndex(i), newProtoId.getParameterTypeIndex(i)
             )) {
                 return false;
             }
@@ -819,6 +809,36 @@ public final class DexClassesComparator {
         return true;
     }
 
+    private FieldIdCursor moveOldFieldIdCursor(Dex dex, int index) {
+        oldFieldIdCursor = (oldFieldIdCursor != null ? oldFieldIdCursor.reset(dex) : new FieldIdCursor(dex));
+        return oldFieldIdCursor.moveTo(index);
+    }
+
+    private FieldIdCursor moveNewFieldIdCursor(Dex dex, int index) {
+        newFieldIdCursor = (newFieldIdCursor != null ? newFieldIdCursor.reset(dex) : new FieldIdCursor(dex));
+        return newFieldIdCursor.moveTo(index);
+    }
+
+    private MethodIdCursor moveOldMethodIdCursor(Dex dex, int index) {
+        oldMethodIdCursor = (oldMethodIdCursor != null ? oldMethodIdCursor.reset(dex) : new MethodIdCursor(dex));
+        return oldMethodIdCursor.moveTo(index);
+    }
+
+    private MethodIdCursor moveNewMethodIdCursor(Dex dex, int index) {
+        newMethodIdCursor = (newMethodIdCursor != null ? newMethodIdCursor.reset(dex) : new MethodIdCursor(dex));
+        return newMethodIdCursor.moveTo(index);
+    }
+
+    private ProtoIdCursor moveOldProtoIdCursor(Dex dex, int index) {
+        oldProtoIdCursor = (oldProtoIdCursor != null ? oldProtoIdCursor.reset(dex) : new ProtoIdCursor(dex));
+        return oldProtoIdCursor.moveTo(index);
+    }
+
+    private ProtoIdCursor moveNewProtoIdCursor(Dex dex, int index) {
+        newProtoIdCursor = (newProtoIdCursor != null ? newProtoIdCursor.reset(dex) : new ProtoIdCursor(dex));
+        return newProtoIdCursor.moveTo(index);
+    }
+
     private boolean isSameAnnotationSetRefList(
             Dex oldDex,
             Dex newDex,
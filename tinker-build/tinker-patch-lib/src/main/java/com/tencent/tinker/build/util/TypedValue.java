@@ -34,6 +34,7 @@ public class TypedValue {
     public static final String DEX_LOG_FILE       = "dex_log.txt";
     public static final String DEX_META_FILE      = "dex_meta.txt";
     public static final String DEX_TEMP_PATCH_DIR = "tempPatchedDexes";
+    public static final String DEX_SECTION_METRICS_FILE = "dex_section_metrics.csv";
     public static final String RES_LOG_FILE       = "res_log.txt";
     public static final String RES_META_TXT       = "res_meta.txt";
 
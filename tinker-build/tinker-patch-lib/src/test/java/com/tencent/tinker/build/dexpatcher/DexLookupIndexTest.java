@@ -0,0 +1,199 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.build.dexpatcher;
+
+import com.tencent.tinker.android.dex.Dex;
+import com.tencent.tinker.android.dex.FieldId;
+import com.tencent.tinker.android.dex.MethodId;
+import com.tencent.tinker.android.dex.ProtoId;
+import com.tencent.tinker.android.dex.SizeOf;
+import com.tencent.tinker.android.dex.TableOfContents;
+
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableField;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction35c;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DexLookupIndexTest {
+    private static final String[] TYPES = {"I", "J", "Z", "Ljava/lang/String;", "Ljava/lang/Object;", "[I"};
+
+    @Test
+    public void indexMatchesSearch() throws IOException {
+        byte[] data = generateDex(800);
+        Dex indexed = new Dex(data);
+        indexed.setLookupIndexEnabled(true);
+        assertTrue(indexed.isLookupIndexEnabled());
+        Dex plain = new Dex(data);
+        assertFalse(plain.isLookupIndexEnabled());
+
+        assertLookupsMatch(plain, indexed);
+    }
+
+    @Test
+    public void indexFollowsSectionWrites() throws IOException {
+        Dex indexed = new Dex(generateDex(300));
+        indexed.setLookupIndexEnabled(true);
+        TableOfContents toc = indexed.getTableOfContents();
+        // build every table before the writes
+        assertLookupsMatch(new Dex(indexed.getBytes()), indexed);
+
+        // point a class def to a type without one, so both types change their answer
+        int javaLangObject = indexed.typeNames().indexOf("Ljava/lang/Object;");
+        int classDefType = indexed.classDefs().get(7).typeIndex;
+        assertEquals(-1, indexed.findClassDefIndexFromTypeIndex(javaLangObject));
+        indexed.openSection(toc.classDefs.off + SizeOf.CLASS_DEF_ITEM * 7).writeInt(javaLangObject);
+        assertEquals(7, indexed.findClassDefIndexFromTypeIndex(javaLangObject));
+        assertEquals(-1, indexed.findClassDefIndexFromTypeIndex(classDefType));
+
+        // change the return type of a proto, the old proto must miss and the new one be found
+        ProtoId oldProto = indexed.protoIds().get(3);
+        int returnTypeIndex = (oldProto.returnTypeIndex + 1) % toc.typeIds.size;
+        indexed.openSection(toc.protoIds.off + SizeOf.PROTO_ID_ITEM * 3 + SizeOf.UINT).writeInt(returnTypeIndex);
+        ProtoId newProto = new ProtoId(0, oldProto.shortyIndex, returnTypeIndex, oldProto.parametersOffset);
+        assertEquals(3, indexed.findProtoIndex(newProto));
+
+        // change the type of a field, names are unique per class, so the ids stay sorted
+        FieldId oldField = indexed.fieldIds().get(5);
+        int typeIndex = (oldField.typeIndex + 1) % toc.typeIds.size;
+        indexed.openSection(toc.fieldIds.off + SizeOf.MEMBER_ID_ITEM * 5 + SizeOf.USHORT).writeUnsignedShort(typeIndex);
+        assertEquals(5, indexed.findFieldIndex(new FieldId(0, oldField.declaringClassIndex, typeIndex, oldField.nameIndex)));
+
+        assertLookupsMatch(new Dex(indexed.getBytes()), indexed);
+        assertTrue(indexed.findProtoIndex(oldProto) != 3);
+        assertTrue(indexed.findFieldIndex(oldField) < 0);
+    }
+
+    private static void assertLookupsMatch(Dex plain, Dex indexed) {
+        int typeCount = plain.getTableOfContents().typeIds.size;
+        int classDefHits = 0;
+        for (int typeIndex = 0; typeIndex < typeCount; typeIndex++) {
+            int expected = plain.findClassDefIndexFromTypeIndex(typeIndex);
+            assertEquals("type " + typeIndex, expected, indexed.findClassDefIndexFromTypeIndex(typeIndex));
+            if (expected >= 0) {
+                assertEquals(typeIndex, plain.classDefs().get(expected).typeIndex);
+                classDefHits++;
+            }
+        }
+        assertEquals(plain.getTableOfContents().classDefs.size, classDefHits);
+
+        List<FieldId> fieldIds = plain.fieldIds();
+        for (int i = 0; i < fieldIds.size(); i++) {
+            FieldId fieldId = fieldIds.get(i);
+            assertEquals(i, plain.findFieldIndex(fieldId));
+            assertEquals(i, indexed.findFieldIndex(fieldId));
+            for (FieldId miss : new FieldId[]{
+                new FieldId(0, fieldId.declaringClassIndex, fieldId.typeIndex, fieldId.nameIndex + 1),
+                new FieldId(0, fieldId.declaringClassIndex, fieldId.typeIndex + 1, fieldId.nameIndex),
+                new FieldId(0, fieldId.declaringClassIndex + 1, fieldId.typeIndex, fieldId.nameIndex - 1)}) {
+                assertEquals(plain.findFieldIndex(miss), indexed.findFieldIndex(miss));
+            }
+        }
+        FieldId beyond = new FieldId(0, typeCount, 0, 0);
+        assertEquals(-(fieldIds.size() + 1), indexed.findFieldIndex(beyond));
+
+        List<MethodId> methodIds = plain.methodIds();
+        for (int i = 0; i < methodIds.size(); i++) {
+            MethodId methodId = methodIds.get(i);
+            assertEquals(i, plain.findMethodIndex(methodId));
+            assertEquals(i, indexed.findMethodIndex(methodId));
+            for (MethodId miss : new MethodId[]{
+                new MethodId(0, methodId.declaringClassIndex, methodId.protoIndex, methodId.nameIndex + 1),
+                new MethodId(0, methodId.declaringClassIndex, methodId.protoIndex + 1, methodId.nameIndex),
+                new MethodId(0, methodId.declaringClassIndex + 1, methodId.protoIndex, methodId.nameIndex - 1)}) {
+                assertEquals(plain.findMethodIndex(miss), indexed.findMethodIndex(miss));
+            }
+        }
+        MethodId before = new MethodId(0, 0, 0, -1);
+        assertEquals(plain.findMethodIndex(before), indexed.findMethodIndex(before));
+
+        List<ProtoId> protoIds = plain.protoIds();
+        assertTrue(protoIds.size() > 10);
+        for (int i = 0; i < protoIds.size(); i++) {
+            ProtoId protoId = protoIds.get(i);
+            assertEquals(i, plain.findProtoIndex(protoId));
+            assertEquals(i, indexed.findProtoIndex(protoId));
+            ProtoId miss = new ProtoId(0, protoId.shortyIndex, protoId.returnTypeIndex, protoId.parametersOffset + 4);
+            assertEquals(plain.findProtoIndex(miss), indexed.findProtoIndex(miss));
+        }
+    }
+
+    /**
+     * Classes with fields of several types and methods of several prototypes, which call
+     * methods of other and of framework classes, so there are ids without class defs.
+     */
+    private static byte[] generateDex(int classCount) throws IOException {
+        Random random = new Random(7);
+        final int staticPublic = AccessFlags.STATIC.getValue() | AccessFlags.PUBLIC.getValue();
+        List<ImmutableClassDef> classDefs = new ArrayList<>(classCount);
+        for (int c = 0; c < classCount; c++) {
+            String type = "Lcom/example/lookup" + (c % 13) + "/Class" + c + ";";
+            List<ImmutableField> fields = new ArrayList<>();
+            for (int f = 0; f < 1 + random.nextInt(4); f++) {
+                fields.add(new ImmutableField(type, "field" + f, TYPES[random.nextInt(TYPES.length)], staticPublic, null, null));
+            }
+            List<ImmutableMethod> methods = new ArrayList<>();
+            for (int m = 0; m < 1 + random.nextInt(4); m++) {
+                List<ImmutableMethodParameter> parameters = new ArrayList<>();
+                for (int p = random.nextInt(3); p > 0; p--) {
+                    parameters.add(new ImmutableMethodParameter(TYPES[random.nextInt(3) * 2], null, null));
+                }
+                List<ImmutableInstruction> instructions = new ArrayList<>();
+                String callee = random.nextBoolean() ? "Ljava/lang/Object;" : "Lcom/example/lookup0/Class" + random.nextInt(classCount) + ";";
+                instructions.add(new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 0, 0, 0, 0, 0, 0,
+                    new ImmutableMethodReference(callee, "call" + random.nextInt(50), Collections.<String>emptyList(), "V")));
+                instructions.add(new ImmutableInstruction10x(Opcode.RETURN_VOID));
+                int registerCount = 0;
+                for (ImmutableMethodParameter parameter : parameters) {
+                    registerCount += "J".equals(parameter.getType()) ? 2 : 1;
+                }
+                methods.add(new ImmutableMethod(type, "method" + m, parameters, "V", staticPublic, null,
+                    new ImmutableMethodImplementation(registerCount, instructions, null, null)));
+            }
+            classDefs.add(new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null,
+                null, null, fields, methods));
+        }
+        MemoryDataStore dataStore = new MemoryDataStore();
+        DexPool.writeTo(dataStore, new ImmutableDexFile(Opcodes.forApi(19), classDefs));
+        byte[] data = dataStore.getData();
+        int fileSize = (data[32] & 0xff) | ((data[33] & 0xff) << 8) | ((data[34] & 0xff) << 16) | ((data[35] & 0xff) << 24);
+        return Arrays.copyOf(data, fileSize);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.tencent.tinker.build.dexpatcher;
+
+import com.tencent.tinker.android.dex.Dex;
+import com.tencent.tinker.commons.dexpatcher.DexPatchApplier;
+
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableField;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.debug.ImmutableDebugItem;
+import org.jf.dexlib2.immutable.debug.ImmutableLineNumber;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction21c;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction35c;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.reference.ImmutableStringReference;
+import org.jf.dexlib2.immutable.value.ImmutableIntEncodedValue;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DexPatchApplierTest {
+    private static final int CLASS_COUNT = 1500;
+
+    private static final int ORIGINAL       = 0;
+    /**
+     * changes, removes and adds classes, so string and type ids shift
+     */
+    private static final int CHANGED_CLASSES = 1;
+    /**
+     * only changes static values, so the raw copy of every eligible section is allowed
+     */
+    private static final int CHANGED_VALUES = 2;
+
+    @Test
+    public void rawCopyDoesNotChangePatchedDex() throws Exception {
+        byte[] oldDex = generateDex(CLASS_COUNT, ORIGINAL);
+        for (int variant : new int[]{CHANGED_CLASSES, CHANGED_VALUES}) {
+            byte[] newDex = generateDex(CLASS_COUNT, variant);
+            byte[] patch = diff(oldDex, newDex);
+            byte[] rawCopied = patch(oldDex, patch, true, 1);
+            byte[] decoded = patch(oldDex, patch, false, 1);
+            assertArrayEquals("variant " + variant, decoded, rawCopied);
+            assertEquals(new Dex(newDex).getTableOfContents().classDefs.size,
+                new Dex(rawCopied).getTableOfContents().classDefs.size);
+        }
+    }
+
+    @Test
+    public void sectionThreadsDoNotChangePatchedDex() throws Exception {
+        byte[] oldDex = generateDex(CLASS_COUNT, ORIGINAL);
+        for (int variant : new int[]{CHANGED_CLASSES, CHANGED_VALUES}) {
+            byte[] patch = diff(oldDex, generateDex(CLASS_COUNT, variant));
+            byte[] expected = patch(oldDex, patch, true, 1);
+            for (int threadCount : new int[]{2, 4, 8}) {
+                assertArrayEquals("variant " + variant + ", threads " + threadCount, expected,
+                    patch(oldDex, patch, true, threadCount));
+            }
+        }
+    }
+
+    @Test
+    public void lowMemoryModeMatchesHeapModeAndCleansUp() throws Exception {
+        byte[] oldDex = generateDex(CLASS_COUNT, ORIGINAL);
+        byte[] patch = diff(oldDex, generateDex(CLASS_COUNT, CHANGED_CLASSES));
+        byte[] expected = patch(oldDex, patch, true, 1);
+
+        File workDir = createWorkDir();
+        try {
+            // a budget of one byte forces the mapped files
+            DexPatchApplier streamApplier = new DexPatchApplier(new ByteArrayInputStream(oldDex), new ByteArrayInputStream(patch), 1, workDir);
+            assertTrue(streamApplier.isLowMemoryMode());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            streamApplier.executeAndSaveTo(out);
+            assertArrayEquals(expected, out.toByteArray());
+            assertEquals(0, workDir.list().length);
+
+            File patchedDexFile = new File(workDir, "patched.dex");
+            DexPatchApplier fileApplier = new DexPatchApplier(new ByteArrayInputStream(oldDex), new ByteArrayInputStream(patch), 1, workDir);
+            fileApplier.executeAndSaveTo(patchedDexFile);
+            assertArrayEquals(expected, Files.readAllBytes(patchedDexFile.toPath()));
+            assertArrayEquals(new String[]{patchedDexFile.getName()}, workDir.list());
+        } finally {
+            for (File file : workDir.listFiles()) {
+                file.delete();
+            }
+            workDir.delete();
+        }
+    }
+
+    private static File createWorkDir() throws IOException {
+        File workDir = File.createTempFile("dexpatch", "");
+        if (!workDir.delete() || !workDir.mkdir()) {
+            throw new IOException("can not create " + workDir);
+        }
+        return workDir;
+    }
+
+    static byte[] diff(byte[] oldDex, byte[] newDex) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DexPatchGenerator(new ByteArrayInputStream(oldDex), new ByteArrayInputStream(newDex)).executeAndSaveTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] patch(byte[] oldDex, byte[] patch, boolean rawCopyEnabled, int sectionThreadCount) throws IOException {
+        DexPatchApplier applier = new DexPatchApplier(new ByteArrayInputStream(oldDex), new ByteArrayInputStream(patch));
+        applier.setRawCopyEnabled(rawCopyEnabled);
+        applier.setSectionThreadCount(sectionThreadCount);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        applier.executeAndSaveTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * A dex of classCount classes with fields, static values, methods calling each other,
+     * string constants and line numbers, written with dexlib2 from a fixed seed.
+     */
+    static byte[] generateDex(int classCount, int variant) throws IOException {
+        Random random = new Random(42);
+        List<ImmutableClassDef> classDefs = new ArrayList<>(classCount);
+        for (int c = 0; c < classCount; c++) {
+            boolean changed = variant != ORIGINAL && random.nextInt(10) == 0;
+            boolean removed = variant == CHANGED_CLASSES && random.nextInt(40) == 0;
+            if (!removed) {
+                classDefs.add(createClass(c, classCount, changed ? variant : ORIGINAL));
+            }
+        }
+        if (variant == CHANGED_CLASSES) {
+            for (int c = classCount; c < classCount + classCount / 20; c++) {
+                classDefs.add(createClass(c, classCount + classCount / 20, ORIGINAL));
+            }
+        }
+        MemoryDataStore dataStore = new MemoryDataStore();
+        DexPool.writeTo(dataStore, new ImmutableDexFile(Opcodes.forApi(19), classDefs));
+        byte[] data = dataStore.getData();
+        int fileSize = (data[32] & 0xff) | ((data[33] & 0xff) << 8) | ((data[34] & 0xff) << 16) | ((data[35] & 0xff) << 24);
+        return Arrays.copyOf(data, fileSize);
+    }
+
+    private static String typeOf(int c) {
+        return "Lcom/example/module" + (c % 17) + "/Class" + c + ";";
+    }
+
+    private static ImmutableClassDef createClass(int c, int classCount, int variant) {
+        final int staticPublic = AccessFlags.STATIC.getValue() | AccessFlags.PUBLIC.getValue();
+        String type = typeOf(c);
+        String callee = typeOf((c + 1) % classCount);
+
+        List<ImmutableField> fields = new ArrayList<>();
+        for (int f = 0; f < 3; f++) {
+            int value = c * 31 + f + (variant == CHANGED_VALUES ? 1000 : 0);
+            fields.add(new ImmutableField(type, "field" + f, "I", staticPublic, new ImmutableIntEncodedValue(value), null));
+        }
+
+        List<ImmutableMethod> methods = new ArrayList<>();
+        for (int m = 0; m < 4; m++) {
+            String constant = "message " + c + " " + m + (variant == CHANGED_CLASSES ? " changed" : "");
+            List<ImmutableInstruction> instructions = new ArrayList<>();
+            instructions.add(new ImmutableInstruction21c(Opcode.CONST_STRING, 0, new ImmutableStringReference(constant)));
+            instructions.add(new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 1, 0, 0, 0, 0, 0,
+                new ImmutableMethodReference(callee, "method" + m, Collections.singletonList("Ljava/lang/String;"), "V")));
+            instructions.add(new ImmutableInstruction10x(Opcode.RETURN_VOID));
+            List<ImmutableDebugItem> debugItems = new ArrayList<>();
+            debugItems.add(new ImmutableLineNumber(0, 10 + m));
+            debugItems.add(new ImmutableLineNumber(2, 11 + m));
+            methods.add(new ImmutableMethod(type, "method" + m,
+                Collections.singletonList(new ImmutableMethodParameter("Ljava/lang/String;", null, null)), "V",
+                staticPublic, null, new ImmutableMethodImplementation(2, instructions, null, debugItems)));
+        }
+        return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null,
+            "Class" + c + ".java", null, fields, methods);
+    }
+}
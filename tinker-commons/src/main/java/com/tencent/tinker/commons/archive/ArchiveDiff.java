@@ -0,0 +1,253 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.archive;
+
+import com.tencent.tinker.bsdiff.BSDiff;
+import com.tencent.tinker.bsdiff.BSUtil;
+import com.tencent.tinker.bsdiff.BlockCodec;
+import com.tencent.tinker.bsdiff.SuffixArrayCache;
+import com.tencent.tinker.commons.util.StreamUtil;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipEntry;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipFile;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Archive aware diff, the model of Google's archive-patcher.
+ *
+ * A small change inside a zip file changes most of its compressed bytes, so bsdiff over the raw
+ * files gives a patch close to the whole new file. Here both files are turned into their delta
+ * friendly form first: the deflated entries are inflated in place. The bsdiff patch is built
+ * between these blobs, and the patch records how to deflate the new entries again. Only entries
+ * that zlib reproduces exactly are inflated on the new side, see {@link DeflateDiviner}.
+ *
+ * The patch also carries fingerprints of the local zlib, and by default a plain bsdiff patch
+ * between the raw files, which the device applies when its zlib deflates differently.
+ *
+ * The output is applied by {@link ArchivePatch}.
+ */
+public final class ArchiveDiff {
+    private static final int LOCSIG = 0x04034b50;
+
+    private ArchiveDiff() {
+    }
+
+    /**
+     * Write an archive patch from oldFile to newFile into diffFile.
+     *
+     * @return false if the files are not zip files or no new entry can be recompressed, diffFile is
+     * not touched then and the caller should fall back to plain bsdiff.
+     */
+    public static boolean bsdiff(File oldFile, File newFile, File diffFile, BlockCodec codec, SuffixArrayCache cache) throws IOException {
+        return bsdiff(oldFile, newFile, diffFile, codec, cache, 0, true);
+    }
+
+    public static boolean bsdiff(File oldFile, File newFile, File diffFile, BlockCodec codec, SuffixArrayCache cache,
+                                 long fastDiffThreshold) throws IOException {
+        return bsdiff(oldFile, newFile, diffFile, codec, cache, fastDiffThreshold, true);
+    }
+
+    /**
+     * @param fastDiffThreshold diff the delta friendly blobs with BSDiff.fastdiff if either is at least
+     *                          this many bytes, 0 to always use bsdiff
+     * @param withFallback      also store a plain bsdiff patch for devices whose zlib does not match,
+     *                          without it such devices fail the patch
+     */
+    public static boolean bsdiff(File oldFile, File newFile, File diffFile, BlockCodec codec, SuffixArrayCache cache,
+                                 long fastDiffThreshold, boolean withFallback) throws IOException {
+        if (!isZipFile(oldFile) || !isZipFile(newFile)) {
+            return false;
+        }
+        List<Entry> oldEntries;
+        List<Entry> newEntries;
+        try {
+            oldEntries = readDeflatedEntries(oldFile);
+            newEntries = readDeflatedEntries(newFile);
+        } catch (IOException e) {
+            // broken or unusual zip, leave it to plain bsdiff.
+            return false;
+        }
+        if (newEntries.isEmpty()) {
+            return false;
+        }
+
+        ArchivePatchPlan plan = new ArchivePatchPlan();
+        byte[] newBlob = toDeltaFriendlyBlob(readFile(newFile), newEntries, plan.newRanges, true);
+        // nothing can be recompressed on device, inflating the old side would not help.
+        if (plan.newRanges.isEmpty()) {
+            return false;
+        }
+        plan.addFingerprints();
+        byte[] oldBlob = toDeltaFriendlyBlob(readFile(oldFile), oldEntries, plan.oldRanges, false);
+
+        byte[] diffBytes = diff(oldBlob, newBlob, codec, cache, fastDiffThreshold);
+        byte[] fallbackBytes = withFallback
+            ? diff(readFile(oldFile), readFile(newFile), codec, cache, fastDiffThreshold) : new byte[0];
+        plan.newSize = newFile.length();
+        plan.payloadLength = diffBytes.length;
+        plan.fallbackLength = fallbackBytes.length;
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(diffFile));
+        try {
+            plan.write(out);
+            out.write(diffBytes);
+            out.write(fallbackBytes);
+        } finally {
+            StreamUtil.closeQuietly(out);
+        }
+        return true;
+    }
+
+    private static byte[] diff(byte[] oldBytes, byte[] newBytes, BlockCodec codec, SuffixArrayCache cache,
+                               long fastDiffThreshold) throws IOException {
+        if (BSDiff.preferFastDiff(oldBytes.length, newBytes.length, fastDiffThreshold)) {
+            return BSDiff.fastdiff(oldBytes, oldBytes.length, newBytes, newBytes.length, codec);
+        }
+        return BSDiff.bsdiff(oldBytes, oldBytes.length, newBytes, newBytes.length,
+            BSDiff.getSuffixSortEngine(), BSDiff.getSearchThreadCount(), codec, cache);
+    }
+
+    private static boolean isZipFile(File file) throws IOException {
+        if (file.length() < 4) {
+            return false;
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] head = new byte[4];
+            if (!BSUtil.readFromStream(in, head, 0, head.length)) {
+                return false;
+            }
+            int magic = (head[0] & 0xff) | ((head[1] & 0xff) << 8) | ((head[2] & 0xff) << 16) | ((head[3] & 0xff) << 24);
+            return magic == LOCSIG;
+        } finally {
+            StreamUtil.closeQuietly(in);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[(int) file.length()];
+            if (!BSUtil.readFromStream(in, buf, 0, buf.length)) {
+                throw new IOException("failed to read " + file.getPath());
+            }
+            return buf;
+        } finally {
+            StreamUtil.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Collect the deflated entries in file order.
+     */
+    private static List<Entry> readDeflatedEntries(File file) throws IOException {
+        List<Entry> result = new ArrayList<>();
+        TinkerZipFile zipFile = new TinkerZipFile(file);
+        try {
+            Enumeration<? extends TinkerZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                TinkerZipEntry zipEntry = entries.nextElement();
+                if (zipEntry.getMethod() != TinkerZipEntry.DEFLATED
+                    || zipEntry.getCompressedSize() <= 0 || zipEntry.getSize() < 0
+                    || zipEntry.getSize() > Integer.MAX_VALUE) {
+                    continue;
+                }
+                long offset = zipFile.getEntryDataOffset(zipEntry);
+                if (offset < 0) {
+                    continue;
+                }
+                result.add(new Entry(offset, zipEntry.getCompressedSize(), zipEntry.getSize()));
+            }
+        } finally {
+            StreamUtil.closeQuietly(zipFile);
+        }
+        Collections.sort(result, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.offset < rhs.offset ? -1 : (lhs.offset == rhs.offset ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Replace every usable deflate stream of data with its inflated bytes, and record the ranges
+     * into plan coordinates: file offsets for the old side, blob offsets for the new side. With
+     * divine set, only the streams whose deflate parameters are found are inflated.
+     */
+    private static byte[] toDeltaFriendlyBlob(byte[] data, List<Entry> entries,
+                                              List<ArchivePatchPlan.Range> ranges, boolean divine) {
+        ByteArrayOutputStream blob = new ByteArrayOutputStream(data.length);
+        long end = 0;
+        for (Entry entry : entries) {
+            if (entry.offset < end || entry.offset + entry.length > data.length) {
+                continue;
+            }
+            int offset = (int) entry.offset;
+            int length = (int) entry.length;
+            byte[] inflated;
+            try {
+                inflated = DeflateDiviner.inflate(data, offset, length, (int) entry.size, true);
+            } catch (IOException e) {
+                continue;
+            }
+            int parameters = 0;
+            if (divine) {
+                DeflateParameters deflateParameters = DeflateDiviner.divine(data, offset, length, inflated, true);
+                if (deflateParameters == null) {
+                    continue;
+                }
+                parameters = deflateParameters.toInt();
+            }
+            blob.write(data, (int) end, offset - (int) end);
+            if (divine) {
+                ranges.add(new ArchivePatchPlan.Range(blob.size(), inflated.length, inflated.length, parameters));
+            } else {
+                ranges.add(new ArchivePatchPlan.Range(offset, length, inflated.length, 0));
+            }
+            blob.write(inflated, 0, inflated.length);
+            end = offset + length;
+        }
+        blob.write(data, (int) end, data.length - (int) end);
+        return blob.toByteArray();
+    }
+
+    private static final class Entry {
+        final long offset;
+        final long length;
+        final long size;
+
+        Entry(long offset, long length, long size) {
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.archive;
+
+import com.tencent.tinker.bsdiff.BSPatch;
+import com.tencent.tinker.bsdiff.BSUtil;
+import com.tencent.tinker.commons.util.StreamUtil;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipEntry;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Applies the patches of {@link ArchiveDiff}, plain bsdiff patches are passed to
+ * {@link BSPatch#patchFast(InputStream, InputStream, File)} so callers do not need to know
+ * which kind of patch they got.
+ *
+ * The new entries are deflated with the zlib of the device. Before patching, the fingerprints of
+ * the zlib which built the patch are checked against the local one, see {@link DeflateCompatibility}.
+ * On a mismatch the plain bsdiff fallback stored in the patch is applied instead, without one
+ * {@link DeflateIncompatibleException} is thrown. The callers still verify the md5 of the result.
+ */
+public final class ArchivePatch {
+    private static volatile Listener sListener;
+
+    /**
+     * Notified when the local zlib does not match an archive patch.
+     */
+    public interface Listener {
+        void onDeflateIncompatible(DeflateParameters parameters, boolean hasFallback);
+    }
+
+    private ArchivePatch() {
+    }
+
+    public static void setListener(Listener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * @return {@link BSPatch#RETURN_SUCCESS} on success
+     */
+    public static int patchFast(InputStream oldInputStream, InputStream diffInputStream, File newFile) throws IOException {
+        if (newFile == null) {
+            return BSPatch.RETURN_NEW_FILE_ERR;
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(newFile));
+        try {
+            return patchFast(oldInputStream, diffInputStream, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Same as {@link #patchFast(InputStream, InputStream, File)}, but writes the new file to a stream,
+     * which is not closed.
+     */
+    public static int patchFast(InputStream oldInputStream, InputStream diffInputStream, OutputStream newOutputStream) throws IOException {
+        if (oldInputStream == null) {
+            return BSPatch.RETURN_OLD_FILE_ERR;
+        }
+        if (newOutputStream == null) {
+            return BSPatch.RETURN_NEW_FILE_ERR;
+        }
+        if (diffInputStream == null) {
+            return BSPatch.RETURN_DIFF_FILE_ERR;
+        }
+        InputStream diffIn = diffInputStream.markSupported() ? diffInputStream : new BufferedInputStream(diffInputStream);
+        byte[] head = new byte[ArchivePatchPlan.MAGIC_BYTES.length];
+        diffIn.mark(head.length);
+        boolean isArchivePatch = BSUtil.readFromStream(diffIn, head, 0, head.length) && ArchivePatchPlan.isArchivePatch(head);
+        diffIn.reset();
+        if (!isArchivePatch) {
+            return BSPatch.patchFast(oldInputStream, diffIn, newOutputStream);
+        }
+
+        ArchivePatchPlan plan = ArchivePatchPlan.read(diffIn);
+        boolean useFallback = checkCompatibility(plan);
+        byte[] oldBytes = BSUtil.inputStreamToByte(oldInputStream);
+        if (useFallback) {
+            patchTo(oldBytes, readFallback(diffIn, plan), null, newOutputStream);
+        } else {
+            patchTo(toDeltaFriendlyBlob(oldBytes, plan), readPayload(diffIn, plan), plan, newOutputStream);
+        }
+        return BSPatch.RETURN_SUCCESS;
+    }
+
+    /**
+     * Same as {@link #patchFast(InputStream, InputStream, OutputStream)}, but a plain bsdiff patch is
+     * applied by {@link BSPatch#patchMapped(File, File, WritableByteChannel)}, so the heap used does not
+     * grow with the files, so is the fallback of an archive patch. An archive patch still inflates
+     * the old file on the heap. newOutputStream is not closed.
+     */
+    public static int patchMapped(File oldFile, File diffFile, OutputStream newOutputStream) throws IOException {
+        if (oldFile == null) {
+            return BSPatch.RETURN_OLD_FILE_ERR;
+        }
+        if (newOutputStream == null) {
+            return BSPatch.RETURN_NEW_FILE_ERR;
+        }
+        if (diffFile == null) {
+            return BSPatch.RETURN_DIFF_FILE_ERR;
+        }
+        if (!isArchivePatch(diffFile)) {
+            // the channel is not closed, that would close newOutputStream
+            return BSPatch.patchMapped(oldFile, diffFile, Channels.newChannel(newOutputStream));
+        }
+        ArchivePatchPlan plan;
+        InputStream planIn = new BufferedInputStream(new FileInputStream(diffFile));
+        try {
+            plan = ArchivePatchPlan.read(planIn);
+        } finally {
+            StreamUtil.closeQuietly(planIn);
+        }
+        if (checkCompatibility(plan)) {
+            return patchFallbackMapped(oldFile, diffFile, plan, Channels.newChannel(newOutputStream));
+        }
+        InputStream oldIn = new FileInputStream(oldFile);
+        InputStream diffIn = new BufferedInputStream(new FileInputStream(diffFile));
+        try {
+            return patchFast(oldIn, diffIn, newOutputStream);
+        } finally {
+            StreamUtil.closeQuietly(oldIn);
+            StreamUtil.closeQuietly(diffIn);
+        }
+    }
+
+    private static int patchFallbackMapped(File oldFile, File diffFile, ArchivePatchPlan plan,
+                                           WritableByteChannel newChannel) throws IOException {
+        long fallbackOffset = plan.getByteSize() + plan.payloadLength;
+        RandomAccessFile oldRaf = new RandomAccessFile(oldFile, "r");
+        RandomAccessFile diffRaf = new RandomAccessFile(diffFile, "r");
+        try {
+            if (fallbackOffset + plan.fallbackLength > diffRaf.length()) {
+                throw new IOException("corrupted archive patch, truncated fallback");
+            }
+            ByteBuffer oldBuf = oldRaf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, oldRaf.length());
+            ByteBuffer diffBuf = diffRaf.getChannel().map(FileChannel.MapMode.READ_ONLY, fallbackOffset, plan.fallbackLength);
+            return BSPatch.patchMapped(oldBuf, diffBuf, newChannel);
+        } finally {
+            StreamUtil.closeQuietly(oldRaf);
+            StreamUtil.closeQuietly(diffRaf);
+        }
+    }
+
+    /**
+     * @return whether diffFile is written by {@link ArchiveDiff}, false for a plain bsdiff patch
+     */
+    public static boolean isArchivePatch(File diffFile) throws IOException {
+        InputStream in = new FileInputStream(diffFile);
+        try {
+            byte[] head = new byte[ArchivePatchPlan.MAGIC_BYTES.length];
+            return BSUtil.readFromStream(in, head, 0, head.length) && ArchivePatchPlan.isArchivePatch(head);
+        } finally {
+            StreamUtil.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Patch straight into a new STORED entry of zipOutputStream instead of a temporary file, the
+     * other fields are copied from entry. A STORED entry needs its crc and size before the data,
+     * the crc is expectedCrc and the size is read from the patch, so the patch is applied once.
+     *
+     * zipOutputStream must have entry digests enabled, see
+     * {@link TinkerZipOutputStream#setEntryDigestEnabled(boolean)}: its {@link TinkerZipOutputStream#closeEntry()}
+     * throws if the patched data does not match expectedCrc, and the MD5 is taken from it. The entry
+     * is written in any case, the caller must drop zipOutputStream when this fails.
+     *
+     * @return false if the MD5 of the patched data is not expectedMd5
+     */
+    public static boolean patchFastToZipEntry(InputStream oldInputStream, InputStream diffInputStream, TinkerZipEntry entry,
+                                              long expectedCrc, String expectedMd5, TinkerZipOutputStream zipOutputStream) throws IOException {
+        if (oldInputStream == null || diffInputStream == null || entry == null || expectedMd5 == null || zipOutputStream == null) {
+            throw new IllegalArgumentException("old stream, diff stream, entry, md5 and zip stream must not be null");
+        }
+        InputStream diffIn = diffInputStream.markSupported() ? diffInputStream : new BufferedInputStream(diffInputStream);
+        byte[] head = new byte[ArchivePatchPlan.MAGIC_BYTES.length];
+        diffIn.mark(head.length);
+        boolean isArchivePatch = BSUtil.readFromStream(diffIn, head, 0, head.length) && ArchivePatchPlan.isArchivePatch(head);
+        diffIn.reset();
+
+        ArchivePatchPlan plan = null;
+        byte[] oldBytes;
+        byte[] diffBytes;
+        long newSize;
+        if (isArchivePatch) {
+            plan = ArchivePatchPlan.read(diffIn);
+            newSize = plan.newSize;
+            if (checkCompatibility(plan)) {
+                diffBytes = readFallback(diffIn, plan);
+                oldBytes = BSUtil.inputStreamToByte(oldInputStream);
+                plan = null;
+            } else {
+                diffBytes = readPayload(diffIn, plan);
+                oldBytes = toDeltaFriendlyBlob(BSUtil.inputStreamToByte(oldInputStream), plan);
+            }
+        } else {
+            diffBytes = BSUtil.inputStreamToByte(diffIn);
+            newSize = BSPatch.getNewSize(ByteBuffer.wrap(diffBytes));
+            oldBytes = BSUtil.inputStreamToByte(oldInputStream);
+        }
+
+        TinkerZipEntry newEntry = new TinkerZipEntry(entry);
+        newEntry.setMethod(TinkerZipEntry.STORED);
+        newEntry.setSize(newSize);
+        newEntry.setCompressedSize(newSize);
+        newEntry.setCrc(expectedCrc);
+        zipOutputStream.putNextEntry(newEntry);
+        patchTo(oldBytes, diffBytes, plan, zipOutputStream);
+        zipOutputStream.closeEntry();
+        String md5 = zipOutputStream.getLastEntryMd5();
+        if (md5 == null) {
+            throw new IllegalStateException("entry digests of the zip stream are not enabled");
+        }
+        return expectedMd5.equals(md5);
+    }
+
+    /**
+     * @return true if the fallback of plan must be applied instead of its archive payload
+     * @throws DeflateIncompatibleException if the local zlib does not match and there is no fallback
+     */
+    private static boolean checkCompatibility(ArchivePatchPlan plan) throws DeflateIncompatibleException {
+        DeflateParameters incompatible = plan.findIncompatibleParameters();
+        if (incompatible == null) {
+            return false;
+        }
+        boolean hasFallback = plan.fallbackLength > 0;
+        Listener listener = sListener;
+        if (listener != null) {
+            listener.onDeflateIncompatible(incompatible, hasFallback);
+        }
+        if (!hasFallback) {
+            throw new DeflateIncompatibleException(incompatible);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the archive payload, diffIn is right after the plan.
+     */
+    private static byte[] readPayload(InputStream diffIn, ArchivePatchPlan plan) throws IOException {
+        byte[] payload = new byte[(int) plan.payloadLength];
+        if (!BSUtil.readFromStream(diffIn, payload, 0, payload.length)) {
+            throw new IOException("corrupted archive patch, truncated payload");
+        }
+        return payload;
+    }
+
+    /**
+     * Skips the archive payload and reads the fallback, diffIn is right after the plan.
+     */
+    private static byte[] readFallback(InputStream diffIn, ArchivePatchPlan plan) throws IOException {
+        long remaining = plan.payloadLength;
+        while (remaining > 0) {
+            long skipped = diffIn.skip(remaining);
+            if (skipped <= 0) {
+                if (diffIn.read() < 0) {
+                    throw new IOException("corrupted archive patch, truncated payload");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        byte[] fallback = new byte[(int) plan.fallbackLength];
+        if (!BSUtil.readFromStream(diffIn, fallback, 0, fallback.length)) {
+            throw new IOException("corrupted archive patch, truncated fallback");
+        }
+        return fallback;
+    }
+
+    /**
+     * Streams the patched data to out, which is not closed. plan is null for a plain bsdiff patch.
+     */
+    private static void patchTo(byte[] oldBytes, byte[] diffBytes, ArchivePatchPlan plan, OutputStream out) throws IOException {
+        RecompressingOutputStream recompressOut = plan == null ? null : new RecompressingOutputStream(out, plan.newRanges);
+        try {
+            // the channel is not closed, that would close out
+            WritableByteChannel channel = Channels.newChannel(recompressOut == null ? out : recompressOut);
+            int result = BSPatch.patchMapped(ByteBuffer.wrap(oldBytes), ByteBuffer.wrap(diffBytes), channel);
+            if (result != BSPatch.RETURN_SUCCESS) {
+                throw new IOException("corrupted patch, patch result: " + result);
+            }
+            if (recompressOut != null) {
+                recompressOut.finish();
+            }
+        } finally {
+            if (recompressOut != null) {
+                recompressOut.end();
+            }
+        }
+    }
+
+    private static byte[] toDeltaFriendlyBlob(byte[] data, ArchivePatchPlan plan) throws IOException {
+        long expectedSize = data.length;
+        for (ArchivePatchPlan.Range range : plan.oldRanges) {
+            if (range.offset + range.length > data.length) {
+                throw new IOException("corrupted archive patch, old range out of bounds: " + range.offset);
+            }
+            expectedSize += range.size - range.length;
+        }
+        if (expectedSize > Integer.MAX_VALUE) {
+            throw new IOException("old file is too large to inflate: " + expectedSize);
+        }
+        ByteArrayOutputStream blob = new ByteArrayOutputStream((int) expectedSize);
+        int end = 0;
+        for (ArchivePatchPlan.Range range : plan.oldRanges) {
+            int offset = (int) range.offset;
+            blob.write(data, end, offset - end);
+            byte[] inflated = DeflateDiviner.inflate(data, offset, (int) range.length, (int) range.size, true);
+            blob.write(inflated, 0, inflated.length);
+            end = offset + (int) range.length;
+        }
+        blob.write(data, end, data.length - end);
+        return blob.toByteArray();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.archive;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Head of an archive patch, it tells how to turn the old file into its delta friendly form and
+ * how to turn the patched delta friendly blob back into the new file.
+ *
+ * Offset 0, length 8 bytes: file magic "TinkerAP"
+ * Offset 8, length 4 bytes: version
+ * Then: old range count, followed by (offset, length, inflated size) of every deflate stream in
+ * the old file which is inflated in place before patching
+ * Then: new range count, followed by (offset, length, parameters) of every uncompressed range in
+ * the patched blob which is deflated with {@link DeflateParameters#fromInt(int)} afterwards
+ * Then: fingerprint count, followed by (parameters, crc, length) of the deflated sample of
+ * {@link DeflateCompatibility} for every parameter set of the new ranges
+ * Then: size of the new file, length of the archive payload and length of the fallback, 0 if none
+ * Then: the archive payload, a bsdiff patch from the old blob to the new blob
+ * Rest of the file: the fallback, a plain bsdiff patch from the old file to the new file, applied
+ * when the local zlib does not match the fingerprints
+ */
+final class ArchivePatchPlan {
+    static final byte[] MAGIC_BYTES = new byte[]{0x54, 0x69, 0x6E,
+        0x6B, 0x65, 0x72, 0x41, 0x50};
+
+    static final int VERSION = 2;
+
+    final List<Range> oldRanges = new ArrayList<>();
+    final List<Range> newRanges = new ArrayList<>();
+    final List<DeflateCompatibility.Fingerprint> fingerprints = new ArrayList<>();
+
+    long newSize;
+    long payloadLength;
+    long fallbackLength;
+
+    static final class Range {
+        final long offset;
+        final long length;
+        /**
+         * inflated size of an old range
+         */
+        final long size;
+        /**
+         * deflate parameters of a new range
+         */
+        final int  parameters;
+
+        Range(long offset, long length, long size, int parameters) {
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+            this.parameters = parameters;
+        }
+    }
+
+    static boolean isArchivePatch(byte[] head) {
+        return head.length >= MAGIC_BYTES.length
+            && Arrays.equals(Arrays.copyOf(head, MAGIC_BYTES.length), MAGIC_BYTES);
+    }
+
+    void write(OutputStream out) throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.write(MAGIC_BYTES);
+        dataOut.writeInt(VERSION);
+        dataOut.writeInt(oldRanges.size());
+        for (Range range : oldRanges) {
+            dataOut.writeLong(range.offset);
+            dataOut.writeLong(range.length);
+            dataOut.writeLong(range.size);
+        }
+        dataOut.writeInt(newRanges.size());
+        for (Range range : newRanges) {
+            dataOut.writeLong(range.offset);
+            dataOut.writeLong(range.length);
+            dataOut.writeInt(range.parameters);
+        }
+        dataOut.writeInt(fingerprints.size());
+        for (DeflateCompatibility.Fingerprint fingerprint : fingerprints) {
+            dataOut.writeInt(fingerprint.parameters);
+            dataOut.writeLong(fingerprint.crc);
+            dataOut.writeInt(fingerprint.length);
+        }
+        dataOut.writeLong(newSize);
+        dataOut.writeLong(payloadLength);
+        dataOut.writeLong(fallbackLength);
+        dataOut.flush();
+    }
+
+    static ArchivePatchPlan read(InputStream in) throws IOException {
+        DataInputStream dataIn = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC_BYTES.length];
+        dataIn.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC_BYTES)) {
+            throw new IOException("not an archive patch");
+        }
+        int version = dataIn.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported archive patch version: " + version);
+        }
+        ArchivePatchPlan plan = new ArchivePatchPlan();
+        readRanges(dataIn, plan.oldRanges, false);
+        readRanges(dataIn, plan.newRanges, true);
+        readFingerprints(dataIn, plan);
+        plan.newSize = dataIn.readLong();
+        plan.payloadLength = dataIn.readLong();
+        plan.fallbackLength = dataIn.readLong();
+        if (plan.newSize < 0 || plan.payloadLength <= 0 || plan.payloadLength > Integer.MAX_VALUE
+            || plan.fallbackLength < 0 || plan.fallbackLength > Integer.MAX_VALUE) {
+            throw new IOException("corrupted archive patch, lengths: " + plan.newSize + ", "
+                + plan.payloadLength + ", " + plan.fallbackLength);
+        }
+        return plan;
+    }
+
+    /**
+     * @return the number of bytes {@link #write(OutputStream)} writes, the offset of the archive payload
+     */
+    long getByteSize() {
+        return MAGIC_BYTES.length + 4 + 4 + oldRanges.size() * 24L + 4 + newRanges.size() * 20L
+            + 4 + fingerprints.size() * 16L + 24;
+    }
+
+    /**
+     * Fingerprints of the zlib which built the patch for every parameter set it recompresses with.
+     */
+    void addFingerprints() {
+        for (Range range : newRanges) {
+            if (findFingerprint(range.parameters) == null) {
+                fingerprints.add(DeflateCompatibility.fingerprint(range.parameters));
+            }
+        }
+    }
+
+    /**
+     * @return the parameters whose fingerprint the local zlib does not match, null if it matches all of them
+     */
+    DeflateParameters findIncompatibleParameters() {
+        for (DeflateCompatibility.Fingerprint fingerprint : fingerprints) {
+            if (!DeflateCompatibility.fingerprint(fingerprint.parameters).matches(fingerprint)) {
+                return DeflateParameters.fromInt(fingerprint.parameters);
+            }
+        }
+        return null;
+    }
+
+    private DeflateCompatibility.Fingerprint findFingerprint(int parameters) {
+        for (DeflateCompatibility.Fingerprint fingerprint : fingerprints) {
+            if (fingerprint.parameters == parameters) {
+                return fingerprint;
+            }
+        }
+        return null;
+    }
+
+    private static void readFingerprints(DataInputStream dataIn, ArchivePatchPlan plan) throws IOException {
+        int count = dataIn.readInt();
+        if (count < 0) {
+            throw new IOException("corrupted archive patch, fingerprint count: " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            int parameters = dataIn.readInt();
+            long crc = dataIn.readLong();
+            int length = dataIn.readInt();
+            try {
+                DeflateParameters.fromInt(parameters);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupted archive patch, deflate parameters: " + parameters);
+            }
+            if (plan.findFingerprint(parameters) != null || length <= 0) {
+                throw new IOException("corrupted archive patch, fingerprint: " + parameters);
+            }
+            plan.fingerprints.add(new DeflateCompatibility.Fingerprint(parameters, crc, length));
+        }
+        // every range must be covered, or the check would pass blindly.
+        for (Range range : plan.newRanges) {
+            if (plan.findFingerprint(range.parameters) == null) {
+                throw new IOException("corrupted archive patch, no fingerprint for: " + range.parameters);
+            }
+        }
+    }
+
+    private static void readRanges(DataInputStream dataIn, List<Range> ranges, boolean hasParameters) throws IOException {
+        int count = dataIn.readInt();
+        if (count < 0) {
+            throw new IOException("corrupted archive patch, range count: " + count);
+        }
+        long end = 0;
+        for (int i = 0; i < count; i++) {
+            long offset = dataIn.readLong();
+            long length = dataIn.readLong();
+            long size = hasParameters ? length : dataIn.readLong();
+            int parameters = hasParameters ? dataIn.readInt() : 0;
+            // ranges must be sorted and must not overlap.
+            if (offset < end || length < 0 || length > Integer.MAX_VALUE || size < 0 || size > Integer.MAX_VALUE) {
+                throw new IOException("corrupted archive patch, range: " + offset + ", " + length);
+            }
+            end = offset + length;
+            ranges.add(new Range(offset, length, size, parameters));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.archive;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Tells whether the zlib at hand deflates like the one which built a patch, the way
+ * archive-patcher checks its deflate compatibility window.
+ *
+ * A fixed sample is deflated with every parameter set an archive patch recompresses with, the
+ * crc and length of the output are recorded in the patch at build time and compared on device.
+ * zlib forks and versions which compress differently are caught before any patching starts.
+ */
+final class DeflateCompatibility {
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    private static final byte[] SAMPLE = createSample();
+
+    private static final Map<Integer, Fingerprint> FINGERPRINTS = new HashMap<>();
+
+    private DeflateCompatibility() {
+    }
+
+    static final class Fingerprint {
+        final int  parameters;
+        final long crc;
+        final int  length;
+
+        Fingerprint(int parameters, long crc, int length) {
+            this.parameters = parameters;
+            this.crc = crc;
+            this.length = length;
+        }
+
+        boolean matches(Fingerprint other) {
+            return parameters == other.parameters && crc == other.crc && length == other.length;
+        }
+    }
+
+    /**
+     * @return the fingerprint of the local zlib for the parameters packed by {@link DeflateParameters#toInt()}
+     */
+    static Fingerprint fingerprint(int parameters) {
+        synchronized (FINGERPRINTS) {
+            Fingerprint fingerprint = FINGERPRINTS.get(parameters);
+            if (fingerprint == null) {
+                fingerprint = computeFingerprint(parameters);
+                FINGERPRINTS.put(parameters, fingerprint);
+            }
+            return fingerprint;
+        }
+    }
+
+    private static Fingerprint computeFingerprint(int parameters) {
+        Deflater deflater = DeflateParameters.fromInt(parameters).newDeflater();
+        try {
+            deflater.setInput(SAMPLE);
+            deflater.finish();
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[16384];
+            int length = 0;
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                crc.update(buffer, 0, count);
+                length += count;
+            }
+            return new Fingerprint(parameters, crc.getValue(), length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Text like runs from a small vocabulary mixed with noise, so matches of every distance and
+     * both literal and length codes take part. java.util.Random is fully specified, the sample is
+     * the same on every VM.
+     */
+    private static byte[] createSample() {
+        Random random = new Random(0x54696E6B);
+        String[] words = new String[256];
+        for (int i = 0; i < words.length; i++) {
+            char[] chars = new char[2 + random.nextInt(10)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) ('a' + random.nextInt(26));
+            }
+            words[i] = new String(chars);
+        }
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int pos = 0;
+        while (pos < sample.length) {
+            if (random.nextInt(16) == 0) {
+                int count = Math.min(sample.length - pos, random.nextInt(64));
+                for (int i = 0; i < count; i++) {
+                    sample[pos++] = (byte) random.nextInt(256);
+                }
+            } else {
+                String word = words[(int) Math.abs(random.nextGaussian() * 40) % words.length];
+                for (int i = 0; i < word.length() && pos < sample.length; i++) {
+                    sample[pos++] = (byte) word.charAt(i);
+                }
+                if (pos < sample.length) {
+                    sample[pos++] = ' ';
+                }
+            }
+        }
+        return sample;
+    }
+}
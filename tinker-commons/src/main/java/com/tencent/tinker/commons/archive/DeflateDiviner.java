@@ -0,0 +1,130 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.archive;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Finds the deflate parameters that produced a given deflate stream, in the manner of
+ * Google's archive-patcher. Only streams that zlib reproduces exactly can be recompressed
+ * on device, all the others are diffed as they are.
+ */
+public final class DeflateDiviner {
+    private static final int BUFFER_SIZE = 16384;
+
+    /**
+     * Most zip tools use the zlib default level, try it first.
+     */
+    private static final int[] LEVELS = {6, 9, 1, 2, 3, 4, 5, 7, 8};
+
+    private static final int[] STRATEGIES = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY};
+
+    private DeflateDiviner() {
+    }
+
+    /**
+     * @return the parameters which turn uncompressed into compressed[offset...offset + length],
+     * or null if there are none.
+     */
+    public static DeflateParameters divine(byte[] compressed, int offset, int length, byte[] uncompressed, boolean nowrap) {
+        for (int strategy : STRATEGIES) {
+            for (int level : LEVELS) {
+                DeflateParameters parameters = new DeflateParameters(level, strategy, nowrap);
+                if (matches(parameters, compressed, offset, length, uncompressed)) {
+                    return parameters;
+                }
+                // huffman only ignores the level.
+                if (strategy == Deflater.HUFFMAN_ONLY) {
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Inflate data[offset...offset + length], which must be exactly one deflate stream.
+     *
+     * @param size the expected uncompressed size
+     */
+    public static byte[] inflate(byte[] data, int offset, int length, int size, boolean nowrap) throws IOException {
+        Inflater inflater = new Inflater(nowrap);
+        try {
+            byte[] result = new byte[size];
+            inflater.setInput(data, offset, length);
+            byte[] probe = new byte[1];
+            int count = 0;
+            boolean dummyFed = false;
+            while (!inflater.finished()) {
+                int n = count < size ? inflater.inflate(result, count, size - count) : inflater.inflate(probe);
+                if (n > 0) {
+                    if (count == size) {
+                        throw new IOException("deflate stream is larger than " + size);
+                    }
+                    count += n;
+                } else if (inflater.finished()) {
+                    break;
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("deflate stream needs a dictionary");
+                } else if (inflater.needsInput() && nowrap && !dummyFed) {
+                    // nowrap inflater of old zlib versions may need one extra dummy byte.
+                    inflater.setInput(probe, 0, 1);
+                    dummyFed = true;
+                } else {
+                    throw new IOException("truncated deflate stream");
+                }
+            }
+            if (count != size || inflater.getBytesRead() < length) {
+                throw new IOException("deflate stream size mismatch, expect " + size + ", got " + count);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("bad deflate stream: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static boolean matches(DeflateParameters parameters, byte[] compressed, int offset, int length, byte[] uncompressed) {
+        Deflater deflater = parameters.newDeflater();
+        try {
+            deflater.setInput(uncompressed);
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int pos = 0;
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                if (pos + count > length) {
+                    return false;
+                }
+                for (int i = 0; i < count; i++) {
+                    if (buffer[i] != compressed[offset + pos + i]) {
+                        return false;
+                    }
+                }
+                pos += count;
+            }
+            return pos == length;
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.archive;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an archive patch without fallback meets a zlib which does not deflate like the one
+ * the patch was built with, the patched file could not be reproduced.
+ */
+public class DeflateIncompatibleException extends IOException {
+    private final DeflateParameters parameters;
+
+    public DeflateIncompatibleException(DeflateParameters parameters) {
+        super("local zlib does not reproduce deflate streams with " + parameters);
+        this.parameters = parameters;
+    }
+
+    public DeflateParameters getParameters() {
+        return parameters;
+    }
+}
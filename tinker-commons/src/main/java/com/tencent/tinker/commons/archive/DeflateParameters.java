@@ -0,0 +1,100 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Settings of a zlib {@link Deflater}, enough to reproduce a deflate stream from its
+ * uncompressed data bit by bit.
+ */
+public final class DeflateParameters {
+    private static final int BUFFER_SIZE = 16384;
+
+    public final int     level;
+    public final int     strategy;
+    public final boolean nowrap;
+
+    public DeflateParameters(int level, int strategy, boolean nowrap) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("bad deflate level: " + level);
+        }
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("bad deflate strategy: " + strategy);
+        }
+        this.level = level;
+        this.strategy = strategy;
+        this.nowrap = nowrap;
+    }
+
+    /**
+     * Packs the parameters into an int, see {@link #fromInt(int)}.
+     */
+    public int toInt() {
+        return (nowrap ? 1 << 16 : 0) | (strategy << 8) | level;
+    }
+
+    public static DeflateParameters fromInt(int value) {
+        return new DeflateParameters(value & 0xff, (value >> 8) & 0xff, ((value >> 16) & 1) != 0);
+    }
+
+    public Deflater newDeflater() {
+        Deflater deflater = new Deflater(level, nowrap);
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+
+    /**
+     * Compress data[offset...offset + length] to out with these parameters.
+     */
+    public void deflate(byte[] data, int offset, int length, OutputStream out) throws IOException {
+        Deflater deflater = newDeflater();
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof DeflateParameters)) {
+            return false;
+        }
+        DeflateParameters other = (DeflateParameters) obj;
+        return level == other.level && strategy == other.strategy && nowrap == other.nowrap;
+    }
+
+    @Override
+    public int hashCode() {
+        return toInt();
+    }
+
+    @Override
+    public String toString() {
+        return "level:" + level + ", strategy:" + strategy + ", nowrap:" + nowrap;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.tencent.tinker.commons.archive;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Takes the patched delta friendly blob and deflates its new ranges on the way to out, the
+ * streaming counterpart of deflating every range of the whole blob. Call {@link #finish()}
+ * after the last byte and {@link #end()} in any case, out is never closed.
+ */
+final class RecompressingOutputStream extends FilterOutputStream {
+    private static final int BUFFER_SIZE = 16384;
+
+    private final List<ArchivePatchPlan.Range> ranges;
+    private final byte[]                       buffer     = new byte[BUFFER_SIZE];
+    private final byte[]                       singleByte = new byte[1];
+
+    private int      nextRange;
+    private long     position;
+    /**
+     * not null while position is inside ranges[nextRange]
+     */
+    private Deflater deflater;
+
+    RecompressingOutputStream(OutputStream out, List<ArchivePatchPlan.Range> ranges) {
+        super(out);
+        this.ranges = ranges;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (deflater == null) {
+                long rangeStart = nextRange < ranges.size() ? ranges.get(nextRange).offset : Long.MAX_VALUE;
+                if (rangeStart == position) {
+                    startRange();
+                    continue;
+                }
+                if (rangeStart < position) {
+                    throw new IOException("corrupted archive patch, new range out of order: " + rangeStart);
+                }
+                int count = (int) Math.min(len, rangeStart - position);
+                out.write(b, off, count);
+                off += count;
+                len -= count;
+                position += count;
+            } else {
+                ArchivePatchPlan.Range range = ranges.get(nextRange);
+                int count = (int) Math.min(len, range.offset + range.length - position);
+                deflater.setInput(b, off, count);
+                while (!deflater.needsInput()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                off += count;
+                len -= count;
+                position += count;
+                if (position == range.offset + range.length) {
+                    finishRange();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deflates the empty ranges at the end of the blob and checks no range was left out.
+     */
+    void finish() throws IOException {
+        while (deflater == null && nextRange < ranges.size() && ranges.get(nextRange).offset == position) {
+            startRange();
+        }
+        if (deflater != null || nextRange < ranges.size()) {
+            throw new IOException("corrupted archive patch, new range out of bounds: " + ranges.get(nextRange).offset);
+        }
+    }
+
+    /**
+     * Releases the native memory of a range left open by a failed patch.
+     */
+    void end() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    private void startRange() throws IOException {
+        deflater = DeflateParameters.fromInt(ranges.get(nextRange).parameters).newDeflater();
+        if (ranges.get(nextRange).length == 0) {
+            finishRange();
+        }
+    }
+
+    private void finishRange() throws IOException {
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        end();
+        nextRange++;
+    }
+}
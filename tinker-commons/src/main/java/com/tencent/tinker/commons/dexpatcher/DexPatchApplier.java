@@ -50,7 +50,9 @@ import com.tencent.tinker.commons.dexpatcher.algorithms.patch.StringDataSectionP
 import com.tencent.tinker.commons.dexpatcher.algorithms.patch.TypeIdSectionPatchAlgorithm;
 import com.tencent.tinker.commons.dexpatcher.algorithms.patch.TypeListSectionPatchAlgorithm;
 import com.tencent.tinker.commons.dexpatcher.struct.DexPatchFile;
+import com.tencent.tinker.commons.dexpatcher.util.SectionTaskGraph;
 import com.tencent.tinker.commons.dexpatcher.util.SparseIndexMap;
+import com.tencent.tinker.commons.util.DigestingOutputStream;
 import com.tencent.tinker.commons.util.StreamUtil;
 
 import java.io.BufferedOutputStream;
@@ -59,6 +61,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 /**
@@ -66,7 +71,7 @@ import java.util.Arrays;
  */
 public class DexPatchApplier {
     private final Dex oldDex;
-    private final Dex patchedDex;
+    private Dex patchedDex;
 
     private final DexPatchFile patchFile;
 
@@ -88,6 +93,20 @@ public class DexPatchApplier {
     private DexSectionPatchAlgorithm<EncodedValue> encodedArraySectionPatchAlg;
     private DexSectionPatchAlgorithm<AnnotationsDirectory> annotationsDirectorySectionPatchAlg;
 
+    private String patchedDexMd5 = null;
+    private long patchedDexCrc32 = -1;
+
+    private int sectionThreadCount = 1;
+    private boolean isRawCopyEnabled = true;
+    private DexSectionMetrics.IDexSectionMetricsListener metricsListener = null;
+
+    /**
+     * In low memory mode old dex is mapped and patched dex is written into a mapped file
+     * under {@link #workDir} instead of a heap array.
+     */
+    private final boolean isLowMemoryMode;
+    private final File workDir;
+
     public DexPatchApplier(File oldDexIn, File patchFileIn) throws IOException {
         this(new Dex(oldDexIn), new DexPatchFile(patchFileIn));
     }
@@ -103,10 +122,141 @@ public class DexPatchApplier {
         this.oldDex = oldDexIn;
         this.patchFile = patchFileIn;
         this.patchedDex = new Dex(patchFileIn.getPatchedDexSize());
-        this.oldToPatchedIndexMap = new SparseIndexMap();
+        this.oldToPatchedIndexMap = new SparseIndexMap(oldDexIn.getTableOfContents());
+        this.isLowMemoryMode = false;
+        this.workDir = null;
+    }
+
+    /**
+     * Applier that tries to keep its heap usage under {@code maxHeapBytes}.
+     * <p/>
+     * Old dex is spilled into {@code workDir} and patch file is streamed. If holding old and
+     * patched dex in heap would exceed the budget, old dex is mapped and patched dex is written
+     * into a mapped file of its known size instead (low memory mode). Whenever a file can not
+     * be mapped it falls back to heap arrays, which is what the other constructors use.
+     *
+     * Notice: you should close the input streams manually after patching.
+     */
+    public DexPatchApplier(InputStream oldDexIn, InputStream patchFileIn, long maxHeapBytes, File workDir) throws IOException {
+        if (workDir == null) {
+            throw new IllegalArgumentException("work dir is null.");
+        }
+        this.patchFile = new DexPatchFile(patchFileIn);
+
+        File oldDexFile = File.createTempFile("old", ".dex", workDir);
+        Dex loadedOldDex;
+        boolean isLowMemoryMode = false;
+        try {
+            OutputStream os = null;
+            try {
+                os = new BufferedOutputStream(new FileOutputStream(oldDexFile));
+                byte[] buffer = new byte[16 * 1024];
+                int bytesRead;
+                while ((bytesRead = oldDexIn.read(buffer)) > 0) {
+                    os.write(buffer, 0, bytesRead);
+                }
+                os.flush();
+            } finally {
+                StreamUtil.closeQuietly(os);
+            }
+
+            Dex mappedOldDex = mapDexFile(oldDexFile);
+            if (mappedOldDex != null) {
+                long heapBytesNeeded = oldDexFile.length() + this.patchFile.getPatchedDexSize()
+                        + SparseIndexMap.estimateSizeInBytes(mappedOldDex.getTableOfContents());
+                isLowMemoryMode = heapBytesNeeded > maxHeapBytes;
+            }
+            loadedOldDex = (isLowMemoryMode ? mappedOldDex : new Dex(oldDexFile));
+        } finally {
+            // Mapped content stays valid after the file is deleted.
+            deleteSpillFile(oldDexFile);
+        }
+
+        this.oldDex = loadedOldDex;
+        this.patchedDex = (isLowMemoryMode ? null : new Dex(this.patchFile.getPatchedDexSize()));
+        this.oldToPatchedIndexMap = new SparseIndexMap(loadedOldDex.getTableOfContents());
+        this.isLowMemoryMode = isLowMemoryMode;
+        this.workDir = workDir;
+    }
+
+    /**
+     * @return true if old dex is mapped and patched dex goes to a mapped file.
+     */
+    public boolean isLowMemoryMode() {
+        return isLowMemoryMode;
+    }
+
+    private static Dex mapDexFile(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            return Dex.open(raf.getChannel());
+        } catch (IOException e) {
+            return null;
+        } finally {
+            StreamUtil.closeQuietly(raf);
+        }
+    }
+
+    /**
+     * Spill files are deleted right away instead of by deleteOnExit, which never runs in a
+     * patch process that gets killed and keeps every path in memory until then.
+     */
+    private static void deleteSpillFile(File file) {
+        // Can only fail if the work dir became read only, then there is nothing left to try.
+        file.delete();
+    }
+
+    /**
+     * Maps {@code file} resized to patched dex size as the output of patching. Returns null
+     * if it can not be mapped.
+     */
+    private MappedByteBuffer mapPatchedDex(File file) {
+        final int patchedDexSize = this.patchFile.getPatchedDexSize();
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            // Truncate first, padding is never written and must read as zeros like a new array.
+            raf.setLength(0);
+            raf.setLength(patchedDexSize);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, patchedDexSize);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            StreamUtil.closeQuietly(raf);
+        }
     }
 
     public void executeAndSaveTo(OutputStream out) throws IOException {
+        if (this.patchedDex == null) {
+            // Low memory mode, patch into a mapped temp file and copy it to out.
+            File patchedDexFile = File.createTempFile("patched", ".dex", this.workDir);
+            try {
+                MappedByteBuffer patchedDexBuffer = mapPatchedDex(patchedDexFile);
+                this.patchedDex = (patchedDexBuffer != null
+                        ? Dex.createEmpty(patchedDexBuffer) : new Dex(this.patchFile.getPatchedDexSize()));
+                executeAndDigestTo(out);
+            } finally {
+                deleteSpillFile(patchedDexFile);
+            }
+        } else {
+            executeAndDigestTo(out);
+        }
+    }
+
+    private void executeAndDigestTo(OutputStream out) throws IOException {
+        execute();
+
+        // Finally, write patched dex to file, digest it on the way so callers need not read it back.
+        // Together with writeHashes that is two passes over the patched dex, the header depends
+        // on everything behind it so the format allows no less.
+        DigestingOutputStream digestOut = new DigestingOutputStream(out);
+        this.patchedDex.writeTo(digestOut);
+        this.patchedDexMd5 = digestOut.getMd5();
+        this.patchedDexCrc32 = digestOut.getCrc32();
+    }
+
+    private void execute() throws IOException {
         // Before executing, we should check if this patch can be applied to
         // old dex we passed in.
         byte[] oldDexSign = this.oldDex.computeSignature(false);
@@ -223,21 +373,107 @@ public class DexPatchApplier {
                 patchFile, oldDex, patchedDex, oldToPatchedIndexMap
         );
 
-        this.stringDataSectionPatchAlg.execute();
-        this.typeIdSectionPatchAlg.execute();
-        this.typeListSectionPatchAlg.execute();
-        this.protoIdSectionPatchAlg.execute();
-        this.fieldIdSectionPatchAlg.execute();
-        this.methodIdSectionPatchAlg.execute();
-        this.annotationSectionPatchAlg.execute();
-        this.annotationSetSectionPatchAlg.execute();
-        this.annotationSetRefListSectionPatchAlg.execute();
-        this.annotationsDirectorySectionPatchAlg.execute();
-        this.debugInfoSectionPatchAlg.execute();
-        this.codeSectionPatchAlg.execute();
-        this.classDataSectionPatchAlg.execute();
-        this.encodedArraySectionPatchAlg.execute();
-        this.classDefSectionPatchAlg.execute();
+        // Sections only depend on the sections they reference through oldToPatchedIndexMap,
+        // each of them writes its own part of the map and its own region of patchedDex.
+        // Patch file is read sequentially, so read all operations ahead if sections run in parallel.
+        final boolean isParallel = this.sectionThreadCount > 1;
+        final DexSectionPatchAlgorithm<?>[] sectionPatchAlgsInPatchFileOrder = {
+                this.stringDataSectionPatchAlg,
+                this.typeIdSectionPatchAlg,
+                this.typeListSectionPatchAlg,
+                this.protoIdSectionPatchAlg,
+                this.fieldIdSectionPatchAlg,
+                this.methodIdSectionPatchAlg,
+                this.annotationSectionPatchAlg,
+                this.annotationSetSectionPatchAlg,
+                this.annotationSetRefListSectionPatchAlg,
+                this.annotationsDirectorySectionPatchAlg,
+                this.debugInfoSectionPatchAlg,
+                this.codeSectionPatchAlg,
+                this.classDataSectionPatchAlg,
+                this.encodedArraySectionPatchAlg,
+                this.classDefSectionPatchAlg
+        };
+        for (DexSectionPatchAlgorithm<?> sectionPatchAlg : sectionPatchAlgsInPatchFileOrder) {
+            sectionPatchAlg.setRawCopyEnabled(this.isRawCopyEnabled);
+            if (this.metricsListener != null) {
+                sectionPatchAlg.setMetrics(new DexSectionMetrics());
+            }
+        }
+        if (isParallel) {
+            for (DexSectionPatchAlgorithm<?> sectionPatchAlg : sectionPatchAlgsInPatchFileOrder) {
+                sectionPatchAlg.readPatchOperations(true);
+            }
+        }
+
+        SectionTaskGraph taskGraph = new SectionTaskGraph();
+        int stringDatas = taskGraph.addTask(
+                newSectionTask(this.stringDataSectionPatchAlg, isParallel)
+        );
+        int typeIds = taskGraph.addTask(
+                newSectionTask(this.typeIdSectionPatchAlg, isParallel),
+                stringDatas
+        );
+        int typeLists = taskGraph.addTask(
+                newSectionTask(this.typeListSectionPatchAlg, isParallel),
+                typeIds
+        );
+        int protoIds = taskGraph.addTask(
+                newSectionTask(this.protoIdSectionPatchAlg, isParallel),
+                stringDatas, typeIds, typeLists
+        );
+        int fieldIds = taskGraph.addTask(
+                newSectionTask(this.fieldIdSectionPatchAlg, isParallel),
+                stringDatas, typeIds
+        );
+        int methodIds = taskGraph.addTask(
+                newSectionTask(this.methodIdSectionPatchAlg, isParallel),
+                stringDatas, typeIds, protoIds
+        );
+        int annotations = taskGraph.addTask(
+                newSectionTask(this.annotationSectionPatchAlg, isParallel),
+                stringDatas, typeIds, fieldIds, methodIds
+        );
+        int annotationSets = taskGraph.addTask(
+                newSectionTask(this.annotationSetSectionPatchAlg, isParallel),
+                annotations
+        );
+        int annotationSetRefLists = taskGraph.addTask(
+                newSectionTask(this.annotationSetRefListSectionPatchAlg, isParallel),
+                annotationSets
+        );
+        int annotationsDirectories = taskGraph.addTask(
+                newSectionTask(this.annotationsDirectorySectionPatchAlg, isParallel),
+                fieldIds, methodIds, annotationSets, annotationSetRefLists
+        );
+        int debugInfos = taskGraph.addTask(
+                newSectionTask(this.debugInfoSectionPatchAlg, isParallel),
+                stringDatas, typeIds
+        );
+        int codes = taskGraph.addTask(
+                newSectionTask(this.codeSectionPatchAlg, isParallel),
+                stringDatas, typeIds, fieldIds, methodIds, debugInfos
+        );
+        int classDatas = taskGraph.addTask(
+                newSectionTask(this.classDataSectionPatchAlg, isParallel),
+                fieldIds, methodIds, codes
+        );
+        int encodedArrays = taskGraph.addTask(
+                newSectionTask(this.encodedArraySectionPatchAlg, isParallel),
+                stringDatas, typeIds, fieldIds, methodIds
+        );
+        taskGraph.addTask(
+                newSectionTask(this.classDefSectionPatchAlg, isParallel),
+                stringDatas, typeIds, typeLists, annotationsDirectories, classDatas, encodedArrays
+        );
+
+        taskGraph.execute(this.sectionThreadCount);
+
+        if (this.metricsListener != null) {
+            for (DexSectionPatchAlgorithm<?> sectionPatchAlg : sectionPatchAlgsInPatchFileOrder) {
+                this.metricsListener.onSectionMetrics(sectionPatchAlg.getMetrics());
+            }
+        }
 
         // Thirdly, write header, mapList. Calculate and write patched dex's sign and checksum.
         Dex.Section headerOut = this.patchedDex.openSection(patchedToc.header.off);
@@ -247,16 +483,96 @@ public class DexPatchApplier {
         patchedToc.writeMap(mapListOut);
 
         this.patchedDex.writeHashes();
+    }
+
+    /**
+     * Receive {@link DexSectionMetrics} of every section once patching is done, null to stop.
+     */
+    public void setMetricsListener(DexSectionMetrics.IDexSectionMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Patch independent sections with several threads, 1 keeps the classic single threaded
+     * patching. The patched dex is the same either way.
+     */
+    public void setSectionThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("section thread count must be positive: " + threadCount);
+        }
+        this.sectionThreadCount = threadCount;
+    }
 
-        // Finally, write patched dex to file.
-        this.patchedDex.writeTo(out);
+    /**
+     * Copy kept items that reference nothing shifted as raw bytes instead of decoding and
+     * encoding them again, true by default. The patched dex is the same either way.
+     */
+    public void setRawCopyEnabled(boolean enabled) {
+        this.isRawCopyEnabled = enabled;
+    }
+
+    private static Runnable newSectionTask(final DexSectionPatchAlgorithm<?> patchAlg, final boolean isOperationsRead) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (isOperationsRead) {
+                    patchAlg.applyPatchOperations();
+                } else {
+                    patchAlg.execute();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return lower case hex MD5 of the patched dex written by the last executeAndSaveTo call,
+     * null if nothing was written yet.
+     */
+    public String getPatchedDexMd5() {
+        return patchedDexMd5;
+    }
+
+    /**
+     * @return CRC32 of the patched dex written by the last executeAndSaveTo call, -1 if nothing
+     * was written yet.
+     */
+    public long getPatchedDexCrc32() {
+        return patchedDexCrc32;
     }
 
     public void executeAndSaveTo(File file) throws IOException {
+        if (this.patchedDex == null) {
+            // Low memory mode, patch into file directly.
+            MappedByteBuffer patchedDexBuffer = mapPatchedDex(file);
+            if (patchedDexBuffer != null) {
+                this.patchedDex = Dex.createEmpty(patchedDexBuffer);
+                execute();
+                // the caller verifies and loads file next, make sure it is on disk
+                patchedDexBuffer.force();
+                DigestingOutputStream digestOut = new DigestingOutputStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        // Only digests are needed.
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        // Only digests are needed.
+                    }
+                });
+                this.patchedDex.writeTo(digestOut);
+                this.patchedDexMd5 = digestOut.getMd5();
+                this.patchedDexCrc32 = digestOut.getCrc32();
+                return;
+            }
+            this.patchedDex = new Dex(this.patchFile.getPatchedDexSize());
+        }
         OutputStream os = null;
         try {
             os = new BufferedOutputStream(new FileOutputStream(file));
             executeAndSaveTo(os);
+            // flush here, close below swallows errors and the digests must not outlive a bad write.
+            os.flush();
         } finally {
             StreamUtil.closeQuietly(os);
         }
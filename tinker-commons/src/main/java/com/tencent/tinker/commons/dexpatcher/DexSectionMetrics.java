@@ -0,0 +1,109 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.dexpatcher;
+
+import com.tencent.tinker.android.dex.TableOfContents;
+
+/**
+ * Numbers of diffing or patching a dex section, filled by section algorithms when they
+ * are given an instance of this class.
+ */
+public final class DexSectionMetrics {
+    public short sectionType;
+
+    public int deletedItemCount;
+    public int addedItemCount;
+    public int replacedItemCount;
+    public int unchangedItemCount;
+
+    /**
+     * For patching, bytes of old section and patch chunk consumed. For diffing, bytes of old
+     * and new section.
+     */
+    public long bytesRead;
+
+    /**
+     * For patching, bytes of patched items. For diffing, bytes of the patch chunk.
+     */
+    public long bytesWritten;
+
+    public long timeCostNanos;
+
+    public String getSectionName() {
+        switch (sectionType) {
+            case TableOfContents.SECTION_TYPE_STRINGIDS:
+                return "string_ids";
+            case TableOfContents.SECTION_TYPE_TYPEIDS:
+                return "type_ids";
+            case TableOfContents.SECTION_TYPE_PROTOIDS:
+                return "proto_ids";
+            case TableOfContents.SECTION_TYPE_FIELDIDS:
+                return "field_ids";
+            case TableOfContents.SECTION_TYPE_METHODIDS:
+                return "method_ids";
+            case TableOfContents.SECTION_TYPE_CLASSDEFS:
+                return "class_defs";
+            case TableOfContents.SECTION_TYPE_TYPELISTS:
+                return "type_lists";
+            case TableOfContents.SECTION_TYPE_ANNOTATIONSETREFLISTS:
+                return "annotation_set_ref_lists";
+            case TableOfContents.SECTION_TYPE_ANNOTATIONSETS:
+                return "annotation_sets";
+            case TableOfContents.SECTION_TYPE_CLASSDATA:
+                return "class_datas";
+            case TableOfContents.SECTION_TYPE_CODES:
+                return "codes";
+            case TableOfContents.SECTION_TYPE_STRINGDATAS:
+                return "string_datas";
+            case TableOfContents.SECTION_TYPE_DEBUGINFOS:
+                return "debug_infos";
+            case TableOfContents.SECTION_TYPE_ANNOTATIONS:
+                return "annotations";
+            case TableOfContents.SECTION_TYPE_ENCODEDARRAYS:
+                return "encoded_arrays";
+            case TableOfContents.SECTION_TYPE_ANNOTATIONSDIRECTORIES:
+                return "annotations_directories";
+            default:
+                return "unknown_" + Integer.toHexString(sectionType & 0xFFFF);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        sb.append("section: ").append(getSectionName())
+                .append(", del: ").append(deletedItemCount)
+                .append(", add: ").append(addedItemCount)
+                .append(", replace: ").append(replacedItemCount)
+                .append(", unchanged: ").append(unchangedItemCount)
+                .append(", bytesRead: ").append(bytesRead)
+                .append(", bytesWritten: ").append(bytesWritten)
+                .append(", timeCostNanos: ").append(timeCostNanos);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public interface IDexSectionMetricsListener {
+        /**
+         * Called once per section in the order sections are stored in patch file,
+         * on the thread which runs the generator or applier.
+         */
+        void onSectionMetrics(DexSectionMetrics metrics);
+    }
+}
@@ -27,7 +27,7 @@ import com.tencent.tinker.commons.dexpatcher.util.SparseIndexMap;
 /**
  * Created by tangyinsheng on 2016/7/4.
  */
-public class DebugInfoItemSectionPatchAlgorithm extends DexSectionPatchAlgorithm<DebugInfoItem> {
+public class DebugInfoItemSectionPatchAlgorithm extends DexSectionPatchAlgorithm<DebugInfoItem> implements RawItemCopier {
     private TableOfContents.Section patchedDebugInfoItemTocSec = null;
     private Dex.Section patchedDebugInfoItemSec = null;
 
@@ -71,6 +71,22 @@ public class DebugInfoItemSectionPatchAlgorithm extends DexSectionPatchAlgorithm
         return this.patchedDebugInfoItemSec.writeDebugInfoItem(patchedItem);
     }
 
+    @Override
+    public boolean isRawCopyAllowed(SparseIndexMap sparseIndexMap) {
+        return !sparseIndexMap.isStringIdsChanged() && !sparseIndexMap.isTypeIdsChanged();
+    }
+
+    @Override
+    public int skipItem(DexDataBuffer section) {
+        return section.skipDebugInfoItem();
+    }
+
+    @Override
+    public int writeRawItem(DexDataBuffer oldSection, int size) {
+        ++this.patchedDebugInfoItemTocSec.size;
+        return this.patchedDebugInfoItemSec.writeRawItem(this.patchedDebugInfoItemTocSec, oldSection, size);
+    }
+
     @Override
     protected void updateIndexOrOffset(SparseIndexMap sparseIndexMap, int oldIndex, int oldOffset, int newIndex, int newOffset) {
         if (oldOffset != newOffset) {
@@ -19,11 +19,14 @@ package com.tencent.tinker.commons.dexpatcher.algorithms.patch;
 import com.tencent.tinker.android.dex.Dex;
 import com.tencent.tinker.android.dex.TableOfContents;
 import com.tencent.tinker.android.dex.io.DexDataBuffer;
+import com.tencent.tinker.commons.dexpatcher.DexSectionMetrics;
 import com.tencent.tinker.commons.dexpatcher.struct.DexPatchFile;
 import com.tencent.tinker.commons.dexpatcher.util.AbstractIndexMap;
 import com.tencent.tinker.commons.dexpatcher.util.SparseIndexMap;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Created by tangyinsheng on 2016/6/29.
@@ -38,6 +41,23 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
      */
     private final SparseIndexMap oldToPatchedIndexMap;
 
+    private int[] deletedIndices = null;
+    private int[] addedIndices = null;
+    private int[] replacedIndices = null;
+
+    /**
+     * Added and replaced items loaded ahead, null means they are read from patch file on the fly.
+     */
+    private List<T> loadedPatchItems = null;
+    private int loadedPatchItemCursor = 0;
+
+    /**
+     * Metrics of this section, null means they are not collected.
+     */
+    private DexSectionMetrics metrics = null;
+
+    private boolean isRawCopyEnabled = true;
+
     public DexSectionPatchAlgorithm(DexPatchFile patchFile, Dex oldDex, SparseIndexMap oldToPatchedIndexMap) {
         this.patchFile = patchFile;
         this.oldDex = oldDex;
@@ -98,6 +118,28 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
      */
     protected abstract int writePatchedItem(T patchedItem);
 
+    /**
+     * Copy kept items as raw bytes when this section is a {@link RawItemCopier} and allows it,
+     * true by default. The patched items are the same either way.
+     */
+    public void setRawCopyEnabled(boolean enabled) {
+        this.isRawCopyEnabled = enabled;
+    }
+
+    /**
+     * Collect numbers of patching this section into {@code metrics}, null to stop collecting.
+     */
+    public void setMetrics(DexSectionMetrics metrics) {
+        if (metrics != null) {
+            metrics.sectionType = getTocSection(this.oldDex).type;
+        }
+        this.metrics = metrics;
+    }
+
+    public DexSectionMetrics getMetrics() {
+        return this.metrics;
+    }
+
     private int[] readDeltaIndiciesOrOffsets(int count) {
         int[] result = new int[count];
         int lastVal = 0;
@@ -124,14 +166,65 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
     }
 
     public void execute() {
+        readPatchOperations(false);
+        applyPatchOperations();
+    }
+
+    /**
+     * Read patch operations of this section from patch file. Sections must be read in the
+     * order they are stored.
+     * <p/>
+     * If {@code isLoadItems} is true, added and replaced items are read as well so that
+     * {@link #applyPatchOperations()} no longer touches patch file and can run in parallel
+     * with other sections.
+     */
+    public void readPatchOperations(boolean isLoadItems) {
+        final long startNanos = (this.metrics != null ? System.nanoTime() : 0);
+        final int startReadByteCount = (this.metrics != null ? patchFile.getReadByteCount() : 0);
+
         final int deletedItemCount = patchFile.getBuffer().readUleb128();
-        final int[] deletedIndices = readDeltaIndiciesOrOffsets(deletedItemCount);
+        this.deletedIndices = readDeltaIndiciesOrOffsets(deletedItemCount);
 
         final int addedItemCount = patchFile.getBuffer().readUleb128();
-        final int[] addedIndices = readDeltaIndiciesOrOffsets(addedItemCount);
+        this.addedIndices = readDeltaIndiciesOrOffsets(addedItemCount);
 
         final int replacedItemCount = patchFile.getBuffer().readUleb128();
-        final int[] replacedIndices = readDeltaIndiciesOrOffsets(replacedItemCount);
+        this.replacedIndices = readDeltaIndiciesOrOffsets(replacedItemCount);
+
+        if (isLoadItems) {
+            // Now rest data are added and replaced items arranged in the order of
+            // added indices and replaced indices.
+            int patchItemCount = addedItemCount + replacedItemCount;
+            this.loadedPatchItems = new ArrayList<>(patchItemCount);
+            for (int i = 0; i < patchItemCount; ++i) {
+                this.loadedPatchItems.add(nextItem(patchFile.getBuffer()));
+            }
+        } else {
+            this.loadedPatchItems = null;
+        }
+        this.loadedPatchItemCursor = 0;
+
+        if (this.metrics != null) {
+            this.metrics.deletedItemCount = deletedItemCount;
+            this.metrics.addedItemCount = addedItemCount;
+            this.metrics.replacedItemCount = replacedItemCount;
+            this.metrics.bytesRead += patchFile.getReadByteCount() - startReadByteCount;
+            this.metrics.timeCostNanos += System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * Patch this section with operations read by {@link #readPatchOperations(boolean)}.
+     */
+    public void applyPatchOperations() {
+        if (this.deletedIndices == null) {
+            throw new IllegalStateException("patch operations of this section are not read yet.");
+        }
+        final long startNanos = (this.metrics != null ? System.nanoTime() : 0);
+        // Items loaded ahead were counted when reading, patch file may be read by others now.
+        final boolean isReadingPatchFile = (this.loadedPatchItems == null);
+        final int startReadByteCount
+                = (this.metrics != null && isReadingPatchFile ? patchFile.getReadByteCount() : 0);
 
         final TableOfContents.Section tocSec = getTocSection(this.oldDex);
         Dex.Section oldSection = null;
@@ -144,12 +237,41 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
 
         // Now rest data are added and replaced items arranged in the order of
         // added indices and replaced indices.
-        doFullPatch(
-                oldSection, oldItemCount, deletedIndices, addedIndices, replacedIndices
+        long bytesWritten = doFullPatch(
+                oldSection, oldItemCount, this.deletedIndices, this.addedIndices, this.replacedIndices
         );
+
+        if (this.metrics != null) {
+            this.metrics.unchangedItemCount
+                    = oldItemCount - this.deletedIndices.length - this.replacedIndices.length;
+            if (oldSection != null) {
+                this.metrics.bytesRead += oldSection.position() - tocSec.off;
+            }
+            if (isReadingPatchFile) {
+                this.metrics.bytesRead += patchFile.getReadByteCount() - startReadByteCount;
+            }
+            this.metrics.bytesWritten = bytesWritten;
+            this.metrics.timeCostNanos += System.nanoTime() - startNanos;
+        }
+
+        this.deletedIndices = null;
+        this.addedIndices = null;
+        this.replacedIndices = null;
+        this.loadedPatchItems = null;
+    }
+
+    private T nextPatchItem() {
+        if (this.loadedPatchItems != null) {
+            return this.loadedPatchItems.get(this.loadedPatchItemCursor++);
+        } else {
+            return nextItem(patchFile.getBuffer());
+        }
     }
 
-    private void doFullPatch(
+    /**
+     * Returns bytes of patched items if metrics are collected, otherwise 0.
+     */
+    private long doFullPatch(
             Dex.Section oldSection,
             int oldItemCount,
             int[] deletedIndices,
@@ -165,18 +287,34 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
         int addActionCursor = 0;
         int replaceActionCursor = 0;
 
+        // Sections before this one are all patched, so whether kept items here
+        // need adjusting is already known.
+        final RawItemCopier rawItemCopier
+                = (this.isRawCopyEnabled && this instanceof RawItemCopier ? (RawItemCopier) this : null);
+        final boolean isRawCopyAllowed
+                = (rawItemCopier != null && rawItemCopier.isRawCopyAllowed(this.oldToPatchedIndexMap));
+
+        final boolean isCountingBytes = (this.metrics != null);
+        long bytesWritten = 0;
+
         int oldIndex = 0;
         int patchedIndex = 0;
         while (oldIndex < oldItemCount || patchedIndex < newItemCount) {
             if (addActionCursor < addedItemCount && addedIndices[addActionCursor] == patchedIndex) {
-                T addedItem = nextItem(patchFile.getBuffer());
+                T addedItem = nextPatchItem();
                 int patchedOffset = writePatchedItem(addedItem);
+                if (isCountingBytes) {
+                    bytesWritten += getItemSize(addedItem);
+                }
                 ++addActionCursor;
                 ++patchedIndex;
             } else
             if (replaceActionCursor < replacedItemCount && replacedIndices[replaceActionCursor] == patchedIndex) {
-                T replacedItem = nextItem(patchFile.getBuffer());
+                T replacedItem = nextPatchItem();
                 int patchedOffset = writePatchedItem(replacedItem);
+                if (isCountingBytes) {
+                    bytesWritten += getItemSize(replacedItem);
+                }
                 ++replaceActionCursor;
                 ++patchedIndex;
             } else
@@ -199,10 +337,32 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
                 );
                 ++oldIndex;
             } else
+            if (oldIndex < oldItemCount && isRawCopyAllowed) {
+                int oldOffset = rawItemCopier.skipItem(oldSection);
+                int itemSize = oldSection.position() - oldOffset;
+                oldSection.position(oldOffset);
+
+                int patchedOffset = rawItemCopier.writeRawItem(oldSection, itemSize);
+                bytesWritten += itemSize;
+
+                updateIndexOrOffset(
+                        this.oldToPatchedIndexMap,
+                        oldIndex,
+                        oldOffset,
+                        patchedIndex,
+                        patchedOffset
+                );
+
+                ++oldIndex;
+                ++patchedIndex;
+            } else
             if (oldIndex < oldItemCount) {
                 T oldItem = adjustItem(this.oldToPatchedIndexMap, nextItem(oldSection));
 
                 int patchedOffset = writePatchedItem(oldItem);
+                if (isCountingBytes) {
+                    bytesWritten += getItemSize(oldItem);
+                }
 
                 updateIndexOrOffset(
                         this.oldToPatchedIndexMap,
@@ -234,5 +394,7 @@ public abstract class DexSectionPatchAlgorithm<T extends Comparable<T>> {
                     )
             );
         }
+
+        return (isCountingBytes ? bytesWritten : 0);
     }
 }
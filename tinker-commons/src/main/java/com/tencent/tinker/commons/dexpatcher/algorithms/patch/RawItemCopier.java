@@ -0,0 +1,48 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.tencent.tinker.commons.dexpatcher.algorithms.patch;
+
+import com.tencent.tinker.android.dex.io.DexDataBuffer;
+import com.tencent.tinker.commons.dexpatcher.util.SparseIndexMap;
+
+/**
+ * Implemented by section patch algorithms whose kept items can be copied from old dex as raw
+ * bytes instead of being decoded, adjusted and encoded again.
+ */
+public interface RawItemCopier {
+    /**
+     * Returns true if kept items can be copied as raw bytes, which means nothing they reference
+     * is shifted by {@code sparseIndexMap}.
+     */
+    boolean isRawCopyAllowed(SparseIndexMap sparseIndexMap);
+
+    /**
+     * Skip next item in {@code section} without decoding it.
+     * <p/>
+     * Returns the offset of skipped item.
+     */
+    int skipItem(DexDataBuffer section);
+
+    /**
+     * Output {@code size} bytes at current position of {@code oldSection} as a patched item.
+     * <p/>
+     * Returns the offset where the item is written. (<b>Must be valid.</b>)
+     */
+    int writeRawItem(DexDataBuffer oldSection, int size);
+}
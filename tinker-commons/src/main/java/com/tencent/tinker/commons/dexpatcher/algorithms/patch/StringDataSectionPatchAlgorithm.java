@@ -26,7 +26,7 @@ import com.tencent.tinker.commons.dexpatcher.struct.DexPatchFile;
 /**
  * Created by tangyinsheng on 2016/7/4.
  */
-public class StringDataSectionPatchAlgorithm extends DexSectionPatchAlgorithm<StringData> {
+public class StringDataSectionPatchAlgorithm extends DexSectionPatchAlgorithm<StringData> implements RawItemCopier {
     private TableOfContents.Section patchedStringDataTocSec = null;
     private TableOfContents.Section patchedStringIdTocSec = null;
     private Dex.Section patchedStringDataSec = null;
@@ -73,6 +73,26 @@ public class StringDataSectionPatchAlgorithm extends DexSectionPatchAlgorithm<St
         return off;
     }
 
+    @Override
+    public boolean isRawCopyAllowed(SparseIndexMap sparseIndexMap) {
+        // String data references nothing.
+        return true;
+    }
+
+    @Override
+    public int skipItem(DexDataBuffer section) {
+        return section.skipStringData();
+    }
+
+    @Override
+    public int writeRawItem(DexDataBuffer oldSection, int size) {
+        int off = this.patchedStringDataSec.writeRawItem(this.patchedStringDataTocSec, oldSection, size);
+        this.patchedStringIdSec.writeInt(off);
+        ++this.patchedStringDataTocSec.size;
+        ++this.patchedStringIdTocSec.size;
+        return off;
+    }
+
     @Override
     protected void updateIndexOrOffset(SparseIndexMap sparseIndexMap, int oldIndex, int oldOffset, int newIndex, int newOffset) {
         if (oldIndex != newIndex) {
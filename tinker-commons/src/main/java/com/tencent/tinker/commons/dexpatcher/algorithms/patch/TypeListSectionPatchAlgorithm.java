@@ -27,7 +27,7 @@ import com.tencent.tinker.commons.dexpatcher.util.SparseIndexMap;
 /**
  * Created by tangyinsheng on 2016/7/4.
  */
-public class TypeListSectionPatchAlgorithm extends DexSectionPatchAlgorithm<TypeList> {
+public class TypeListSectionPatchAlgorithm extends DexSectionPatchAlgorithm<TypeList> implements RawItemCopier {
     private TableOfContents.Section patchedTypeListTocSec = null;
     private Dex.Section patchedTypeListSec = null;
 
@@ -71,6 +71,22 @@ public class TypeListSectionPatchAlgorithm extends DexSectionPatchAlgorithm<Type
         return this.patchedTypeListSec.writeTypeList(patchedItem);
     }
 
+    @Override
+    public boolean isRawCopyAllowed(SparseIndexMap sparseIndexMap) {
+        return !sparseIndexMap.isTypeIdsChanged();
+    }
+
+    @Override
+    public int skipItem(DexDataBuffer section) {
+        return section.skipTypeList();
+    }
+
+    @Override
+    public int writeRawItem(DexDataBuffer oldSection, int size) {
+        ++this.patchedTypeListTocSec.size;
+        return this.patchedTypeListSec.writeRawItem(this.patchedTypeListTocSec, oldSection, size);
+    }
+
     @Override
     protected void updateIndexOrOffset(SparseIndexMap sparseIndexMap, int oldIndex, int oldOffset, int newIndex, int newOffset) {
         if (oldOffset != newOffset) {
@@ -16,6 +16,7 @@
 
 package com.tencent.tinker.commons.dexpatcher.struct;
 
+import com.tencent.tinker.android.dex.DexException;
 import com.tencent.tinker.android.dex.SizeOf;
 import com.tencent.tinker.android.dex.io.DexDataBuffer;
 import com.tencent.tinker.android.dex.util.CompareUtils;
@@ -33,6 +34,11 @@ import java.util.Arrays;
 public final class DexPatchFile {
     public static final byte[] MAGIC = {0x44, 0x58, 0x44, 0x49, 0x46, 0x46}; // DXDIFF
     public static final short CURRENT_VERSION = 0x0002;
+    /**
+     * magic, version, patched dex size, first chunk offset, 17 section offsets and old dex signature.
+     */
+    private static final int HEADER_SIZE
+            = MAGIC.length + SizeOf.USHORT + SizeOf.UINT * 19 + SizeOf.SIGNATURE;
     private final DexDataBuffer buffer;
     private short version;
     private int patchedDexSize;
@@ -61,9 +67,20 @@ public final class DexPatchFile {
         init();
     }
 
+    /**
+     * Chunks are consumed from {@code is} on demand while the patch is applied, so
+     * {@code is} must stay open until then. Notice: you should close it manually.
+     */
     public DexPatchFile(InputStream is) throws IOException {
-        this.buffer = new DexDataBuffer(ByteBuffer.wrap(FileUtils.readStream(is)));
-        init();
+        this.buffer = new StreamDexDataBuffer(is);
+        try {
+            init();
+        } catch (DexException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
     }
 
     private void init() {
@@ -98,7 +115,22 @@ public final class DexPatchFile {
         this.patchedAnnotationsDirectorySectionOffset = this.buffer.readInt();
         this.oldDexSignature = this.buffer.readByteArray(SizeOf.SIGNATURE);
 
-        this.buffer.position(firstChunkOffset);
+        // Chunks may be read from a stream, so skip forward instead of seeking.
+        if (firstChunkOffset < HEADER_SIZE) {
+            throw new IllegalStateException("bad dex patch file first chunk offset: " + firstChunkOffset);
+        }
+        this.buffer.skip(firstChunkOffset - HEADER_SIZE);
+    }
+
+    /**
+     * Returns count of bytes read from patch file so far.
+     */
+    public int getReadByteCount() {
+        if (this.buffer instanceof StreamDexDataBuffer) {
+            return ((StreamDexDataBuffer) this.buffer).getConsumedByteCount();
+        } else {
+            return this.buffer.position();
+        }
     }
 
     public short getVersion() {
@@ -0,0 +1,309 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.dexpatcher.struct;
+
+import com.tencent.tinker.android.dex.Annotation;
+import com.tencent.tinker.android.dex.AnnotationSet;
+import com.tencent.tinker.android.dex.AnnotationSetRefList;
+import com.tencent.tinker.android.dex.AnnotationsDirectory;
+import com.tencent.tinker.android.dex.ClassData;
+import com.tencent.tinker.android.dex.ClassDef;
+import com.tencent.tinker.android.dex.Code;
+import com.tencent.tinker.android.dex.DebugInfoItem;
+import com.tencent.tinker.android.dex.DexException;
+import com.tencent.tinker.android.dex.EncodedValue;
+import com.tencent.tinker.android.dex.FieldId;
+import com.tencent.tinker.android.dex.MethodId;
+import com.tencent.tinker.android.dex.ProtoId;
+import com.tencent.tinker.android.dex.SizeOf;
+import com.tencent.tinker.android.dex.StringData;
+import com.tencent.tinker.android.dex.TypeList;
+import com.tencent.tinker.android.dex.io.DexDataBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Read only {@link DexDataBuffer} which pulls its data from an {@link InputStream} on demand,
+ * so patch chunks can be consumed while the rest of the patch is still being inflated.
+ * <p/>
+ * Data is kept in a window which is compacted between items and grows if an item does not
+ * fit in. Positions are relative to the window, so they are only meaningful inside an item,
+ * and only forward reading in the order of the stream is supported.
+ */
+final class StreamDexDataBuffer extends DexDataBuffer {
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private ByteBuffer window;
+    private boolean isEndOfStream = false;
+
+    /**
+     * Depth of item reads in progress, the window must not be compacted while it is positive
+     * since item readers remember positions.
+     */
+    private int itemDepth = 0;
+
+    /**
+     * Bytes dropped from the front of the window so far.
+     */
+    private int compactedByteCount = 0;
+
+    StreamDexDataBuffer(InputStream in) {
+        this(in, ByteBuffer.allocate(DEFAULT_WINDOW_SIZE));
+    }
+
+    private StreamDexDataBuffer(InputStream in, ByteBuffer window) {
+        super(emptied(window));
+        this.in = in;
+        this.window = window;
+    }
+
+    private static ByteBuffer emptied(ByteBuffer window) {
+        window.limit(0);
+        return window;
+    }
+
+    /**
+     * Make sure at least {@code count} bytes are readable unless the stream ends first.
+     */
+    private void ensureReadable(int count) {
+        if (window.remaining() >= count || isEndOfStream) {
+            return;
+        }
+        int pos = window.position();
+        int limit = window.limit();
+        byte[] array = window.array();
+        if (itemDepth == 0 && pos > 0) {
+            System.arraycopy(array, pos, array, 0, limit - pos);
+            compactedByteCount += pos;
+            limit -= pos;
+            pos = 0;
+        }
+        if (pos + count > array.length) {
+            byte[] newArray = new byte[Math.max(pos + count, array.length + (array.length >> 1))];
+            System.arraycopy(array, 0, newArray, 0, limit);
+            array = newArray;
+            window = ByteBuffer.wrap(array);
+        }
+        try {
+            while (limit - pos < count) {
+                int bytesRead = in.read(array, limit, array.length - limit);
+                if (bytesRead < 0) {
+                    isEndOfStream = true;
+                    break;
+                }
+                limit += bytesRead;
+            }
+        } catch (IOException e) {
+            throw new DexException(e);
+        }
+        window.limit(limit);
+        window.position(pos);
+        resetData(window);
+    }
+
+    /**
+     * Count of bytes consumed from the stream start, unlike {@link #position()} it is absolute.
+     */
+    int getConsumedByteCount() {
+        return compactedByteCount + position();
+    }
+
+    @Override
+    public byte readByte() {
+        ensureReadable(SizeOf.UBYTE);
+        return super.readByte();
+    }
+
+    @Override
+    public short readShort() {
+        ensureReadable(SizeOf.USHORT);
+        return super.readShort();
+    }
+
+    @Override
+    public int readInt() {
+        ensureReadable(SizeOf.UINT);
+        return super.readInt();
+    }
+
+    @Override
+    public byte[] readByteArray(int length) {
+        ensureReadable(length);
+        return super.readByteArray(length);
+    }
+
+    @Override
+    public short[] readShortArray(int length) {
+        ensureReadable(length * SizeOf.USHORT);
+        return super.readShortArray(length);
+    }
+
+    @Override
+    public void skip(int count) {
+        ensureReadable(count);
+        super.skip(count);
+    }
+
+    @Override
+    public StringData readStringData() {
+        ++itemDepth;
+        try {
+            int start = position();
+            int utf16Length = readUleb128();
+            // Each char takes at most 3 bytes, plus the delimiter.
+            ensureReadable(position() - start + utf16Length * 3 + SizeOf.UBYTE);
+            position(start);
+            return super.readStringData();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public TypeList readTypeList() {
+        ++itemDepth;
+        try {
+            return super.readTypeList();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public FieldId readFieldId() {
+        ++itemDepth;
+        try {
+            return super.readFieldId();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public MethodId readMethodId() {
+        ++itemDepth;
+        try {
+            return super.readMethodId();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public ProtoId readProtoId() {
+        ++itemDepth;
+        try {
+            return super.readProtoId();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public ClassDef readClassDef() {
+        ++itemDepth;
+        try {
+            return super.readClassDef();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public Code readCode() {
+        ++itemDepth;
+        try {
+            return super.readCode();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public DebugInfoItem readDebugInfoItem() {
+        ++itemDepth;
+        try {
+            return super.readDebugInfoItem();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public ClassData readClassData() {
+        ++itemDepth;
+        try {
+            return super.readClassData();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public Annotation readAnnotation() {
+        ++itemDepth;
+        try {
+            return super.readAnnotation();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public AnnotationSet readAnnotationSet() {
+        ++itemDepth;
+        try {
+            return super.readAnnotationSet();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public AnnotationSetRefList readAnnotationSetRefList() {
+        ++itemDepth;
+        try {
+            return super.readAnnotationSetRefList();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public AnnotationsDirectory readAnnotationsDirectory() {
+        ++itemDepth;
+        try {
+            return super.readAnnotationsDirectory();
+        } finally {
+            --itemDepth;
+        }
+    }
+
+    @Override
+    public EncodedValue readEncodedArray() {
+        ++itemDepth;
+        try {
+            return super.readEncodedArray();
+        } finally {
+            --itemDepth;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.commons.dexpatcher.util;
+
+/**
+ * Growable int to int map backed by a plain array, for dense non-negative keys such as
+ * dex item indices. Both put and get are O(1), no matter in which order keys come.
+ */
+public final class DenseIntIntMap {
+    private int[] values;
+    private final IntBitSet presentKeys;
+
+    public DenseIntIntMap() {
+        this(16);
+    }
+
+    public DenseIntIntMap(int expectedMaxKey) {
+        values = new int[Math.max(expectedMaxKey, 1)];
+        presentKeys = new IntBitSet(expectedMaxKey);
+    }
+
+    public void put(int key, int value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("negative key: " + key);
+        }
+        if (key >= values.length) {
+            int[] newValues = new int[Math.max(key + 1, values.length + (values.length >> 1))];
+            System.arraycopy(values, 0, newValues, 0, values.length);
+            values = newValues;
+        }
+        values[key] = value;
+        presentKeys.set(key);
+    }
+
+    public boolean containsKey(int key) {
+        return presentKeys.get(key);
+    }
+
+    /**
+     * @return value mapped to {@code key}, or {@code valueIfAbsent} if there is none.
+     */
+    public int get(int key, int valueIfAbsent) {
+        return (presentKeys.get(key) ? values[key] : valueIfAbsent);
+    }
+}
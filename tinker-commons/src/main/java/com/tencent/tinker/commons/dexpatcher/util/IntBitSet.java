@@ -0,0 +1,53 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.commons.dexpatcher.util;
+
+/**
+ * Growable bit set over non-negative ints, for dense keys such as dex item indices.
+ */
+public final class IntBitSet {
+    private long[] words;
+
+    public IntBitSet() {
+        this(64);
+    }
+
+    public IntBitSet(int expectedMaxKey) {
+        words = new long[(Math.max(expectedMaxKey, 1) + 63) >>> 6];
+    }
+
+    public void set(int key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("negative key: " + key);
+        }
+        int wordIndex = key >>> 6;
+        if (wordIndex >= words.length) {
+            long[] newWords = new long[Math.max(wordIndex + 1, words.length + (words.length >> 1))];
+            System.arraycopy(words, 0, newWords, 0, words.length);
+            words = newWords;
+        }
+        words[wordIndex] |= 1L << key;
+    }
+
+    public boolean get(int key) {
+        if (key < 0) {
+            return false;
+        }
+        int wordIndex = key >>> 6;
+        return wordIndex < words.length && (words[wordIndex] & (1L << key)) != 0;
+    }
+}
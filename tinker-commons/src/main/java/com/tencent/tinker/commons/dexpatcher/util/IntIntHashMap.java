@@ -0,0 +1,107 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.tinker.commons.dexpatcher.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing int to int map for sparse non-negative keys such as dex item offsets.
+ * Used as a set by {@code put(key, 0)} and {@code containsKey}.
+ */
+public final class IntIntHashMap {
+    private static final int EMPTY_KEY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    public IntIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public void put(int key, int value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("negative key: " + key);
+        }
+        int slot = findSlot(key);
+        if (keys[slot] == EMPTY_KEY) {
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size * 2 > keys.length) {
+                rehash(keys.length << 1);
+            }
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return key >= 0 && keys[findSlot(key)] != EMPTY_KEY;
+    }
+
+    /**
+     * @return value mapped to {@code key}, or {@code valueIfAbsent} if there is none.
+     */
+    public int get(int key, int valueIfAbsent) {
+        if (key < 0) {
+            return valueIfAbsent;
+        }
+        int slot = findSlot(key);
+        return (keys[slot] != EMPTY_KEY ? values[slot] : valueIfAbsent);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int findSlot(int key) {
+        int mask = keys.length - 1;
+        int h = key * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (keys[slot] != EMPTY_KEY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY_KEY);
+        values = new int[capacity];
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
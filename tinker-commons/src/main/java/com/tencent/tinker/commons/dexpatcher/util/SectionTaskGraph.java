@@ -0,0 +1,154 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.dexpatcher.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs section tasks of dex diff or patch according to their dependencies.
+ * <p/>
+ * A task can only depend on tasks added before it, so running tasks in the order they are
+ * added is always valid, and it is exactly what happens with one thread. With more threads
+ * a task starts as soon as all of its dependencies are finished. Tasks are expected to touch
+ * only their own part of the shared index maps and output, everything written by a dependency
+ * is visible to the tasks depending on it.
+ */
+public final class SectionTaskGraph {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<int[]> dependencies = new ArrayList<>();
+
+    /**
+     * @return id of the added task, which can be used as a dependency of tasks added later.
+     */
+    public int addTask(Runnable task, int... dependsOn) {
+        for (int dependency : dependsOn) {
+            if (dependency < 0 || dependency >= tasks.size()) {
+                throw new IllegalArgumentException("unknown dependency: " + dependency);
+            }
+        }
+        tasks.add(task);
+        dependencies.add(dependsOn.clone());
+        return tasks.size() - 1;
+    }
+
+    public int getTaskCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Run all tasks with at most {@code threadCount} threads. Exceptions thrown by a task are
+     * rethrown here once running tasks are finished, tasks not started yet are skipped.
+     */
+    public void execute(int threadCount) throws IOException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("thread count must be positive: " + threadCount);
+        }
+        final int taskCount = tasks.size();
+        if (threadCount == 1 || taskCount <= 1) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            return;
+        }
+
+        final int[][] dependents = new int[taskCount][];
+        final AtomicIntegerArray pendingCounts = new AtomicIntegerArray(taskCount);
+        int[] dependentCounts = new int[taskCount];
+        for (int i = 0; i < taskCount; ++i) {
+            int[] dependsOn = dependencies.get(i);
+            pendingCounts.set(i, dependsOn.length);
+            for (int dependency : dependsOn) {
+                ++dependentCounts[dependency];
+            }
+        }
+        for (int i = 0; i < taskCount; ++i) {
+            dependents[i] = new int[dependentCounts[i]];
+            dependentCounts[i] = 0;
+        }
+        for (int i = 0; i < taskCount; ++i) {
+            for (int dependency : dependencies.get(i)) {
+                dependents[dependency][dependentCounts[dependency]++] = i;
+            }
+        }
+
+        final CountDownLatch finishedLatch = new CountDownLatch(taskCount);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            Scheduler scheduler = new Scheduler() {
+                @Override
+                public void schedule(final int taskId) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (failure.get() == null) {
+                                    tasks.get(taskId).run();
+                                }
+                            } catch (Throwable thr) {
+                                failure.compareAndSet(null, thr);
+                            } finally {
+                                for (int dependent : dependents[taskId]) {
+                                    if (pendingCounts.decrementAndGet(dependent) == 0) {
+                                        schedule(dependent);
+                                    }
+                                }
+                                finishedLatch.countDown();
+                            }
+                        }
+                    });
+                }
+            };
+            // Check the dependency lists rather than the counters, which may reach zero
+            // meanwhile and get scheduled by the finishing task.
+            for (int i = 0; i < taskCount; ++i) {
+                if (dependencies.get(i).length == 0) {
+                    scheduler.schedule(i);
+                }
+            }
+            finishedLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("section tasks are interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Throwable thr = failure.get();
+        if (thr instanceof RuntimeException) {
+            throw (RuntimeException) thr;
+        } else
+        if (thr instanceof Error) {
+            throw (Error) thr;
+        } else
+        if (thr != null) {
+            throw new IOException("section task failed", thr);
+        }
+    }
+
+    private interface Scheduler {
+        void schedule(int taskId);
+    }
+}
@@ -16,62 +16,167 @@
 
 package com.tencent.tinker.commons.dexpatcher.util;
 
-import com.tencent.tinker.android.utils.SparseBoolArray;
-import com.tencent.tinker.android.utils.SparseIntArray;
+import com.tencent.tinker.android.dex.SizeOf;
+import com.tencent.tinker.android.dex.TableOfContents;
 
 /**
  * Created by tangyinsheng on 2016/6/29.
  *
  * *** This file is renamed from IndexMap in dx project. ***
+ *
+ * Indices live in dense arrays and offsets in open addressing tables, so filling the map
+ * in any order stays linear.
  */
 
 public class SparseIndexMap extends AbstractIndexMap {
-    private final SparseIntArray stringIdsMap = new SparseIntArray();
-    private final SparseIntArray typeIdsMap = new SparseIntArray();
-    private final SparseIntArray protoIdsMap = new SparseIntArray();
-    private final SparseIntArray fieldIdsMap = new SparseIntArray();
-    private final SparseIntArray methodIdsMap = new SparseIntArray();
-    private final SparseIntArray typeListOffsetsMap = new SparseIntArray();
-    private final SparseIntArray annotationOffsetsMap = new SparseIntArray();
-    private final SparseIntArray annotationSetOffsetsMap = new SparseIntArray();
-    private final SparseIntArray annotationSetRefListOffsetsMap = new SparseIntArray();
-    private final SparseIntArray annotationsDirectoryOffsetsMap = new SparseIntArray();
-    private final SparseIntArray staticValuesOffsetsMap = new SparseIntArray();
-    private final SparseIntArray classDataOffsetsMap = new SparseIntArray();
-    private final SparseIntArray debugInfoItemOffsetsMap = new SparseIntArray();
-    private final SparseIntArray codeOffsetsMap = new SparseIntArray();
-
-    private final SparseBoolArray deletedStringIds = new SparseBoolArray();
-    private final SparseBoolArray deletedTypeIds = new SparseBoolArray();
-    private final SparseBoolArray deletedProtoIds = new SparseBoolArray();
-    private final SparseBoolArray deletedFieldIds = new SparseBoolArray();
-    private final SparseBoolArray deletedMethodIds = new SparseBoolArray();
-    private final SparseBoolArray deletedTypeListOffsets = new SparseBoolArray();
-    private final SparseBoolArray deletedAnnotationOffsets = new SparseBoolArray();
-    private final SparseBoolArray deletedAnnotationSetOffsets = new SparseBoolArray();
-    private final SparseBoolArray deletedAnnotationSetRefListOffsets = new SparseBoolArray();
-    private final SparseBoolArray deletedAnnotationsDirectoryOffsets = new SparseBoolArray();
-    private final SparseBoolArray deletedStaticValuesOffsets = new SparseBoolArray();
-    private final SparseBoolArray deletedClassDataOffsets = new SparseBoolArray();
-    private final SparseBoolArray deletedDebugInfoItemOffsets = new SparseBoolArray();
-    private final SparseBoolArray deletedCodeOffsets = new SparseBoolArray();
+    private final DenseIntIntMap stringIdsMap;
+    private final DenseIntIntMap typeIdsMap;
+    private final DenseIntIntMap protoIdsMap;
+    private final DenseIntIntMap fieldIdsMap;
+    private final DenseIntIntMap methodIdsMap;
+    private final IntIntHashMap typeListOffsetsMap;
+    private final IntIntHashMap annotationOffsetsMap;
+    private final IntIntHashMap annotationSetOffsetsMap;
+    private final IntIntHashMap annotationSetRefListOffsetsMap;
+    private final IntIntHashMap annotationsDirectoryOffsetsMap;
+    private final IntIntHashMap staticValuesOffsetsMap;
+    private final IntIntHashMap classDataOffsetsMap;
+    private final IntIntHashMap debugInfoItemOffsetsMap;
+    private final IntIntHashMap codeOffsetsMap;
+
+    private final IntBitSet deletedStringIds;
+    private final IntBitSet deletedTypeIds;
+    private final IntBitSet deletedProtoIds;
+    private final IntBitSet deletedFieldIds;
+    private final IntBitSet deletedMethodIds;
+    private final IntIntHashMap deletedTypeListOffsets;
+    private final IntIntHashMap deletedAnnotationOffsets;
+    private final IntIntHashMap deletedAnnotationSetOffsets;
+    private final IntIntHashMap deletedAnnotationSetRefListOffsets;
+    private final IntIntHashMap deletedAnnotationsDirectoryOffsets;
+    private final IntIntHashMap deletedStaticValuesOffsets;
+    private final IntIntHashMap deletedClassDataOffsets;
+    private final IntIntHashMap deletedDebugInfoItemOffsets;
+    private final IntIntHashMap deletedCodeOffsets;
+
+    private boolean stringIdsChanged = false;
+    private boolean typeIdsChanged = false;
+
+    public SparseIndexMap() {
+        stringIdsMap = new DenseIntIntMap();
+        typeIdsMap = new DenseIntIntMap();
+        protoIdsMap = new DenseIntIntMap();
+        fieldIdsMap = new DenseIntIntMap();
+        methodIdsMap = new DenseIntIntMap();
+        typeListOffsetsMap = new IntIntHashMap();
+        annotationOffsetsMap = new IntIntHashMap();
+        annotationSetOffsetsMap = new IntIntHashMap();
+        annotationSetRefListOffsetsMap = new IntIntHashMap();
+        annotationsDirectoryOffsetsMap = new IntIntHashMap();
+        staticValuesOffsetsMap = new IntIntHashMap();
+        classDataOffsetsMap = new IntIntHashMap();
+        debugInfoItemOffsetsMap = new IntIntHashMap();
+        codeOffsetsMap = new IntIntHashMap();
+        deletedStringIds = new IntBitSet();
+        deletedTypeIds = new IntBitSet();
+        deletedProtoIds = new IntBitSet();
+        deletedFieldIds = new IntBitSet();
+        deletedMethodIds = new IntBitSet();
+        deletedTypeListOffsets = new IntIntHashMap();
+        deletedAnnotationOffsets = new IntIntHashMap();
+        deletedAnnotationSetOffsets = new IntIntHashMap();
+        deletedAnnotationSetRefListOffsets = new IntIntHashMap();
+        deletedAnnotationsDirectoryOffsets = new IntIntHashMap();
+        deletedStaticValuesOffsets = new IntIntHashMap();
+        deletedClassDataOffsets = new IntIntHashMap();
+        deletedDebugInfoItemOffsets = new IntIntHashMap();
+        deletedCodeOffsets = new IntIntHashMap();
+    }
+
+    /**
+     * Creates a map whose keys are indices and offsets of the dex described by {@code toc},
+     * so the tables are allocated at their final size up front.
+     */
+    public SparseIndexMap(TableOfContents toc) {
+        stringIdsMap = new DenseIntIntMap(toc.stringIds.size);
+        typeIdsMap = new DenseIntIntMap(toc.typeIds.size);
+        protoIdsMap = new DenseIntIntMap(toc.protoIds.size);
+        fieldIdsMap = new DenseIntIntMap(toc.fieldIds.size);
+        methodIdsMap = new DenseIntIntMap(toc.methodIds.size);
+        typeListOffsetsMap = new IntIntHashMap(toc.typeLists.size);
+        annotationOffsetsMap = new IntIntHashMap(toc.annotations.size);
+        annotationSetOffsetsMap = new IntIntHashMap(toc.annotationSets.size);
+        annotationSetRefListOffsetsMap = new IntIntHashMap(toc.annotationSetRefLists.size);
+        annotationsDirectoryOffsetsMap = new IntIntHashMap(toc.annotationsDirectories.size);
+        staticValuesOffsetsMap = new IntIntHashMap(toc.encodedArrays.size);
+        classDataOffsetsMap = new IntIntHashMap(toc.classDatas.size);
+        debugInfoItemOffsetsMap = new IntIntHashMap(toc.debugInfos.size);
+        codeOffsetsMap = new IntIntHashMap(toc.codes.size);
+        deletedStringIds = new IntBitSet(toc.stringIds.size);
+        deletedTypeIds = new IntBitSet(toc.typeIds.size);
+        deletedProtoIds = new IntBitSet(toc.protoIds.size);
+        deletedFieldIds = new IntBitSet(toc.fieldIds.size);
+        deletedMethodIds = new IntBitSet(toc.methodIds.size);
+        deletedTypeListOffsets = new IntIntHashMap();
+        deletedAnnotationOffsets = new IntIntHashMap();
+        deletedAnnotationSetOffsets = new IntIntHashMap();
+        deletedAnnotationSetRefListOffsets = new IntIntHashMap();
+        deletedAnnotationsDirectoryOffsets = new IntIntHashMap();
+        deletedStaticValuesOffsets = new IntIntHashMap();
+        deletedClassDataOffsets = new IntIntHashMap();
+        deletedDebugInfoItemOffsets = new IntIntHashMap();
+        deletedCodeOffsets = new IntIntHashMap();
+    }
+
+    /**
+     * Rough heap size of a map created by {@link #SparseIndexMap(TableOfContents)} once it is
+     * filled up, for callers which need to stay in a heap budget.
+     */
+    public static long estimateSizeInBytes(TableOfContents toc) {
+        long indexCount = (long) toc.stringIds.size + toc.typeIds.size + toc.protoIds.size
+                + toc.fieldIds.size + toc.methodIds.size;
+        long offsetCount = (long) toc.typeLists.size + toc.annotations.size + toc.annotationSets.size
+                + toc.annotationSetRefLists.size + toc.annotationsDirectories.size
+                + toc.encodedArrays.size + toc.classDatas.size + toc.debugInfos.size + toc.codes.size;
+        // Index maps take an int plus a few bits per index, offset maps are open addressing
+        // tables of key and value ints which are kept at most half full.
+        return indexCount * (SizeOf.UINT + 1) + offsetCount * 4 * (SizeOf.UINT * 2);
+    }
 
     public void mapStringIds(int oldIndex, int newIndex) {
         stringIdsMap.put(oldIndex, newIndex);
+        stringIdsChanged = true;
     }
 
     public void markStringIdDeleted(int index) {
         if (index < 0) return;
-        deletedStringIds.put(index, true);
+        deletedStringIds.set(index);
+        stringIdsChanged = true;
     }
 
     public void mapTypeIds(int oldIndex, int newIndex) {
         typeIdsMap.put(oldIndex, newIndex);
+        typeIdsChanged = true;
     }
 
     public void markTypeIdDeleted(int index) {
         if (index < 0) return;
-        deletedTypeIds.put(index, true);
+        deletedTypeIds.set(index);
+        typeIdsChanged = true;
+    }
+
+    /**
+     * Returns true if any string index is remapped or deleted so far.
+     */
+    public boolean isStringIdsChanged() {
+        return stringIdsChanged;
+    }
+
+    /**
+     * Returns true if any type index is remapped or deleted so far.
+     */
+    public boolean isTypeIdsChanged() {
+        return typeIdsChanged;
     }
 
     public void mapProtoIds(int oldIndex, int newIndex) {
@@ -80,7 +185,7 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markProtoIdDeleted(int index) {
         if (index < 0) return;
-        deletedProtoIds.put(index, true);
+        deletedProtoIds.set(index);
     }
 
     public void mapFieldIds(int oldIndex, int newIndex) {
@@ -89,7 +194,7 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markFieldIdDeleted(int index) {
         if (index < 0) return;
-        deletedFieldIds.put(index, true);
+        deletedFieldIds.set(index);
     }
 
     public void mapMethodIds(int oldIndex, int newIndex) {
@@ -98,7 +203,7 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markMethodIdDeleted(int index) {
         if (index < 0) return;
-        deletedMethodIds.put(index, true);
+        deletedMethodIds.set(index);
     }
 
     public void mapTypeListOffset(int oldOffset, int newOffset) {
@@ -107,7 +212,7 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markTypeListDeleted(int offset) {
         if (offset < 0) return;
-        deletedTypeListOffsets.put(offset, true);
+        deletedTypeListOffsets.put(offset, 0);
     }
 
     public void mapAnnotationOffset(int oldOffset, int newOffset) {
@@ -116,7 +221,7 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markAnnotationDeleted(int offset) {
         if (offset < 0) return;
-        deletedAnnotationOffsets.put(offset, true);
+        deletedAnnotationOffsets.put(offset, 0);
     }
 
     public void mapAnnotationSetOffset(int oldOffset, int newOffset) {
@@ -125,7 +230,7 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markAnnotationSetDeleted(int offset) {
         if (offset < 0) return;
-        deletedAnnotationSetOffsets.put(offset, true);
+        deletedAnnotationSetOffsets.put(offset, 0);
     }
 
     public void mapAnnotationSetRefListOffset(int oldOffset, int newOffset) {
@@ -134,7 +239,7 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markAnnotationSetRefListDeleted(int offset) {
         if (offset < 0) return;
-        deletedAnnotationSetRefListOffsets.put(offset, true);
+        deletedAnnotationSetRefListOffsets.put(offset, 0);
     }
 
     public void mapAnnotationsDirectoryOffset(int oldOffset, int newOffset) {
@@ -143,7 +248,7 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markAnnotationsDirectoryDeleted(int offset) {
         if (offset < 0) return;
-        deletedAnnotationsDirectoryOffsets.put(offset, true);
+        deletedAnnotationsDirectoryOffsets.put(offset, 0);
     }
 
     public void mapStaticValuesOffset(int oldOffset, int newOffset) {
@@ -152,7 +257,7 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markStaticValuesDeleted(int offset) {
         if (offset < 0) return;
-        deletedStaticValuesOffsets.put(offset, true);
+        deletedStaticValuesOffsets.put(offset, 0);
     }
 
     public void mapClassDataOffset(int oldOffset, int newOffset) {
@@ -161,7 +266,7 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markClassDataDeleted(int offset) {
         if (offset < 0) return;
-        deletedClassDataOffsets.put(offset, true);
+        deletedClassDataOffsets.put(offset, 0);
     }
 
     public void mapDebugInfoItemOffset(int oldOffset, int newOffset) {
@@ -170,7 +275,7 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markDebugInfoItemDeleted(int offset) {
         if (offset < 0) return;
-        deletedDebugInfoItemOffsets.put(offset, true);
+        deletedDebugInfoItemOffsets.put(offset, 0);
     }
 
     public void mapCodeOffset(int oldOffset, int newOffset) {
@@ -179,146 +284,118 @@ public class SparseIndexMap extends AbstractIndexMap {
 
     public void markCodeDeleted(int offset) {
         if (offset < 0) return;
-        deletedCodeOffsets.put(offset, true);
+        deletedCodeOffsets.put(offset, 0);
     }
 
     @Override
     public int adjustStringIndex(int stringIndex) {
-        int index = stringIdsMap.indexOfKey(stringIndex);
-        if (index < 0) {
-            return (stringIndex >= 0 && deletedStringIds.containsKey(stringIndex) ? -1 : stringIndex);
-        } else {
-            return stringIdsMap.valueAt(index);
+        if (stringIdsMap.containsKey(stringIndex)) {
+            return stringIdsMap.get(stringIndex, stringIndex);
         }
+        return (stringIndex >= 0 && deletedStringIds.get(stringIndex) ? -1 : stringIndex);
     }
 
     @Override
     public int adjustTypeIdIndex(int typeIdIndex) {
-        int index = typeIdsMap.indexOfKey(typeIdIndex);
-        if (index < 0) {
-            return (typeIdIndex >= 0 && deletedTypeIds.containsKey(typeIdIndex) ? -1 : typeIdIndex);
-        } else {
-            return typeIdsMap.valueAt(index);
+        if (typeIdsMap.containsKey(typeIdIndex)) {
+            return typeIdsMap.get(typeIdIndex, typeIdIndex);
         }
+        return (typeIdIndex >= 0 && deletedTypeIds.get(typeIdIndex) ? -1 : typeIdIndex);
     }
 
     @Override
     public int adjustProtoIdIndex(int protoIndex) {
-        int index = protoIdsMap.indexOfKey(protoIndex);
-        if (index < 0) {
-            return (protoIndex >= 0 && deletedProtoIds.containsKey(protoIndex) ? -1 : protoIndex);
-        } else {
-            return protoIdsMap.valueAt(index);
+        if (protoIdsMap.containsKey(protoIndex)) {
+            return protoIdsMap.get(protoIndex, protoIndex);
         }
+        return (protoIndex >= 0 && deletedProtoIds.get(protoIndex) ? -1 : protoIndex);
     }
 
     @Override
     public int adjustFieldIdIndex(int fieldIndex) {
-        int index = fieldIdsMap.indexOfKey(fieldIndex);
-        if (index < 0) {
-            return (fieldIndex >= 0 && deletedFieldIds.containsKey(fieldIndex) ? -1 : fieldIndex);
-        } else {
-            return fieldIdsMap.valueAt(index);
+        if (fieldIdsMap.containsKey(fieldIndex)) {
+            return fieldIdsMap.get(fieldIndex, fieldIndex);
         }
+        return (fieldIndex >= 0 && deletedFieldIds.get(fieldIndex) ? -1 : fieldIndex);
     }
 
     @Override
     public int adjustMethodIdIndex(int methodIndex) {
-        int index = methodIdsMap.indexOfKey(methodIndex);
-        if (index < 0) {
-            return (methodIndex >= 0 && deletedMethodIds.containsKey(methodIndex) ? -1 : methodIndex);
-        } else {
-            return methodIdsMap.valueAt(index);
+        if (methodIdsMap.containsKey(methodIndex)) {
+            return methodIdsMap.get(methodIndex, methodIndex);
         }
+        return (methodIndex >= 0 && deletedMethodIds.get(methodIndex) ? -1 : methodIndex);
     }
 
     @Override
     public int adjustTypeListOffset(int typeListOffset) {
-        int index = typeListOffsetsMap.indexOfKey(typeListOffset);
-        if (index < 0) {
-            return (typeListOffset >= 0 && deletedTypeListOffsets.containsKey(typeListOffset) ? -1 : typeListOffset);
-        } else {
-            return typeListOffsetsMap.valueAt(index);
+        if (typeListOffsetsMap.containsKey(typeListOffset)) {
+            return typeListOffsetsMap.get(typeListOffset, typeListOffset);
         }
+        return (typeListOffset >= 0 && deletedTypeListOffsets.containsKey(typeListOffset) ? -1 : typeListOffset);
     }
 
     @Override
     public int adjustAnnotationOffset(int annotationOffset) {
-        int index = annotationOffsetsMap.indexOfKey(annotationOffset);
-        if (index < 0) {
-            return (annotationOffset >= 0 && deletedAnnotationOffsets.containsKey(annotationOffset) ? -1 : annotationOffset);
-        } else {
-            return annotationOffsetsMap.valueAt(index);
+        if (annotationOffsetsMap.containsKey(annotationOffset)) {
+            return annotationOffsetsMap.get(annotationOffset, annotationOffset);
         }
+        return (annotationOffset >= 0 && deletedAnnotationOffsets.containsKey(annotationOffset) ? -1 : annotationOffset);
     }
 
     @Override
     public int adjustAnnotationSetOffset(int annotationSetOffset) {
-        int index = annotationSetOffsetsMap.indexOfKey(annotationSetOffset);
-        if (index < 0) {
-            return (annotationSetOffset >= 0 && deletedAnnotationSetOffsets.containsKey(annotationSetOffset) ? -1 : annotationSetOffset);
-        } else {
-            return annotationSetOffsetsMap.valueAt(index);
+        if (annotationSetOffsetsMap.containsKey(annotationSetOffset)) {
+            return annotationSetOffsetsMap.get(annotationSetOffset, annotationSetOffset);
         }
+        return (annotationSetOffset >= 0 && deletedAnnotationSetOffsets.containsKey(annotationSetOffset) ? -1 : annotationSetOffset);
     }
 
     @Override
     public int adjustAnnotationSetRefListOffset(int annotationSetRefListOffset) {
-        int index = annotationSetRefListOffsetsMap.indexOfKey(annotationSetRefListOffset);
-        if (index < 0) {
-            return (annotationSetRefListOffset >= 0 && deletedAnnotationSetRefListOffsets.containsKey(annotationSetRefListOffset) ? -1 : annotationSetRefListOffset);
-        } else {
-            return annotationSetRefListOffsetsMap.valueAt(index);
+        if (annotationSetRefListOffsetsMap.containsKey(annotationSetRefListOffset)) {
+            return annotationSetRefListOffsetsMap.get(annotationSetRefListOffset, annotationSetRefListOffset);
         }
+        return (annotationSetRefListOffset >= 0 && deletedAnnotationSetRefListOffsets.containsKey(annotationSetRefListOffset) ? -1 : annotationSetRefListOffset);
     }
 
     @Override
     public int adjustAnnotationsDirectoryOffset(int annotationsDirectoryOffset) {
-        int index = annotationsDirectoryOffsetsMap.indexOfKey(annotationsDirectoryOffset);
-        if (index < 0) {
-            return (annotationsDirectoryOffset >= 0 && deletedAnnotationsDirectoryOffsets.containsKey(annotationsDirectoryOffset) ? -1 : annotationsDirectoryOffset);
-        } else {
-            return annotationsDirectoryOffsetsMap.valueAt(index);
+        if (annotationsDirectoryOffsetsMap.containsKey(annotationsDirectoryOffset)) {
+            return annotationsDirectoryOffsetsMap.get(annotationsDirectoryOffset, annotationsDirectoryOffset);
         }
+        return (annotationsDirectoryOffset >= 0 && deletedAnnotationsDirectoryOffsets.containsKey(annotationsDirectoryOffset) ? -1 : annotationsDirectoryOffset);
     }
 
     @Override
     public int adjustStaticValuesOffset(int staticValuesOffset) {
-        int index = staticValuesOffsetsMap.indexOfKey(staticValuesOffset);
-        if (index < 0) {
-            return (staticValuesOffset >= 0 && deletedStaticValuesOffsets.containsKey(staticValuesOffset) ? -1 : staticValuesOffset);
-        } else {
-            return staticValuesOffsetsMap.valueAt(index);
+        if (staticValuesOffsetsMap.containsKey(staticValuesOffset)) {
+            return staticValuesOffsetsMap.get(staticValuesOffset, staticValuesOffset);
         }
+        return (staticValuesOffset >= 0 && deletedStaticValuesOffsets.containsKey(staticValuesOffset) ? -1 : staticValuesOffset);
     }
 
     @Override
     public int adjustClassDataOffset(int classDataOffset) {
-        int index = classDataOffsetsMap.indexOfKey(classDataOffset);
-        if (index < 0) {
-            return (classDataOffset >= 0 && deletedClassDataOffsets.containsKey(classDataOffset) ? -1 : classDataOffset);
-        } else {
-            return classDataOffsetsMap.valueAt(index);
+        if (classDataOffsetsMap.containsKey(classDataOffset)) {
+            return classDataOffsetsMap.get(classDataOffset, classDataOffset);
         }
+        return (classDataOffset >= 0 && deletedClassDataOffsets.containsKey(classDataOffset) ? -1 : classDataOffset);
     }
 
     @Override
     public int adjustDebugInfoItemOffset(int debugInfoItemOffset) {
-        int index = debugInfoItemOffsetsMap.indexOfKey(debugInfoItemOffset);
-        if (index < 0) {
-            return (debugInfoItemOffset >= 0 && deletedDebugInfoItemOffsets.containsKey(debugInfoItemOffset) ? -1 : debugInfoItemOffset);
-        } else {
-            return debugInfoItemOffsetsMap.valueAt(index);
+        if (debugInfoItemOffsetsMap.containsKey(debugInfoItemOffset)) {
+            return debugInfoItemOffsetsMap.get(debugInfoItemOffset, debugInfoItemOffset);
         }
+        return (debugInfoItemOffset >= 0 && deletedDebugInfoItemOffsets.containsKey(debugInfoItemOffset) ? -1 : debugInfoItemOffset);
     }
 
     @Override
     public int adjustCodeOffset(int codeOffset) {
-        int index = codeOffsetsMap.indexOfKey(codeOffset);
-        if (index < 0) {
-            return (codeOffset >= 0 && deletedCodeOffsets.containsKey(codeOffset) ? -1 : codeOffset);
-        } else {
-            return codeOffsetsMap.valueAt(index);
+        if (codeOffsetsMap.containsKey(codeOffset)) {
+            return codeOffsetsMap.get(codeOffset, codeOffset);
         }
+        return (codeOffset >= 0 && deletedCodeOffsets.containsKey(codeOffset) ? -1 : codeOffset);
     }
 }
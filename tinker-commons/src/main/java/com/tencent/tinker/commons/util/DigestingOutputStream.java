@@ -0,0 +1,95 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Computes the MD5 and CRC32 of everything written through it, so a freshly written file can
+ * be verified without reading it back.
+ *
+ * The digests only cover what reached this stream, callers must close (or flush) the underlying
+ * stream successfully before trusting them.
+ */
+public class DigestingOutputStream extends FilterOutputStream {
+    private final MessageDigest md5;
+    private final CRC32         crc32;
+    private       long          byteCount;
+
+    public DigestingOutputStream(OutputStream out) {
+        super(out);
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        crc32 = new CRC32();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        md5.update((byte) b);
+        crc32.update(b);
+        byteCount++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        md5.update(b, off, len);
+        crc32.update(b, off, len);
+        byteCount += len;
+    }
+
+    /**
+     * @return lower case hex MD5 of the bytes written so far, in the format of
+     * SharePatchFileUtil.getMD5
+     */
+    public String getMd5() {
+        byte[] digest;
+        try {
+            digest = ((MessageDigest) md5.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        return toHex(digest);
+    }
+
+    public long getCrc32() {
+        return crc32.getValue();
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
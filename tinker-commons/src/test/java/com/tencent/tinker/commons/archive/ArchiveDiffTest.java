@@ -0,0 +1,386 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.archive;
+
+import com.tencent.tinker.bsdiff.BlockCodecs;
+import com.tencent.tinker.commons.util.DigestingOutputStream;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipEntry;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipOutputStream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchiveDiffTest {
+    private static final int[] LEVELS = {1, 6, 9};
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final List<DeflateParameters> incompatibleParameters = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        ArchivePatch.setListener(null);
+    }
+
+    @Test
+    public void testRoundTripIsByteIdentical() throws IOException {
+        for (int level : LEVELS) {
+            Random random = new Random(level);
+            File oldFile = createZip("old" + level + ".zip", level, createEntries(random, null));
+            File newFile = createZip("new" + level + ".zip", level, createEntries(random, readZip(oldFile)));
+            File diffFile = tempFolder.newFile("diff" + level);
+            assertTrue(ArchiveDiff.bsdiff(oldFile, newFile, diffFile, BlockCodecs.GZIP, null));
+            assertTrue(ArchivePatch.isArchivePatch(diffFile));
+            assertPatches(oldFile, newFile, diffFile);
+        }
+    }
+
+    @Test
+    public void testRoundTripWithFastDiff() throws IOException {
+        Random random = new Random(42);
+        File oldFile = createZip("old.zip", 6, createEntries(random, null));
+        File newFile = createZip("new.zip", 6, createEntries(random, readZip(oldFile)));
+        File diffFile = tempFolder.newFile("diff");
+        assertTrue(ArchiveDiff.bsdiff(oldFile, newFile, diffFile, BlockCodecs.LZ4, null, 1, false));
+        assertPatches(oldFile, newFile, diffFile);
+    }
+
+    @Test
+    public void testIncompatibleZlibUsesFallback() throws IOException {
+        Random random = new Random(7);
+        File oldFile = createZip("old.zip", 6, createEntries(random, null));
+        File newFile = createZip("new.zip", 6, createEntries(random, readZip(oldFile)));
+        File diffFile = tempFolder.newFile("diff");
+        assertTrue(ArchiveDiff.bsdiff(oldFile, newFile, diffFile, BlockCodecs.GZIP, null));
+        tamperFingerprint(diffFile);
+        ArchivePatch.setListener(new ArchivePatch.Listener() {
+            @Override
+            public void onDeflateIncompatible(DeflateParameters parameters, boolean hasFallback) {
+                assertTrue(hasFallback);
+                incompatibleParameters.add(parameters);
+            }
+        });
+
+        assertPatches(oldFile, newFile, diffFile);
+        assertEquals(3, incompatibleParameters.size());
+    }
+
+    @Test
+    public void testIncompatibleZlibWithoutFallbackFails() throws IOException {
+        Random random = new Random(8);
+        File oldFile = createZip("old.zip", 9, createEntries(random, null));
+        File newFile = createZip("new.zip", 9, createEntries(random, readZip(oldFile)));
+        File withFallback = tempFolder.newFile("withFallback");
+        File diffFile = tempFolder.newFile("diff");
+        assertTrue(ArchiveDiff.bsdiff(oldFile, newFile, withFallback, BlockCodecs.GZIP, null));
+        assertTrue(ArchiveDiff.bsdiff(oldFile, newFile, diffFile, BlockCodecs.GZIP, null, 0, false));
+        assertTrue(diffFile.length() < withFallback.length());
+        assertPatches(oldFile, newFile, diffFile);
+
+        tamperFingerprint(diffFile);
+        try {
+            patchFast(oldFile, diffFile);
+            fail("patched with an incompatible zlib");
+        } catch (DeflateIncompatibleException e) {
+            // expected
+        }
+        try {
+            ArchivePatch.patchMapped(oldFile, diffFile, new ByteArrayOutputStream());
+            fail("patched with an incompatible zlib");
+        } catch (DeflateIncompatibleException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTamperedPlanIsRejected() throws IOException {
+        Random random = new Random(9);
+        File oldFile = createZip("old.zip", 6, createEntries(random, null));
+        File newFile = createZip("new.zip", 6, createEntries(random, readZip(oldFile)));
+        File diffFile = tempFolder.newFile("diff");
+        assertTrue(ArchiveDiff.bsdiff(oldFile, newFile, diffFile, BlockCodecs.GZIP, null));
+        byte[] diff = readFile(diffFile);
+        ArchivePatchPlan plan = ArchivePatchPlan.read(new ByteArrayInputStream(diff));
+        int oldRangesOffset = ArchivePatchPlan.MAGIC_BYTES.length + 8;
+        int newRangesOffset = oldRangesOffset + plan.oldRanges.size() * 24 + 4;
+        int fingerprintsOffset = newRangesOffset + plan.newRanges.size() * 20 + 4;
+        int lengthsOffset = fingerprintsOffset + plan.fingerprints.size() * 16 + 8;
+
+        // version
+        assertRejected(oldFile, tamper(diff, ArchivePatchPlan.MAGIC_BYTES.length, 3));
+        // old range past the end of the old file
+        assertRejected(oldFile, tamper(diff, oldRangesOffset, oldFile.length()));
+        // new range longer than an int
+        assertRejected(oldFile, tamper(diff, newRangesOffset + 8, 1L << 40));
+        // overlapping new ranges
+        assertRejected(oldFile, tamper(diff, newRangesOffset + 20, plan.newRanges.get(0).offset));
+        // deflate parameters without fingerprint
+        assertRejected(oldFile, tamper(diff, newRangesOffset + 16, (long) new DeflateParameters(9, Deflater.HUFFMAN_ONLY, true).toInt() << 32));
+        // truncated payload
+        assertRejected(oldFile, tamper(diff, lengthsOffset, diff.length));
+    }
+
+    @Test
+    public void testPlainZipsAreNotArchiveDiffed() throws IOException {
+        File oldFile = tempFolder.newFile("old.so");
+        File newFile = tempFolder.newFile("new.so");
+        writeFile(oldFile, new byte[100]);
+        writeFile(newFile, new byte[200]);
+        assertFalse(ArchiveDiff.bsdiff(oldFile, newFile, tempFolder.newFile("diff"), BlockCodecs.GZIP, null));
+
+        Map<String, byte[]> stored = new LinkedHashMap<>();
+        stored.put("a", new byte[1000]);
+        File oldZip = createZip("old.zip", ZipEntry.STORED, stored);
+        File newZip = createZip("new.zip", ZipEntry.STORED, stored);
+        assertFalse(ArchiveDiff.bsdiff(oldZip, newZip, tempFolder.newFile("diff2"), BlockCodecs.GZIP, null));
+    }
+
+    private void assertPatches(File oldFile, File newFile, File diffFile) throws IOException {
+        byte[] expected = readFile(newFile);
+        assertArrayEquals(expected, patchFast(oldFile, diffFile));
+
+        ByteArrayOutputStream mappedOut = new ByteArrayOutputStream();
+        ArchivePatch.patchMapped(oldFile, diffFile, mappedOut);
+        assertArrayEquals(expected, mappedOut.toByteArray());
+
+        DigestingOutputStream digestOut = new DigestingOutputStream(new ByteArrayOutputStream());
+        digestOut.write(expected);
+        ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+        TinkerZipOutputStream zipOut = new TinkerZipOutputStream(zipBytes);
+        zipOut.setEntryDigestEnabled(true);
+        TinkerZipEntry entry = new TinkerZipEntry("res/raw/patched.zip");
+        InputStream oldIn = new FileInputStream(oldFile);
+        InputStream diffIn = new FileInputStream(diffFile);
+        try {
+            assertTrue(ArchivePatch.patchFastToZipEntry(oldIn, diffIn, entry, digestOut.getCrc32(), digestOut.getMd5(), zipOut));
+        } finally {
+            oldIn.close();
+            diffIn.close();
+        }
+        zipOut.close();
+        Map<String, byte[]> entries = readZip(zipBytes.toByteArray());
+        assertArrayEquals(expected, entries.get(entry.getName()));
+    }
+
+    private void assertRejected(File oldFile, byte[] diff) throws IOException {
+        File diffFile = tempFolder.newFile();
+        writeFile(diffFile, diff);
+        try {
+            patchFast(oldFile, diffFile);
+            fail("tampered plan is accepted");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            ArchivePatch.patchMapped(oldFile, diffFile, new ByteArrayOutputStream());
+            fail("tampered plan is accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] patchFast(File oldFile, File diffFile) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream oldIn = new FileInputStream(oldFile);
+        InputStream diffIn = new FileInputStream(diffFile);
+        try {
+            ArchivePatch.patchFast(oldIn, diffIn, out);
+        } finally {
+            oldIn.close();
+            diffIn.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Pretend the patch is built by a zlib which deflates differently.
+     */
+    private static void tamperFingerprint(File diffFile) throws IOException {
+        ArchivePatchPlan plan;
+        InputStream in = new FileInputStream(diffFile);
+        try {
+            plan = ArchivePatchPlan.read(in);
+        } finally {
+            in.close();
+        }
+        int fingerprintsOffset = ArchivePatchPlan.MAGIC_BYTES.length + 8 + plan.oldRanges.size() * 24 + 4
+            + plan.newRanges.size() * 20 + 4;
+        RandomAccessFile raf = new RandomAccessFile(diffFile, "rw");
+        try {
+            raf.seek(fingerprintsOffset + 4);
+            long crc = raf.readLong();
+            raf.seek(fingerprintsOffset + 4);
+            raf.writeLong(crc ^ 1);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] tamper(byte[] data, int offset, long value) {
+        byte[] result = data.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(result);
+        if (offset == ArchivePatchPlan.MAGIC_BYTES.length) {
+            buffer.putInt(offset, (int) value);
+        } else {
+            buffer.putLong(offset, value);
+        }
+        return result;
+    }
+
+    /**
+     * Text like entries which compress well, plus a stored one. With base set, the entries are
+     * small edits of base and one entry is added.
+     */
+    private static Map<String, byte[]> createEntries(Random random, Map<String, byte[]> base) {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        if (base == null) {
+            for (int i = 0; i < 4; i++) {
+                entries.put("res/layout/file" + i + ".xml", createText(random, 2000 + random.nextInt(20000)));
+            }
+            entries.put("assets/random.bin", createRandom(random, 3000));
+        } else {
+            for (Map.Entry<String, byte[]> entry : base.entrySet()) {
+                byte[] data = entry.getValue().clone();
+                for (int i = 0; i < 5; i++) {
+                    data[random.nextInt(data.length)] = (byte) ('a' + random.nextInt(26));
+                }
+                entries.put(entry.getKey(), data);
+            }
+            entries.put("res/layout/added.xml", createText(random, 5000));
+        }
+        return entries;
+    }
+
+    private static byte[] createText(Random random, int size) {
+        String[] words = {"<LinearLayout", "android:layout_width", "=\"match_parent\"", "/>", "\n", "    ",
+            "<TextView", "android:id=\"@+id/title\"", "tinker", "</LinearLayout>"};
+        StringBuilder text = new StringBuilder();
+        while (text.length() < size) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return text.substring(0, size).getBytes();
+    }
+
+    private static byte[] createRandom(Random random, int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private File createZip(String name, int level, Map<String, byte[]> entries) throws IOException {
+        File file = tempFolder.newFile(name);
+        ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            if (level == ZipEntry.STORED) {
+                zipOut.setMethod(ZipOutputStream.STORED);
+            } else {
+                zipOut.setLevel(level);
+            }
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                byte[] data = entry.getValue();
+                if (level == ZipEntry.STORED || entry.getKey().endsWith(".bin")) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(data.length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                zipOut.putNextEntry(zipEntry);
+                zipOut.write(data);
+                zipOut.closeEntry();
+            }
+        } finally {
+            zipOut.close();
+        }
+        return file;
+    }
+
+    private static Map<String, byte[]> readZip(File file) throws IOException {
+        return readZip(readFile(file));
+    }
+
+    private static Map<String, byte[]> readZip(byte[] zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(zip));
+        try {
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = zipIn.read(buffer)) > 0) {
+                    out.write(buffer, 0, count);
+                }
+                entries.put(entry.getName(), out.toByteArray());
+            }
+        } finally {
+            zipIn.close();
+        }
+        return entries;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.archive;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchivePatchPlanTest {
+
+    @Test
+    public void testWriteRead() throws IOException {
+        ArchivePatchPlan plan = createPlan();
+        byte[] bytes = write(plan);
+        assertEquals(plan.getByteSize(), bytes.length);
+        assertTrue(ArchivePatchPlan.isArchivePatch(bytes));
+
+        ArchivePatchPlan read = ArchivePatchPlan.read(new ByteArrayInputStream(bytes));
+        assertEquals(2, read.oldRanges.size());
+        assertEquals(100, read.oldRanges.get(1).offset);
+        assertEquals(50, read.oldRanges.get(1).length);
+        assertEquals(400, read.oldRanges.get(1).size);
+        assertEquals(2, read.newRanges.size());
+        assertEquals(plan.newRanges.get(1).parameters, read.newRanges.get(1).parameters);
+        assertEquals(2, read.fingerprints.size());
+        assertEquals(1000, read.newSize);
+        assertEquals(77, read.payloadLength);
+        assertEquals(88, read.fallbackLength);
+        assertNull(read.findIncompatibleParameters());
+    }
+
+    @Test
+    public void testFingerprintIsStable() {
+        int parameters = new DeflateParameters(6, Deflater.DEFAULT_STRATEGY, true).toInt();
+        DeflateCompatibility.Fingerprint fingerprint = DeflateCompatibility.fingerprint(parameters);
+        assertTrue(fingerprint.length > 0);
+        assertTrue(fingerprint.matches(new DeflateCompatibility.Fingerprint(parameters, fingerprint.crc, fingerprint.length)));
+        int otherParameters = new DeflateParameters(1, Deflater.DEFAULT_STRATEGY, true).toInt();
+        assertTrue(!fingerprint.matches(DeflateCompatibility.fingerprint(otherParameters)));
+    }
+
+    @Test
+    public void testIncompatibleFingerprint() throws IOException {
+        ArchivePatchPlan plan = createPlan();
+        DeflateCompatibility.Fingerprint fingerprint = plan.fingerprints.get(1);
+        plan.fingerprints.set(1, new DeflateCompatibility.Fingerprint(fingerprint.parameters, fingerprint.crc, fingerprint.length + 1));
+        ArchivePatchPlan read = ArchivePatchPlan.read(new ByteArrayInputStream(write(plan)));
+        assertEquals(DeflateParameters.fromInt(fingerprint.parameters), read.findIncompatibleParameters());
+    }
+
+    @Test
+    public void testCorruptedPlanIsRejected() throws IOException {
+        byte[] bytes = write(createPlan());
+        int oldRangesOffset = ArchivePatchPlan.MAGIC_BYTES.length + 8;
+        int newRangesOffset = oldRangesOffset + 2 * 24 + 4;
+        int fingerprintsOffset = newRangesOffset + 2 * 20 + 4;
+        int lengthsOffset = fingerprintsOffset + 2 * 16;
+
+        assertRejected(bytes, 0, 0);
+        assertRejected(bytes, ArchivePatchPlan.MAGIC_BYTES.length, 1);
+        // negative old range count
+        assertRejected(bytes, oldRangesOffset - 4, -1);
+        // unsorted old ranges
+        assertRejected(bytes, oldRangesOffset + 24 + 4, 0);
+        // negative inflated size
+        assertRejected(bytes, oldRangesOffset + 16, -1);
+        // bad deflate parameters of a fingerprint
+        assertRejected(bytes, fingerprintsOffset, 0x7f);
+        // fingerprints do not cover the new ranges
+        assertRejected(bytes, fingerprintsOffset - 4, 1);
+        // empty payload
+        assertRejected(bytes, lengthsOffset + 8 + 4, 0);
+        // negative fallback
+        assertRejected(bytes, lengthsOffset + 16, -1);
+        // truncated
+        try {
+            ArchivePatchPlan.read(new ByteArrayInputStream(bytes, 0, bytes.length - 1));
+            fail("truncated plan is accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void assertRejected(byte[] bytes, int offset, int value) {
+        byte[] tampered = bytes.clone();
+        ByteBuffer.wrap(tampered).putInt(offset, value);
+        try {
+            ArchivePatchPlan.read(new ByteArrayInputStream(tampered));
+            fail("corrupted plan is accepted, offset " + offset);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static ArchivePatchPlan createPlan() {
+        ArchivePatchPlan plan = new ArchivePatchPlan();
+        plan.oldRanges.add(new ArchivePatchPlan.Range(10, 20, 300, 0));
+        plan.oldRanges.add(new ArchivePatchPlan.Range(100, 50, 400, 0));
+        plan.newRanges.add(new ArchivePatchPlan.Range(10, 300, 300, new DeflateParameters(6, Deflater.DEFAULT_STRATEGY, true).toInt()));
+        plan.newRanges.add(new ArchivePatchPlan.Range(400, 200, 200, new DeflateParameters(9, Deflater.FILTERED, true).toInt()));
+        plan.addFingerprints();
+        plan.newSize = 1000;
+        plan.payloadLength = 77;
+        plan.fallbackLength = 88;
+        return plan;
+    }
+
+    private static byte[] write(ArchivePatchPlan plan) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        plan.write(out);
+        return out.toByteArray();
+    }
+}
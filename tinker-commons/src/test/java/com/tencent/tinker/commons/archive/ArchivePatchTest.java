@@ -0,0 +1,164 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.archive;
+
+import com.tencent.tinker.bsdiff.BSDiff;
+import com.tencent.tinker.commons.util.DigestingOutputStream;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipEntry;
+import com.tencent.tinker.ziputils.ziputil.TinkerZipOutputStream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchivePatchTest {
+    private static final String ENTRY_NAME = "resources.arsc";
+
+    @Test
+    public void testPatchToZipEntry() throws IOException {
+        Random random = new Random(1);
+        for (int size : new int[]{0, 1, 1000, 300 * 1024}) {
+            byte[] oldBytes = createData(random, size);
+            byte[] newBytes = mutate(random, oldBytes);
+            byte[] diff = BSDiff.bsdiff(oldBytes, oldBytes.length, newBytes, newBytes.length);
+            DigestingOutputStream digest = digest(newBytes);
+
+            ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+            TinkerZipOutputStream zipOut = newZipOutputStream(zipBytes);
+            TinkerZipEntry entry = new TinkerZipEntry(ENTRY_NAME);
+            entry.setTime(1234567890000L);
+            assertTrue(ArchivePatch.patchFastToZipEntry(new ByteArrayInputStream(oldBytes), new ByteArrayInputStream(diff),
+                entry, digest.getCrc32(), digest.getMd5(), zipOut));
+            assertEquals(digest.getCrc32(), zipOut.getLastEntryCrc());
+            zipOut.close();
+
+            ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(zipBytes.toByteArray()));
+            ZipEntry zipEntry = zipIn.getNextEntry();
+            assertEquals(ENTRY_NAME, zipEntry.getName());
+            assertEquals(ZipEntry.STORED, zipEntry.getMethod());
+            assertEquals(newBytes.length, zipEntry.getSize());
+            assertEquals(digest.getCrc32(), zipEntry.getCrc());
+            assertArrayEquals(newBytes, readFully(zipIn));
+            assertNull(zipIn.getNextEntry());
+            zipIn.close();
+        }
+    }
+
+    @Test
+    public void testPatchToZipEntryMismatch() throws IOException {
+        Random random = new Random(2);
+        byte[] oldBytes = createData(random, 10000);
+        byte[] newBytes = mutate(random, oldBytes);
+        byte[] diff = BSDiff.bsdiff(oldBytes, oldBytes.length, newBytes, newBytes.length);
+        DigestingOutputStream digest = digest(newBytes);
+
+        TinkerZipOutputStream zipOut = newZipOutputStream(new ByteArrayOutputStream());
+        assertFalse(ArchivePatch.patchFastToZipEntry(new ByteArrayInputStream(oldBytes), new ByteArrayInputStream(diff),
+            new TinkerZipEntry(ENTRY_NAME), digest.getCrc32(), "0123456789abcdef0123456789abcdef", zipOut));
+
+        zipOut = newZipOutputStream(new ByteArrayOutputStream());
+        try {
+            ArchivePatch.patchFastToZipEntry(new ByteArrayInputStream(oldBytes), new ByteArrayInputStream(diff),
+                new TinkerZipEntry(ENTRY_NAME), digest.getCrc32() ^ 1, digest.getMd5(), zipOut);
+            fail("crc mismatch is not detected");
+        } catch (ZipException e) {
+            // expected
+        }
+
+        // without entry digests neither crc nor md5 could be checked.
+        zipOut = new TinkerZipOutputStream(new ByteArrayOutputStream());
+        try {
+            ArchivePatch.patchFastToZipEntry(new ByteArrayInputStream(oldBytes), new ByteArrayInputStream(diff),
+                new TinkerZipEntry(ENTRY_NAME), digest.getCrc32(), digest.getMd5(), zipOut);
+            fail("entry digests are not required");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPatchToZipEntryCorruptedPatch() throws IOException {
+        Random random = new Random(3);
+        byte[] oldBytes = createData(random, 10000);
+        byte[] newBytes = mutate(random, oldBytes);
+        byte[] diff = BSDiff.bsdiff(oldBytes, oldBytes.length, newBytes, newBytes.length);
+        DigestingOutputStream digest = digest(newBytes);
+        byte[] truncated = new byte[diff.length / 2];
+        System.arraycopy(diff, 0, truncated, 0, truncated.length);
+        try {
+            ArchivePatch.patchFastToZipEntry(new ByteArrayInputStream(oldBytes), new ByteArrayInputStream(truncated),
+                new TinkerZipEntry(ENTRY_NAME), digest.getCrc32(), digest.getMd5(), newZipOutputStream(new ByteArrayOutputStream()));
+            fail("truncated patch is applied");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static TinkerZipOutputStream newZipOutputStream(ByteArrayOutputStream out) {
+        TinkerZipOutputStream zipOut = new TinkerZipOutputStream(out);
+        zipOut.setEntryDigestEnabled(true);
+        return zipOut;
+    }
+
+    private static DigestingOutputStream digest(byte[] data) throws IOException {
+        DigestingOutputStream digest = new DigestingOutputStream(new ByteArrayOutputStream());
+        digest.write(data);
+        return digest;
+    }
+
+    private static byte[] createData(Random random, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) random.nextInt(16);
+        }
+        return data;
+    }
+
+    private static byte[] mutate(Random random, byte[] data) {
+        byte[] result = new byte[data.length + 1 + random.nextInt(100)];
+        System.arraycopy(data, 0, result, 0, data.length);
+        for (int i = 0; i < result.length / 100 + 1; i++) {
+            result[random.nextInt(result.length)] = (byte) random.nextInt(256);
+        }
+        return result;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
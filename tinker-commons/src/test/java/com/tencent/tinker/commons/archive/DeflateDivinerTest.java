@@ -0,0 +1,114 @@
+/*
+ * Tencent is pleased to support the open source community by making Tinker available.
+ *
+ * Copyright (C) 2016 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tencent.tinker.commons.archive;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class DeflateDivinerTest {
+    private static final int[] STRATEGIES = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY};
+
+    @Test
+    public void testDivineReproducesEveryLevel() throws IOException {
+        byte[] data = createData(new Random(1), 50000);
+        for (int strategy : STRATEGIES) {
+            for (int level = Deflater.BEST_SPEED; level <= Deflater.BEST_COMPRESSION; level++) {
+                byte[] compressed = deflate(new DeflateParameters(level, strategy, true), data);
+                byte[] padded = new byte[compressed.length + 20];
+                System.arraycopy(compressed, 0, padded, 10, compressed.length);
+
+                DeflateParameters divined = DeflateDiviner.divine(padded, 10, compressed.length, data, true);
+                assertNotNull("level " + level + ", strategy " + strategy, divined);
+                // levels may share their output, the parameters found must reproduce it anyway.
+                assertArrayEquals(compressed, deflate(divined, data));
+                assertArrayEquals(data, DeflateDiviner.inflate(padded, 10, compressed.length, data.length, true));
+            }
+        }
+    }
+
+    @Test
+    public void testDivineEmptyAndWrapped() throws IOException {
+        byte[] compressed = deflate(new DeflateParameters(6, Deflater.DEFAULT_STRATEGY, true), new byte[0]);
+        assertNotNull(DeflateDiviner.divine(compressed, 0, compressed.length, new byte[0], true));
+        assertArrayEquals(new byte[0], DeflateDiviner.inflate(compressed, 0, compressed.length, 0, true));
+
+        byte[] data = createData(new Random(2), 3000);
+        compressed = deflate(new DeflateParameters(9, Deflater.DEFAULT_STRATEGY, false), data);
+        assertNotNull(DeflateDiviner.divine(compressed, 0, compressed.length, data, false));
+        assertArrayEquals(data, DeflateDiviner.inflate(compressed, 0, compressed.length, data.length, false));
+    }
+
+    @Test
+    public void testDivineUnknownStream() throws IOException {
+        byte[] data = createData(new Random(3), 10000);
+        byte[] compressed = deflate(new DeflateParameters(6, Deflater.DEFAULT_STRATEGY, true), data);
+        // the stream does not come from data.
+        byte[] other = data.clone();
+        other[5000] ^= 1;
+        assertNull(DeflateDiviner.divine(compressed, 0, compressed.length, other, true));
+
+        byte[] garbage = new byte[1000];
+        new Random(4).nextBytes(garbage);
+        assertNull(DeflateDiviner.divine(garbage, 0, garbage.length, data, true));
+    }
+
+    @Test
+    public void testInflateRejectsBadStreams() throws IOException {
+        byte[] data = createData(new Random(5), 10000);
+        byte[] compressed = deflate(new DeflateParameters(6, Deflater.DEFAULT_STRATEGY, true), data);
+        assertInflateFails(compressed, compressed.length / 2, data.length);
+        assertInflateFails(compressed, compressed.length, data.length - 1);
+        assertInflateFails(compressed, compressed.length, data.length + 1);
+        byte[] garbage = Arrays.copyOf(compressed, compressed.length);
+        garbage[0] = (byte) 0xff;
+        assertInflateFails(garbage, garbage.length, data.length);
+    }
+
+    private static void assertInflateFails(byte[] compressed, int length, int size) {
+        try {
+            DeflateDiviner.inflate(compressed, 0, length, size, true);
+            fail("bad deflate stream is inflated");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] deflate(DeflateParameters parameters, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parameters.deflate(data, 0, data.length, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] createData(Random random, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = random.nextInt(4) == 0 ? (byte) random.nextInt(256) : (byte) ('a' + random.nextInt(6));
+        }
+        return data;
+    }
+}